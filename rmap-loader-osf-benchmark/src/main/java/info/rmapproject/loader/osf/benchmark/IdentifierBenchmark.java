@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import info.rmapproject.loader.osf.transformer.TransformUtils;
+
+/**
+ * Measures the identifier checks and normalizers in TransformUtils against mixes of the formats seen in OSF 
+ * records. Each invocation runs over a whole mix, results are reported per identifier.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class IdentifierBenchmark {
+
+	private static final int MIX_SIZE = 16;
+
+	/** DOIs in each of the accepted forms */
+	private final String[] dois = {
+			"10.17605/OSF.IO/ABC12", "doi:10.17605/OSF.IO/DEF34", "https://doi.org/10.1371/journal.pone.0123456",
+			"http://doi.org/10.1016/j.cell.2017.05.012", "http://dx.doi.org/10.1038/nature12373", 
+			"https://dx.doi.org/10.1126/science.aac4716", " 10.5281/zenodo.123456 ", "10.17605/OSF.IO/GHJ56",
+			"doi:10.1093/nar/gkw1099", "https://doi.org/10.7554/eLife.12345", "10.1002/anie.201700001",
+			"http://dx.doi.org/10.1145/3035918.3064029", "10.31234/osf.io/km37w", "doi:10.31219/osf.io/xyz98",
+			"https://doi.org/10.17605/OSF.IO/MNP78", "10.1186/s13059-017-1234-5"};
+
+	/** DOIs mixed with values that are not DOIs */
+	private final String[] doiCandidates = {
+			"10.17605/OSF.IO/ABC12", "ark:/c7605/osf.io/abc12", "https://doi.org/", "doi:10.1093/nar/gkw1099",
+			"not a doi", "https://osf.io/abc12/", "http://dx.doi.org/10.1038/nature12373", "10.1002 anie.201700001",
+			"PMC5432101", "https://doi.org/10.7554/eLife.12345", "doi:", "urn:issn:1234-5678",
+			"10.31234/osf.io/km37w", "http://example.org/10.1000/xyz", "12345678", "https://dx.doi.org/10.1126/science.aac4716"};
+
+	/** ISSNs in the formats found in metadata, including some that cannot be normalized */
+	private final String[] issns = {
+			"1234-5678", "12345678", "1234-567x", "ISSN 1234-5678", "issn:0028-0836", "eISSN-1476-4687",
+			"urn:issn:0036-8075", "ISSN: 1095-9203", "0092-8674", "EISSN:1097-4172", "1234 5678", "not an issn",
+			"2041-1723", "1932-6203", "ISSN-0140-6736", "123-45678"};
+
+	/** ISBN-10 and ISBN-13 in the formats found in metadata, including some that cannot be normalized */
+	private final String[] isbns = {
+			"978-3-16-148410-0", "9783161484100", "0-306-40615-2", "0306406152", "ISBN 978-0-306-40615-7",
+			"isbn:0-19-852663-6", "urn:isbn:9780198526636", "ISBN-13: 978-1-4028-9462-6", "1-4028-9462-7",
+			"978 0 19 852663 6", "not an isbn", "ISBN:080442957X", "080442957x", "97816148410", "978-1-56619-909-4",
+			"1-56619-909-3"};
+
+	@Benchmark
+	@OperationsPerInvocation(MIX_SIZE)
+	public void isDoi(Blackhole blackhole) {
+		for (String candidate : doiCandidates) {
+			blackhole.consume(TransformUtils.isDoi(candidate));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MIX_SIZE)
+	public void normalizeDoi(Blackhole blackhole) {
+		for (String doi : dois) {
+			blackhole.consume(TransformUtils.normalizeDoi(doi));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MIX_SIZE)
+	public void issnFormatter(Blackhole blackhole) {
+		for (String issn : issns) {
+			blackhole.consume(TransformUtils.issnFormatter(issn));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MIX_SIZE)
+	public void isbnFormatter(Blackhole blackhole) {
+		for (String isbn : isbns) {
+			blackhole.consume(TransformUtils.isbnFormatter(isbn));
+		}
+	}
+
+}
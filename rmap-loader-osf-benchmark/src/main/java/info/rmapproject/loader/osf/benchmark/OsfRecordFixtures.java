@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import info.rmapproject.cos.osf.client.model.Category;
+import info.rmapproject.cos.osf.client.model.Contributor;
+import info.rmapproject.cos.osf.client.model.Identifier;
+import info.rmapproject.cos.osf.client.model.Institution;
+import info.rmapproject.cos.osf.client.model.Node;
+import info.rmapproject.cos.osf.client.model.Registration;
+import info.rmapproject.cos.osf.client.model.User;
+
+/**
+ * Builds synthetic OSF records for benchmarks. Records are generated from a shape so that runs are repeatable
+ * and cover both typical and extreme cases:
+ * <ul>
+ * <li>small - a single node with one contributor and one identifier</li>
+ * <li>realistic - a project with 8 contributors, DOI and ARK identifiers and 3 components</li>
+ * <li>wide - a single node with 2000 contributors</li>
+ * <li>deep - a component tree 6 levels deep with 3 children per node (364 nodes)</li>
+ * </ul>
+ */
+public class OsfRecordFixtures {
+
+	public static final String SMALL = "small";
+
+	public static final String REALISTIC = "realistic";
+
+	public static final String WIDE = "wide";
+
+	public static final String DEEP = "deep";
+
+	private static final Category[] CATEGORIES = Category.values();
+
+	/**
+	 * Creates a node of the shape requested
+	 * @param shape
+	 * @return the node
+	 */
+	public static Node node(String shape) {
+		Counter ids = new Counter();
+		switch (shape) {
+		case SMALL :
+			return node(ids, 1, 1, 0, 0);
+		case REALISTIC :
+			return node(ids, 8, 2, 1, 3);
+		case WIDE :
+			return node(ids, 2000, 2, 0, 0);
+		case DEEP :
+			return node(ids, 3, 2, 5, 3);
+		default :
+			throw new IllegalArgumentException("Unknown record shape: " + shape);
+		}
+	}
+
+	/**
+	 * Creates a registration of the shape requested
+	 * @param shape
+	 * @return the registration
+	 */
+	public static Registration registration(String shape) {
+		Counter ids = new Counter();
+		switch (shape) {
+		case SMALL :
+			return registration(ids, 1, 1, 0, 0);
+		case REALISTIC :
+			return registration(ids, 8, 2, 1, 3);
+		case WIDE :
+			return registration(ids, 2000, 2, 0, 0);
+		case DEEP :
+			return registration(ids, 3, 2, 5, 3);
+		default :
+			throw new IllegalArgumentException("Unknown record shape: " + shape);
+		}
+	}
+
+	/**
+	 * Creates a user of the shape requested. Users have no children or contributors, so realistic has every profile 
+	 * link and 3 institutions, wide and deep have 200 institutions.
+	 * @param shape
+	 * @return the user
+	 */
+	public static User user(String shape) {
+		switch (shape) {
+		case SMALL :
+			return user(false, 0);
+		case REALISTIC :
+			return user(true, 3);
+		case WIDE :
+		case DEEP :
+			return user(true, 200);
+		default :
+			throw new IllegalArgumentException("Unknown record shape: " + shape);
+		}
+	}
+
+	private static Node node(Counter ids, int contributors, int identifiers, int depth, int childrenPerNode) {
+		Node node = new Node();
+		int n = ids.next();
+		node.setId(osfId(n));
+		node.setTitle("Synthetic project " + n + " for transformer benchmarks");
+		node.setDescription(description(n));
+		node.setCategory(CATEGORIES[n % CATEGORIES.length]);
+		node.setForked_from(n % 5 == 0 ? "https://api.osf.io/v2/nodes/" + osfId(n + 100000) + "/" : null);
+		node.setContributors(contributors(contributors, n));
+		node.setIdentifiers(identifiers(identifiers, n));
+		if (depth > 0) {
+			List<Node> children = new ArrayList<Node>();
+			for (int i = 0; i < childrenPerNode; i++) {
+				children.add(node(ids, contributors, 0, depth - 1, childrenPerNode));
+			}
+			node.setChildren(children);
+		}
+		return node;
+	}
+
+	private static Registration registration(Counter ids, int contributors, int identifiers, int depth, int childrenPerNode) {
+		Registration registration = new Registration();
+		int n = ids.next();
+		registration.setId(osfId(n));
+		registration.setTitle("Synthetic registration " + n + " for transformer benchmarks");
+		registration.setDescription(description(n));
+		registration.setCategory(CATEGORIES[n % CATEGORIES.length]);
+		registration.setRegistered_from("https://api.osf.io/v2/nodes/" + osfId(n + 200000) + "/");
+		registration.setContributors(contributors(contributors, n));
+		registration.setIdentifiers(identifiers(identifiers, n));
+		if (depth > 0) {
+			List<Registration> children = new ArrayList<Registration>();
+			for (int i = 0; i < childrenPerNode; i++) {
+				children.add(registration(ids, contributors, 0, depth - 1, childrenPerNode));
+			}
+			registration.setChildren(children);
+		}
+		return registration;
+	}
+
+	private static User user(boolean profiles, int institutions) {
+		User user = new User();
+		user.setId(osfId(1));
+		user.setGiven_name("Ada");
+		user.setMiddle_names("Maria");
+		user.setFamily_name("Synthetic");
+		user.setFull_name("Ada Maria Synthetic");
+		user.setSuffix("Jr.");
+		if (profiles) {
+			user.setAcademiaProfileId("AdaSynthetic");
+			user.setAcademicaInstitution("jhu");
+			user.setBaiduScholar("1234567");
+			user.setGitHub("adasynthetic");
+			user.setImpactStory("0000-0002-1825-0097");
+			user.setLinkedIn("in/adasynthetic");
+			user.setOrcid("0000-0002-1825-0097");
+			user.setResearcherId("A-1234-2017");
+			user.setResearchGate("Ada_Synthetic");
+			user.setScholar("abcDEF123");
+			user.setTwitter("adasynthetic");
+		}
+		List<Institution> list = new ArrayList<Institution>();
+		for (int i = 0; i < institutions; i++) {
+			Institution institution = new Institution();
+			institution.setId(osfId(300000 + i));
+			institution.setName("Synthetic Institution " + i);
+			list.add(institution);
+		}
+		user.setInstitutions(list);
+		return user;
+	}
+
+	private static List<Contributor> contributors(int count, int n) {
+		List<Contributor> contributors = new ArrayList<Contributor>();
+		for (int i = 0; i < count; i++) {
+			Map<String, Object> links = new HashMap<String, Object>();
+			links.put("self", "https://api.osf.io/v2/nodes/" + osfId(n) + "/contributors/" + osfId(400000 + i) + "/");
+			Contributor contributor = new Contributor();
+			contributor.setLinks(links);
+			contributors.add(contributor);
+		}
+		return contributors;
+	}
+
+	private static List<Identifier> identifiers(int count, int n) {
+		List<Identifier> identifiers = new ArrayList<Identifier>();
+		if (count > 0) {
+			Identifier doi = new Identifier();
+			doi.setCategory("doi");
+			doi.setValue("10.17605/OSF.IO/" + osfId(n).toUpperCase());
+			identifiers.add(doi);
+		}
+		if (count > 1) {
+			Identifier ark = new Identifier();
+			ark.setCategory("ark");
+			ark.setValue("c7605/osf.io/" + osfId(n));
+			identifiers.add(ark);
+		}
+		return identifiers;
+	}
+
+	private static String description(int n) {
+		StringBuilder description = new StringBuilder();
+		for (int i = 0; i < 8; i++) {
+			description.append("Sentence ").append(i).append(" describing synthetic record ").append(n)
+				.append(" with enough text to resemble an abstract. ");
+		}
+		return description.toString();
+	}
+
+	/**
+	 * Generates a 5 character OSF style id from a number
+	 * @param n
+	 * @return the id
+	 */
+	static String osfId(int n) {
+		String chars = "abcdefghjkmnpqrstuvwxyz23456789";
+		StringBuilder id = new StringBuilder();
+		int value = n;
+		for (int i = 0; i < 5; i++) {
+			id.append(chars.charAt(value % chars.length()));
+			value = value / chars.length();
+		}
+		return id.toString();
+	}
+
+	private static class Counter {
+		private int value = 0;
+
+		private int next() {
+			value = value + 1;
+			return value;
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openrdf.model.Model;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.Rio;
+
+import info.rmapproject.loader.osf.transformer.OsfNodeDiscoTransformer;
+import info.rmapproject.loader.osf.transformer.TransformUtils;
+
+/**
+ * Measures serialization of DiSCO models built from OsfRecordFixtures nodes. Turtle goes through 
+ * TransformUtils.generateTurtleRdf as in the transform stage, N-Triples and binary RDF are written with Rio 
+ * directly for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SerializationBenchmark {
+
+	@Param({OsfRecordFixtures.SMALL, OsfRecordFixtures.REALISTIC, OsfRecordFixtures.WIDE, OsfRecordFixtures.DEEP})
+	public String shape;
+
+	private Model model;
+
+	@Setup
+	public void setup() {
+		model = new OsfNodeDiscoTransformer(OsfRecordFixtures.node(shape)).getModel();
+	}
+
+	@Benchmark
+	public OutputStream turtle() {
+		return TransformUtils.generateTurtleRdf(model);
+	}
+
+	@Benchmark
+	public OutputStream nTriples() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Rio.write(model, out, RDFFormat.NTRIPLES);
+		return out;
+	}
+
+	@Benchmark
+	public OutputStream binary() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Rio.write(model, out, RDFFormat.BINARY);
+		return out;
+	}
+
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openrdf.model.Model;
+
+import info.rmapproject.cos.osf.client.model.Node;
+import info.rmapproject.cos.osf.client.model.Registration;
+import info.rmapproject.cos.osf.client.model.User;
+import info.rmapproject.loader.osf.transformer.OsfNodeDiscoTransformer;
+import info.rmapproject.loader.osf.transformer.OsfRegistrationDiscoTransformer;
+import info.rmapproject.loader.osf.transformer.OsfUserDiscoTransformer;
+
+/**
+ * Measures DiSCO model construction from OSF records by each transformer, for each record shape defined in 
+ * OsfRecordFixtures. Records are built once per trial so only the transform is measured. A new transformer is
+ * created for each invocation, as OsfTransformService does for each record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TransformerBenchmark {
+
+	@Param({OsfRecordFixtures.SMALL, OsfRecordFixtures.REALISTIC, OsfRecordFixtures.WIDE, OsfRecordFixtures.DEEP})
+	public String shape;
+
+	private Node node;
+
+	private Registration registration;
+
+	private User user;
+
+	@Setup
+	public void setup() {
+		node = OsfRecordFixtures.node(shape);
+		registration = OsfRecordFixtures.registration(shape);
+		user = OsfRecordFixtures.user(shape);
+	}
+
+	@Benchmark
+	public Model nodeModel() {
+		return new OsfNodeDiscoTransformer(node).getModel();
+	}
+
+	@Benchmark
+	public Model registrationModel() {
+		return new OsfRegistrationDiscoTransformer(registration).getModel();
+	}
+
+	@Benchmark
+	public Model userModel() {
+		return new OsfUserDiscoTransformer(user).getModel();
+	}
+
+}
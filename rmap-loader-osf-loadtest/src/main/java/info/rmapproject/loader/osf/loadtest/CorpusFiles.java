@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.loadtest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import info.rmapproject.loader.osf.loadtest.StubCorpus.StubRecord;
+
+/**
+ * Reads and writes a corpus as gzipped JSON lines, one file per type (nodes.jsonl.gz, registrations.jsonl.gz and
+ * users.jsonl.gz). Each line is the record as the OSF v2 API returns it, with links to api.osf.io. Related records 
+ * are also given as resource linkage in the relationships (children, contributors, institutions, parent, root and 
+ * registered_from) and identifiers are embedded, so a line holds everything needed to serve the record and its
+ * relationships.
+ */
+public class CorpusFiles {
+
+	/** API URL used in the links of written records. */
+	static final String OSF_API_URL = "https://api.osf.io/v2/";
+
+	private static final String SUFFIX = ".jsonl.gz";
+
+	private static final String[] TYPES = {StubCorpus.NODES, StubCorpus.REGISTRATIONS, StubCorpus.USERS};
+
+	/**
+	 * Writes corpus to directory, replacing any corpus files already there
+	 * @param corpus
+	 * @param dir
+	 * @throws IOException
+	 */
+	public static void write(StubCorpus corpus, File dir) throws IOException {
+		dir.mkdirs();
+		ObjectMapper mapper = new ObjectMapper();
+		OsfResources resources = new OsfResources(mapper, corpus);
+		for (String type : TYPES) {
+			File file = new File(dir, type + SUFFIX);
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file), 65536), UTF_8))) {
+				for (StubRecord record : corpus.all(type)) {
+					out.write(mapper.writeValueAsString(toLine(record, resources)));
+					out.write('\n');
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads corpus from directory
+	 * @param dir
+	 * @return the corpus
+	 * @throws IOException
+	 */
+	public static StubCorpus read(File dir) throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		StubCorpus corpus = new StubCorpus();
+		for (String type : TYPES) {
+			File file = new File(dir, type + SUFFIX);
+			if (!file.exists()) {
+				continue;
+			}
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file), 65536), UTF_8))) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (!line.isEmpty()) {
+						corpus.add(fromLine(mapper.readTree(line)));
+					}
+				}
+			}
+		}
+		corpus.index();
+		return corpus;
+	}
+
+	private static ObjectNode toLine(StubRecord record, OsfResources resources) {
+		ObjectNode line = resources.resource(record, OSF_API_URL);
+		ObjectNode relationships = (ObjectNode) line.get("relationships");
+		if (record.type.equals(StubCorpus.USERS)) {
+			linkage(relationships, "institutions", "institutions", record.institution);
+			return line;
+		}
+		ArrayNode children = linkage(relationships, "children");
+		for (String child : record.children) {
+			children.addObject().put("id", child).put("type", record.type);
+		}
+		ArrayNode contributors = linkage(relationships, "contributors");
+		for (String contributor : record.contributors) {
+			contributors.addObject().put("id", contributor).put("type", StubCorpus.USERS);
+		}
+		linkage(relationships, "affiliated_institutions", "institutions", record.institution);
+		if (record.parent != null) {
+			((ObjectNode) relationships.get("parent")).putObject("data").put("id", record.parent).put("type", record.type);
+		}
+		((ObjectNode) relationships.get("root")).putObject("data").put("id", record.root).put("type", record.type);
+		if (record.registeredFrom != null) {
+			((ObjectNode) relationships.get("registered_from")).putObject("data").put("id", record.registeredFrom).put("type", StubCorpus.NODES);
+		}
+		ArrayNode identifiers = line.putObject("embeds").putObject("identifiers").putArray("data");
+		if (record.doi != null) {
+			identifiers.add(resources.identifier(record, "doi", record.doi, OSF_API_URL));
+		}
+		return line;
+	}
+
+	private static ArrayNode linkage(ObjectNode relationships, String relationship) {
+		return ((ObjectNode) relationships.get(relationship)).putArray("data");
+	}
+
+	private static void linkage(ObjectNode relationships, String relationship, String type, String id) {
+		ArrayNode data = linkage(relationships, relationship);
+		if (id != null) {
+			data.addObject().put("id", id).put("type", type);
+		}
+	}
+
+	private static StubRecord fromLine(JsonNode line) {
+		String type = line.get("type").asText();
+		JsonNode attributes = line.get("attributes");
+		JsonNode relationships = line.get("relationships");
+		if (type.equals(StubCorpus.USERS)) {
+			long registered = OsfResources.parseDate(attributes.get("date_registered").asText());
+			StubRecord user = new StubRecord(line.get("id").asText(), type, registered, registered);
+			user.title = attributes.get("full_name").asText();
+			user.orcid = attributes.path("social").path("orcid").textValue();
+			user.twitter = attributes.path("social").path("twitter").textValue();
+			user.institution = firstId(relationships.path("institutions"));
+			return user;
+		}
+		StubRecord record = new StubRecord(line.get("id").asText(), type, 
+				OsfResources.parseDate(attributes.get("date_created").asText()), 
+				OsfResources.parseDate(attributes.get("date_modified").asText()));
+		record.title = attributes.get("title").asText();
+		record.category = attributes.get("category").asText();
+		record.isPublic = attributes.get("public").asBoolean();
+		record.parent = relationships.path("parent").path("data").path("id").textValue();
+		record.root = relationships.path("root").path("data").path("id").asText(record.id);
+		record.registeredFrom = relationships.path("registered_from").path("data").path("id").textValue();
+		record.institution = firstId(relationships.path("affiliated_institutions"));
+		for (JsonNode child : relationships.path("children").path("data")) {
+			record.children.add(child.get("id").asText());
+		}
+		for (JsonNode contributor : relationships.path("contributors").path("data")) {
+			record.contributors.add(contributor.get("id").asText());
+		}
+		for (JsonNode identifier : line.path("embeds").path("identifiers").path("data")) {
+			if (identifier.path("attributes").path("category").asText().equals("doi")) {
+				record.doi = identifier.path("attributes").path("value").asText();
+			}
+		}
+		return record;
+	}
+
+	private static String firstId(JsonNode relationship) {
+		JsonNode data = relationship.path("data");
+		return data.size() > 0 ? data.get(0).path("id").textValue() : null;
+	}
+
+}
@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.loadtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import info.rmapproject.loader.osf.loadtest.StubCorpus.StubRecord;
+
+/**
+ * Generates a synthetic OSF corpus from LoadTestSettings. Nodes are grouped into projects whose sizes follow a
+ * pareto distribution by default, so that a few projects with thousands of components sit among many that are a
+ * single node, as in production. Larger projects also have more contributors, and components take their
+ * contributors from the project. Registrations are registered from random nodes. Users have institutions and
+ * external IDs. The same settings and seed always produce the same records. Dates are relative to the time the
+ * corpus is generated, so they only repeat if loadtest.generatedAt is set.
+ * <p>
+ * Run as a main class to write the corpus to loadtest.corpusDir for later runs, see CorpusFiles.
+ */
+public class CorpusGenerator {
+
+	/** Institution IDs that nodes and users may be affiliated with. */
+	static final String[] INSTITUTIONS = {"cos", "jhu", "ucla", "uva", "nyu", "mit", "ox", "uct"};
+
+	private static final long CREATED_WITHIN_MILLIS = TimeUnit.DAYS.toMillis(3 * 365);
+
+	private static final String[] CATEGORIES = {"data", "analysis", "methods and measures", "software", "procedure", 
+			"instrumentation", "hypothesis", "other"};
+
+	private final LoadTestSettings settings;
+
+	private final Random random;
+
+	private final long now;
+
+	private final StubCorpus corpus = new StubCorpus();
+
+	private final List<Integer> projectSizes = new ArrayList<Integer>();
+
+	/**
+	 * @param settings
+	 */
+	public CorpusGenerator(LoadTestSettings settings) {
+		this.settings = settings;
+		this.random = new Random(settings.seed);
+		this.now = settings.generatedAt;
+	}
+
+	/**
+	 * Writes a generated corpus to the directory set by loadtest.corpusDir
+	 * @param args not used, settings are read from system properties
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		LoadTestSettings settings = new LoadTestSettings();
+		if (settings.corpusDir == null) {
+			System.err.println("Set loadtest.corpusDir to the directory the corpus should be written to");
+			System.exit(1);
+		}
+		CorpusGenerator generator = new CorpusGenerator(settings);
+		StubCorpus corpus = generator.generate();
+		generator.printSummary();
+		File dir = new File(settings.corpusDir);
+		CorpusFiles.write(corpus, dir);
+		System.out.println("Corpus written to " + dir.getAbsolutePath());
+	}
+
+	/**
+	 * @return the generated corpus
+	 */
+	public StubCorpus generate() {
+		generateUsers();
+		generateNodes();
+		generateRegistrations();
+		corpus.index();
+		return corpus;
+	}
+
+	/**
+	 * Prints record counts and how nodes are spread across projects
+	 */
+	public void printSummary() {
+		System.out.println(String.format("Generated %d nodes in %d projects, %d registrations and %d users", 
+				corpus.size(StubCorpus.NODES), projectSizes.size(), corpus.size(StubCorpus.REGISTRATIONS), corpus.size(StubCorpus.USERS)));
+		if (projectSizes.isEmpty()) {
+			return;
+		}
+		List<Integer> sizes = new ArrayList<Integer>(projectSizes);
+		Collections.sort(sizes, Collections.reverseOrder());
+		int topPercent = Math.max(1, sizes.size() / 100);
+		long inTop = 0;
+		for (int i = 0; i < topPercent; i++) {
+			inTop = inTop + sizes.get(i);
+		}
+		long singles = sizes.stream().filter(size -> size == 1).count();
+		System.out.println(String.format("Largest projects: %s, single node projects: %d, nodes in largest 1%% of projects: %.1f%%", 
+				sizes.subList(0, Math.min(5, sizes.size())), singles, 100.0 * inTop / corpus.size(StubCorpus.NODES)));
+	}
+
+	private void generateUsers() {
+		for (int i = 0; i < settings.users; i++) {
+			StubRecord user = newRecord("u", i, StubCorpus.USERS);
+			user.title = "Loadtest User" + i;
+			user.institution = maybeInstitution();
+			if (random.nextInt(10) < 4) {
+				user.orcid = String.format("0000-000%d-%04d-%04d", 1 + random.nextInt(3), random.nextInt(10000), random.nextInt(10000));
+			}
+			if (random.nextInt(10) < 2) {
+				user.twitter = "loadtest" + i;
+			}
+		}
+	}
+
+	private void generateNodes() {
+		int count = 0;
+		while (count < settings.nodes) {
+			int size = Math.min(projectSize(), settings.nodes - count);
+			projectSizes.add(size);
+
+			StubRecord project = newNode(count++, null);
+			project.category = "project";
+			if (random.nextBoolean()) {
+				project.doi = "10.17605/OSF.IO/" + project.id.toUpperCase();
+			}
+			addContributors(project, 1 + (int) (Math.log(size) / Math.log(2)));
+
+			List<StubRecord> members = new ArrayList<StubRecord>();
+			List<Integer> depths = new ArrayList<Integer>();
+			members.add(project);
+			depths.add(0);
+			for (int i = 1; i < size; i++) {
+				int parentIndex = parentIndex(members, depths, i);
+				if (parentIndex < 0) {
+					break;
+				}
+				StubRecord parent = members.get(parentIndex);
+				StubRecord component = newNode(count++, parent);
+				component.isPublic = random.nextDouble() >= settings.privateRate;
+				parent.children.add(component.id);
+				//components are worked on by some of the project's contributors
+				if (!project.contributors.isEmpty()) {
+					int contributors = 1 + random.nextInt(project.contributors.size());
+					component.contributors.addAll(project.contributors.subList(0, contributors));
+				}
+				members.add(component);
+				depths.add(depths.get(parentIndex) + 1);
+			}
+		}
+	}
+
+	/**
+	 * @return number of nodes in the next project
+	 */
+	private int projectSize() {
+		if (settings.treeDistribution.equals("uniform")) {
+			//expected size of a tree where each node has 0 to 2 * fanout children, down to the maximum depth
+			int size = 1;
+			int level = 1;
+			for (int depth = 0; depth < settings.treeMaxDepth; depth++) {
+				int next = 0;
+				for (int i = 0; i < level; i++) {
+					next = next + random.nextInt(2 * Math.max(0, settings.treeFanout) + 1);
+				}
+				size = size + next;
+				level = next;
+			}
+			return size;
+		}
+		//discrete pareto with minimum 1
+		double u = 1 - random.nextDouble();
+		double size = Math.floor(Math.pow(u, -1.0 / settings.treeParetoAlpha));
+		return (int) Math.max(1, Math.min(settings.treeMaxSize, size));
+	}
+
+	/**
+	 * Picks a random earlier member of the project that can take another level of components. Attaching to any 
+	 * member rather than level by level gives wide trees for large projects, with most components near the top.
+	 * @param members
+	 * @param depths
+	 * @param size number of members so far
+	 * @return index of parent, or -1 if no member is above the maximum depth
+	 */
+	private int parentIndex(List<StubRecord> members, List<Integer> depths, int size) {
+		if (settings.treeMaxDepth <= 0) {
+			return -1;
+		}
+		for (int attempt = 0; attempt < 10; attempt++) {
+			int index = random.nextInt(size);
+			if (depths.get(index) < settings.treeMaxDepth) {
+				return index;
+			}
+		}
+		return 0;
+	}
+
+	private StubRecord newNode(int n, StubRecord parent) {
+		StubRecord node = newRecord("n", n, StubCorpus.NODES);
+		node.title = "Loadtest Project " + n;
+		node.category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+		node.parent = parent == null ? null : parent.id;
+		node.root = parent == null ? node.id : parent.root;
+		node.institution = maybeInstitution();
+		return node;
+	}
+
+	private void generateRegistrations() {
+		int nodes = corpus.size(StubCorpus.NODES);
+		for (int i = 0; i < settings.registrations; i++) {
+			StubRecord registration = newRecord("r", i, StubCorpus.REGISTRATIONS);
+			registration.title = "Loadtest Registration " + i;
+			registration.category = "project";
+			registration.root = registration.id;
+			registration.doi = "10.17605/OSF.IO/" + registration.id.toUpperCase();
+			registration.institution = maybeInstitution();
+			if (nodes > 0) {
+				registration.registeredFrom = osfId("n", random.nextInt(nodes));
+			}
+			addContributors(registration, 1);
+		}
+	}
+
+	private void addContributors(StubRecord record, int scale) {
+		if (settings.users == 0 || settings.contributorsPerNode <= 0) {
+			return;
+		}
+		int contributors = Math.min(settings.users, (1 + random.nextInt(settings.contributorsPerNode)) * scale);
+		for (int i = 0; i < contributors * 2 && record.contributors.size() < contributors; i++) {
+			String userId = osfId("u", random.nextInt(settings.users));
+			if (!record.contributors.contains(userId)) {
+				record.contributors.add(userId);
+			}
+		}
+	}
+
+	private StubRecord newRecord(String prefix, int n, String type) {
+		long modified = now - 60000 - (long) (random.nextDouble() * TimeUnit.HOURS.toMillis(settings.modifiedWithinHours));
+		long created = modified - (long) (random.nextDouble() * CREATED_WITHIN_MILLIS);
+		StubRecord record = new StubRecord(osfId(prefix, n), type, created, modified);
+		corpus.add(record);
+		return record;
+	}
+
+	private String maybeInstitution() {
+		return random.nextInt(10) < 3 ? INSTITUTIONS[random.nextInt(INSTITUTIONS.length)] : null;
+	}
+
+	/**
+	 * Builds a five character ID in the style of OSF GUIDs, unique per prefix and number
+	 * @param prefix
+	 * @param n
+	 * @return the ID
+	 */
+	static String osfId(String prefix, int n) {
+		String suffix = Integer.toString(n, 36);
+		StringBuilder id = new StringBuilder(prefix);
+		for (int i = suffix.length(); i < 4; i++) {
+			id.append('0');
+		}
+		return id.append(suffix).toString();
+	}
+
+}
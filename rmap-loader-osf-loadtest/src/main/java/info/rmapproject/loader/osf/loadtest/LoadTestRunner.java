@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.loadtest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import info.rmapproject.loader.osf.OsfLoaderCLI;
+
+/**
+ * Runs the loader end to end against local stub OSF and RMap servers, an embedded in-memory JMS broker and a SQLite
+ * registry, then reports throughput and the latency seen by each stub endpoint. Per stage latencies are reported by
+ * the loader trace summary, which is enabled for load test runs. The corpus is generated by CorpusGenerator, or read
+ * from files it wrote earlier when loadtest.corpusDir is set. Corpus size and shape, stub latencies and error rates 
+ * are set with loadtest.* properties, see LoadTestSettings. Any loader property can also 
+ * be set to override the load test defaults, e.g. -Dosf.node.transform.workers=8 or -Dosf.queue.backend=memory.
+ */
+public class LoadTestRunner {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(LoadTestRunner.class);
+
+	/**
+	 * Runs the load test
+	 * @param args not used, settings are read from system properties
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		LoadTestSettings settings = new LoadTestSettings();
+		PrintStream out = System.out;
+		out.println("Load test settings: " + settings);
+
+		long corpusStart = System.nanoTime();
+		StubCorpus corpus;
+		if (settings.corpusDir != null) {
+			corpus = CorpusFiles.read(new File(settings.corpusDir));
+			out.println(String.format("Read %d nodes, %d registrations and %d users from %s", corpus.size(StubCorpus.NODES), 
+					corpus.size(StubCorpus.REGISTRATIONS), corpus.size(StubCorpus.USERS), settings.corpusDir));
+		} else {
+			CorpusGenerator generator = new CorpusGenerator(settings);
+			corpus = generator.generate();
+			generator.printSummary();
+		}
+		out.println("Corpus ready in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - corpusStart) + " ms");
+
+		StubStats stats = new StubStats();
+		StubOsfServer osf = new StubOsfServer(corpus, settings, stats);
+		StubRmapServer rmap = new StubRmapServer(settings, stats);
+		osf.start();
+		rmap.start();
+		try {
+			File workDir = settings.workDir == null 
+					? Files.createTempDirectory("osf-loadtest").toFile() 
+					: new File(settings.workDir);
+			workDir.mkdirs();
+			configureLoader(workDir, osf, rmap);
+			out.println("Working directory: " + workDir.getAbsolutePath());
+
+			long start = System.nanoTime();
+			new OsfLoaderCLI().run(settings.types, "all", "", settings.pipeline);
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			report(out, settings, corpus, stats, rmap, seconds);
+		} finally {
+			osf.stop();
+			rmap.stop();
+		}
+	}
+
+	/**
+	 * Points the loader at the stub servers and local storage. Values already set as system properties are kept.
+	 * @param workDir
+	 * @param osf
+	 * @param rmap
+	 * @throws Exception
+	 */
+	private static void configureLoader(File workDir, StubOsfServer osf, StubRmapServer rmap) throws Exception {
+		URL osfUrl = new URL(osf.getApiUrl());
+		ObjectMapper mapper = new ObjectMapper();
+		ObjectNode config = mapper.createObjectNode();
+		ObjectNode osfConfig = config.putObject("osf").putObject("v2");
+		osfConfig.put("host", osfUrl.getHost());
+		osfConfig.put("port", String.valueOf(osfUrl.getPort()));
+		osfConfig.put("basePath", osfUrl.getPath());
+		osfConfig.put("authHeader", "");
+		osfConfig.put("scheme", osfUrl.getProtocol());
+		ObjectNode wbConfig = config.putObject("wb").putObject("v1");
+		wbConfig.put("host", osfUrl.getHost());
+		wbConfig.put("port", String.valueOf(osfUrl.getPort()));
+		wbConfig.put("basePath", "/wb/v1/");
+		wbConfig.put("scheme", osfUrl.getProtocol());
+		File osfConfigFile = new File(workDir, "osf-config.json");
+		Files.write(osfConfigFile.toPath(), mapper.writerWithDefaultPrettyPrinter().writeValueAsString(config).getBytes(UTF_8));
+
+		setDefault("osf.client.conf", osfConfigFile.toURI().toString());
+		setDefault("rmap.api.baseuri", rmap.getApiUrl());
+		setDefault("rmap.api.auth.token", "loadtest");
+		setDefault("jdbc.url", "jdbc:sqlite:" + new File(workDir, "registry.db").getAbsolutePath());
+		setDefault("jdbc.driver", "org.sqlite.JDBC");
+		setDefault("jms.embedded", "true");
+		setDefault("jms.embedded.persistence", "memory");
+		setDefault("jms.embedded.dataDir", new File(workDir, "activemq-data").getAbsolutePath());
+		//with the in-memory broker or the memory queue backend, stages wait for delayed retries before completing, so
+		//retries triggered by the stub error rates are processed within the run. Keep them shorter than the in-process
+		//defaults so they do not dominate the elapsed time
+		setDefault("osf.retry.initialDelaySeconds", "1");
+		setDefault("osf.retry.maxDelaySeconds", "5");
+		setDefault("osf.metrics.jmx", "false");
+		setDefault("osf.trace.enabled", "true");
+		setDefault("osf.trace.file", new File(workDir, "osf-trace.log").getAbsolutePath());
+	}
+
+	private static void setDefault(String key, String value) {
+		if (System.getProperty(key) == null && System.getenv(key) == null) {
+			System.setProperty(key, value);
+		}
+	}
+
+	private static void report(PrintStream out, LoadTestSettings settings, StubCorpus corpus, StubStats stats, 
+			StubRmapServer rmap, double seconds) {
+		List<String> types = settings.types.trim().equals("all") 
+				? Arrays.asList("node", "registration", "user") 
+				: Arrays.asList(settings.types.split(","));
+		long expected = 0;
+		for (String type : types) {
+			expected = expected + corpus.expectedDiscos(type.trim() + "s");
+		}
+		long deposited = rmap.getDiscoCount();
+		long osfRequests = stats.countAll("osf ");
+
+		out.println();
+		out.println(String.format("Elapsed: %.1f s", seconds));
+		out.println(String.format("DiSCOs deposited: %d of %d expected", deposited, expected));
+		out.println(String.format("Throughput: %.1f DiSCOs/s, %.1f OSF requests/s, %.1f OSF requests per DiSCO", 
+				deposited / seconds, osfRequests / seconds, deposited == 0 ? 0.0 : (double) osfRequests / deposited));
+		out.println();
+		stats.report(out);
+		if (deposited < expected) {
+			LOG.warn((expected - deposited) + " DiSCOs were not deposited, see the loader log for records that failed all retries");
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.loadtest;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+/**
+ * Tunables for a load test run, read from system properties or environment variables in the same way as the 
+ * loader settings.
+ */
+public class LoadTestSettings {
+
+	/** Number of nodes in the synthetic corpus, including components (loadtest.nodes). */
+	final int nodes = Integer.parseInt(string("loadtest.nodes", "1000"));
+
+	/** Number of registrations in the synthetic corpus (loadtest.registrations). */
+	final int registrations = Integer.parseInt(string("loadtest.registrations", "200"));
+
+	/** Number of users in the synthetic corpus (loadtest.users). */
+	final int users = Integer.parseInt(string("loadtest.users", "500"));
+
+	/** Maximum depth of components below a top level project (loadtest.tree.maxDepth). */
+	final int treeMaxDepth = Integer.parseInt(string("loadtest.tree.maxDepth", "2"));
+
+	/** 
+	 * How project sizes are distributed (loadtest.tree.distribution). With pareto a few very large projects sit among 
+	 * many single node ones, as on OSF. With uniform every node has between 0 and twice loadtest.tree.fanout components.
+	 */
+	final String treeDistribution = string("loadtest.tree.distribution", "pareto");
+
+	/** Average number of components directly below a project or component, uniform distribution only (loadtest.tree.fanout). */
+	final int treeFanout = Integer.parseInt(string("loadtest.tree.fanout", "2"));
+
+	/** Shape of the pareto distribution of project sizes, lower values give more large projects (loadtest.tree.paretoAlpha). */
+	final double treeParetoAlpha = Double.parseDouble(string("loadtest.tree.paretoAlpha", "1.3"));
+
+	/** Largest number of nodes in a single project, pareto distribution only (loadtest.tree.maxSize). */
+	final int treeMaxSize = Integer.parseInt(string("loadtest.tree.maxSize", "5000"));
+
+	/** Fraction of nodes that are private, so return 401 and stop the parent walk (loadtest.tree.privateRate). */
+	final double privateRate = Double.parseDouble(string("loadtest.tree.privateRate", "0.1"));
+
+	/** Maximum number of contributors on a node (loadtest.contributorsPerNode). */
+	final int contributorsPerNode = Integer.parseInt(string("loadtest.contributorsPerNode", "4"));
+
+	/** Records are given modified dates spread over this many hours before the corpus is generated (loadtest.modifiedWithinHours). */
+	final int modifiedWithinHours = Integer.parseInt(string("loadtest.modifiedWithinHours", "12"));
+
+	/** 
+	 * Time the corpus is generated at, in milliseconds since the epoch (loadtest.generatedAt). Record dates are set
+	 * relative to this. Defaults to the current time, set it to generate the same dates on every run.
+	 */
+	final long generatedAt = Long.parseLong(string("loadtest.generatedAt", String.valueOf(System.currentTimeMillis())));
+
+	/** 
+	 * Directory of corpus files written by CorpusGenerator (loadtest.corpusDir). When set the load test serves this 
+	 * corpus instead of generating one.
+	 */
+	final String corpusDir = string("loadtest.corpusDir", null);
+
+	/** Records per page of OSF list responses (loadtest.osf.pageSize). */
+	final int pageSize = Integer.parseInt(string("loadtest.osf.pageSize", "10"));
+
+	/** Mean latency added to OSF responses, in milliseconds (loadtest.osf.latencyMs). */
+	final double osfLatencyMs = Double.parseDouble(string("loadtest.osf.latencyMs", "50"));
+
+	/** Fraction of OSF record requests answered with a 503 (loadtest.osf.errorRate). */
+	final double osfErrorRate = Double.parseDouble(string("loadtest.osf.errorRate", "0"));
+
+	/** Mean latency added to RMap responses, in milliseconds (loadtest.rmap.latencyMs). */
+	final double rmapLatencyMs = Double.parseDouble(string("loadtest.rmap.latencyMs", "100"));
+
+	/** Fraction of RMap DiSCO requests answered with a 500 (loadtest.rmap.errorRate). */
+	final double rmapErrorRate = Double.parseDouble(string("loadtest.rmap.errorRate", "0"));
+
+	/** Number of threads serving requests in each stub server (loadtest.server.threads). */
+	final int serverThreads = Integer.parseInt(string("loadtest.server.threads", "64"));
+
+	/** Seed for the synthetic corpus, so that runs with the same settings see the same data (loadtest.seed). */
+	final long seed = Long.parseLong(string("loadtest.seed", "42"));
+
+	/** Record types to harvest, as for the loader type option (loadtest.types). */
+	final String types = string("loadtest.types", "all");
+
+	/** True to run the stages concurrently, as for the loader pipeline option (loadtest.pipeline). */
+	final boolean pipeline = Boolean.parseBoolean(string("loadtest.pipeline", "true"));
+
+	/** Directory for the registry database, broker data, trace and OSF client configuration (loadtest.workDir). */
+	final String workDir = string("loadtest.workDir", null);
+
+	@Override
+	public String toString() {
+		return "nodes=" + nodes + ", registrations=" + registrations + ", users=" + users 
+				+ ", tree.distribution=" + treeDistribution + ", tree.maxDepth=" + treeMaxDepth + ", tree.privateRate=" + privateRate 
+				+ ", osf.latencyMs=" + osfLatencyMs + ", osf.errorRate=" + osfErrorRate 
+				+ ", rmap.latencyMs=" + rmapLatencyMs + ", rmap.errorRate=" + rmapErrorRate 
+				+ ", types=" + types + ", pipeline=" + pipeline;
+	}
+
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.loadtest;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import info.rmapproject.loader.osf.loadtest.StubCorpus.StubRecord;
+
+/**
+ * Renders corpus records as OSF v2 JSON API resources. Links are built from the API URL passed in, so the same
+ * record can be served by a stub server or written to corpus files with the real OSF API URL.
+ */
+class OsfResources {
+
+	/** Date format used in OSF API attributes. */
+	static final DateTimeFormatter OSF_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSS").withZone(ZoneOffset.UTC);
+
+	private static final String[] NODE_RELATIONSHIPS = {"children", "contributors", "identifiers", "affiliated_institutions", 
+			"files", "forks", "logs", "linked_nodes", "registrations", "wikis"};
+
+	private static final String[] USER_RELATIONSHIPS = {"nodes", "institutions"};
+
+	private final ObjectMapper mapper;
+
+	private final StubCorpus corpus;
+
+	/**
+	 * @param mapper
+	 * @param corpus used to embed users in contributors
+	 */
+	OsfResources(ObjectMapper mapper, StubCorpus corpus) {
+		this.mapper = mapper;
+		this.corpus = corpus;
+	}
+
+	/**
+	 * @param record
+	 * @param apiUrl
+	 * @return node, registration or user resource for the record
+	 */
+	ObjectNode resource(StubRecord record, String apiUrl) {
+		return record.type.equals(StubCorpus.USERS) ? user(record, apiUrl) : node(record, apiUrl);
+	}
+
+	ObjectNode node(StubRecord record, String apiUrl) {
+		ObjectNode resource = newResource(record.id, record.type);
+		ObjectNode attributes = resource.putObject("attributes");
+		attributes.put("title", record.title);
+		attributes.put("description", "Synthetic " + record.category + " generated for load testing the OSF loader.");
+		attributes.put("category", record.category);
+		attributes.put("date_created", date(record.created));
+		attributes.put("date_modified", date(record.modified));
+		attributes.put("public", record.isPublic);
+		attributes.put("fork", false);
+		attributes.put("collection", false);
+		attributes.put("preprint", false);
+		attributes.putArray("tags").add("loadtest");
+		attributes.putArray("current_user_permissions").add("read");
+		attributes.putNull("node_license");
+
+		String self = apiUrl + record.type + "/" + record.id + "/";
+		ObjectNode relationships = resource.putObject("relationships");
+		for (String relationship : NODE_RELATIONSHIPS) {
+			related(relationships, relationship, self + relationship + "/");
+		}
+		if (record.parent != null) {
+			related(relationships, "parent", apiUrl + record.type + "/" + record.parent + "/");
+		}
+		related(relationships, "root", apiUrl + record.type + "/" + record.root + "/");
+		
+		if (record.type.equals(StubCorpus.REGISTRATIONS)) {
+			attributes.put("registration", true);
+			attributes.put("date_registered", date(record.modified));
+			attributes.put("withdrawn", false);
+			attributes.put("pending_registration_approval", false);
+			attributes.put("pending_embargo_approval", false);
+			attributes.put("pending_withdrawal", false);
+			attributes.putNull("embargo_end_date");
+			attributes.put("registration_supplement", "Open-Ended Registration");
+			if (record.registeredFrom != null) {
+				related(relationships, "registered_from", apiUrl + StubCorpus.NODES + "/" + record.registeredFrom + "/");
+			}
+			if (!record.contributors.isEmpty()) {
+				related(relationships, "registered_by", apiUrl + StubCorpus.USERS + "/" + record.contributors.get(0) + "/");
+			}
+		} else {
+			attributes.put("registration", false);
+		}
+
+		ObjectNode links = resource.putObject("links");
+		links.put("self", self);
+		links.put("html", "https://osf.io/" + record.id + "/");
+		return resource;
+	}
+
+	ObjectNode user(StubRecord record, String apiUrl) {
+		ObjectNode resource = newResource(record.id, record.type);
+		ObjectNode attributes = resource.putObject("attributes");
+		String[] names = record.title.split(" ", 2);
+		attributes.put("full_name", record.title);
+		attributes.put("given_name", names[0]);
+		attributes.put("middle_names", "");
+		attributes.put("family_name", names.length > 1 ? names[1] : "");
+		attributes.put("suffix", "");
+		attributes.put("date_registered", date(record.modified));
+		attributes.put("active", true);
+		attributes.put("timezone", "America/New_York");
+		attributes.put("locale", "en_US");
+		ObjectNode social = attributes.putObject("social");
+		if (record.orcid != null) {
+			social.put("orcid", record.orcid);
+		}
+		if (record.twitter != null) {
+			social.put("twitter", record.twitter);
+		}
+
+		String self = apiUrl + record.type + "/" + record.id + "/";
+		ObjectNode relationships = resource.putObject("relationships");
+		for (String relationship : USER_RELATIONSHIPS) {
+			related(relationships, relationship, self + relationship + "/");
+		}
+		ObjectNode links = resource.putObject("links");
+		links.put("self", self);
+		links.put("html", "https://osf.io/" + record.id + "/");
+		links.put("profile_image", "https://secure.gravatar.com/avatar/" + record.id + "?d=identicon");
+		return resource;
+	}
+
+	ObjectNode contributor(StubRecord record, int index, String apiUrl) {
+		String userId = record.contributors.get(index);
+		ObjectNode resource = newResource(record.id + "-" + userId, "contributors");
+		ObjectNode attributes = resource.putObject("attributes");
+		attributes.put("bibliographic", true);
+		attributes.put("permission", index == 0 ? "admin" : "write");
+		attributes.put("index", index);
+		ObjectNode relationships = resource.putObject("relationships");
+		related(relationships, "users", apiUrl + StubCorpus.USERS + "/" + userId + "/");
+		related(relationships, "node", apiUrl + record.type + "/" + record.id + "/");
+		StubRecord user = corpus.get(StubCorpus.USERS, userId);
+		if (user != null) {
+			resource.putObject("embeds").putObject("users").set("data", user(user, apiUrl));
+		}
+		resource.putObject("links").put("self", apiUrl + record.type + "/" + record.id + "/contributors/" + userId + "/");
+		return resource;
+	}
+
+	ObjectNode identifier(StubRecord record, String category, String value, String apiUrl) {
+		ObjectNode resource = newResource(record.id + "-" + category, "identifiers");
+		ObjectNode attributes = resource.putObject("attributes");
+		attributes.put("category", category);
+		attributes.put("value", value);
+		related(resource.putObject("relationships"), "referent", apiUrl + record.type + "/" + record.id + "/");
+		resource.putObject("links").put("self", apiUrl + "identifiers/" + record.id + "-" + category + "/");
+		return resource;
+	}
+
+	ObjectNode institution(String id, String apiUrl) {
+		ObjectNode resource = newResource(id, "institutions");
+		ObjectNode attributes = resource.putObject("attributes");
+		attributes.put("name", "Loadtest Institution " + id.toUpperCase());
+		attributes.put("description", "");
+		attributes.put("logo_path", "/static/img/institutions/shields/" + id + "-shield.png");
+		attributes.putNull("auth_url");
+		String self = apiUrl + "institutions/" + id + "/";
+		ObjectNode relationships = resource.putObject("relationships");
+		for (String relationship : new String[] {"nodes", "registrations", "users"}) {
+			related(relationships, relationship, self + relationship + "/");
+		}
+		ObjectNode links = resource.putObject("links");
+		links.put("self", self);
+		links.put("html", "https://osf.io/institutions/" + id + "/");
+		return resource;
+	}
+
+	private ObjectNode newResource(String id, String type) {
+		ObjectNode resource = mapper.createObjectNode();
+		resource.put("id", id);
+		resource.put("type", type);
+		return resource;
+	}
+
+	private static void related(ObjectNode relationships, String name, String href) {
+		ObjectNode related = relationships.putObject(name).putObject("links").putObject("related");
+		related.put("href", href);
+		related.putObject("meta");
+	}
+
+	static String date(long millis) {
+		return OSF_DATE.format(Instant.ofEpochMilli(millis));
+	}
+
+	static long parseDate(String date) {
+		return LocalDateTime.parse(date, OSF_DATE).toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+
+}
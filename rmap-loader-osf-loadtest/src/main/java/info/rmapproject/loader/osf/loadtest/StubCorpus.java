@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Set of OSF nodes, registrations and users served by StubOsfServer. A corpus is either generated by
+ * CorpusGenerator or read from files written by CorpusFiles.
+ */
+public class StubCorpus {
+
+	/** Types as they appear in OSF API paths. */
+	static final String NODES = "nodes";
+	static final String REGISTRATIONS = "registrations";
+	static final String USERS = "users";
+
+	/**
+	 * A single OSF record. Only the fields that the stub renders are kept.
+	 */
+	static class StubRecord {
+		final String id;
+		final String type;
+		final long created;
+		final long modified;
+		String title;
+		String category;
+		boolean isPublic = true;
+		String parent;
+		String root;
+		String registeredFrom;
+		String institution;
+		String doi;
+		String orcid;
+		String twitter;
+		final List<String> children = new ArrayList<String>();
+		final List<String> contributors = new ArrayList<String>();
+
+		StubRecord(String id, String type, long created, long modified) {
+			this.id = id;
+			this.type = type;
+			this.created = created;
+			this.modified = modified;
+		}
+	}
+
+	private final Map<String, Map<String, StubRecord>> records = new HashMap<String, Map<String, StubRecord>>();
+
+	private final Map<String, List<StubRecord>> listings = new HashMap<String, List<StubRecord>>();
+
+	/**
+	 * Creates an empty corpus. Records are added with add(), then index() is called once all have been added.
+	 */
+	StubCorpus() {
+		for (String type : new String[] {NODES, REGISTRATIONS, USERS}) {
+			records.put(type, new HashMap<String, StubRecord>());
+		}
+	}
+
+	/**
+	 * Adds record to the corpus
+	 * @param record
+	 */
+	void add(StubRecord record) {
+		records.get(record.type).put(record.id, record);
+	}
+
+	/**
+	 * Builds the listings of public records, called after the last record is added
+	 */
+	void index() {
+		for (String type : records.keySet()) {
+			List<StubRecord> listing = new ArrayList<StubRecord>();
+			for (StubRecord record : records.get(type).values()) {
+				if (record.isPublic) {
+					listing.add(record);
+				}
+			}
+			//most recently modified first, the user iterator stops at the first record older than its window
+			Collections.sort(listing, Comparator.comparingLong((StubRecord r) -> r.modified).reversed().thenComparing(r -> r.id));
+			listings.put(type, listing);
+		}
+	}
+
+	/**
+	 * @param type
+	 * @param id
+	 * @return record, or null if there is no record of that type with the ID
+	 */
+	StubRecord get(String type, String id) {
+		Map<String, StubRecord> ofType = records.get(type);
+		return ofType == null ? null : ofType.get(id);
+	}
+
+	/**
+	 * @param type
+	 * @return public records of the type, most recently modified first
+	 */
+	List<StubRecord> list(String type) {
+		List<StubRecord> listing = listings.get(type);
+		return listing == null ? Collections.<StubRecord>emptyList() : listing;
+	}
+
+	/**
+	 * @param type
+	 * @return all records of the type, public or not, in no particular order
+	 */
+	Iterable<StubRecord> all(String type) {
+		return records.get(type).values();
+	}
+
+	/**
+	 * @param type
+	 * @return total number of records of the type, public or not
+	 */
+	int size(String type) {
+		return records.get(type).size();
+	}
+
+	/**
+	 * Counts the DiSCOs a complete harvest of the type should create. Identify replaces each node with its highest 
+	 * accessible ancestor, so this is the number of distinct public records reached by walking up through public 
+	 * parents.
+	 * @param type
+	 * @return expected number of DiSCOs
+	 */
+	int expectedDiscos(String type) {
+		Set<String> tops = new HashSet<String>();
+		for (StubRecord record : list(type)) {
+			StubRecord top = record;
+			while (top.parent != null && get(type, top.parent) != null && get(type, top.parent).isPublic) {
+				top = get(type, top.parent);
+			}
+			tops.add(top.id);
+		}
+		return tops.size();
+	}
+
+}
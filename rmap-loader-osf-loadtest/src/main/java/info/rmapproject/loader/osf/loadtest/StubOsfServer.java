@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.loadtest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.List;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import info.rmapproject.loader.osf.loadtest.StubCorpus.StubRecord;
+
+/**
+ * Serves a StubCorpus in the JSON API format of the OSF v2 API. Supports paged listings of public nodes, 
+ * registrations and users, single records, and the relationships followed by the loader: children, contributors 
+ * with embedded users, identifiers and institutions. Other relationships return an empty list. Private records 
+ * return 401, as OSF does for requests without credentials. A configurable fraction of record and relationship 
+ * requests return 503, listings always succeed so that identify can page through the whole corpus.
+ */
+public class StubOsfServer extends StubServer {
+
+	private static final String JSON_API = "application/vnd.api+json";
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final StubCorpus corpus;
+
+	private final OsfResources resources;
+
+	private final int defaultPageSize;
+
+	private final double errorRate;
+
+	/**
+	 * @param corpus
+	 * @param settings
+	 * @param stats
+	 */
+	public StubOsfServer(StubCorpus corpus, LoadTestSettings settings, StubStats stats) {
+		super("osf", settings.osfLatencyMs, settings.serverThreads, stats);
+		this.corpus = corpus;
+		this.resources = new OsfResources(mapper, corpus);
+		this.defaultPageSize = settings.pageSize;
+		this.errorRate = settings.osfErrorRate;
+	}
+
+	/**
+	 * @return base URL of the stub OSF v2 API
+	 */
+	public String getApiUrl() {
+		return getBaseUrl() + "/v2/";
+	}
+
+	@Override
+	protected StubResponse respond(String method, String path, String query, byte[] body) {
+		String[] segments = path.replaceAll("^/+|/+$", "").split("/");
+		if (segments.length < 2 || !segments[0].equals("v2")) {
+			return error(404, "unknown", "Not found.");
+		}
+		String type = segments[1];
+		if (segments.length == 2) {
+			return list(type, query);
+		}
+		String endpoint = type + (segments.length == 3 ? ".get" : "." + segments[3]);
+		if (chance(errorRate)) {
+			return error(503, endpoint, "Service unavailable.");
+		}
+		if (type.equals("institutions")) {
+			return segments.length == 3 ? data(endpoint, resources.institution(segments[2], getApiUrl())) : data(endpoint, mapper.createArrayNode());
+		}
+		StubRecord record = corpus.get(type, segments[2]);
+		if (record == null) {
+			return error(404, endpoint, "Not found.");
+		}
+		if (!record.isPublic) {
+			return error(401, endpoint, "Authentication credentials were not provided.");
+		}
+		if (segments.length == 3) {
+			return data(endpoint, resources.resource(record, getApiUrl()));
+		}
+		return data(endpoint, relationship(record, segments[3]));
+	}
+
+	private StubResponse list(String type, String query) {
+		String endpoint = type + ".list";
+		int page = 1;
+		int pageSize = defaultPageSize;
+		if (query != null) {
+			for (NameValuePair param : URLEncodedUtils.parse(query, UTF_8)) {
+				if (param.getName().equals("page")) {
+					page = Math.max(1, Integer.parseInt(param.getValue()));
+				} else if (param.getName().equals("page[size]")) {
+					pageSize = Math.max(1, Integer.parseInt(param.getValue()));
+				}
+			}
+		}
+		List<StubRecord> all = corpus.list(type);
+		int from = Math.min((page - 1) * pageSize, all.size());
+		int to = Math.min(from + pageSize, all.size());
+		int lastPage = Math.max(1, (all.size() + pageSize - 1) / pageSize);
+
+		ArrayNode data = mapper.createArrayNode();
+		for (StubRecord record : all.subList(from, to)) {
+			data.add(resources.resource(record, getApiUrl()));
+		}
+		ObjectNode document = mapper.createObjectNode();
+		document.set("data", data);
+		String listUrl = getApiUrl() + type + "/?" + withoutPage(query);
+		ObjectNode links = document.putObject("links");
+		links.put("first", listUrl + "page=1");
+		links.put("last", listUrl + "page=" + lastPage);
+		putOrNull(links, "prev", page > 1 ? listUrl + "page=" + (page - 1) : null);
+		putOrNull(links, "next", page < lastPage ? listUrl + "page=" + (page + 1) : null);
+		ObjectNode meta = links.putObject("meta");
+		meta.put("total", all.size());
+		meta.put("per_page", pageSize);
+		document.set("meta", meta.deepCopy());
+		return json(200, endpoint, document);
+	}
+
+	private ArrayNode relationship(StubRecord record, String relationship) {
+		ArrayNode data = mapper.createArrayNode();
+		switch (relationship) {
+		case "children" :
+			for (String childId : record.children) {
+				StubRecord child = corpus.get(record.type, childId);
+				if (child.isPublic) {
+					data.add(resources.node(child, getApiUrl()));
+				}
+			}
+			break;
+		case "contributors" :
+			for (int i = 0; i < record.contributors.size(); i++) {
+				data.add(resources.contributor(record, i, getApiUrl()));
+			}
+			break;
+		case "identifiers" :
+			if (record.doi != null) {
+				data.add(resources.identifier(record, "doi", record.doi, getApiUrl()));
+				data.add(resources.identifier(record, "ark", "c7605/osf.io/" + record.id, getApiUrl()));
+			}
+			break;
+		case "affiliated_institutions" :
+		case "institutions" :
+			if (record.institution != null) {
+				data.add(resources.institution(record.institution, getApiUrl()));
+			}
+			break;
+		default :
+			break;
+		}
+		return data;
+	}
+
+	private StubResponse data(String endpoint, JsonNode data) {
+		ObjectNode document = mapper.createObjectNode();
+		document.set("data", data);
+		if (data.isArray()) {
+			ObjectNode links = document.putObject("links");
+			links.putNull("first");
+			links.putNull("last");
+			links.putNull("prev");
+			links.putNull("next");
+			ObjectNode meta = links.putObject("meta");
+			meta.put("total", data.size());
+			meta.put("per_page", Math.max(defaultPageSize, data.size()));
+			document.set("meta", meta.deepCopy());
+		}
+		return json(200, endpoint, document);
+	}
+
+	private StubResponse error(int status, String endpoint, String detail) {
+		ObjectNode document = mapper.createObjectNode();
+		document.putArray("errors").addObject().put("detail", detail);
+		return json(status, endpoint, document);
+	}
+
+	private StubResponse json(int status, String endpoint, ObjectNode document) {
+		try {
+			return new StubResponse(status, endpoint, JSON_API, mapper.writeValueAsString(document));
+		} catch (Exception e) {
+			throw new RuntimeException("Could not write stub OSF response", e);
+		}
+	}
+
+	private static void putOrNull(ObjectNode node, String field, String value) {
+		if (value == null) {
+			node.putNull(field);
+		} else {
+			node.put(field, value);
+		}
+	}
+
+	private static String withoutPage(String query) {
+		if (query == null || query.isEmpty()) {
+			return "";
+		}
+		StringBuilder kept = new StringBuilder();
+		for (String param : query.split("&")) {
+			if (!param.startsWith("page=") && param.length() > 0) {
+				kept.append(param).append('&');
+			}
+		}
+		return kept.toString();
+	}
+
+}
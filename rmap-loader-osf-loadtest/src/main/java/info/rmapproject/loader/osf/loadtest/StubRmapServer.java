@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.loadtest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the RMap DiSCO API during a load test. Each DiSCO posted to /api/discos/, or as an update to 
+ * /api/discos/{uri}, is given a new URI that is returned in the body and Location header. Posted DiSCOs are kept 
+ * so they can be retrieved from /api/discos/{uri} when ingest compares a record with the latest version in RMap.
+ * A configurable fraction of requests return 500.
+ */
+public class StubRmapServer extends StubServer {
+
+	private static final String DISCOS_PATH = "/api/discos/";
+
+	private static final String DISCO_URI_PREFIX = "rmap:loadtest";
+
+	private final Map<String, byte[]> discos = new ConcurrentHashMap<String, byte[]>();
+
+	private final AtomicLong nextDisco = new AtomicLong();
+
+	private final double errorRate;
+
+	/**
+	 * @param settings
+	 * @param stats
+	 */
+	public StubRmapServer(LoadTestSettings settings, StubStats stats) {
+		super("rmap", settings.rmapLatencyMs, settings.serverThreads, stats);
+		this.errorRate = settings.rmapErrorRate;
+	}
+
+	/**
+	 * @return base URL of the stub RMap API
+	 */
+	public String getApiUrl() {
+		return getBaseUrl() + "/api/";
+	}
+
+	/**
+	 * @return number of DiSCOs created or updated
+	 */
+	public long getDiscoCount() {
+		return nextDisco.get();
+	}
+
+	@Override
+	protected StubResponse respond(String method, String path, String query, byte[] body) {
+		if (!path.startsWith(DISCOS_PATH)) {
+			return new StubResponse(404, "unknown", "text/plain", "Not found");
+		}
+		String discoUri = decode(path.substring(DISCOS_PATH.length()).replaceAll("/$", ""));
+		if (method.equals("POST")) {
+			String endpoint = discoUri.isEmpty() ? "discos.create" : "discos.update";
+			if (chance(errorRate)) {
+				return new StubResponse(500, endpoint, "text/plain", "Internal server error");
+			}
+			String newUri = DISCO_URI_PREFIX + nextDisco.incrementAndGet();
+			discos.put(newUri, body);
+			StubResponse response = new StubResponse(201, endpoint, "text/plain", newUri);
+			response.location = getApiUrl() + "discos/" + encode(newUri);
+			return response;
+		}
+		if (method.equals("GET") && !discoUri.isEmpty()) {
+			if (chance(errorRate)) {
+				return new StubResponse(500, "discos.get", "text/plain", "Internal server error");
+			}
+			byte[] disco = discos.get(discoUri);
+			if (disco == null) {
+				return new StubResponse(404, "discos.get", "text/plain", "DiSCO not found: " + discoUri);
+			}
+			return new StubResponse(200, "discos.get", "text/turtle", new String(disco, UTF_8));
+		}
+		return new StubResponse(405, "unknown", "text/plain", "Method not allowed");
+	}
+
+	private static String decode(String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.loadtest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Base for the local HTTP servers that stand in for OSF and RMap during a load test. Adds a random delay with the
+ * configured mean to every response, and records each request in StubStats.
+ */
+public abstract class StubServer {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(StubServer.class);
+
+	/**
+	 * Response to a stub request
+	 */
+	static class StubResponse {
+		final int status;
+		final String endpoint;
+		final String contentType;
+		final byte[] body;
+		String location;
+
+		StubResponse(int status, String endpoint, String contentType, String body) {
+			this.status = status;
+			this.endpoint = endpoint;
+			this.contentType = contentType;
+			this.body = body == null ? new byte[0] : body.getBytes(UTF_8);
+		}
+	}
+
+	private final String name;
+
+	private final double meanLatencyMs;
+
+	private final int threads;
+
+	protected final StubStats stats;
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	/**
+	 * @param name prefix for the endpoint names recorded in stats
+	 * @param meanLatencyMs mean delay added to each response
+	 * @param threads number of requests served at once
+	 * @param stats
+	 */
+	protected StubServer(String name, double meanLatencyMs, int threads, StubStats stats) {
+		this.name = name;
+		this.meanLatencyMs = meanLatencyMs;
+		this.threads = threads;
+		this.stats = stats;
+	}
+
+	/**
+	 * Builds response for a request
+	 * @param method
+	 * @param path
+	 * @param query raw query string, or null
+	 * @param body request body
+	 * @return the response
+	 */
+	protected abstract StubResponse respond(String method, String path, String query, byte[] body);
+
+	/**
+	 * Starts server on a free local port
+	 */
+	public synchronized void start() {
+		try {
+			server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+			executor = Executors.newFixedThreadPool(threads);
+			server.setExecutor(executor);
+			server.createContext("/", this::handle);
+			server.start();
+			LOG.info("Started stub " + name + " server at " + getBaseUrl());
+		} catch (IOException e) {
+			throw new RuntimeException("Could not start stub " + name + " server", e);
+		}
+	}
+
+	/**
+	 * Stops server
+	 */
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	/**
+	 * @return base URL of the server, e.g. http://localhost:12345
+	 */
+	public String getBaseUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * @param rate
+	 * @return true for the fraction of calls given by rate
+	 */
+	protected static boolean chance(double rate) {
+		return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		StubResponse response;
+		try {
+			byte[] requestBody;
+			try (InputStream in = exchange.getRequestBody()) {
+				requestBody = IOUtils.toByteArray(in);
+			}
+			pause();
+			response = respond(exchange.getRequestMethod(), exchange.getRequestURI().getPath(), 
+					exchange.getRequestURI().getRawQuery(), requestBody);
+		} catch (Exception e) {
+			LOG.error("Stub " + name + " server could not handle request: " + exchange.getRequestURI(), e);
+			response = new StubResponse(500, "error", "text/plain", e.getMessage());
+		}
+		try {
+			exchange.getResponseHeaders().set("Content-Type", response.contentType);
+			if (response.location != null) {
+				exchange.getResponseHeaders().set("Location", response.location);
+			}
+			exchange.sendResponseHeaders(response.status, response.body.length == 0 ? -1 : response.body.length);
+			if (response.body.length > 0) {
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(response.body);
+				}
+			}
+		} finally {
+			exchange.close();
+			stats.record(name + " " + response.endpoint, start, response.status);
+		}
+	}
+
+	private void pause() throws InterruptedException {
+		if (meanLatencyMs > 0) {
+			//exponentially distributed, so most responses are quick with a long tail of slow ones
+			double delay = -meanLatencyMs * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+			Thread.sleep((long) delay);
+		}
+	}
+
+}
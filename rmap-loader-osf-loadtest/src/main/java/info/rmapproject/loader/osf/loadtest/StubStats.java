@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.loadtest;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Request counts and service times seen by the stub servers, grouped by endpoint.
+ */
+public class StubStats {
+
+	private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+	private static class EndpointStats {
+		final Histogram latency = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+		final LongAdder errors = new LongAdder();
+	}
+
+	private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<String, EndpointStats>();
+
+	/**
+	 * Records a request
+	 * @param endpoint name of the endpoint, e.g. osf nodes.get
+	 * @param startNanos System.nanoTime() when the request was received
+	 * @param status HTTP status returned
+	 */
+	void record(String endpoint, long startNanos, int status) {
+		EndpointStats stats = endpoints.computeIfAbsent(endpoint, e -> new EndpointStats());
+		long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+		stats.latency.recordValue(Math.min(Math.max(micros, 0), MAX_LATENCY_MICROS));
+		if (status >= 500) {
+			stats.errors.increment();
+		}
+	}
+
+	/**
+	 * @param endpoint
+	 * @return number of requests received by the endpoint
+	 */
+	long count(String endpoint) {
+		EndpointStats stats = endpoints.get(endpoint);
+		return stats == null ? 0 : stats.latency.getTotalCount();
+	}
+
+	/**
+	 * @param prefix
+	 * @return number of requests received by all endpoints whose name starts with prefix
+	 */
+	long countAll(String prefix) {
+		long total = 0;
+		for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+			if (entry.getKey().startsWith(prefix)) {
+				total = total + entry.getValue().latency.getTotalCount();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Prints a line per endpoint with request and error counts and service time percentiles in milliseconds
+	 * @param out
+	 */
+	void report(PrintStream out) {
+		out.println(String.format("%-32s %10s %8s %9s %9s %9s %9s", "endpoint", "requests", "errors", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+		for (Map.Entry<String, EndpointStats> entry : new TreeMap<String, EndpointStats>(endpoints).entrySet()) {
+			Histogram latency = entry.getValue().latency;
+			out.println(String.format("%-32s %10d %8d %9.1f %9.1f %9.1f %9.1f", entry.getKey(), latency.getTotalCount(),
+					entry.getValue().errors.sum(), millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(90)),
+					millis(latency.getValueAtPercentile(99)), millis(latency.getMaxValue())));
+		}
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+
+}
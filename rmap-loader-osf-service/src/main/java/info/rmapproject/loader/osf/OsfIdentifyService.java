@@ -1,417 +1,494 @@
-/*******************************************************************************
- * Copyright 2017 Johns Hopkins University
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- *
- * This software was produced as part of the RMap Project (http://rmap-project.info),
- * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
- * collaboration between Data Conservancy, Portico, and IEEE.
- *******************************************************************************/
-package info.rmapproject.loader.osf;
-
-import static info.rmapproject.loader.util.ConfigUtil.string;
-
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-import java.util.function.Consumer;
-
-import javax.sql.DataSource;
-
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.zaxxer.hikari.HikariDataSource;
-
-import info.rmapproject.cos.osf.client.model.LightNode;
-import info.rmapproject.cos.osf.client.model.RecordType;
-import info.rmapproject.cos.osf.client.service.OsfClientService;
-import info.rmapproject.loader.HarvestRecord;
-import info.rmapproject.loader.RdbmsHarvestRunRegistry;
-import info.rmapproject.loader.osf.jms.OsfJmsQueue;
-import info.rmapproject.loader.osf.model.OsfHarvestableRecord;
-import info.rmapproject.loader.osf.model.OsfLightRecordDTO;
-import info.rmapproject.loader.osf.model.QueueName;
-import info.rmapproject.loader.osf.utils.OSFLoaderUtils;
-import info.rmapproject.loader.util.LogUtil;
-
-public class OsfIdentifyService {
-	
-	
-	/** The log. */
-	private static final Logger LOG = LoggerFactory.getLogger(OsfIdentifyService.class);
-	
-	private final static String DATE_MODIFIED_FILTER = "filter[date_modified]";
-	private final static String FROM_FILTER = "[gte]";
-	private final static String TO_FILTER = "[lte]";
-	private final static String DATE_MODIFIED_FROM_FILTER = "filter[date_modified]" + FROM_FILTER;
-	private final static String DATE_MODIFIED_TO_FILTER = "filter[date_modified]" + TO_FILTER;
-	private final static String DATE_CREATED_FILTER = "filter[date_created]";
-	private final static String DATE_CREATED_FROM_FILTER = "filter[date_created]" + FROM_FILTER;
-	private final static String DATE_CREATED_TO_FILTER = "filter[date_created]" + TO_FILTER;
-	private final static String DATE_REGISTERED_FILTER = "filter[date_registered]";
-	private final static String DATE_REGISTERED_FROM_FILTER = "filter[date_registered]" + FROM_FILTER;
-	private final static String DATE_REGISTERED_TO_FILTER = "filter[date_registered]" + TO_FILTER;
-	
-	private final static String PUBLIC_FILTER = "filter[public]";
-	private final static String PUBLIC_FILTER_DEFAULT_VALUE = "true";	
-	
-
-	/**
-	 * JMS Queue instance to be used for queue management
-	 */
-	private OsfJmsQueue jmsQueue;
-
-	/**
-	 * Datasource for saved data
-	 */
-	private DataSource datasource;
-	
-	private RecordType harvestType;
-		
-	private HashMap<String,String> params;
-	
-	/**
-	 * Holds run date for harvester run. Initiated when class is initiated so it remains consistent throughout data load.
-	 */
-	private final DateTime currRunDate = new DateTime(DateTimeZone.UTC);
-	
-	private DateTime lastRunDate = null;
-	
-	private boolean filterByRunDate = false;	
-
-	private Set<String> identifiedIds = null;   
-	
-	private Integer numFailuresRequeued = 0;
-	
-	
-	/**
-	 * Initiate with harvester type
-	 * @param type
-	 */
-	public OsfIdentifyService(RecordType type, String filters){
-
-		LogUtil.adjustLogLevels();
-		
-		try {
-			this.harvestType=type;
-			if (filters==null){
-				filters="";
-			} 
-			this.params = OSFLoaderUtils.readParamsIntoMap(filters);
-			this.jmsQueue = new OsfJmsQueue();
-			
-			//initiate data source
-	        final HikariDataSource ds = new HikariDataSource();
-	        ds.setJdbcUrl(string("jdbc.url", "jdbc:sqlite:"));
-	        ds.setUsername(string("jdbc.username", null));
-	        ds.setPassword(string("jdbc.password", null));
-	        ds.setDriverClassName(string("jdbc.driver",null));
-	        this.datasource = ds;
-	        this.identifiedIds = new HashSet<String>();
-
-		} catch (Exception e) {
-			throw new RuntimeException("Could not complete identify records process.", e);    
-		}
-	}
-	
-	public void setHarvesterType(RecordType type) {
-		this.harvestType=type;
-	}
-	
-
-	public void setParams(HashMap<String,String> params) {
-		this.params=params;
-	}
-
-	public void setParams(String params) {
-		try {
-			this.params = OSFLoaderUtils.readParamsIntoMap(params);
-		} catch (Exception e) {
-			throw new RuntimeException("Could not process filters into key value pairs:" + params, e);   
-		}
-	}
-	
-	
-	/**
-	 * Identifies OSF records with filters applied that should be loaded to the transform queue 
-	 * @param filters
-	 * @return
-	 */
-	public Integer identifyNewRecords(){
-		Integer numIdentified = 0;
-		try {			
-			String harvestName = "osf." + harvestType.getTypeString();
-						
-			if (!params.containsKey(PUBLIC_FILTER) && !harvestType.equals(RecordType.OSF_USER)){
-				params.put(PUBLIC_FILTER, PUBLIC_FILTER_DEFAULT_VALUE);
-			}
-			
-			if (!containsDateFilter(params)) {
-				filterByRunDate = true;
-				String startDate = null;
-				lastRunDate = getLastHarvestDate(harvestName);
-				if (lastRunDate != null){
-					startDate = OSFLoaderUtils.convertToOsfDateParam(lastRunDate);
-				} else {
-					//if no start date, set default to get yesterday's results only - this prevents harvesting the whole dataset by default			
-					startDate = OSFLoaderUtils.previousDayAsString(currRunDate);	
-				}
-				
-				if (!harvestType.equals(RecordType.OSF_USER)) {
-					params.put(DATE_MODIFIED_FROM_FILTER, startDate);
-				} else if (lastRunDate==null){
-					lastRunDate = new DateTime().minusDays(2);
-				}
-
-				//only record harvest date if we're doing default date handling
-				setNewHarvestDate(harvestName, currRunDate);
-			}
-			
-			Iterator<OsfLightRecordDTO> iterator = initiateIterator();
-			String queueName = QueueName.getQueueName(QueueName.TRANSFORM, harvestType, null);
-			LOG.info("Adding records to queue: " + queueName);
-			numIdentified = addAllRecords(iterator, queueName);
-			
-		} catch (Exception e) {
-			throw new RuntimeException("Could not complete identify records process.", e);    
-		}
-		return numIdentified;
-	}
-	
-	
-	private Iterator<OsfLightRecordDTO> initiateIterator() throws Exception{
-		Iterator<OsfLightRecordDTO> iterator = new OsfIteratorAdapter(params, harvestType); 
-		return iterator;
-	}
-	
-
-	private Integer addAllRecords(Iterator<OsfLightRecordDTO> iterator, String queue) {
-		//Reset counter
-		Integer counter = 0;                                                      
-		do {
-	        String id = null;
-    		try {
-    			OsfLightRecordDTO osfRecord = iterator.next();
-    			
-    			DateTime filterDate = osfRecord.getFilterDate();
-    			if (!filterByRunDate 
-    					|| (filterByRunDate 
-    						&& (lastRunDate==null || filterDate.isAfter(lastRunDate)||filterDate.equals(lastRunDate)))
-    						&& filterDate.isBefore(currRunDate)) {
-    				        				
-    				id = osfRecord.getId();
-    				
-    				//For nodes or registrations, check if parent is accessible, if so use parent record instead
-    				if (osfRecord.getType().equals(RecordType.OSF_NODE)
-    						|| osfRecord.getType().equals(RecordType.OSF_REGISTRATION)){
-    					
-    					String newId = getHighestAccessibleParentNode(id, osfRecord.getType());
-    					if (!newId.equals(id)){
-    						LOG.info("An accessible parent record for the one harvested was identified.  Record: " + newId + " was added to the transform queue in place of " + id);
-    						//note: keep the modified date, since a subcomponent has been modified - this might not register in the modified date of the parent.
-    						osfRecord.setId(newId);
-    						id = newId;
-    					}
-    					
-    				}
-
-    				if (!identifiedIds.contains(id)) {
-	    				HarvestRecord record = new OsfHarvestableRecord(osfRecord);
-	   					jmsQueue.add(record, queue);
-	   	    			counter = counter + 1;
-	   	    			identifiedIds.add(id);
-					} else {
-						LOG.info("Record " + id + " from queue " + queue + " was skipped. Record was already added in this session.");					
-					}
-    			} else if (filterDate.isBefore(lastRunDate) && harvestType.equals(RecordType.OSF_USER)) {
-    				//for User records, exit loop - the rest of the records will be even earlier!
-    				break;
-    			}
-    			
-    		} catch (Exception e) {
-    			if (id==null){
-    				Integer i = counter+1;
-    				id = i.toString();
-    			}
-    			String logMsg = "Could not complete export for record " + id + "\n Continuing to next record. Msg: " + e.getMessage();
-    			LOG.error(logMsg,e);
-    		}
-		} while(iterator.hasNext());
-				
-		return counter;
-	}
-	
-	/**
-	 * Moves failed records to the start of the process again (i.e. the corresponding TRANSFORM queue)
-	 * @param type
-	 * @return
-	 */
-	public Integer requeueFailures(String failQueue) {
-
-		String ingestQueue = QueueName.getQueueName(QueueName.TRANSFORM, harvestType, null);
-
-		Consumer<HarvestRecord> consumer = received -> {
-			String idUrl = received.getRecordInfo().getHarvestInfo().getId().toString();
-			String osfId = OSFLoaderUtils.extractLastSubFolder(idUrl);
-			try {	
-				
-				if (!identifiedIds.contains(osfId)){
-					received.setBody(osfId.getBytes());
-					received.getRecordInfo().setContentType(harvestType.getTypeString());
-					jmsQueue.add(received, ingestQueue);
-					numFailuresRequeued = numFailuresRequeued + 1;
-		   			identifiedIds.add(osfId);
-					LOG.info("Record requeued from fail:" + osfId + " from queue: " + failQueue + " and added to " + ingestQueue);					
-				} else {
-					LOG.info("Record " + osfId + " from queue " + failQueue + " was skipped. Record was already requeued in this session.");	
-					
-				}
-				
-			} catch (Exception ex) {
-				LOG.error("Failed to requeue record with ID, this will be returned to the fail queue: " + osfId, ex);
-				//add to fail queue
-				jmsQueue.add(received, failQueue);
-			}
-			
-	      };	
-
-		jmsQueue.processMessages(failQueue, consumer);
-		LOG.debug(numFailuresRequeued + " records moved from " + failQueue + " queue to " + ingestQueue);		
-		
-		return numFailuresRequeued;
-	}
-	
-	
-	
-	/**
-	 * Attempts to connect to URL provided to see if it returns a 401, which means it exists but is not publicly accessible.
-	 * @param testUrl
-	 * @return
-	 * @throws Exception
-	 */
-	public boolean urlAccessible(String testUrl) throws Exception{
-		URL url = new URL(testUrl); 
-		HttpURLConnection connection = (HttpURLConnection)url.openConnection(); 
-		connection.setRequestMethod("GET"); connection.connect(); 
-		int code = connection.getResponseCode();
-		if (code==401){// process this
-			return false; //there is a parent node but it isn't accessible!
-		} else {
-			return true; //there is a parent node and it is accessible
-		}
-	}
-	
-	/**
-	 * Walks up node/registration tree through parents to find the highest level accessible node
-	 * @param id
-	 * @param type
-	 * @return
-	 * @throws Exception
-	 */
-	public String getHighestAccessibleParentNode(String id, RecordType type) throws Exception{
-		OsfClientService osfClient = new OsfClientService();      
-		//use id to get individual record and go up tree to top.  Replace osfRecord with top record.
-		LightNode newRecord = null;
-		String newId = id;
-		String parentId = id;
-		String lastParentId = null;
-		do {
-			lastParentId = parentId;
-			if (type.equals(RecordType.OSF_NODE)) {
-				newRecord = osfClient.getLightNode(newId);
-			} else {
-				newRecord = osfClient.getLightRegistration(newId);
-			}
-			parentId = newRecord.getParent();
-			
-			if (parentId!=null && urlAccessible(parentId)) {
-				parentId = OSFLoaderUtils.extractLastSubFolder(parentId);
-				newId = parentId;    							
-			}
-		} while (!newId.equals(lastParentId));
-
-		//cleanup
-		osfClient = null;
-		return newId;
-	}
-	
-	
-	
-	
-
-	/**
-	 * Retrieve date of last harvest for the harvest name specified
-	 * @param harvestName
-	 * @return
-	 */
-	private DateTime getLastHarvestDate(String harvestName) {
-        final RdbmsHarvestRunRegistry harvestRegistry = new RdbmsHarvestRunRegistry();
-        harvestRegistry.setDataSource(datasource);
-        harvestRegistry.init();
-		Date lastRunDate = harvestRegistry.getLastRunDate(harvestName);
-		if (lastRunDate!=null){
-			DateTime lastRunDateJoda = new DateTime(lastRunDate).withZoneRetainFields(DateTimeZone.UTC);
-			return lastRunDateJoda;
-		} else {
-			return null;
-		}
-	}
-	
-	/**
-	 * Save current harvest date
-	 * @param harvestName
-	 * @return
-	 */
-	private void setNewHarvestDate(String harvestName, DateTime newHarvestDate) {
-		try {
-	        final RdbmsHarvestRunRegistry harvestRegistry = new RdbmsHarvestRunRegistry();
-	        harvestRegistry.setDataSource(datasource);
-	        harvestRegistry.init();
-	        Date jdkDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(newHarvestDate.toString("yyyy-MM-dd HH:mm:ss"));
-			harvestRegistry.addRunDate(harvestName, jdkDate);
-		} catch (Exception e){
-			LOG.error("Could not parse harvest date. The harvest date could not be recorded.", e);
-			throw new RuntimeException("Could not parse harvest date. The harvest date could not be recorded.", e);
-		}
-	}
-	
-	
-	private boolean containsDateFilter(HashMap<String,String> params) {
-		if (params.containsKey(DATE_MODIFIED_FILTER)
-				||params.containsKey(DATE_MODIFIED_FROM_FILTER)
-				||params.containsKey(DATE_MODIFIED_TO_FILTER)
-				||params.containsKey(DATE_CREATED_FILTER)
-				||params.containsKey(DATE_CREATED_FROM_FILTER)
-				||params.containsKey(DATE_CREATED_TO_FILTER)
-				||params.containsKey(DATE_REGISTERED_FILTER)
-				||params.containsKey(DATE_REGISTERED_FROM_FILTER)
-				||params.containsKey(DATE_REGISTERED_TO_FILTER)){
-			return true;
-		}
-		
-		return false;
-	}
-	
-    public void close() {
-		jmsQueue.close();    }
-
-	
-}
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Timer;
+
+import info.rmapproject.cos.osf.client.model.LightNode;
+import info.rmapproject.cos.osf.client.model.RecordType;
+import info.rmapproject.cos.osf.client.service.OsfClientService;
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.osf.cluster.ClusterCoordinator;
+import info.rmapproject.loader.osf.cluster.HarvestRunCoordinator;
+import info.rmapproject.loader.osf.cluster.HarvestRunCoordinator.HighWaterMark;
+import info.rmapproject.loader.osf.jfr.LoaderEvents;
+import info.rmapproject.loader.osf.jfr.LoaderEvents.Kind;
+import info.rmapproject.loader.osf.metrics.LoaderMetrics;
+import info.rmapproject.loader.osf.model.OsfHarvestableRecord;
+import info.rmapproject.loader.osf.model.OsfLightRecordDTO;
+import info.rmapproject.loader.osf.model.QueueName;
+import info.rmapproject.loader.osf.queue.StageQueue;
+import info.rmapproject.loader.osf.queue.StageQueueFactory;
+import info.rmapproject.loader.osf.trace.RecordTrace;
+import info.rmapproject.loader.osf.utils.OSFLoaderUtils;
+import info.rmapproject.loader.osf.utils.OsfClientProvider;
+import info.rmapproject.loader.util.LogUtil;
+
+public class OsfIdentifyService {
+	
+	
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(OsfIdentifyService.class);
+	
+	private final static String DATE_MODIFIED_FILTER = "filter[date_modified]";
+	private final static String FROM_FILTER = "[gte]";
+	private final static String TO_FILTER = "[lte]";
+	private final static String DATE_MODIFIED_FROM_FILTER = "filter[date_modified]" + FROM_FILTER;
+	private final static String DATE_MODIFIED_TO_FILTER = "filter[date_modified]" + TO_FILTER;
+	private final static String DATE_CREATED_FILTER = "filter[date_created]";
+	private final static String DATE_CREATED_FROM_FILTER = "filter[date_created]" + FROM_FILTER;
+	private final static String DATE_CREATED_TO_FILTER = "filter[date_created]" + TO_FILTER;
+	private final static String DATE_REGISTERED_FILTER = "filter[date_registered]";
+	private final static String DATE_REGISTERED_FROM_FILTER = "filter[date_registered]" + FROM_FILTER;
+	private final static String DATE_REGISTERED_TO_FILTER = "filter[date_registered]" + TO_FILTER;
+	
+	private final static String PUBLIC_FILTER = "filter[public]";
+	private final static String PUBLIC_FILTER_DEFAULT_VALUE = "true";	
+	
+
+	/**
+	 * Queue instance to be used for queue management
+	 */
+	private StageQueue stageQueue;
+
+	/**
+	 * Run locks and high-water marks, shared by all identify services
+	 */
+	private HarvestRunCoordinator runCoordinator;
+	
+	/**
+	 * OSF API client, shared by all services in the process
+	 */
+	private OsfClientService osfClient;
+	
+	private RecordType harvestType;
+		
+	private HashMap<String,String> params;
+	
+	/**
+	 * Holds run date for harvester run. Initiated when class is initiated so it remains consistent throughout data load.
+	 */
+	private final DateTime currRunDate = new DateTime(DateTimeZone.UTC);
+	
+	private DateTime lastRunDate = null;
+	
+	private boolean filterByRunDate = false;	
+
+	/**
+	 * True when identify runs as a change feed, using the time of the last run to the second as the start of the window
+	 */
+	private final boolean changeFeed = OSFLoaderUtils.isChangeFeedEnabled();
+
+	private Set<String> identifiedIds = null;   
+	
+	private Integer numFailuresRequeued = 0;
+	
+	
+	/**
+	 * Initiate with harvester type
+	 * @param type
+	 */
+	public OsfIdentifyService(RecordType type, String filters){
+		this(type, filters, HarvestRunCoordinator.getInstance());
+	}
+	
+	/**
+	 * Initiate with harvester type and the coordinator that holds run locks and high-water marks
+	 * @param type
+	 * @param filters
+	 * @param runCoordinator
+	 */
+	public OsfIdentifyService(RecordType type, String filters, HarvestRunCoordinator runCoordinator){
+
+		LogUtil.adjustLogLevels();
+		
+		try {
+			this.harvestType=type;
+			if (filters==null){
+				filters="";
+			} 
+			this.params = OSFLoaderUtils.readParamsIntoMap(filters);
+			this.stageQueue = StageQueueFactory.createQueue();
+			this.runCoordinator = runCoordinator;
+			this.osfClient = OsfClientProvider.getClient();
+	        this.identifiedIds = new HashSet<String>();
+
+		} catch (Exception e) {
+			throw new RuntimeException("Could not complete identify records process.", e);    
+		}
+	}
+	
+	public void setHarvesterType(RecordType type) {
+		this.harvestType=type;
+	}
+	
+
+	public void setParams(HashMap<String,String> params) {
+		this.params=params;
+	}
+
+	public void setParams(String params) {
+		try {
+			this.params = OSFLoaderUtils.readParamsIntoMap(params);
+		} catch (Exception e) {
+			throw new RuntimeException("Could not process filters into key value pairs:" + params, e);   
+		}
+	}
+	
+	
+	/**
+	 * Identifies OSF records with filters applied that should be loaded to the transform queue 
+	 * @param filters
+	 * @return
+	 */
+	public Integer identifyNewRecords(){
+		Integer numIdentified = 0;
+		String harvestName = getHarvestName(harvestType);
+		//only one run at a time identifies each type, whether in this process or on another host
+		if (!runCoordinator.tryLock(harvestName)) {
+			LOG.info("Identify for " + harvestName + " is already running elsewhere. Skipping.");
+			return numIdentified;
+		}
+		try {			
+			HighWaterMark highWaterMark = null;
+						
+			if (!params.containsKey(PUBLIC_FILTER) && !harvestType.equals(RecordType.OSF_USER)){
+				params.put(PUBLIC_FILTER, PUBLIC_FILTER_DEFAULT_VALUE);
+			}
+			
+			if (!containsDateFilter(params)) {
+				filterByRunDate = true;
+				String startDate = null;
+				highWaterMark = getHighWaterMark(harvestName);
+				lastRunDate = highWaterMark.getDate();
+				if (lastRunDate != null && changeFeed){
+					//window overlaps the previous one so records that show up in the API a little after their modified date are not missed
+					lastRunDate = lastRunDate.minusSeconds(OSFLoaderUtils.getChangeFeedOverlapSeconds());
+					startDate = OSFLoaderUtils.convertToOsfDateTimeParam(lastRunDate);
+				} else if (lastRunDate != null){
+					startDate = OSFLoaderUtils.convertToOsfDateParam(lastRunDate);
+				} else {
+					//if no start date, set default to get yesterday's results only - this prevents harvesting the whole dataset by default			
+					startDate = OSFLoaderUtils.previousDayAsString(currRunDate);	
+				}
+				
+				if (!harvestType.equals(RecordType.OSF_USER)) {
+					params.put(DATE_MODIFIED_FROM_FILTER, startDate);
+				} else if (lastRunDate==null){
+					lastRunDate = new DateTime().minusDays(2);
+				}
+			}
+			
+			Iterator<OsfLightRecordDTO> iterator = initiateIterator();
+			String queueName = QueueName.getQueueName(QueueName.TRANSFORM, harvestType, null);
+			LOG.info("Adding records to queue: " + queueName);
+			numIdentified = addAllRecords(iterator, queueName);
+			
+			//only record harvest date if we're doing default date handling
+			//this waits until the records are queued so that a failed run is covered by the next one
+			if (filterByRunDate) {
+				advanceHighWaterMark(harvestName, highWaterMark, currRunDate);
+			}
+			
+		} catch (Exception e) {
+			throw new RuntimeException("Could not complete identify records process.", e);    
+		} finally {
+			runCoordinator.unlock(harvestName);
+		}
+		return numIdentified;
+	}
+	
+	/**
+	 * Name used for the type in the harvest run registry, e.g. osf.nodes
+	 * @param type
+	 * @return harvest name
+	 */
+	public static String getHarvestName(RecordType type) {
+		return "osf." + type.getTypeString();
+	}
+	
+	/**
+	 * Name of the lease held while identify runs for a type, which other cluster nodes can check with
+	 * ClusterCoordinator.isTaskRunning()
+	 * @param type
+	 * @return lease name
+	 */
+	public static String getIdentifyTaskName(RecordType type) {
+		return HarvestRunCoordinator.getLockName(getHarvestName(type));
+	}
+	
+	
+	private Iterator<OsfLightRecordDTO> initiateIterator() throws Exception{
+		Iterator<OsfLightRecordDTO> iterator = new OsfIteratorAdapter(params, harvestType); 
+		return iterator;
+	}
+	
+
+	private Integer addAllRecords(Iterator<OsfLightRecordDTO> iterator, String queue) {
+		//Reset counter
+		Integer counter = 0;                                                      
+		do {
+	        String id = null;
+	        Timer.Sample sample = LoaderMetrics.start();
+    		try {
+    			Object listEvent = LoaderEvents.begin(Kind.OSF_API_CALL, null, harvestType.getTypeString(), harvestType.getTypeString() + ".list");
+    			OsfLightRecordDTO osfRecord = null;
+    			try {
+    				osfRecord = LoaderMetrics.timeCall("osf", harvestType.getTypeString() + ".list", iterator::next);
+    			} catch (Exception e) {
+    				LoaderEvents.fail(listEvent, e);
+    				throw e;
+    			} finally {
+    				LoaderEvents.end(listEvent, 0);
+    			}
+    			
+    			DateTime filterDate = osfRecord.getFilterDate();
+    			if (!filterByRunDate 
+    					|| (filterByRunDate 
+    						&& (lastRunDate==null || filterDate.isAfter(lastRunDate)||filterDate.equals(lastRunDate)))
+    						&& filterDate.isBefore(currRunDate)) {
+    				        				
+    				id = osfRecord.getId();
+    				
+    				//For nodes or registrations, check if parent is accessible, if so use parent record instead
+    				if (osfRecord.getType().equals(RecordType.OSF_NODE)
+    						|| osfRecord.getType().equals(RecordType.OSF_REGISTRATION)){
+    					
+    					String newId = getHighestAccessibleParentNode(id, osfRecord.getType());
+    					if (!newId.equals(id)){
+    						LOG.info("An accessible parent record for the one harvested was identified.  Record: " + newId + " was added to the transform queue in place of " + id);
+    						//note: keep the modified date, since a subcomponent has been modified - this might not register in the modified date of the parent.
+    						osfRecord.setId(newId);
+    						id = newId;
+    					}
+    					
+    				}
+
+    				boolean alreadyAdded = identifiedIds.contains(id);
+    				LoaderMetrics.countCacheRequest("identify.sessionIds", alreadyAdded);
+    				if (!alreadyAdded) {
+	    				RecordTrace.begin("identified");
+	    				HarvestRecord record = new OsfHarvestableRecord(osfRecord);
+	    				try {
+	    					stageQueue.add(record, ClusterCoordinator.route(queue, id));
+	    				} finally {
+	    					RecordTrace.clear();
+	    				}
+	   	    			counter = counter + 1;
+	   	    			identifiedIds.add(id);
+	   	    			LoaderMetrics.recordStage(sample, "identify", harvestType.getTypeString(), "success");
+					} else {
+						LOG.info("Record " + id + " from queue " + queue + " was skipped. Record was already added in this session.");					
+						LoaderMetrics.recordStage(sample, "identify", harvestType.getTypeString(), "skipped");
+					}
+    			} else if (filterDate.isBefore(lastRunDate) && harvestType.equals(RecordType.OSF_USER)) {
+    				//for User records, exit loop - the rest of the records will be even earlier!
+    				break;
+    			}
+    			
+    		} catch (Exception e) {
+    			if (id==null){
+    				Integer i = counter+1;
+    				id = i.toString();
+    			}
+    			String logMsg = "Could not complete export for record " + id + "\n Continuing to next record. Msg: " + e.getMessage();
+    			LOG.error(logMsg,e);
+    			LoaderMetrics.recordStage(sample, "identify", harvestType.getTypeString(), "error");
+    		}
+		} while(iterator.hasNext());
+				
+		return counter;
+	}
+	
+	/**
+	 * Moves failed records to the start of the process again (i.e. the corresponding TRANSFORM queue)
+	 * @param type
+	 * @return
+	 */
+	public Integer requeueFailures(String failQueue) {
+
+		String ingestQueue = QueueName.getQueueName(QueueName.TRANSFORM, harvestType, null);
+
+		Consumer<HarvestRecord> consumer = received -> {
+			String idUrl = received.getRecordInfo().getHarvestInfo().getId().toString();
+			String osfId = OSFLoaderUtils.extractLastSubFolder(idUrl);
+			try {	
+				
+				if (!identifiedIds.contains(osfId)){
+					received.setBody(osfId.getBytes());
+					received.getRecordInfo().setContentType(harvestType.getTypeString());
+					stageQueue.add(received, ClusterCoordinator.route(ingestQueue, osfId));
+					numFailuresRequeued = numFailuresRequeued + 1;
+		   			identifiedIds.add(osfId);
+					LOG.info("Record requeued from fail:" + osfId + " from queue: " + failQueue + " and added to " + ingestQueue);					
+				} else {
+					LOG.info("Record " + osfId + " from queue " + failQueue + " was skipped. Record was already requeued in this session.");	
+					
+				}
+				
+			} catch (Exception ex) {
+				LOG.error("Failed to requeue record with ID, this will be returned to the fail queue: " + osfId, ex);
+				//add to fail queue
+				stageQueue.add(received, failQueue);
+			}
+			
+	      };	
+
+		stageQueue.processMessages(failQueue, consumer);
+		LOG.debug(numFailuresRequeued + " records moved from " + failQueue + " queue to " + ingestQueue);		
+		
+		return numFailuresRequeued;
+	}
+	
+	
+	
+	/**
+	 * Attempts to connect to URL provided to see if it returns a 401, which means it exists but is not publicly accessible.
+	 * @param testUrl
+	 * @return
+	 * @throws Exception
+	 */
+	public boolean urlAccessible(String testUrl) throws Exception{
+		URL url = new URL(testUrl); 
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection(); 
+		connection.setRequestMethod("GET"); connection.connect(); 
+		int code = connection.getResponseCode();
+		if (code==401){// process this
+			return false; //there is a parent node but it isn't accessible!
+		} else {
+			return true; //there is a parent node and it is accessible
+		}
+	}
+	
+	/**
+	 * Walks up node/registration tree through parents to find the highest level accessible node
+	 * @param id
+	 * @param type
+	 * @return
+	 * @throws Exception
+	 */
+	public String getHighestAccessibleParentNode(String id, RecordType type) throws Exception{
+		//use id to get individual record and go up tree to top.  Replace osfRecord with top record.
+		LightNode newRecord = null;
+		String newId = id;
+		String parentId = id;
+		String lastParentId = null;
+		Object walkEvent = LoaderEvents.begin(Kind.PARENT_WALK, id, type.getTypeString(), null);
+		try {
+			do {
+				lastParentId = parentId;
+				final String lookupId = newId;
+				if (type.equals(RecordType.OSF_NODE)) {
+					newRecord = LoaderMetrics.timeCall("osf", "nodes.light", () -> osfClient.getLightNode(lookupId));
+				} else {
+					newRecord = LoaderMetrics.timeCall("osf", "registrations.light", () -> osfClient.getLightRegistration(lookupId));
+				}
+				parentId = newRecord.getParent();
+				
+				final String parentUrl = parentId;
+				if (parentId!=null && LoaderMetrics.timeCheckedCall("osf", "parent.access", () -> urlAccessible(parentUrl))) {
+					parentId = OSFLoaderUtils.extractLastSubFolder(parentId);
+					newId = parentId;    							
+				}
+			} while (!newId.equals(lastParentId));
+		} catch (Exception e) {
+			LoaderEvents.fail(walkEvent, e);
+			throw e;
+		} finally {
+			LoaderEvents.end(walkEvent, 0);
+		}
+
+		return newId;
+	}
+	
+	
+	
+	
+
+	/**
+	 * Retrieve high-water mark, the date of the last harvest, for the harvest name specified
+	 * @param harvestName
+	 * @return
+	 */
+	private HighWaterMark getHighWaterMark(String harvestName) {
+		Object event = LoaderEvents.begin(Kind.REGISTRY_QUERY, null, harvestType.getTypeString(), "getHighWaterMark");
+		try {
+			return runCoordinator.getHighWaterMark(harvestName);
+		} catch (Exception e) {
+			LoaderEvents.fail(event, e);
+			throw e;
+		} finally {
+			LoaderEvents.end(event, 0);
+		}
+	}
+	
+	/**
+	 * Save current harvest date, unless another run has moved the high-water mark since it was read
+	 * @param harvestName
+	 * @param expected
+	 * @param newHarvestDate
+	 */
+	private void advanceHighWaterMark(String harvestName, HighWaterMark expected, DateTime newHarvestDate) {
+		Object event = LoaderEvents.begin(Kind.REGISTRY_QUERY, null, harvestType.getTypeString(), "advanceHighWaterMark");
+		try {
+			runCoordinator.advance(harvestName, expected, newHarvestDate);
+		} catch (Exception e) {
+			LoaderEvents.fail(event, e);
+			throw e;
+		} finally {
+			LoaderEvents.end(event, 0);
+		}
+	}
+	
+	
+	private boolean containsDateFilter(HashMap<String,String> params) {
+		if (params.containsKey(DATE_MODIFIED_FILTER)
+				||params.containsKey(DATE_MODIFIED_FROM_FILTER)
+				||params.containsKey(DATE_MODIFIED_TO_FILTER)
+				||params.containsKey(DATE_CREATED_FILTER)
+				||params.containsKey(DATE_CREATED_FROM_FILTER)
+				||params.containsKey(DATE_CREATED_TO_FILTER)
+				||params.containsKey(DATE_REGISTERED_FILTER)
+				||params.containsKey(DATE_REGISTERED_FROM_FILTER)
+				||params.containsKey(DATE_REGISTERED_TO_FILTER)){
+			return true;
+		}
+		
+		return false;
+	}
+	
+    public void close() {
+		stageQueue.close();    }
+
+	
+}
@@ -1,203 +1,348 @@
-/*******************************************************************************
- * Copyright 2017 Johns Hopkins University
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- *
- * This software was produced as part of the RMap Project (http://rmap-project.info),
- * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
- * collaboration between Data Conservancy, Portico, and IEEE.
- *******************************************************************************/
-package info.rmapproject.loader.osf;
-
-import static info.rmapproject.loader.util.ConfigUtil.string;
-import static java.nio.charset.StandardCharsets.UTF_8;
-
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
-import java.net.URI;
-import java.net.URLEncoder;
-import java.util.function.Consumer;
-
-import javax.sql.DataSource;
-
-import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.config.RegistryBuilder;
-import org.apache.http.conn.socket.ConnectionSocketFactory;
-import org.apache.http.conn.socket.PlainConnectionSocketFactory;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
-import org.apache.http.impl.client.DefaultRedirectStrategy;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.ssl.SSLContexts;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.zaxxer.hikari.HikariDataSource;
-
-import info.rmapproject.loader.HarvestRecord;
-import info.rmapproject.loader.HarvestRecordStatus;
-import info.rmapproject.loader.deposit.disco.DiscoDepositConsumer;
-import info.rmapproject.loader.deposit.disco.RdbmsHarvestRecordRegistry;
-import info.rmapproject.loader.osf.jms.OsfJmsQueue;
-import info.rmapproject.loader.util.LogUtil;
-import info.rmapproject.loader.validation.DiscoValidator;
-import info.rmapproject.loader.validation.DiscoValidator.Format;
-
-public class OsfIngestService {	
-
-	/** The log. */
-	private static final Logger LOG = LoggerFactory.getLogger(OsfIngestService.class);
-
-	/**
-	 * Datasource for saved data
-	 */
-	private DataSource datasource;
-	
-		/**
-	 * JMS Queue instance to be used for queue management
-	 */
-	private OsfJmsQueue jmsQueue;
-	
-	/**Tally of ingested in current session**/
-	private Integer numProcessed = 0;
-	
-	
-	public OsfIngestService(){
-		
-		LogUtil.adjustLogLevels();
-		
-		this.jmsQueue = new OsfJmsQueue();
-		
-		//initiate data source
-        final HikariDataSource ds = new HikariDataSource();
-        ds.setJdbcUrl(string("jdbc.url", "jdbc:sqlite:"));
-        ds.setUsername(string("jdbc.username", null));
-        ds.setPassword(string("jdbc.password", null));
-        ds.setDriverClassName(string("jdbc.driver",null));
-        this.datasource = ds;
-		
-	}
-
-
-	
-	/**
-	 * Reads records in queue specified, moves failures to fail queue, successes to ingest queue.
-	 * @param fromQueue
-	 * @param failQueue
-	 * @return
-	 */
-	protected Integer ingestRecords(String fromQueue, String failQueue) {
-		DiscoDepositConsumer discoDepositer = new DiscoDepositConsumer();
-		RdbmsHarvestRecordRegistry registry = new RdbmsHarvestRecordRegistry();
-		registry.setDataSource(datasource);
-		registry.init();
-		
-		discoDepositer.setHarvestRegistry(registry);        
-		discoDepositer.setAuthToken(string("rmap.api.auth.token", null));
-		discoDepositer.setRmapDiscoEndpoint(makeDiscoEndpointUri());
-		
-		Consumer<HarvestRecord> consumer = received -> {
-			InputStream rdf = new ByteArrayInputStream(received.getBody());
-			String id = received.getRecordInfo().getId().toString();
-			try {
-				DiscoValidator.validate(rdf, Format.TURTLE);
-				
-				HarvestRecordStatus status = registry.getStatus(received.getRecordInfo());
-				if (!status.isUpToDate()) {
-					
-					if (status.recordExists()){
-						//compare rdf
-						rdf = new ByteArrayInputStream(received.getBody());
-						InputStream currRmapRdf = getDiscoRdf(status.latest().toString());
-						if (DiscoValidator.different(currRmapRdf, rdf, Format.TURTLE)) {
-							discoDepositer.accept(received);
-						} else {
-							//update the registry date even though it didn't change
-							registry.register(received.getRecordInfo(), status.latest());
-							LOG.info("The DiSCO for record: " + id + " from ingest queue: " + fromQueue + " has not changed since the last harvest. Skipping.");							
-						}
-					} else {
-						discoDepositer.accept(received);
-					}
-				} else {
-					LOG.info("The latest version of the record: " + id + " from ingest queue: " + fromQueue + " already exists. Skipping.");			
-				}
-				numProcessed = numProcessed+1;
-								
-				LOG.info("Processed record: " + id + " from ingest queue: " + fromQueue);
-			} catch (Exception ex) {
-				LOG.error("Ingest failed for record from source: " + id, ex);
-				//add to fail queue
-				jmsQueue.add(received, failQueue);
-				LOG.error("Record not ingested:" + received.getRecordInfo().getId() + " added to fail queue:" + failQueue);
-			} 
-		};
-				
-		jmsQueue.processMessages(fromQueue, consumer);
-		
-		LOG.info(numProcessed + " records processed from ingest queue " + fromQueue);
-		return numProcessed;
-
-	}
-
-    private static URI makeDiscoEndpointUri() {
-        return URI.create(string("rmap.api.baseuri",
-                "https://test.rmap-hub.org/api/").replaceFirst("/$", "") + "/discos/");
-    }
-     
-    private InputStream getDiscoRdf(String latestDiscoUri) {
-
-        try {
-        	HttpClient client = HttpClientBuilder.create()
-                    .setConnectionManager(new PoolingHttpClientConnectionManager(
-                            RegistryBuilder
-                                    .<ConnectionSocketFactory> create()
-                                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
-                                    .register("https", new SSLConnectionSocketFactory(
-                                            SSLContexts.custom()
-                                                    .loadTrustMaterial(new TrustSelfSignedStrategy()).build(),
-                                            new NoopHostnameVerifier()))
-                                    .build()))
-                    .setRedirectStrategy(new DefaultRedirectStrategy())
-                    .build();
-        	
-        	
-            URI uri = new URI(makeDiscoEndpointUri() + URLEncoder.encode(latestDiscoUri, "UTF-8"));
-			HttpGet get = new HttpGet(uri);
-			
-			HttpResponse response = client.execute(get);
-
-	            if (response.getStatusLine().getStatusCode() == 200) {
-	                return response.getEntity().getContent();
-	            } else {
-	                throw new RuntimeException(String.format("Unexpected status code %s; '%s'", response.getStatusLine()
-	                        .getStatusCode(), IOUtils.toString(response.getEntity().getContent(), UTF_8)));
-	            }
-
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
-        }
-    }
-    
-    
-    
-    public void close() {
-		jmsQueue.close();
-    }
-    
-}
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Timer;
+
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.HarvestRecordStatus;
+import info.rmapproject.loader.HarvestRegistry;
+import info.rmapproject.loader.deposit.disco.DiscoDepositConsumer;
+import info.rmapproject.loader.deposit.disco.RdbmsHarvestRecordRegistry;
+import info.rmapproject.loader.osf.cluster.ClusterCoordinator;
+import info.rmapproject.loader.osf.jfr.LoaderEvents;
+import info.rmapproject.loader.osf.jfr.LoaderEvents.Kind;
+import info.rmapproject.loader.osf.metrics.LoaderMetrics;
+import info.rmapproject.loader.osf.queue.PayloadCodec;
+import info.rmapproject.loader.osf.queue.RetryScheduler;
+import info.rmapproject.loader.osf.queue.StageQueue;
+import info.rmapproject.loader.osf.queue.StageQueueFactory;
+import info.rmapproject.loader.osf.registry.MirroredHarvestRecordRegistry;
+import info.rmapproject.loader.osf.trace.RecordTrace;
+import info.rmapproject.loader.osf.utils.DataSourceProvider;
+import info.rmapproject.loader.osf.utils.OSFLoaderUtils;
+import info.rmapproject.loader.util.LogUtil;
+import info.rmapproject.loader.validation.DiscoValidator;
+import info.rmapproject.loader.validation.DiscoValidator.Format;
+
+public class OsfIngestService {	
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(OsfIngestService.class);
+
+	/**
+	 * Harvest record registry, initialized once and used for every record ingested by this service. When 
+	 * osf.registry.mirror is on this is the in-memory mirror of the database registry.
+	 */
+	private HarvestRegistry registry;
+	
+		/**
+	 * Queue instance to be used for queue management
+	 */
+	private StageQueue stageQueue;
+	
+	/**
+	 * Schedules failed records for delayed retry
+	 */
+	private RetryScheduler retryScheduler;
+	
+	/**
+	 * HTTP client used to retrieve current DiSCOs from RMap, shared so connections are pooled across records and services
+	 */
+	private static HttpClient rmapClient = null;
+	
+	/**Tally of ingested in current session**/
+	private Integer numProcessed = 0;
+	
+	
+	public OsfIngestService(){
+		this(DataSourceProvider.getDataSource());
+	}
+	
+	/**
+	 * Initiate with the datasource for the harvest record registry
+	 * @param datasource
+	 */
+	public OsfIngestService(DataSource datasource){
+		
+		LogUtil.adjustLogLevels();
+		
+		this.stageQueue = StageQueueFactory.createQueue();
+		this.retryScheduler = new RetryScheduler(stageQueue);
+		RdbmsHarvestRecordRegistry rdbmsRegistry = new RdbmsHarvestRecordRegistry();
+		rdbmsRegistry.setDataSource(datasource);
+		rdbmsRegistry.init();
+		this.registry = rdbmsRegistry;
+		if (MirroredHarvestRecordRegistry.isEnabled()) {
+			if (ClusterCoordinator.isEnabled()) {
+				//other nodes register records on shards handed over from this one, so a local index would go stale
+				LOG.warn("osf.registry.mirror is not supported in cluster mode, using the database registry");
+			} else {
+				this.registry = MirroredHarvestRecordRegistry.getInstance(rdbmsRegistry, DataSourceProvider.getJdbcUrl());
+			}
+		}
+		
+	}
+
+
+	
+	/**
+	 * Reads records in queue specified and deposits them to RMap, schedules failures for retry or moves them 
+	 * to the fail queue once retries are used up.
+	 * @param fromQueue
+	 * @param retryQueue
+	 * @param failQueue
+	 * @return
+	 */
+	protected Integer ingestRecords(String fromQueue, String retryQueue, String failQueue) {
+		return ingestRecords(fromQueue, retryQueue, failQueue, () -> true);
+	}
+	
+	/**
+	 * Reads records in queue specified as they arrive until the transform stage reports it is complete and the
+	 * queue is empty. Used when stages run concurrently.
+	 * @param fromQueue
+	 * @param retryQueue
+	 * @param failQueue
+	 * @param upstreamComplete returns true once transform has finished adding records
+	 * @return
+	 */
+	protected Integer ingestRecords(String fromQueue, String retryQueue, String failQueue, BooleanSupplier upstreamComplete) {
+		DiscoDepositConsumer discoDepositer = new DiscoDepositConsumer();
+		discoDepositer.setHarvestRegistry(registry);        
+		discoDepositer.setAuthToken(string("rmap.api.auth.token", null));
+		discoDepositer.setRmapDiscoEndpoint(makeDiscoEndpointUri());
+		
+		Consumer<HarvestRecord> consumer = received -> {
+			if (!ClusterCoordinator.isOwned(fromQueue)) {
+				//shard was handed to another node while this consumer was stopping
+				stageQueue.addDelayed(received, fromQueue, ClusterCoordinator.getHandoffDelayMillis(), stageQueue.getDeliveryAttempt());
+				return;
+			}
+			Timer.Sample sample = LoaderMetrics.start();
+			String outcome = "deposited";
+			RecordTrace.mark("ingest.start");
+			byte[] payload = received.getBody();
+			String id = received.getRecordInfo().getId().toString();
+			String type = typeOf(received);
+			try {
+				received.setBody(PayloadCodec.decode(payload));
+				InputStream rdf = new ByteArrayInputStream(received.getBody());
+				int size = received.getBody().length;
+				Object validateEvent = LoaderEvents.begin(Kind.DISCO_VALIDATE, id, type, "validate");
+				try {
+					DiscoValidator.validate(rdf, Format.TURTLE);
+				} catch (Exception e) {
+					LoaderEvents.fail(validateEvent, e);
+					throw e;
+				} finally {
+					LoaderEvents.end(validateEvent, size);
+				}
+				RecordTrace.mark("ingest.validated");
+				
+				Object statusEvent = LoaderEvents.begin(Kind.REGISTRY_QUERY, id, type, "getStatus");
+				HarvestRecordStatus status = null;
+				try {
+					status = LoaderMetrics.timeCall("registry", "status", () -> registry.getStatus(received.getRecordInfo()));
+				} catch (Exception e) {
+					LoaderEvents.fail(statusEvent, e);
+					throw e;
+				} finally {
+					LoaderEvents.end(statusEvent, 0);
+				}
+				LoaderMetrics.countCacheRequest("registry.upToDate", status.isUpToDate());
+				RecordTrace.mark("ingest.status");
+				if (!status.isUpToDate()) {
+					
+					if (status.recordExists()){
+						//compare rdf
+						rdf = new ByteArrayInputStream(received.getBody());
+						InputStream currRmapRdf = getDiscoRdf(status.latest().toString());
+						Object differentEvent = LoaderEvents.begin(Kind.DISCO_VALIDATE, id, type, "different");
+						boolean different = false;
+						try {
+							different = DiscoValidator.different(currRmapRdf, rdf, Format.TURTLE);
+						} catch (Exception e) {
+							LoaderEvents.fail(differentEvent, e);
+							throw e;
+						} finally {
+							LoaderEvents.end(differentEvent, size);
+						}
+						RecordTrace.mark("ingest.compared");
+						if (different) {
+							deposit(discoDepositer, received);
+						} else {
+							outcome = "unchanged";
+							//update the registry date even though it didn't change
+							Object registerEvent = LoaderEvents.begin(Kind.REGISTRY_QUERY, id, type, "register");
+							try {
+								registry.register(received.getRecordInfo(), status.latest());
+							} catch (Exception e) {
+								LoaderEvents.fail(registerEvent, e);
+								throw e;
+							} finally {
+								LoaderEvents.end(registerEvent, 0);
+							}
+							LOG.info("The DiSCO for record: " + id + " from ingest queue: " + fromQueue + " has not changed since the last harvest. Skipping.");							
+						}
+					} else {
+						deposit(discoDepositer, received);
+					}
+				} else {
+					outcome = "skipped";
+					LOG.info("The latest version of the record: " + id + " from ingest queue: " + fromQueue + " already exists. Skipping.");			
+				}
+				numProcessed = numProcessed+1;
+								
+				LOG.info("Processed record: " + id + " from ingest queue: " + fromQueue);
+				LoaderMetrics.recordStage(sample, "ingest", type, outcome);
+				RecordTrace.complete(id, outcome);
+			} catch (Exception ex) {
+				LOG.error("Ingest failed for record from source: " + id, ex);
+				//schedule retry, or add to fail queue, keeping the payload as it was received
+				received.setBody(payload);
+				retryScheduler.retryOrFail(received, ClusterCoordinator.route(retryQueue, OSFLoaderUtils.extractLastSubFolder(id)), failQueue);
+				LoaderMetrics.recordStage(sample, "ingest", type, "error");
+			} 
+		};
+				
+		stageQueue.processMessages(fromQueue, consumer, upstreamComplete);
+		
+		LOG.info(numProcessed + " records processed from ingest queue " + fromQueue);
+		return numProcessed;
+
+	}
+
+    private static void deposit(DiscoDepositConsumer discoDepositer, HarvestRecord record) {
+    	Object event = LoaderEvents.begin(Kind.DEPOSIT, record.getRecordInfo().getId().toString(), typeOf(record), null);
+    	try {
+    		LoaderMetrics.timeCall("rmap", "discos.deposit", () -> {
+    			discoDepositer.accept(record);
+    			return null;
+    		});
+    	} catch (Exception e) {
+    		LoaderEvents.fail(event, e);
+    		throw e;
+    	} finally {
+    		LoaderEvents.end(event, record.getBody().length);
+    	}
+    }
+    
+    /**
+     * Retrieves the record type name from the record source URI, e.g. nodes for https://api.osf.io/v2/nodes/abc12/
+     * @param record
+     * @return type name, or unknown if it cannot be determined
+     */
+    private static String typeOf(HarvestRecord record) {
+    	URI src = record.getRecordInfo().getSrc();
+    	if (src == null || src.getPath() == null) {
+    		return "unknown";
+    	}
+    	String[] path = src.getPath().split("/");
+    	return path.length > 1 ? path[path.length - 2] : "unknown";
+    }
+
+    private static URI makeDiscoEndpointUri() {
+        return URI.create(string("rmap.api.baseuri",
+                "https://test.rmap-hub.org/api/").replaceFirst("/$", "") + "/discos/");
+    }
+     
+    private InputStream getDiscoRdf(String latestDiscoUri) {
+
+        try {
+        	HttpClient client = getRmapClient();
+        	
+            URI uri = new URI(makeDiscoEndpointUri() + URLEncoder.encode(latestDiscoUri, "UTF-8"));
+			HttpGet get = new HttpGet(uri);
+			
+			HttpResponse response = LoaderMetrics.timeCheckedCall("rmap", "discos.get", () -> client.execute(get));
+
+	            if (response.getStatusLine().getStatusCode() == 200) {
+	            	//read fully so the connection goes back to the pool
+	                return new ByteArrayInputStream(EntityUtils.toByteArray(response.getEntity()));
+	            } else {
+	                throw new RuntimeException(String.format("Unexpected status code %s; '%s'", response.getStatusLine()
+	                        .getStatusCode(), IOUtils.toString(response.getEntity().getContent(), UTF_8)));
+	            }
+
+        } catch (final Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    
+    
+    private static synchronized HttpClient getRmapClient() throws Exception {
+    	if (rmapClient == null) {
+    		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                    RegistryBuilder
+                            .<ConnectionSocketFactory> create()
+                            .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                            .register("https", new SSLConnectionSocketFactory(
+                                    SSLContexts.custom()
+                                            .loadTrustMaterial(new TrustSelfSignedStrategy()).build(),
+                                    new NoopHostnameVerifier()))
+                            .build());
+    		int maxConnections = Integer.parseInt(string("rmap.api.maxConnections", "20"));
+    		connectionManager.setMaxTotal(maxConnections);
+    		connectionManager.setDefaultMaxPerRoute(maxConnections);
+    		rmapClient = HttpClientBuilder.create()
+                    .setConnectionManager(connectionManager)
+                    .setRedirectStrategy(new DefaultRedirectStrategy())
+                    .build();
+    	}
+    	return rmapClient;
+    }
+    
+    public void close() {
+		stageQueue.close();
+    }
+    
+}
@@ -1,278 +1,508 @@
-/*******************************************************************************
- * Copyright 2017 Johns Hopkins University
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- *
- * This software was produced as part of the RMap Project (http://rmap-project.info),
- * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
- * collaboration between Data Conservancy, Portico, and IEEE.
- *******************************************************************************/
-package info.rmapproject.loader.osf;
-import java.util.Enumeration;
-import java.util.Map;
-import java.util.Properties;
-
-import org.apache.commons.cli.CommandLine;
-import org.apache.commons.cli.CommandLineParser;
-import org.apache.commons.cli.DefaultParser;
-import org.apache.commons.cli.HelpFormatter;
-import org.apache.commons.cli.Options;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import info.rmapproject.cos.osf.client.model.RecordType;
-import info.rmapproject.loader.osf.model.QueueName;
-import info.rmapproject.loader.util.LogUtil;
-
-/**
- * Retrieves data from the OSF API based on filters provided, transforms it into DiSCOs, creates those
- * DiSCOs in RMap.
- *
- * @author khanson
- */
-public class OsfLoaderCLI {
-
-    /** The Constant log. */
-    private static final Logger LOG = LoggerFactory.getLogger(OsfLoaderCLI.class);
-    
-	/** The default data type. */
-	private static final String DEFAULT_TYPE = "node";
-
-	/** The default process type. */
-	private static final String DEFAULT_PROCESS = "all";
-	
-	/**
-	 * The main method.
-	 *
-	 * @param args the arguments
-	 */
-	public static void main(String[] args) {
-		
-		String harvestType = DEFAULT_TYPE;
-        String processType = DEFAULT_PROCESS;
-		String filters = "";
-        
-		LogUtil.adjustLogLevels();
-        
-        //create options
-        Options options = new Options();
-        options.addOption("t", "type", true, "Defines which type to harvest from OSF. Options are: user, node, or registration. Default is node");
-        options.addOption("f", "filters", true, "API request filters formatted in the style of a querystring e.g. filter[modified_date]=2017-05-05, filter[id]=kjd2d (default: no filters). Note that this only applies to the identify process");
-        options.addOption("p", "process", true, "Defines which process to run against the selected type. Options are: identify, transform, ingest, all, or requeuefails. "
-        										+ "identify will search for records matching the type with filters applied and add them to the transform queue. "
-        										+ "If no date filters are defined, the default will be all records modified or created yesterday, or since the last harvest. "
-        										+ "transform will take items added to the queu during the identify process and convert them to DiSCOs.  ingest will take transformed "
-        										+ "records and put them into RMap.  all will do all 3 of these processes.  requeuefails is a convenience function to move all fail messages "
-        										+ "back to the first transform queue to be re-processed.");
-        options.addOption("h", "help", false, "Print help message");
-        
-        CommandLineParser parser = new DefaultParser();
-        CommandLine cmd =  null;
-        
-        try {
-        	
-        	StringBuilder errmsg = new StringBuilder();
-        	cmd = parser.parse(options, args);
-
-            /* Handle general options such as help */
-            if (cmd.hasOption("h")) {
-                HelpFormatter formatter = new HelpFormatter();
-                formatter.printHelp("OSF Loader CLI", options);		
-            } else {
-            	if (cmd.hasOption("type")) {
-            		harvestType=cmd.getOptionValue("type");
-            		if (!harvestType.equals("node") && !harvestType.equals("registration") && !harvestType.equals("user")) {
-            			errmsg.append("Only the following parameters are allowed for types: node, registration, or user");
-            			errmsg.append(System.getProperty("line.separator"));
-            		}
-            	}
-            	if (cmd.hasOption("process")) {
-            		processType=cmd.getOptionValue("process");
-            		if (!processType.equals("all") && !processType.equals("identify") && !processType.equals("transform") && !processType.equals("ingest") && !processType.equals("requeuefails")) {
-            			errmsg.append("Only the following parameters are allowed for process: identify, transform, ingest, all, requeuefails");
-            			errmsg.append(System.getProperty("line.separator"));
-            		}
-            	}
-            	
-            	if (cmd.hasOption("filters")) {
-            		filters = cmd.getOptionValue("filters");
-            	}
-
-                if (errmsg.length()>0){
-        			System.out.println(errmsg.toString());		
-        			LOG.error(errmsg.toString());			
-        			System.exit(1);            	
-                }
-                
-                /* Run the package generation application proper */
-                OsfLoaderCLI application = new OsfLoaderCLI();
-                application.run(harvestType, processType, filters);
-            	
-            }
-
-             	           	
-        } catch (Exception e) {
-            /*
-             * This is an error in command line args, just print out usage data
-             * and description of the error.
-             */
-            System.err.println(e.getMessage());
-        	e.printStackTrace();
-            System.exit(1);
-        }
-    }	
-
-	/**
-	 * Run the command
-	 *
-	 * @throws Exception the exception
-	 */
-	public void run(String harvesterType, String process, String filters) throws Exception{
-		
-		RecordType type = RecordType.getType(harvesterType);
-		
-		LOG.info("Starting loader with parameters: type=" + harvesterType + ", process=" + process + ", filters=" + filters);
-		
-		if (type==null){
-			System.out.println("Only the following parameters are allowed for types: node, registration, or user");		
-			LOG.error("Only the following parameters are allowed for types: node, registration, or user");			
-			System.exit(1);
-		}
-		
-		//Print system properties and environment variables to log if DEBUG enabled.
-		if (LOG.isDebugEnabled()) {
-			Properties p = System.getProperties();
-			@SuppressWarnings("rawtypes")
-			Enumeration keys = p.keys();
-		  	LOG.debug("The following system properties were used for this Loader run:");
-			while (keys.hasMoreElements()) {
-			    String key = (String)keys.nextElement();
-			    String value = (String)p.get(key);
-			    LOG.debug("  " + key + ": " + value);
-			}
-		  	LOG.debug("The following environment variables were used for this Loader run:");
-			Map<String, String> env = System.getenv();
-			for (String envName : env.keySet()) {
-				LOG.debug("  " + envName + ": " + env.get(envName));
-			}
-			
-		}
-		
-
-		String transformFailQ = QueueName.getQueueName(QueueName.TRANSFORM, type, QueueName.FAIL);
-		String ingestFailQ = QueueName.getQueueName(QueueName.INGEST, type, QueueName.FAIL);
-		
-		if (process.equals("identify")||process.equals("all")) {
-			OsfIdentifyService identify = new OsfIdentifyService(type, filters);
-			Integer numIdentified = identify.identifyNewRecords();
-			identify.close();
-			String identifyMsg = "Number of " + harvesterType + "s identified for harvest:" + numIdentified;
-			LOG.info(identifyMsg);
-			System.out.println(identifyMsg);	
-		}
-
-		if (process.equals("transform")||process.equals("all")) {
-			Integer totalTransformed = 0;
-
-			String transformQ = QueueName.getQueueName(QueueName.TRANSFORM, type, null);
-			String transformRetry1Q = QueueName.getQueueName(QueueName.TRANSFORM, type, QueueName.RETRY1);
-			String transformRetry2Q = QueueName.getQueueName(QueueName.TRANSFORM, type, QueueName.RETRY2);
-			String transformRetry3Q = QueueName.getQueueName(QueueName.TRANSFORM, type, QueueName.RETRY3);
-			
-			Integer count = runTransform(transformRetry3Q, transformFailQ, type);
-			totalTransformed = totalTransformed + count;
-
-			count = runTransform(transformRetry2Q, transformRetry3Q, type);
-			totalTransformed = totalTransformed + count;
-
-			count = runTransform(transformQ, transformRetry1Q, type);
-			totalTransformed = totalTransformed + count;
-
-			count = runTransform(transformRetry1Q, transformRetry2Q, type);
-			totalTransformed = totalTransformed + count;
-			
-			String transformMsg = "Number of " + harvesterType + "s processed from transform queues:" + totalTransformed;
-			LOG.info(transformMsg);
-			System.out.println(transformMsg);				
-		}
-
-		if (process.equals("ingest")||process.equals("all")) {
-
-			Integer numIngested = 0;
-			
-			String ingestQ = QueueName.getQueueName(QueueName.INGEST, type, null);
-			String ingestRetry1Q = QueueName.getQueueName(QueueName.INGEST, type, QueueName.RETRY1);
-			String ingestRetry2Q = QueueName.getQueueName(QueueName.INGEST, type, QueueName.RETRY2);
-			String ingestRetry3Q = QueueName.getQueueName(QueueName.INGEST, type, QueueName.RETRY3);
-			
-			Integer count = runIngest(ingestRetry3Q, ingestFailQ, type);
-			numIngested = numIngested + count;
-
-			count = runIngest(ingestRetry2Q, ingestRetry3Q, type);
-			numIngested = numIngested + count;
-
-			count = runIngest(ingestQ, ingestRetry1Q, type);
-			numIngested = numIngested + count;
-
-			count = runIngest(ingestRetry1Q, ingestRetry2Q, type);
-			numIngested = numIngested + count;
-			
-			String ingestMsg = "Number of " + harvesterType + "s processed from ingest queues:" + numIngested;
-			LOG.info(ingestMsg);
-			System.out.println(ingestMsg);				
-		}
-		
-		if (process.equals("requeuefails")){
-			Integer numTransformRequeued = runRequeueFails(transformFailQ,type);
-			String identifyMsg = "Number of failed " + harvesterType + " transforms identified and requeued for harvest:" + numTransformRequeued;
-			LOG.info(identifyMsg);
-			System.out.println(identifyMsg);
-
-			Integer numIngestRequeued = runRequeueFails(ingestFailQ,type);
-			identifyMsg = "Number of failed " + harvesterType + " ingests identified and requeued for harvest:" + numIngestRequeued;
-			LOG.info(identifyMsg);
-			System.out.println(identifyMsg);	
-		}
-		
-		
-		String completeMsg = "Harvest process completed!";
-		LOG.info(completeMsg);
-		System.out.println(completeMsg);				
-		
-	}
-	
-	
-	private Integer runTransform(String fromQueue, String failQueue, RecordType type) throws Exception {
-		OsfTransformService transformService = new OsfTransformService();
-		Integer count = transformService.transformRecords(fromQueue, failQueue, type);
-		transformService.close();
-		return count;
-	}
-	
-	
-	private Integer runIngest(String fromQueue, String failQueue, RecordType type) throws Exception {
-		OsfIngestService ingestService = new OsfIngestService();
-		Integer count = ingestService.ingestRecords(fromQueue, failQueue);
-		ingestService.close();
-		return count;
-	}
-
-	private Integer runRequeueFails(String failQueue, RecordType type) throws Exception {
-		OsfIdentifyService identifyFails = new OsfIdentifyService(type, null);
-		Integer count = identifyFails.requeueFailures(failQueue);
-		identifyFails.close();
-		return count;
-	}
-	
-
-}
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.cos.osf.client.model.RecordType;
+import info.rmapproject.loader.osf.capture.OsfCaptureProxy;
+import info.rmapproject.loader.osf.cluster.ClusterCoordinator;
+import info.rmapproject.loader.osf.cluster.HarvestRunCoordinator;
+import info.rmapproject.loader.osf.cluster.ShardedStage;
+import info.rmapproject.loader.osf.export.DiscoExporter;
+import info.rmapproject.loader.osf.fetch.OsfFetchPlanner;
+import info.rmapproject.loader.osf.metrics.LoaderMetrics;
+import info.rmapproject.loader.osf.model.QueueName;
+import info.rmapproject.loader.osf.queue.StageQueueFactory;
+import info.rmapproject.loader.osf.registry.MirroredHarvestRecordRegistry;
+import info.rmapproject.loader.osf.trace.TraceRecorder;
+import info.rmapproject.loader.osf.utils.DataSourceProvider;
+import info.rmapproject.loader.osf.utils.OsfClientProvider;
+import info.rmapproject.loader.osf.utils.OSFLoaderUtils;
+import info.rmapproject.loader.util.LogUtil;
+
+/**
+ * Retrieves data from the OSF API based on filters provided, transforms it into DiSCOs, creates those
+ * DiSCOs in RMap.
+ *
+ * @author khanson
+ */
+public class OsfLoaderCLI {
+
+    /** The Constant log. */
+    private static final Logger LOG = LoggerFactory.getLogger(OsfLoaderCLI.class);
+    
+	/** The default data type. */
+	private static final String DEFAULT_TYPE = "node";
+
+	/** Type parameter value for harvesting all types. */
+	private static final String ALL_TYPES = "all";
+
+	/** The default process type. */
+	private static final String DEFAULT_PROCESS = "all";
+	
+	/** Retry queues used before retries were scheduled by the broker. These are drained if they still contain records. */
+	private static final String[] LEGACY_RETRY_LEVELS = {QueueName.RETRY1, QueueName.RETRY2, QueueName.RETRY3};
+	
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 */
+	public static void main(String[] args) {
+		
+		String harvestType = DEFAULT_TYPE;
+        String processType = DEFAULT_PROCESS;
+		String filters = "";
+		boolean pipelined = false;
+		boolean daemon = false;
+        
+		LogUtil.adjustLogLevels();
+        
+        //create options
+        Options options = new Options();
+        options.addOption("t", "type", true, "Defines which type to harvest from OSF. Options are: user, node, registration, a comma separated list of these "
+        										+ "e.g. node,registration, or all. When more than one type is selected each type is processed in parallel. Default is node");
+        options.addOption("f", "filters", true, "API request filters formatted in the style of a querystring e.g. filter[modified_date]=2017-05-05, filter[id]=kjd2d (default: no filters). Note that this only applies to the identify process");
+        options.addOption("p", "process", true, "Defines which process to run against the selected type. Options are: identify, transform, ingest, all, or requeuefails. "
+        										+ "identify will search for records matching the type with filters applied and add them to the transform queue. "
+        										+ "If no date filters are defined, the default will be all records modified or created yesterday, or since the last harvest. "
+        										+ "transform will take items added to the queu during the identify process and convert them to DiSCOs.  ingest will take transformed "
+        										+ "records and put them into RMap.  all will do all 3 of these processes.  requeuefails is a convenience function to move all fail messages "
+        										+ "back to the first transform queue to be re-processed.");
+        options.addOption("l", "pipeline", false, "When used with the all process, runs identify, transform and ingest at the same time, "
+        										+ "passing records to the next stage as soon as they are ready. Without this the stages run one after the other.");
+        options.addOption("d", "daemon", false, "Keeps the loader running. Identify runs for each selected type on the interval set by "
+        										+ "osf.[type].identify.intervalMinutes (default 60, or 5 with osf.identify.changefeed=true) and transform and ingest process records as they arrive. "
+        										+ "The process option is ignored. Stop the loader with SIGTERM or Ctrl+C.");
+        options.addOption("h", "help", false, "Print help message");
+        
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd =  null;
+        
+        try {
+        	
+        	StringBuilder errmsg = new StringBuilder();
+        	cmd = parser.parse(options, args);
+
+            /* Handle general options such as help */
+            if (cmd.hasOption("h")) {
+                HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp("OSF Loader CLI", options);		
+            } else {
+            	if (cmd.hasOption("type")) {
+            		harvestType=cmd.getOptionValue("type");
+            		for (String type : getHarvestTypes(harvestType)) {
+            			if (!type.equals("node") && !type.equals("registration") && !type.equals("user")) {
+            				errmsg.append("Only the following parameters are allowed for types: node, registration, user, a comma separated list of these, or all");
+            				errmsg.append(System.getProperty("line.separator"));
+            				break;
+            			}
+            		}
+            	}
+            	if (cmd.hasOption("process")) {
+            		processType=cmd.getOptionValue("process");
+            		if (!processType.equals("all") && !processType.equals("identify") && !processType.equals("transform") && !processType.equals("ingest") && !processType.equals("requeuefails")) {
+            			errmsg.append("Only the following parameters are allowed for process: identify, transform, ingest, all, requeuefails");
+            			errmsg.append(System.getProperty("line.separator"));
+            		}
+            	}
+            	
+            	if (cmd.hasOption("filters")) {
+            		filters = cmd.getOptionValue("filters");
+            	}
+            	
+            	if (cmd.hasOption("pipeline")) {
+            		pipelined = true;
+            	}
+            	
+            	if (cmd.hasOption("daemon")) {
+            		daemon = true;
+            	}
+
+                if (errmsg.length()>0){
+        			System.out.println(errmsg.toString());		
+        			LOG.error(errmsg.toString());			
+        			System.exit(1);            	
+                }
+                
+                /* Run the package generation application proper */
+                OsfLoaderCLI application = new OsfLoaderCLI();
+                if (daemon) {
+                	application.runDaemon(harvestType, filters);
+                } else {
+                	application.run(harvestType, processType, filters, pipelined);
+                }
+            	
+            }
+
+             	           	
+        } catch (Exception e) {
+            /*
+             * This is an error in command line args, just print out usage data
+             * and description of the error.
+             */
+            System.err.println(e.getMessage());
+        	e.printStackTrace();
+            System.exit(1);
+        }
+    }	
+
+	/**
+	 * Run the command
+	 *
+	 * @throws Exception the exception
+	 */
+	public void run(String harvesterType, String process, String filters) throws Exception{
+		run(harvesterType, process, filters, false);
+	}
+	
+	/**
+	 * Run the command
+	 *
+	 * @param harvesterTypes type to harvest, a comma separated list of types, or all
+	 * @param pipelined true to run the stages of the all process concurrently
+	 * @throws Exception the exception
+	 */
+	public void run(String harvesterTypes, String process, String filters, boolean pipelined) throws Exception{
+		
+		List<String> harvestTypes = getHarvestTypes(harvesterTypes);
+		
+		LOG.info("Starting loader with parameters: type=" + harvesterTypes + ", process=" + process + ", filters=" + filters + ", pipeline=" + pipelined);
+		
+		for (String harvesterType : harvestTypes) {
+			if (RecordType.getType(harvesterType)==null){
+				System.out.println("Only the following parameters are allowed for types: node, registration, or user");		
+				LOG.error("Only the following parameters are allowed for types: node, registration, or user");			
+				System.exit(1);
+			}
+		}
+		
+		//Print system properties and environment variables to log if DEBUG enabled.
+		if (LOG.isDebugEnabled()) {
+			Properties p = System.getProperties();
+			@SuppressWarnings("rawtypes")
+			Enumeration keys = p.keys();
+		  	LOG.debug("The following system properties were used for this Loader run:");
+			while (keys.hasMoreElements()) {
+			    String key = (String)keys.nextElement();
+			    String value = (String)p.get(key);
+			    LOG.debug("  " + key + ": " + value);
+			}
+		  	LOG.debug("The following environment variables were used for this Loader run:");
+			Map<String, String> env = System.getenv();
+			for (String envName : env.keySet()) {
+				LOG.debug("  " + envName + ": " + env.get(envName));
+			}
+			
+		}
+		
+		StageQueueFactory.configure(process, pipelined);
+		
+		//must start before any OSF client is created so that the clients use the proxy configuration
+		OsfCaptureProxy.start();
+		OsfFetchPlanner.start();
+		try {
+			ClusterCoordinator.start();
+			if (harvestTypes.size()==1) {
+				runType(harvestTypes.get(0), process, filters, pipelined);
+			} else {
+				//each type runs in its own thread, sharing the JMS connection pool, datasource, OSF client and RMap HTTP client
+				ExecutorService executor = Executors.newFixedThreadPool(harvestTypes.size());
+				List<Future<?>> results = new ArrayList<Future<?>>();
+				for (String harvesterType : harvestTypes) {
+					results.add(executor.submit(() -> {
+						runType(harvesterType, process, filters, pipelined);
+						return null;
+					}));
+				}
+				executor.shutdown();
+				Exception typeFailure = null;
+				for (int i = 0; i < results.size(); i++) {
+					try {
+						results.get(i).get();
+					} catch (ExecutionException e) {
+						LOG.error("Harvest failed for type: " + harvestTypes.get(i), e.getCause());
+						typeFailure = e;
+					}
+				}
+				if (typeFailure != null) {
+					throw typeFailure;
+				}
+			}
+		} finally {
+			ClusterCoordinator.stop();
+			HarvestRunCoordinator.shutdown();
+			StageQueueFactory.shutdown();
+			MirroredHarvestRecordRegistry.shutdown();
+			DiscoExporter.shutdown();
+			DataSourceProvider.shutdown();
+			OsfClientProvider.shutdown();
+			OsfFetchPlanner.stop();
+			OsfCaptureProxy.stop();
+			LoaderMetrics.shutdown();
+			TraceRecorder.summarize();
+			TraceRecorder.shutdown();
+		}
+		
+		String completeMsg = "Harvest process completed!";
+		LOG.info(completeMsg);
+		System.out.println(completeMsg);				
+		
+	}
+	
+	/**
+	 * Runs the loader as a daemon until the JVM is shut down
+	 *
+	 * @param harvesterTypes type to harvest, a comma separated list of types, or all
+	 * @param filters identify filters
+	 * @throws Exception the exception
+	 */
+	public void runDaemon(String harvesterTypes, String filters) throws Exception {
+		
+		LOG.info("Starting loader daemon with parameters: type=" + harvesterTypes + ", filters=" + filters);
+		
+		List<RecordType> types = new ArrayList<RecordType>();
+		for (String harvesterType : getHarvestTypes(harvesterTypes)) {
+			types.add(RecordType.getType(harvesterType));
+		}
+		
+		StageQueueFactory.configure("all", true);
+		OsfCaptureProxy.start();
+		OsfFetchPlanner.start();
+		ClusterCoordinator.start();
+		OsfLoaderDaemon daemon = new OsfLoaderDaemon(types, filters);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			daemon.stop();
+			ClusterCoordinator.stop();
+			HarvestRunCoordinator.shutdown();
+			StageQueueFactory.shutdown();
+			MirroredHarvestRecordRegistry.shutdown();
+			DiscoExporter.shutdown();
+			DataSourceProvider.shutdown();
+			OsfClientProvider.shutdown();
+			OsfFetchPlanner.stop();
+			OsfCaptureProxy.stop();
+			LoaderMetrics.shutdown();
+			TraceRecorder.summarize();
+			TraceRecorder.shutdown();
+		}, "osf-loader-shutdown"));
+		
+		daemon.start();
+		daemon.awaitStop();
+		
+		LOG.info("Loader daemon stopped");
+	}
+	
+	/**
+	 * Runs the process for a single record type
+	 * @param harvesterType
+	 * @param process
+	 * @param filters
+	 * @param pipelined
+	 * @throws Exception
+	 */
+	private void runType(String harvesterType, String process, String filters, boolean pipelined) throws Exception {
+		
+		RecordType type = RecordType.getType(harvesterType);
+
+		String transformFailQ = QueueName.getQueueName(QueueName.TRANSFORM, type, QueueName.FAIL);
+		String ingestFailQ = QueueName.getQueueName(QueueName.INGEST, type, QueueName.FAIL);
+		
+		boolean runPipeline = pipelined && process.equals("all");
+		
+		if (runPipeline) {
+			OsfPipeline pipeline = new OsfPipeline(type, filters);
+			pipeline.run();
+			String pipelineMsg = "Number of " + harvesterType + "s identified for harvest:" + pipeline.getNumIdentified()
+					+ ", processed from transform queue:" + pipeline.getNumTransformed()
+					+ ", processed from ingest queue:" + pipeline.getNumIngested();
+			LOG.info(pipelineMsg);
+			System.out.println(pipelineMsg);
+		}
+		
+		if (!runPipeline && (process.equals("identify")||process.equals("all"))) {
+			OsfIdentifyService identify = new OsfIdentifyService(type, filters);
+			Integer numIdentified = identify.identifyNewRecords();
+			identify.close();
+			String identifyMsg = "Number of " + harvesterType + "s identified for harvest:" + numIdentified;
+			LOG.info(identifyMsg);
+			System.out.println(identifyMsg);	
+		}
+
+		if (!runPipeline && (process.equals("transform")||process.equals("all"))) {
+			String transformQ = QueueName.getQueueName(QueueName.TRANSFORM, type, null);
+			
+			//records left on retry queues by earlier versions of the loader follow the same retry schedule. These go 
+			//first so that their retries are rescheduled onto the transform queue before it is processed
+			Integer totalTransformed = runTransform(getLegacyRetryQueues(QueueName.TRANSFORM, type), transformQ, transformFailQ, type);
+			
+			//failures are rescheduled onto the transform queue with a delay, so a single pass over the queue is needed
+			//in cluster mode identify may still be adding records to this node's shards from another node
+			String identifyTask = OsfIdentifyService.getIdentifyTaskName(type);
+			totalTransformed = totalTransformed + OSFLoaderUtils.runWorkers(OSFLoaderUtils.getWorkerCount(type, "transform"), 
+					() -> ShardedStage.process(transformQ, (queue, complete) -> transformQueue(queue, queue, transformFailQ, type, complete), 
+							() -> !ClusterCoordinator.isTaskRunning(identifyTask)));
+			
+			String transformMsg = "Number of " + harvesterType + "s processed from transform queues:" + totalTransformed;
+			LOG.info(transformMsg);
+			System.out.println(transformMsg);				
+		}
+
+		if (!runPipeline && (process.equals("ingest")||process.equals("all"))) {
+			String ingestQ = QueueName.getQueueName(QueueName.INGEST, type, null);
+			
+			//records left on retry queues by earlier versions of the loader follow the same retry schedule. These go 
+			//first so that their retries are rescheduled onto the ingest queue before it is processed
+			Integer numIngested = runIngest(getLegacyRetryQueues(QueueName.INGEST, type), ingestQ, ingestFailQ, type);
+			
+			//failures are rescheduled onto the ingest queue with a delay, so a single pass over the queue is needed
+			numIngested = numIngested + OSFLoaderUtils.runWorkers(OSFLoaderUtils.getWorkerCount(type, "ingest"), 
+					() -> ShardedStage.process(ingestQ, (queue, complete) -> ingestQueue(queue, queue, ingestFailQ, complete), () -> true));
+			
+			String ingestMsg = "Number of " + harvesterType + "s processed from ingest queues:" + numIngested;
+			LOG.info(ingestMsg);
+			System.out.println(ingestMsg);				
+		}
+		
+		if (process.equals("requeuefails")){
+			Integer numTransformRequeued = runRequeueFails(transformFailQ,type);
+			String identifyMsg = "Number of failed " + harvesterType + " transforms identified and requeued for harvest:" + numTransformRequeued;
+			LOG.info(identifyMsg);
+			System.out.println(identifyMsg);
+
+			Integer numIngestRequeued = runRequeueFails(ingestFailQ,type);
+			identifyMsg = "Number of failed " + harvesterType + " ingests identified and requeued for harvest:" + numIngestRequeued;
+			LOG.info(identifyMsg);
+			System.out.println(identifyMsg);	
+		}
+		
+	}
+	
+	
+	/**
+	 * Processes each of the queues in turn. Each worker uses one service for all of the queues.
+	 */
+	private Integer runTransform(List<String> fromQueues, String retryQueue, String failQueue, RecordType type) throws Exception {
+		return OSFLoaderUtils.runWorkers(OSFLoaderUtils.getWorkerCount(type, "transform"), () -> {
+			OsfTransformService transformService = new OsfTransformService();
+			try {
+				//the count returned is a running total for the service
+				Integer count = 0;
+				for (String fromQueue : fromQueues) {
+					count = transformService.transformRecords(fromQueue, retryQueue, failQueue, type);
+				}
+				return count;
+			} finally {
+				transformService.close();
+			}
+		});
+	}
+	
+	private Integer transformQueue(String fromQueue, String retryQueue, String failQueue, RecordType type, BooleanSupplier upstreamComplete) throws Exception {
+		OsfTransformService transformService = new OsfTransformService();
+		try {
+			return transformService.transformRecords(fromQueue, retryQueue, failQueue, type, upstreamComplete);
+		} finally {
+			transformService.close();
+		}
+	}
+	
+	
+	/**
+	 * Processes each of the queues in turn. Each worker uses one service for all of the queues.
+	 */
+	private Integer runIngest(List<String> fromQueues, String retryQueue, String failQueue, RecordType type) throws Exception {
+		return OSFLoaderUtils.runWorkers(OSFLoaderUtils.getWorkerCount(type, "ingest"), () -> {
+			OsfIngestService ingestService = new OsfIngestService();
+			try {
+				//the count returned is a running total for the service
+				Integer count = 0;
+				for (String fromQueue : fromQueues) {
+					count = ingestService.ingestRecords(fromQueue, retryQueue, failQueue);
+				}
+				return count;
+			} finally {
+				ingestService.close();
+			}
+		});
+	}
+	
+	private static List<String> getLegacyRetryQueues(String stage, RecordType type) {
+		List<String> queues = new ArrayList<String>();
+		for (String retryLevel : LEGACY_RETRY_LEVELS) {
+			queues.add(QueueName.getQueueName(stage, type, retryLevel));
+		}
+		return queues;
+	}
+	
+	private Integer ingestQueue(String fromQueue, String retryQueue, String failQueue, BooleanSupplier upstreamComplete) {
+		OsfIngestService ingestService = new OsfIngestService();
+		try {
+			return ingestService.ingestRecords(fromQueue, retryQueue, failQueue, upstreamComplete);
+		} finally {
+			ingestService.close();
+		}
+	}
+
+	private Integer runRequeueFails(String failQueue, RecordType type) throws Exception {
+		OsfIdentifyService identifyFails = new OsfIdentifyService(type, null);
+		Integer count = identifyFails.requeueFailures(failQueue);
+		identifyFails.close();
+		return count;
+	}
+	
+	/**
+	 * Converts the type parameter to a list of types. Accepts a single type, a comma separated list, or all.
+	 * @param harvesterTypes
+	 * @return list of types
+	 */
+	private static List<String> getHarvestTypes(String harvesterTypes) {
+		if (harvesterTypes.trim().equals(ALL_TYPES)) {
+			return Arrays.asList("node", "registration", "user");
+		}
+		List<String> types = new ArrayList<String>();
+		for (String type : harvesterTypes.split(",")) {
+			if (type.trim().length()>0 && !types.contains(type.trim())) {
+				types.add(type.trim());
+			}
+		}
+		return types;
+	}
+	
+
+}
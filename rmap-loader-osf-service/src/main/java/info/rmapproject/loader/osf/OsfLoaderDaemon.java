@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.cos.osf.client.model.RecordType;
+import info.rmapproject.loader.osf.cluster.ShardedStage;
+import info.rmapproject.loader.osf.model.QueueName;
+import info.rmapproject.loader.osf.trace.RecordTrace;
+import info.rmapproject.loader.osf.trace.TraceRecorder;
+import info.rmapproject.loader.osf.utils.OSFLoaderUtils;
+
+/**
+ * Runs the loader as a long running process. Identify is run for each record type on a fixed interval 
+ * (osf.[type].identify.intervalMinutes, default 60, or 5 when osf.identify.changefeed is enabled), while 
+ * transform and ingest consumers stay attached to their queues and process records as soon as they arrive. 
+ * Services, connection pools and clients are created once and reused for the life of the process. In cluster mode
+ * consumers follow the shards this node holds, see ClusterCoordinator.
+ */
+public class OsfLoaderDaemon {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(OsfLoaderDaemon.class);
+
+	/** Pause before restarting a consumer that stopped with an error */
+	private static final long CONSUMER_RESTART_DELAY_SECONDS = 30;
+
+	private final List<RecordType> types;
+
+	private final String filters;
+
+	private final AtomicBoolean stopping = new AtomicBoolean(false);
+
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	private ScheduledExecutorService identifyScheduler;
+
+	private ExecutorService consumers;
+
+	/**
+	 * Initiate with types to harvest and identify filters
+	 * @param types
+	 * @param filters
+	 */
+	public OsfLoaderDaemon(List<RecordType> types, String filters) {
+		this.types = types;
+		this.filters = filters;
+	}
+
+	/**
+	 * Schedules identify for each type and starts transform and ingest consumers
+	 */
+	public void start() {
+		identifyScheduler = Executors.newScheduledThreadPool(types.size());
+		consumers = Executors.newCachedThreadPool();
+
+		for (RecordType type : types) {
+			//change feed polls cover a short window so they default to running much more often
+			String defaultInterval = OSFLoaderUtils.isChangeFeedEnabled() ? "5" : "60";
+			long interval = Long.parseLong(string("osf." + type.getTypeString() + ".identify.intervalMinutes", defaultInterval));
+			identifyScheduler.scheduleWithFixedDelay(() -> runIdentify(type), 0, interval, TimeUnit.MINUTES);
+			LOG.info("Identify for " + type.getTypeString() + " scheduled every " + interval + " minutes");
+
+			String transformQ = QueueName.getQueueName(QueueName.TRANSFORM, type, null);
+			String transformFailQ = QueueName.getQueueName(QueueName.TRANSFORM, type, QueueName.FAIL);
+			for (int i = 0; i < OSFLoaderUtils.getWorkerCount(type, "transform"); i++) {
+				consumers.submit(() -> runConsumer("transform " + type.getTypeString(), () -> {
+					ShardedStage.process(transformQ, (queue, complete) -> {
+						OsfTransformService transform = new OsfTransformService();
+						try {
+							return transform.transformRecords(queue, queue, transformFailQ, type, complete);
+						} finally {
+							transform.close();
+						}
+					}, stopping::get);
+				}));
+			}
+
+			String ingestQ = QueueName.getQueueName(QueueName.INGEST, type, null);
+			String ingestFailQ = QueueName.getQueueName(QueueName.INGEST, type, QueueName.FAIL);
+			for (int i = 0; i < OSFLoaderUtils.getWorkerCount(type, "ingest"); i++) {
+				consumers.submit(() -> runConsumer("ingest " + type.getTypeString(), () -> {
+					ShardedStage.process(ingestQ, (queue, complete) -> {
+						OsfIngestService ingest = new OsfIngestService();
+						try {
+							return ingest.ingestRecords(queue, queue, ingestFailQ, complete);
+						} finally {
+							ingest.close();
+						}
+					}, stopping::get);
+				}));
+			}
+		}
+		if (RecordTrace.isEnabled()) {
+			long summaryInterval = Long.parseLong(string("osf.trace.summaryIntervalMinutes", "60"));
+			identifyScheduler.scheduleAtFixedRate(TraceRecorder::summarize, summaryInterval, summaryInterval, TimeUnit.MINUTES);
+		}
+		LOG.info("Loader daemon started");
+	}
+
+	/**
+	 * Stops scheduling identify and waits for consumers to finish the records on their queues, up to 
+	 * osf.daemon.shutdownTimeoutSeconds.
+	 */
+	public void stop() {
+		if (stopping.compareAndSet(false, true)) {
+			LOG.info("Stopping loader daemon");
+			long timeout = Long.parseLong(string("osf.daemon.shutdownTimeoutSeconds", "120"));
+			try {
+				identifyScheduler.shutdown();
+				consumers.shutdown();
+				identifyScheduler.awaitTermination(timeout, TimeUnit.SECONDS);
+				if (!consumers.awaitTermination(timeout, TimeUnit.SECONDS)) {
+					LOG.warn("Consumers did not finish within " + timeout + " seconds, remaining records stay on their queues");
+					consumers.shutdownNow();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				stopped.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Blocks until the daemon has been stopped
+	 * @throws InterruptedException
+	 */
+	public void awaitStop() throws InterruptedException {
+		stopped.await();
+	}
+
+	private void runIdentify(RecordType type) {
+		//errors are caught here, an exception would cancel the schedule
+		try {
+			OsfIdentifyService identify = new OsfIdentifyService(type, filters);
+			try {
+				Integer numIdentified = identify.identifyNewRecords();
+				LOG.info("Number of " + type.getTypeString() + " identified for harvest:" + numIdentified);
+			} finally {
+				identify.close();
+			}
+		} catch (Exception e) {
+			LOG.error("Scheduled identify failed for " + type.getTypeString() + ", will try again at next interval", e);
+		}
+	}
+
+	private void runConsumer(String name, ConsumerTask task) {
+		while (!stopping.get()) {
+			try {
+				task.run();
+			} catch (Exception e) {
+				LOG.error("Consumer for " + name + " stopped with an error, restarting in " + CONSUMER_RESTART_DELAY_SECONDS + " seconds", e);
+				try {
+					TimeUnit.SECONDS.sleep(CONSUMER_RESTART_DELAY_SECONDS);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	@FunctionalInterface
+	private interface ConsumerTask {
+		void run() throws Exception;
+	}
+
+}
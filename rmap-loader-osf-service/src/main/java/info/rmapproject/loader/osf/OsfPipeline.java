@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.cos.osf.client.model.RecordType;
+import info.rmapproject.loader.osf.cluster.ClusterCoordinator;
+import info.rmapproject.loader.osf.cluster.ShardedStage;
+import info.rmapproject.loader.osf.model.QueueName;
+import info.rmapproject.loader.osf.utils.OSFLoaderUtils;
+
+/**
+ * Runs identify, transform and ingest at the same time for one record type. Records move to the next stage as 
+ * soon as they are ready rather than after the previous stage has processed everything. Each stage keeps 
+ * consuming until the stage before it has completed and its queue is empty. Queues are bounded, so a fast stage 
+ * waits for a slower one downstream: the in-process backend blocks when its buffer is full, JMS relies on 
+ * broker producer flow control. Transform and ingest can each run several workers, see 
+ * OSFLoaderUtils.getWorkerCount().
+ */
+public class OsfPipeline {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(OsfPipeline.class);
+
+	private final RecordType type;
+
+	private final String filters;
+
+	private Integer numIdentified = 0;
+
+	private Integer numTransformed = 0;
+
+	private Integer numIngested = 0;
+
+	/**
+	 * Initiate with record type and identify filters
+	 * @param type
+	 * @param filters
+	 */
+	public OsfPipeline(RecordType type, String filters) {
+		this.type = type;
+		this.filters = filters;
+	}
+
+	/**
+	 * Runs all three stages and waits for them to complete. A stage that fails is reported as complete to the 
+	 * stage after it, which still processes the records already queued for it. Once all stages have finished the
+	 * first failure is thrown.
+	 * @throws Exception
+	 */
+	public void run() throws Exception {
+		String transformQ = QueueName.getQueueName(QueueName.TRANSFORM, type, null);
+		String transformFailQ = QueueName.getQueueName(QueueName.TRANSFORM, type, QueueName.FAIL);
+		String ingestQ = QueueName.getQueueName(QueueName.INGEST, type, null);
+		String ingestFailQ = QueueName.getQueueName(QueueName.INGEST, type, QueueName.FAIL);
+
+		AtomicBoolean identifyComplete = new AtomicBoolean(false);
+		AtomicBoolean transformComplete = new AtomicBoolean(false);
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			Future<Integer> identified = executor.submit(() -> {
+				try {
+					return identify();
+				} finally {
+					identifyComplete.set(true);
+				}
+			});
+
+			//in cluster mode identify may be running on another node instead
+			String identifyTask = OsfIdentifyService.getIdentifyTaskName(type);
+			BooleanSupplier identifyDone = () -> identifyComplete.get() && !ClusterCoordinator.isTaskRunning(identifyTask);
+
+			Future<Integer> transformed = executor.submit(() -> {
+				try {
+					return OSFLoaderUtils.runWorkers(OSFLoaderUtils.getWorkerCount(type, "transform"), 
+							() -> ShardedStage.process(transformQ, (queue, complete) -> transform(queue, transformFailQ, complete), 
+									identifyDone));
+				} finally {
+					transformComplete.set(true);
+				}
+			});
+
+			Future<Integer> ingested = executor.submit(() -> {
+				return OSFLoaderUtils.runWorkers(OSFLoaderUtils.getWorkerCount(type, "ingest"), 
+						() -> ShardedStage.process(ingestQ, (queue, complete) -> ingest(queue, ingestFailQ, complete), 
+								transformComplete::get));
+			});
+
+			List<Exception> failures = new ArrayList<Exception>();
+			numIdentified = await(identified, "Identify", failures);
+			numTransformed = await(transformed, "Transform", failures);
+			numIngested = await(ingested, "Ingest", failures);
+			if (!failures.isEmpty()) {
+				throw failures.get(0);
+			}
+		} catch (InterruptedException e) {
+			//stop the stages only if the run itself is interrupted
+			executor.shutdownNow();
+			throw e;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Identifies new records and adds them to the transform queue
+	 * @return number identified
+	 * @throws Exception
+	 */
+	protected Integer identify() throws Exception {
+		OsfIdentifyService identify = new OsfIdentifyService(type, filters);
+		try {
+			return identify.identifyNewRecords();
+		} finally {
+			identify.close();
+		}
+	}
+
+	/**
+	 * Transforms records from the queue until upstream is complete and the queue is empty
+	 * @param queue
+	 * @param failQueue
+	 * @param upstreamComplete
+	 * @return number transformed
+	 * @throws Exception
+	 */
+	protected Integer transform(String queue, String failQueue, BooleanSupplier upstreamComplete) throws Exception {
+		OsfTransformService transform = new OsfTransformService();
+		try {
+			return transform.transformRecords(queue, queue, failQueue, type, upstreamComplete);
+		} finally {
+			transform.close();
+		}
+	}
+
+	/**
+	 * Ingests records from the queue until upstream is complete and the queue is empty
+	 * @param queue
+	 * @param failQueue
+	 * @param upstreamComplete
+	 * @return number ingested
+	 * @throws Exception
+	 */
+	protected Integer ingest(String queue, String failQueue, BooleanSupplier upstreamComplete) throws Exception {
+		OsfIngestService ingest = new OsfIngestService();
+		try {
+			return ingest.ingestRecords(queue, queue, failQueue, upstreamComplete);
+		} finally {
+			ingest.close();
+		}
+	}
+
+	/**
+	 * Waits for a stage to finish
+	 * @param stage
+	 * @param name stage name for the log
+	 * @param failures list the stage's failure is added to
+	 * @return count returned by the stage, 0 if it failed
+	 * @throws InterruptedException
+	 */
+	private Integer await(Future<Integer> stage, String name, List<Exception> failures) throws InterruptedException {
+		try {
+			Integer count = stage.get();
+			LOG.info(name + " stage complete for " + type.getTypeString());
+			return count;
+		} catch (ExecutionException e) {
+			LOG.error(name + " stage failed for " + type.getTypeString(), e.getCause());
+			failures.add(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+			return 0;
+		}
+	}
+
+	public Integer getNumIdentified() {
+		return numIdentified;
+	}
+
+	public Integer getNumTransformed() {
+		return numTransformed;
+	}
+
+	public Integer getNumIngested() {
+		return numIngested;
+	}
+
+}
@@ -1,144 +1,283 @@
-/*******************************************************************************
- * Copyright 2017 Johns Hopkins University
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- *
- * This software was produced as part of the RMap Project (http://rmap-project.info),
- * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
- * collaboration between Data Conservancy, Portico, and IEEE.
- *******************************************************************************/
-package info.rmapproject.loader.osf;
-
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStream;
-import java.util.function.Consumer;
-
-import javax.jms.JMSException;
-
-import org.openrdf.model.Model;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import info.rmapproject.cos.osf.client.model.Node;
-import info.rmapproject.cos.osf.client.model.RecordType;
-import info.rmapproject.cos.osf.client.model.Registration;
-import info.rmapproject.cos.osf.client.model.User;
-import info.rmapproject.cos.osf.client.service.OsfClientService;
-import info.rmapproject.loader.HarvestRecord;
-import info.rmapproject.loader.osf.jms.OsfJmsQueue;
-import info.rmapproject.loader.osf.model.QueueName;
-import info.rmapproject.loader.osf.transformer.DiscoTransformer;
-import info.rmapproject.loader.osf.transformer.OsfNodeDiscoTransformer;
-import info.rmapproject.loader.osf.transformer.OsfRegistrationDiscoTransformer;
-import info.rmapproject.loader.osf.transformer.OsfUserDiscoTransformer;
-import info.rmapproject.loader.osf.transformer.TransformUtils;
-import info.rmapproject.loader.util.LogUtil;
-
-public class OsfTransformService {	
-
-	/** The log. */
-	private static final Logger LOG = LoggerFactory.getLogger(OsfTransformService.class);
-	
-	/**
-	 * Number transformed
-	 */
-	Integer numTransformed = 0;
-	/**
-	 * JMS Queue instance to be used for queue management
-	 */
-	protected OsfJmsQueue jmsQueue;
-	
-	public OsfTransformService(){
-		LogUtil.adjustLogLevels();
-		this.jmsQueue = new OsfJmsQueue();
-	}
-
-
-	protected OutputStream transformRecord(String identifier, String type) {
-		OutputStream rdf = null;
-		if (identifier.length()>0){
-			OsfClientService osf = new OsfClientService();
-			RecordType harvesterType = RecordType.getType(type);
-
-			DiscoTransformer transformer = null;
-			
-			switch (harvesterType){
-			case OSF_NODE : 
-				Node node = osf.getNode(identifier);
-				transformer = new OsfNodeDiscoTransformer(node);
-				break;
-			case OSF_REGISTRATION : 
-				Registration reg = osf.getRegistration(identifier);
-				transformer = new OsfRegistrationDiscoTransformer(reg);
-				break;
-			case OSF_USER : 
-				User user = osf.getUser(identifier);
-				transformer = new OsfUserDiscoTransformer(user);
-				break;
-			default : 
-				Node defaultNode = osf.getNode(identifier);
-				transformer = new OsfNodeDiscoTransformer(defaultNode);
-				break;
-			}
-			
-			Model model = transformer.getModel();
-			rdf = TransformUtils.generateTurtleRdf(model);
-			LOG.debug("Transformed record id:" + identifier);
-		}
-		
-		return rdf;
-	}
-
-	/**
-	 * Reads records in queue specified, moves failures to fail queue, successes to ingest queue.
-	 * @param fromQueue
-	 * @param failQueue
-	 * @return
-	 * @throws JMSException 
-	 */
-	protected Integer transformRecords(String fromQueue, String failQueue, RecordType harvesterType) throws JMSException{
-		
-		Consumer<HarvestRecord> consumer = received -> {
-			String id = new String(received.getBody());
-			String type = received.getRecordInfo().getContentType();
-			try {
-					ByteArrayOutputStream rdf = (ByteArrayOutputStream) transformRecord(id, type);
-					received.setBody(rdf.toByteArray());
-					received.getRecordInfo().setContentType("text/turtle");
-					String ingestQ = QueueName.getQueueName(QueueName.INGEST, harvesterType, null);
-					jmsQueue.add(received, ingestQ);
-					numTransformed = numTransformed + 1;
-					LOG.info("Record transformed:" + id + " from queue: " + fromQueue + " and added to Ingest queue");
-			} catch (Exception ex) {
-				LOG.error("Transform failed for record from source: " + id, ex);
-				//add to fail queue
-				jmsQueue.add(received, failQueue);
-				LOG.error("Record not transformed:" + received.getRecordInfo().getId() + " added to fail queue:" + failQueue);
-			}
-			
-	      };	
-	      
-		jmsQueue.processMessages(fromQueue, consumer);
-		LOG.debug(numTransformed + " records moved from " + fromQueue + " to ingest queue");		
-		return numTransformed;
-	}
-	
-    
-    public void close() {
-		jmsQueue.close();
-    }
-	
-	
-	
-	
-}
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import javax.jms.JMSException;
+
+import org.openrdf.model.Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Timer;
+
+import info.rmapproject.cos.osf.client.model.Node;
+import info.rmapproject.cos.osf.client.model.RecordType;
+import info.rmapproject.cos.osf.client.model.Registration;
+import info.rmapproject.cos.osf.client.model.User;
+import info.rmapproject.cos.osf.client.service.OsfClientService;
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.osf.cluster.ClusterCoordinator;
+import info.rmapproject.loader.osf.export.DiscoExporter;
+import info.rmapproject.loader.osf.fetch.OsfFetchPlanner;
+import info.rmapproject.loader.osf.jfr.LoaderEvents;
+import info.rmapproject.loader.osf.jfr.LoaderEvents.Kind;
+import info.rmapproject.loader.osf.metrics.LoaderMetrics;
+import info.rmapproject.loader.osf.model.QueueName;
+import info.rmapproject.loader.osf.queue.PayloadCodec;
+import info.rmapproject.loader.osf.queue.RetryScheduler;
+import info.rmapproject.loader.osf.queue.StageQueue;
+import info.rmapproject.loader.osf.queue.StageQueueFactory;
+import info.rmapproject.loader.osf.trace.RecordTrace;
+import info.rmapproject.loader.osf.transformer.DiscoTransformer;
+import info.rmapproject.loader.osf.transformer.OsfNodeDiscoTransformer;
+import info.rmapproject.loader.osf.transformer.OsfRegistrationDiscoTransformer;
+import info.rmapproject.loader.osf.transformer.OsfUserDiscoTransformer;
+import info.rmapproject.loader.osf.transformer.TransformUtils;
+import info.rmapproject.loader.osf.utils.OsfClientProvider;
+import info.rmapproject.loader.util.LogUtil;
+
+public class OsfTransformService {	
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(OsfTransformService.class);
+	
+	/**
+	 * Number transformed
+	 */
+	Integer numTransformed = 0;
+	/**
+	 * Queue instance to be used for queue management
+	 */
+	protected StageQueue stageQueue;
+	
+	/**
+	 * Schedules failed records for delayed retry
+	 */
+	protected RetryScheduler retryScheduler;
+	
+	/**
+	 * OSF API client, shared by all services in the process
+	 */
+	protected OsfClientService osf;
+	
+	/**
+	 * Codec used to compress DiSCOs added to the ingest queue, null if they are not compressed
+	 */
+	protected PayloadCodec payloadCodec;
+	
+	/**
+	 * Writes transformed DiSCOs to N-Quads files, null if export is not enabled
+	 */
+	protected DiscoExporter exporter;
+	
+	/**
+	 * True if transformed DiSCOs are exported and not added to the ingest queue
+	 */
+	protected boolean exportOnly;
+	
+	public OsfTransformService(){
+		LogUtil.adjustLogLevels();
+		this.stageQueue = StageQueueFactory.createQueue();
+		this.retryScheduler = new RetryScheduler(stageQueue);
+		this.osf = OsfClientProvider.getClient();
+		this.payloadCodec = PayloadCodec.configured();
+		this.exporter = DiscoExporter.getInstance();
+		this.exportOnly = DiscoExporter.isExportOnly();
+	}
+
+
+	protected OutputStream transformRecord(String identifier, String type) {
+		Model model = transformModel(identifier, type);
+		return model == null ? null : serializeModel(identifier, type, model);
+	}
+
+	/**
+	 * Retrieves the record from OSF and converts it to a DiSCO model
+	 * @param identifier
+	 * @param type
+	 * @return the DiSCO, null if there is no identifier
+	 */
+	protected Model transformModel(String identifier, String type) {
+		Model model = null;
+		if (identifier.length()>0){
+			RecordType harvesterType = RecordType.getType(type);
+
+			DiscoTransformer transformer = null;
+			
+			Object fetchEvent = LoaderEvents.begin(Kind.OSF_API_CALL, identifier, type, harvesterType.getTypeString());
+			try {
+				OsfFetchPlanner.expect(harvesterType, identifier);
+				switch (harvesterType){
+				case OSF_NODE : 
+					Node node = LoaderMetrics.timeCall("osf", "nodes", () -> osf.getNode(identifier));
+					transformer = new OsfNodeDiscoTransformer(node);
+					break;
+				case OSF_REGISTRATION : 
+					Registration reg = LoaderMetrics.timeCall("osf", "registrations", () -> osf.getRegistration(identifier));
+					transformer = new OsfRegistrationDiscoTransformer(reg);
+					break;
+				case OSF_USER : 
+					User user = LoaderMetrics.timeCall("osf", "users", () -> osf.getUser(identifier));
+					transformer = new OsfUserDiscoTransformer(user);
+					break;
+				default : 
+					Node defaultNode = LoaderMetrics.timeCall("osf", "nodes", () -> osf.getNode(identifier));
+					transformer = new OsfNodeDiscoTransformer(defaultNode);
+					break;
+				}
+			} catch (Exception e) {
+				LoaderEvents.fail(fetchEvent, e);
+				throw e;
+			} finally {
+				LoaderEvents.end(fetchEvent, 0);
+			}
+			RecordTrace.mark("transform.fetched");
+			
+			Object modelEvent = LoaderEvents.begin(Kind.DISCO_MODEL, identifier, type, transformer.getClass().getSimpleName());
+			try {
+				model = transformer.getModel();
+			} catch (Exception e) {
+				LoaderEvents.fail(modelEvent, e);
+				throw e;
+			} finally {
+				LoaderEvents.end(modelEvent, model == null ? 0 : model.size());
+			}
+			RecordTrace.mark("transform.modelled");
+		}
+		return model;
+	}
+
+	/**
+	 * Writes DiSCO model as Turtle for the ingest queue
+	 * @param identifier
+	 * @param type
+	 * @param model
+	 * @return the RDF
+	 */
+	protected OutputStream serializeModel(String identifier, String type, Model model) {
+		Object serializeEvent = LoaderEvents.begin(Kind.TURTLE_SERIALIZE, identifier, type, null);
+		OutputStream rdf = null;
+		try {
+			rdf = TransformUtils.generateTurtleRdf(model);
+		} catch (Exception e) {
+			LoaderEvents.fail(serializeEvent, e);
+			throw e;
+		} finally {
+			LoaderEvents.end(serializeEvent, rdf instanceof ByteArrayOutputStream ? ((ByteArrayOutputStream) rdf).size() : 0);
+		}
+		RecordTrace.mark("transform.serialized");
+		LOG.debug("Transformed record id:" + identifier);
+		return rdf;
+	}
+
+	/**
+	 * Reads records in queue specified, schedules failures for retry or moves them to the fail queue once 
+	 * retries are used up, successes go to ingest queue.
+	 * @param fromQueue
+	 * @param retryQueue
+	 * @param failQueue
+	 * @return
+	 * @throws JMSException 
+	 */
+	protected Integer transformRecords(String fromQueue, String retryQueue, String failQueue, RecordType harvesterType) throws JMSException{
+		return transformRecords(fromQueue, retryQueue, failQueue, harvesterType, () -> true);
+	}
+
+	/**
+	 * Reads records in queue specified as they arrive until the identify stage reports it is complete and the
+	 * queue is empty. Used when stages run concurrently.
+	 * @param fromQueue
+	 * @param retryQueue
+	 * @param failQueue
+	 * @param upstreamComplete returns true once identify has finished adding records
+	 * @return
+	 * @throws JMSException 
+	 */
+	protected Integer transformRecords(String fromQueue, String retryQueue, String failQueue, RecordType harvesterType, 
+			BooleanSupplier upstreamComplete) throws JMSException{
+		
+		Consumer<HarvestRecord> consumer = received -> {
+			if (!ClusterCoordinator.isOwned(fromQueue)) {
+				//shard was handed to another node while this consumer was stopping
+				stageQueue.addDelayed(received, fromQueue, ClusterCoordinator.getHandoffDelayMillis(), stageQueue.getDeliveryAttempt());
+				return;
+			}
+			Timer.Sample sample = LoaderMetrics.start();
+			RecordTrace.mark("transform.start");
+			byte[] payload = received.getBody();
+			String id = new String(payload);
+			String type = received.getRecordInfo().getContentType();
+			try {
+					Model model = transformModel(id, type);
+					if (exportOnly) {
+						exporter.export(received.getRecordInfo(), model);
+						numTransformed = numTransformed + 1;
+						LOG.info("Record transformed:" + id + " from queue: " + fromQueue + " and exported");
+						LoaderMetrics.recordStage(sample, "transform", harvesterType.getTypeString(), "exported");
+						RecordTrace.complete(id, "exported");
+						return;
+					}
+					ByteArrayOutputStream rdf = (ByteArrayOutputStream) serializeModel(id, type, model);
+					received.setBody(PayloadCodec.encode(rdf.toByteArray(), payloadCodec));
+					received.getRecordInfo().setContentType("text/turtle");
+					String ingestQ = ClusterCoordinator.route(QueueName.getQueueName(QueueName.INGEST, harvesterType, null), id);
+					stageQueue.add(received, ingestQ);
+					if (exporter != null) {
+						//exported once it is on the ingest queue, so a record retried after a failed add is exported once
+						try {
+							exporter.export(received.getRecordInfo(), model);
+						} catch (RuntimeException e) {
+							//retrying would add the record to the ingest queue again
+							LOG.error("Could not export DiSCO for record " + id + ", it was still added to the ingest queue", e);
+						}
+					}
+					numTransformed = numTransformed + 1;
+					LOG.info("Record transformed:" + id + " from queue: " + fromQueue + " and added to Ingest queue");
+					LoaderMetrics.recordStage(sample, "transform", harvesterType.getTypeString(), "success");
+			} catch (Exception ex) {
+				LOG.error("Transform failed for record from source: " + id, ex);
+				//schedule retry, or add to fail queue, keeping the record as it was received
+				received.setBody(payload);
+				received.getRecordInfo().setContentType(type);
+				retryScheduler.retryOrFail(received, ClusterCoordinator.route(retryQueue, id), failQueue);
+				LoaderMetrics.recordStage(sample, "transform", harvesterType.getTypeString(), "error");
+			}
+			
+	      };	
+	      
+		stageQueue.processMessages(fromQueue, consumer, upstreamComplete);
+		LOG.debug(numTransformed + " records moved from " + fromQueue + " to ingest queue");		
+		return numTransformed;
+	}
+	
+    
+    public void close() {
+		stageQueue.close();
+    }
+	
+	
+	
+	
+}
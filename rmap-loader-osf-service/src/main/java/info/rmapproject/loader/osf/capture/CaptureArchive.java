@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.capture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import info.rmapproject.loader.osf.queue.PayloadCodec;
+
+/**
+ * Append-only file of OSF API exchanges. Each entry holds the request method and key, the response status and 
+ * content type, and the response body compressed with PayloadCodec.DEFLATE. Entries are only ever added to the end of the file, 
+ * so an archive can be extended by later captures, and a capture interrupted part way through leaves every entry
+ * written before it readable.
+ * <p>
+ * An archive is opened either for appending or for reading. When reading, only an index of entry positions is 
+ * kept in memory and bodies are read from the file as they are needed. Entries with the same key are returned 
+ * in the order they were captured, and the last one is repeated once all have been returned.
+ */
+class CaptureArchive implements AutoCloseable {
+
+	private static final int MAGIC = 0x4f534643; //OSFC
+
+	private static final int VERSION = 1;
+
+	/**
+	 * A captured response
+	 */
+	static class Exchange {
+		final int status;
+		final String contentType;
+		final byte[] body;
+
+		Exchange(int status, String contentType, byte[] body) {
+			this.status = status;
+			this.contentType = contentType;
+			this.body = body;
+		}
+	}
+
+	private static class EntryPosition {
+		final int status;
+		final String contentType;
+		final long offset;
+		final int compressedLength;
+		final int length;
+
+		EntryPosition(int status, String contentType, long offset, int compressedLength, int length) {
+			this.status = status;
+			this.contentType = contentType;
+			this.offset = offset;
+			this.compressedLength = compressedLength;
+			this.length = length;
+		}
+	}
+
+	private final File file;
+
+	private DataOutputStream out = null;
+
+	private RandomAccessFile in = null;
+
+	private final Map<String, List<EntryPosition>> index = new HashMap<String, List<EntryPosition>>();
+
+	private final Map<String, Integer> nextEntry = new HashMap<String, Integer>();
+
+	private int entryCount = 0;
+
+	private CaptureArchive(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Opens archive for appending, creating it if it does not exist
+	 * @param file
+	 * @return the archive
+	 * @throws IOException
+	 */
+	static CaptureArchive append(File file) throws IOException {
+		CaptureArchive archive = new CaptureArchive(file);
+		boolean exists = file.exists() && file.length() > 0;
+		if (exists) {
+			long[] contents = readIndex(file, null);
+			archive.entryCount = (int) contents[0];
+			if (contents[1] < file.length()) {
+				//drop a partly written entry so new entries follow the last complete one
+				try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+					raf.setLength(contents[1]);
+				}
+			}
+		} else if (file.getAbsoluteFile().getParentFile() != null) {
+			file.getAbsoluteFile().getParentFile().mkdirs();
+		}
+		archive.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 65536));
+		if (!exists) {
+			archive.out.writeInt(MAGIC);
+			archive.out.writeInt(VERSION);
+			archive.out.flush();
+		}
+		return archive;
+	}
+
+	/**
+	 * Opens existing archive for reading
+	 * @param file
+	 * @return the archive
+	 * @throws IOException
+	 */
+	static CaptureArchive read(File file) throws IOException {
+		CaptureArchive archive = new CaptureArchive(file);
+		archive.entryCount = (int) readIndex(file, archive.index)[0];
+		archive.in = new RandomAccessFile(file, "r");
+		return archive;
+	}
+
+	/**
+	 * Adds exchange to the end of the archive. The entry is flushed to the file before returning.
+	 * @param method
+	 * @param key
+	 * @param exchange
+	 * @throws IOException
+	 */
+	synchronized void add(String method, String key, Exchange exchange) throws IOException {
+		byte[] compressed = PayloadCodec.DEFLATE.compress(exchange.body);
+		out.writeLong(System.currentTimeMillis());
+		out.writeUTF(method);
+		out.writeUTF(key);
+		out.writeShort(exchange.status);
+		out.writeUTF(exchange.contentType == null ? "" : exchange.contentType);
+		out.writeInt(exchange.body.length);
+		out.writeInt(compressed.length);
+		out.write(compressed);
+		out.flush();
+		entryCount++;
+	}
+
+	/**
+	 * Retrieves the next captured exchange for the request
+	 * @param method
+	 * @param key
+	 * @return the exchange, or null if the request was not captured
+	 * @throws IOException
+	 */
+	synchronized Exchange next(String method, String key) throws IOException {
+		String indexKey = method + " " + key;
+		List<EntryPosition> entries = index.get(indexKey);
+		if (entries == null) {
+			return null;
+		}
+		int next = nextEntry.getOrDefault(indexKey, 0);
+		nextEntry.put(indexKey, next + 1);
+		EntryPosition entry = entries.get(Math.min(next, entries.size() - 1));
+		byte[] compressed = new byte[entry.compressedLength];
+		in.seek(entry.offset);
+		in.readFully(compressed);
+		byte[] body;
+		try {
+			body = PayloadCodec.DEFLATE.decompress(compressed, 0, compressed.length, entry.length);
+		} catch (IOException e) {
+			throw new IOException("Corrupt or truncated entry in OSF capture archive for " + indexKey, e);
+		}
+		return new Exchange(entry.status, entry.contentType, body);
+	}
+
+	/**
+	 * @return number of entries in the archive
+	 */
+	synchronized int size() {
+		return entryCount;
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			if (out != null) {
+				out.close();
+			}
+			if (in != null) {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not close OSF capture archive " + file, e);
+		}
+	}
+
+	/**
+	 * Reads the positions of all entries in an archive. A partly written entry at the end of the file, left by a 
+	 * capture that was stopped while writing, is ignored.
+	 * @param file
+	 * @param index map to add positions to, or null to only count entries
+	 * @return number of entries, and position of the end of the last complete entry
+	 * @throws IOException
+	 */
+	private static long[] readIndex(File file, Map<String, List<EntryPosition>> index) throws IOException {
+		int count = 0;
+		long position = 8;
+		try (DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+			if (data.readInt() != MAGIC) {
+				throw new IOException(file + " is not an OSF capture archive");
+			}
+			int version = data.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported OSF capture archive version " + version + " in " + file);
+			}
+			long fileLength = file.length();
+			while (true) {
+				try {
+					data.readLong();
+					String method = data.readUTF();
+					String key = data.readUTF();
+					int status = data.readShort();
+					String contentType = data.readUTF();
+					int length = data.readInt();
+					int compressedLength = data.readInt();
+					long headerLength = 8 + utfLength(method) + utfLength(key) + 2 + utfLength(contentType) + 8;
+					long offset = position + headerLength;
+					if (offset + compressedLength > fileLength) {
+						break;
+					}
+					skipFully(data, compressedLength);
+					if (index != null) {
+						index.computeIfAbsent(method + " " + key, k -> new ArrayList<EntryPosition>())
+							.add(new EntryPosition(status, contentType, offset, compressedLength, length));
+					}
+					position = offset + compressedLength;
+					count++;
+				} catch (EOFException e) {
+					break;
+				}
+			}
+		}
+		return new long[] {count, position};
+	}
+
+	/**
+	 * @param value
+	 * @return number of bytes written by DataOutput.writeUTF for the value
+	 */
+	private static long utfLength(String value) {
+		long length = 2;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			length = length + (c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2);
+		}
+		return length;
+	}
+
+	private static void skipFully(DataInputStream data, long length) throws IOException {
+		long remaining = length;
+		while (remaining > 0) {
+			long skipped = data.skip(remaining);
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+			remaining = remaining - skipped;
+		}
+	}
+
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.capture;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import info.rmapproject.loader.osf.capture.CaptureArchive.Exchange;
+import info.rmapproject.loader.osf.metrics.LoaderMetrics;
+import info.rmapproject.loader.osf.utils.OsfApiProxy;
+
+/**
+ * Captures OSF API traffic to an archive, or replays a harvest from one without network access. When 
+ * osf.capture.mode is set, a local HTTP proxy is started and the OSF client configuration (osf.client.conf) is
+ * replaced with one that points at it, so every request made by the OSF client, the iterators used by identify
+ * and the parent access checks goes through the proxy. Links to the OSF API in responses are rewritten to the 
+ * proxy so that paging and relationships are followed through it too.
+ * <ul>
+ * <li>record - requests are forwarded to the OSF API from the original client configuration, and each response
+ * is appended to the archive (osf.capture.archive, default osf-capture.bin) before it is returned.</li>
+ * <li>replay - responses are served from the archive. Requests that were not captured return 404.</li>
+ * </ul>
+ * Requests are matched on method, path and query, ignoring date filters, so a replay matches a capture made on 
+ * another day. Replays should use a fresh registry so the records are not filtered out by the last run date.
+ */
+public class OsfCaptureProxy extends OsfApiProxy {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(OsfCaptureProxy.class);
+
+	public static final String MODE_RECORD = "record";
+
+	public static final String MODE_REPLAY = "replay";
+
+	private static OsfCaptureProxy proxy = null;
+
+	private final boolean recording;
+
+	private CaptureArchive archive = null;
+
+	private OsfCaptureProxy(boolean recording) {
+		super("capture");
+		this.recording = recording;
+	}
+
+	/**
+	 * @return true if capture or replay is configured
+	 */
+	public static boolean isEnabled() {
+		return string("osf.capture.mode", null) != null;
+	}
+
+	/**
+	 * Starts the proxy and points the OSF client at it, if osf.capture.mode is set. Must be called before the first
+	 * OSF client is created.
+	 */
+	public static synchronized void start() {
+		if (proxy != null || !isEnabled()) {
+			return;
+		}
+		String mode = string("osf.capture.mode", null);
+		if (!mode.equals(MODE_RECORD) && !mode.equals(MODE_REPLAY)) {
+			throw new IllegalArgumentException("Only the following values are allowed for osf.capture.mode: " 
+					+ MODE_RECORD + ", " + MODE_REPLAY);
+		}
+		boolean recording = mode.equals(MODE_RECORD);
+		File archiveFile = new File(string("osf.capture.archive", "osf-capture.bin"));
+		proxy = new OsfCaptureProxy(recording);
+		try {
+			ObjectMapper mapper = new ObjectMapper();
+			ObjectNode clientConfig = proxy.readClientConfig(mapper);
+			proxy.archive = recording ? CaptureArchive.append(archiveFile) : CaptureArchive.read(archiveFile);
+			proxy.startServer(mapper, clientConfig, Integer.parseInt(string("osf.capture.threads", "16")), recording, !recording);
+
+			LOG.info("Started OSF " + mode + " proxy at " + proxy.getProxyBase() + " for " + proxy.getUpstreamBase() 
+					+ ", archive: " + archiveFile.getAbsolutePath() + " (" + proxy.archive.size() + " entries)");
+		} catch (Exception e) {
+			stop();
+			throw new RuntimeException("Could not start OSF " + mode + " proxy with archive " + archiveFile, e);
+		}
+	}
+
+	/**
+	 * Stops the proxy and restores the original OSF client configuration
+	 */
+	public static synchronized void stop() {
+		if (proxy == null) {
+			return;
+		}
+		proxy.stopServer();
+		if (proxy.archive != null) {
+			LOG.info("Stopped OSF capture proxy, archive has " + proxy.archive.size() + " entries");
+			proxy.archive.close();
+		}
+		proxy = null;
+	}
+
+	@Override
+	protected Response respond(HttpExchange exchange, String method, String relative, String query) throws Exception {
+		String key = requestKey(relative, query);
+		if (recording) {
+			Response response = forward(exchange, method, relative + (query == null ? "" : "?" + query));
+			archive.add(method, key, new Exchange(response.status, response.contentType, response.body));
+			return response;
+		}
+		Exchange captured = archive.next(method, key);
+		LoaderMetrics.countCacheRequest("capture.replay", captured != null);
+		if (captured == null) {
+			LOG.warn("No captured response for request: " + method + " " + key);
+			return new Response(404, "application/vnd.api+json", 
+					"{\"errors\":[{\"detail\":\"Request was not captured.\"}]}".getBytes(UTF_8));
+		}
+		return new Response(captured.status, captured.contentType, captured.body);
+	}
+
+	/**
+	 * Builds the key used to match a request to captured responses. Query parameters are sorted, and date filters
+	 * are left out because identify sets them relative to the current date.
+	 * @param relative path relative to the API base path
+	 * @param query raw query string, or null
+	 * @return request key
+	 */
+	static String requestKey(String relative, String query) {
+		if (query == null || query.isEmpty()) {
+			return relative;
+		}
+		List<String> params = new ArrayList<String>();
+		for (String param : query.split("&")) {
+			if (param.isEmpty() || decode(param.split("=", 2)[0]).startsWith("filter[date_")) {
+				continue;
+			}
+			params.add(param);
+		}
+		Collections.sort(params);
+		return params.isEmpty() ? relative : relative + "?" + String.join("&", params);
+	}
+
+	private static String decode(String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.cluster;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.loader.osf.jms.EmbeddedBroker;
+import info.rmapproject.loader.osf.model.QueueName;
+import info.rmapproject.loader.osf.queue.StageQueueFactory;
+import info.rmapproject.loader.osf.utils.DataSourceProvider;
+
+/**
+ * Coordinates loader instances that share a broker and registry database (osf.cluster.enabled=true). The OSF ID 
+ * space is split into osf.cluster.shards hash shards (default 32, must be the same on every node). Each shard has 
+ * its own transform and ingest queues, and a node only consumes the queues of shards it holds a lease on, so a 
+ * record is never processed by two nodes at once. Nodes register in the node table and heartbeat each time they 
+ * renew their leases (every quarter of osf.cluster.leaseSeconds, default 60). Shards are shared evenly between 
+ * live nodes: a node gives up shards over its share once their consumers have stopped, and picks up free or 
+ * expired shards when it has fewer, which is how shards of a node that died are taken over. Only one node runs 
+ * identify for a type at a time, see HarvestRunCoordinator. Leases are compared against each node's own clock, 
+ * so node clocks should be kept in sync.
+ */
+public class ClusterCoordinator {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(ClusterCoordinator.class);
+
+	private static final String SHARD_LEASE_PREFIX = "shard.";
+
+	/** How long a task lease check is reused before the lease table is read again */
+	private static final long TASK_CHECK_CACHE_MILLIS = 2000;
+
+	private static ScheduledExecutorService renewer = null;
+
+	private static LeaseStore store = null;
+
+	private static String nodeId = null;
+
+	private static int shardCount;
+
+	private static long leaseMillis;
+
+	/** Shards leased by this node, including those being released */
+	private static final Set<Integer> leasedShards = ConcurrentHashMap.newKeySet();
+
+	/** Shards being handed back, their consumers are stopping */
+	private static final Set<Integer> releasingShards = ConcurrentHashMap.newKeySet();
+
+	/** Number of consumers running on each shard's queues */
+	private static final Map<Integer, Integer> activeConsumers = new HashMap<Integer, Integer>();
+
+	/** Last result of isTaskRunning, with the time it was read */
+	private static final Map<String, long[]> taskChecks = new ConcurrentHashMap<String, long[]>();
+
+	/**
+	 * @return true if the loader is configured to run as one node of a cluster
+	 */
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(string("osf.cluster.enabled", "false"));
+	}
+
+	/**
+	 * Registers this node, takes its first shard leases and starts renewing them, if osf.cluster.enabled is set.
+	 */
+	public static synchronized void start() {
+		if (renewer != null || !isEnabled()) {
+			return;
+		}
+		if (string("osf.queue.backend", StageQueueFactory.BACKEND_JMS).equals(StageQueueFactory.BACKEND_MEMORY)) {
+			throw new IllegalArgumentException("osf.cluster.enabled requires the " + StageQueueFactory.BACKEND_JMS + " queue backend");
+		}
+		if (EmbeddedBroker.isEnabled()) {
+			LOG.warn("Cluster mode is enabled with an embedded broker, other nodes will not see this node's queues");
+		}
+		shardCount = Integer.parseInt(string("osf.cluster.shards", "32"));
+		leaseMillis = Long.parseLong(string("osf.cluster.leaseSeconds", "60")) * 1000;
+		nodeId = getNodeId();
+		try {
+			store = new LeaseStore(DataSourceProvider.getDataSource());
+			store.init();
+			renew();
+		} catch (Exception e) {
+			store = null;
+			throw new RuntimeException("Could not join loader cluster as node " + nodeId, e);
+		}
+		renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "osf-cluster-lease");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = Math.max(1000, leaseMillis / 4);
+		renewer.scheduleWithFixedDelay(ClusterCoordinator::renewQuietly, interval, interval, TimeUnit.MILLISECONDS);
+		LOG.info("Joined loader cluster as node " + nodeId + ", holding shards " + new TreeSet<Integer>(leasedShards) + " of " + shardCount);
+	}
+
+	/**
+	 * Stops renewing, releases all leases held by this node and removes it from the node table
+	 */
+	public static synchronized void stop() {
+		if (renewer == null) {
+			return;
+		}
+		renewer.shutdownNow();
+		renewer = null;
+		try {
+			for (Integer shard : leasedShards) {
+				store.release(SHARD_LEASE_PREFIX + shard, nodeId);
+			}
+			store.deregister(nodeId);
+			LOG.info("Node " + nodeId + " left loader cluster");
+		} catch (Exception e) {
+			LOG.warn("Could not release leases for node " + nodeId + ", they will be taken over once they expire", e);
+		}
+		leasedShards.clear();
+		releasingShards.clear();
+		taskChecks.clear();
+		store = null;
+	}
+
+	/**
+	 * Finds the shard an OSF ID belongs to. Uses String.hashCode, which is the same on every JVM.
+	 * @param osfId
+	 * @return shard number
+	 */
+	public static int shardOf(String osfId) {
+		return (osfId.hashCode() & 0x7fffffff) % shardCount;
+	}
+
+	/**
+	 * Selects the queue a record should be added to. In cluster mode this is the queue for the record's shard.
+	 * @param queue
+	 * @param osfId
+	 * @return queue name
+	 */
+	public static String route(String queue, String osfId) {
+		if (renewer == null || QueueName.getShard(queue) >= 0) {
+			return queue;
+		}
+		return QueueName.getShardQueueName(queue, shardOf(osfId));
+	}
+
+	/**
+	 * Lists shards this node holds and is not handing back, in order
+	 * @return shard numbers
+	 */
+	public static List<Integer> getOwnedShards() {
+		List<Integer> shards = new ArrayList<Integer>();
+		for (Integer shard : leasedShards) {
+			if (!releasingShards.contains(shard)) {
+				shards.add(shard);
+			}
+		}
+		Collections.sort(shards);
+		return shards;
+	}
+
+	/**
+	 * Checks whether this node should process records from the queue. Queues that do not belong to a shard are
+	 * always processed.
+	 * @param queue
+	 * @return false if the queue belongs to a shard this node does not own
+	 */
+	public static boolean isOwned(String queue) {
+		int shard = QueueName.getShard(queue);
+		return shard < 0 || renewer == null || isOwned(shard);
+	}
+
+	/**
+	 * @param shard
+	 * @return true if this node holds the shard and is not handing it back
+	 */
+	public static boolean isOwned(int shard) {
+		return leasedShards.contains(shard) && !releasingShards.contains(shard);
+	}
+
+	/**
+	 * Delay used when putting back a record this node no longer owns, long enough for the new owner to take 
+	 * the shard over
+	 * @return delay in milliseconds
+	 */
+	public static long getHandoffDelayMillis() {
+		return leaseMillis / 2;
+	}
+
+	/**
+	 * Notes that a consumer started on a shard's queue. A shard is not released while it has consumers.
+	 * @param shard
+	 */
+	public static void consumerStarted(int shard) {
+		synchronized (activeConsumers) {
+			activeConsumers.merge(shard, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * Notes that a consumer on a shard's queue has stopped
+	 * @param shard
+	 */
+	public static void consumerStopped(int shard) {
+		synchronized (activeConsumers) {
+			activeConsumers.computeIfPresent(shard, (k, count) -> count > 1 ? count - 1 : null);
+		}
+	}
+
+	/**
+	 * Checks whether any node holds the lease for a task, e.g. a run lock. Results are reused for a couple of 
+	 * seconds so this can be polled by consumers.
+	 * @param task lease name
+	 * @return true if a live node holds the lease, false when cluster mode is off
+	 */
+	public static boolean isTaskRunning(String task) {
+		if (renewer == null) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		long[] check = taskChecks.get(task);
+		if (check != null && now - check[0] < TASK_CHECK_CACHE_MILLIS) {
+			return check[1] == 1;
+		}
+		try {
+			boolean running = store.isHeld(task, now);
+			taskChecks.put(task, new long[] {now, running ? 1 : 0});
+			return running;
+		} catch (Exception e) {
+			LOG.warn("Could not read lease for task " + task + ", assuming it is still running", e);
+			return true;
+		}
+	}
+
+	private static void renewQuietly() {
+		try {
+			renew();
+		} catch (Exception e) {
+			LOG.error("Could not renew cluster leases for node " + nodeId + ", will try again", e);
+		}
+	}
+
+	/**
+	 * Heartbeats, renews held leases, hands back shards over this node's share and takes free ones up to it
+	 * @throws Exception
+	 */
+	static void renew() throws Exception {
+		long now = System.currentTimeMillis();
+		long expires = now + leaseMillis;
+		store.heartbeat(nodeId, now);
+		int liveNodes = Math.max(1, store.countLiveNodes(now - leaseMillis));
+		int share = (shardCount + liveNodes - 1) / liveNodes;
+
+		for (Integer shard : new ArrayList<Integer>(leasedShards)) {
+			if (!store.renew(SHARD_LEASE_PREFIX + shard, nodeId, expires)) {
+				LOG.warn("Node " + nodeId + " lost the lease on shard " + shard + ", another node has taken it over");
+				leasedShards.remove(shard);
+				releasingShards.remove(shard);
+			}
+		}
+
+		Set<Integer> idle = new HashSet<Integer>(releasingShards);
+		synchronized (activeConsumers) {
+			idle.removeAll(activeConsumers.keySet());
+		}
+		for (Integer shard : idle) {
+			store.release(SHARD_LEASE_PREFIX + shard, nodeId);
+			leasedShards.remove(shard);
+			releasingShards.remove(shard);
+			LOG.info("Node " + nodeId + " handed back shard " + shard);
+		}
+
+		List<Integer> owned = getOwnedShards();
+		for (int i = owned.size() - 1; i >= share; i--) {
+			releasingShards.add(owned.get(i));
+		}
+		for (int shard = 0; shard < shardCount && getOwnedShards().size() < share; shard++) {
+			if (!leasedShards.contains(shard) && store.acquire(SHARD_LEASE_PREFIX + shard, nodeId, now, expires)) {
+				leasedShards.add(shard);
+				LOG.info("Node " + nodeId + " took the lease on shard " + shard);
+			}
+		}
+	}
+
+	/**
+	 * Identifies this loader process in the node and lease tables, osf.cluster.nodeId or host:pid by default
+	 * @return node id
+	 */
+	public static String getNodeId() {
+		String configured = string("osf.cluster.nodeId", null);
+		return configured != null ? configured : defaultNodeId();
+	}
+
+	private static String defaultNodeId() {
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		} catch (Exception e) {
+			host = "localhost";
+		}
+		//runtime name is pid@host on most JVMs
+		String runtime = ManagementFactory.getRuntimeMXBean().getName();
+		return host + ":" + runtime.split("@")[0];
+	}
+
+}
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.cluster;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.loader.RdbmsHarvestRunRegistry;
+import info.rmapproject.loader.osf.utils.DataSourceProvider;
+
+/**
+ * Coordinates identify runs for each harvest name, e.g. osf.nodes, across threads and hosts that share the registry 
+ * database. A run takes an advisory lock on the harvest name, which is a lease renewed while the run is in progress 
+ * (osf.run.lockSeconds, default 300) so the lock of a run that died is freed. The high-water mark, the date the next 
+ * run starts from, is only advanced after a successful identify, and only if no other run moved it since it was 
+ * read. Each advance is also recorded in the harvest run registry. One registry instance is initialized and shared 
+ * by all identify services in the process.
+ */
+public class HarvestRunCoordinator {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(HarvestRunCoordinator.class);
+
+	private static final String LOCK_PREFIX = "run.";
+
+	private static HarvestRunCoordinator instance = null;
+
+	private final LeaseStore store;
+
+	private final RdbmsHarvestRunRegistry registry;
+
+	private final String owner;
+
+	private final long lockMillis;
+
+	/** Locks held by this process */
+	private final Set<String> heldLocks = ConcurrentHashMap.newKeySet();
+
+	private final ScheduledExecutorService renewer;
+
+	/**
+	 * High-water mark as read at the start of a run
+	 */
+	public static class HighWaterMark {
+
+		private final Long stored;
+
+		private final DateTime date;
+
+		private HighWaterMark(Long stored, DateTime date) {
+			this.stored = stored;
+			this.date = date;
+		}
+
+		/**
+		 * @return date the next run should start from, or null if there has not been a run
+		 */
+		public DateTime getDate() {
+			return date;
+		}
+
+	}
+
+	/**
+	 * Retrieves the coordinator shared by the process, creating it on first use
+	 * @return the coordinator
+	 */
+	public static synchronized HarvestRunCoordinator getInstance() {
+		if (instance == null) {
+			instance = new HarvestRunCoordinator(DataSourceProvider.getDataSource());
+		}
+		return instance;
+	}
+
+	/**
+	 * Releases locks held by the process and stops renewing them. Called at the end of the loader run, before the
+	 * datasource is closed.
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			instance.close();
+			instance = null;
+		}
+	}
+
+	/**
+	 * Name of the lease used as the run lock for a harvest name
+	 * @param harvestName
+	 * @return lease name
+	 */
+	public static String getLockName(String harvestName) {
+		return LOCK_PREFIX + harvestName;
+	}
+
+	/**
+	 * Initiate with the datasource holding the registry and lease tables. Most callers should use the instance 
+	 * shared by the process, see getInstance().
+	 * @param datasource
+	 */
+	public HarvestRunCoordinator(DataSource datasource) {
+		try {
+			this.store = new LeaseStore(datasource);
+			store.init();
+		} catch (Exception e) {
+			throw new RuntimeException("Could not create run coordination tables", e);
+		}
+		this.registry = new RdbmsHarvestRunRegistry();
+		registry.setDataSource(datasource);
+		registry.init();
+		this.owner = ClusterCoordinator.getNodeId();
+		this.lockMillis = Long.parseLong(string("osf.run.lockSeconds", "300")) * 1000;
+		this.renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "osf-run-lock");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = Math.max(1000, lockMillis / 4);
+		renewer.scheduleWithFixedDelay(this::renewLocks, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Takes the run lock for the harvest name if no other run, in this process or elsewhere, holds it
+	 * @param harvestName
+	 * @return true if the lock was taken
+	 */
+	public boolean tryLock(String harvestName) {
+		String lock = getLockName(harvestName);
+		if (!heldLocks.add(lock)) {
+			return false;
+		}
+		try {
+			long now = System.currentTimeMillis();
+			if (store.acquire(lock, owner, now, now + lockMillis)) {
+				return true;
+			}
+			heldLocks.remove(lock);
+			return false;
+		} catch (Exception e) {
+			heldLocks.remove(lock);
+			throw new RuntimeException("Could not take run lock for " + harvestName, e);
+		}
+	}
+
+	/**
+	 * Releases the run lock for the harvest name
+	 * @param harvestName
+	 */
+	public void unlock(String harvestName) {
+		String lock = getLockName(harvestName);
+		if (!heldLocks.remove(lock)) {
+			return;
+		}
+		try {
+			store.release(lock, owner);
+		} catch (Exception e) {
+			LOG.warn("Could not release run lock for " + harvestName + ", it will be freed when it expires", e);
+		}
+	}
+
+	/**
+	 * Reads the high-water mark for the harvest name. Until a mark has been set the date of the last run in the 
+	 * harvest run registry is used.
+	 * @param harvestName
+	 * @return the mark
+	 */
+	public HighWaterMark getHighWaterMark(String harvestName) {
+		try {
+			Long stored = store.getHighWaterMark(harvestName);
+			if (stored != null) {
+				return new HighWaterMark(stored, new DateTime(stored, DateTimeZone.UTC));
+			}
+			Date lastRunDate = registry.getLastRunDate(harvestName);
+			DateTime date = lastRunDate == null ? null : new DateTime(lastRunDate).withZoneRetainFields(DateTimeZone.UTC);
+			return new HighWaterMark(null, date);
+		} catch (Exception e) {
+			throw new RuntimeException("Could not read high-water mark for " + harvestName, e);
+		}
+	}
+
+	/**
+	 * Moves the high-water mark forward to the date given, if it has not changed since it was read
+	 * @param harvestName
+	 * @param expected mark read at the start of the run
+	 * @param newMark
+	 * @return true if the mark was advanced
+	 */
+	public boolean advance(String harvestName, HighWaterMark expected, DateTime newMark) {
+		if (expected.getDate() != null && !newMark.isAfter(expected.getDate())) {
+			LOG.warn("High-water mark for " + harvestName + " was not advanced, " + newMark + " is not after " + expected.getDate());
+			return false;
+		}
+		try {
+			if (!store.compareAndSetHighWaterMark(harvestName, expected.stored, newMark.getMillis())) {
+				LOG.warn("High-water mark for " + harvestName + " was moved by another run and was not advanced");
+				return false;
+			}
+			//the registry keeps the run history, it stores the UTC time as if it were local time
+			Date registryDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(newMark.withZone(DateTimeZone.UTC).toString("yyyy-MM-dd HH:mm:ss"));
+			registry.addRunDate(harvestName, registryDate);
+			return true;
+		} catch (Exception e) {
+			LOG.error("Could not advance high-water mark for " + harvestName, e);
+			throw new RuntimeException("Could not advance high-water mark for " + harvestName, e);
+		}
+	}
+
+	private void renewLocks() {
+		long expires = System.currentTimeMillis() + lockMillis;
+		for (String lock : new ArrayList<String>(heldLocks)) {
+			try {
+				if (!store.renew(lock, owner, expires)) {
+					LOG.warn("Run lock " + lock + " expired before it was renewed, another run may overlap this one");
+				}
+			} catch (Exception e) {
+				LOG.error("Could not renew run lock " + lock + ", will try again", e);
+			}
+		}
+	}
+
+	/**
+	 * Releases locks held by this coordinator and stops renewing them
+	 */
+	public void close() {
+		renewer.shutdownNow();
+		for (String lock : new ArrayList<String>(heldLocks)) {
+			try {
+				store.release(lock, owner);
+			} catch (Exception e) {
+				LOG.warn("Could not release run lock " + lock + ", it will be freed when it expires", e);
+			}
+		}
+		heldLocks.clear();
+	}
+
+}
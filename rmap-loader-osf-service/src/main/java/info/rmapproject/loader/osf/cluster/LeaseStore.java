@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.cluster;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+/**
+ * Reads and writes the node, lease and high-water mark tables shared by loader instances. A lease belongs to 
+ * one node until it expires, and is taken over with a conditional update so two nodes can never hold it at once. 
+ * High-water marks are also only moved with a conditional update. Times are epoch milliseconds from the clock of 
+ * the node writing them.
+ */
+class LeaseStore {
+
+	private static final String NODE_TABLE = "osf_loader_node";
+
+	private static final String LEASE_TABLE = "osf_loader_lease";
+
+	private static final String HIGH_WATER_TABLE = "osf_loader_high_water";
+
+	/** SQLite result code for a constraint violation, SQLite does not set SQLState */
+	private static final int SQLITE_CONSTRAINT = 19;
+
+	private final DataSource datasource;
+
+	LeaseStore(DataSource datasource) {
+		this.datasource = datasource;
+	}
+
+	/**
+	 * Creates the node, lease and high-water mark tables if they do not exist yet
+	 * @throws SQLException
+	 */
+	void init() throws SQLException {
+		try (Connection conn = datasource.getConnection(); Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + NODE_TABLE + " (node_id VARCHAR(128) NOT NULL PRIMARY KEY, "
+					+ "started BIGINT NOT NULL, heartbeat BIGINT NOT NULL)");
+			stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + LEASE_TABLE + " (name VARCHAR(128) NOT NULL PRIMARY KEY, "
+					+ "owner VARCHAR(128), expires BIGINT NOT NULL)");
+			stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + HIGH_WATER_TABLE + " (name VARCHAR(128) NOT NULL PRIMARY KEY, "
+					+ "mark BIGINT NOT NULL)");
+		}
+	}
+
+	/**
+	 * Records that the node is alive, registering it if this is its first heartbeat
+	 * @param nodeId
+	 * @param now
+	 * @throws SQLException
+	 */
+	void heartbeat(String nodeId, long now) throws SQLException {
+		try (Connection conn = datasource.getConnection()) {
+			try (PreparedStatement update = conn.prepareStatement("UPDATE " + NODE_TABLE + " SET heartbeat=? WHERE node_id=?")) {
+				update.setLong(1, now);
+				update.setString(2, nodeId);
+				if (update.executeUpdate() > 0) {
+					return;
+				}
+			}
+			try (PreparedStatement insert = conn.prepareStatement("INSERT INTO " + NODE_TABLE + " (node_id, started, heartbeat) VALUES (?,?,?)")) {
+				insert.setString(1, nodeId);
+				insert.setLong(2, now);
+				insert.setLong(3, now);
+				insert.executeUpdate();
+			}
+		}
+	}
+
+	/**
+	 * Removes the node, used when it shuts down cleanly
+	 * @param nodeId
+	 * @throws SQLException
+	 */
+	void deregister(String nodeId) throws SQLException {
+		try (Connection conn = datasource.getConnection();
+				PreparedStatement delete = conn.prepareStatement("DELETE FROM " + NODE_TABLE + " WHERE node_id=?")) {
+			delete.setString(1, nodeId);
+			delete.executeUpdate();
+		}
+	}
+
+	/**
+	 * Counts nodes with a heartbeat at or after the time given
+	 * @param since
+	 * @return number of live nodes
+	 * @throws SQLException
+	 */
+	int countLiveNodes(long since) throws SQLException {
+		try (Connection conn = datasource.getConnection();
+				PreparedStatement select = conn.prepareStatement("SELECT COUNT(*) FROM " + NODE_TABLE + " WHERE heartbeat>=?")) {
+			select.setLong(1, since);
+			try (ResultSet rs = select.executeQuery()) {
+				return rs.next() ? rs.getInt(1) : 0;
+			}
+		}
+	}
+
+	/**
+	 * Takes the lease if it is free, has expired, or is already held by the node, and sets its expiry time
+	 * @param name
+	 * @param nodeId
+	 * @param now
+	 * @param expires
+	 * @return true if the node now holds the lease
+	 * @throws SQLException
+	 */
+	boolean acquire(String name, String nodeId, long now, long expires) throws SQLException {
+		try (Connection conn = datasource.getConnection()) {
+			if (acquire(conn, name, nodeId, now, expires)) {
+				return true;
+			}
+			//lease rows are created on first use, another node may create it at the same time
+			try (PreparedStatement insert = conn.prepareStatement("INSERT INTO " + LEASE_TABLE + " (name, owner, expires) VALUES (?,?,?)")) {
+				insert.setString(1, name);
+				insert.setString(2, nodeId);
+				insert.setLong(3, expires);
+				return insert.executeUpdate() > 0;
+			} catch (SQLException e) {
+				if (!isConstraintViolation(e)) {
+					throw e;
+				}
+				return acquire(conn, name, nodeId, now, expires);
+			}
+		}
+	}
+
+	private boolean acquire(Connection conn, String name, String nodeId, long now, long expires) throws SQLException {
+		try (PreparedStatement update = conn.prepareStatement("UPDATE " + LEASE_TABLE + " SET owner=?, expires=? "
+				+ "WHERE name=? AND (owner IS NULL OR owner=? OR expires<?)")) {
+			update.setString(1, nodeId);
+			update.setLong(2, expires);
+			update.setString(3, name);
+			update.setString(4, nodeId);
+			update.setLong(5, now);
+			return update.executeUpdate() > 0;
+		}
+	}
+
+	/**
+	 * Extends a lease held by the node
+	 * @param name
+	 * @param nodeId
+	 * @param expires
+	 * @return false if the node no longer holds the lease
+	 * @throws SQLException
+	 */
+	boolean renew(String name, String nodeId, long expires) throws SQLException {
+		try (Connection conn = datasource.getConnection();
+				PreparedStatement update = conn.prepareStatement("UPDATE " + LEASE_TABLE + " SET expires=? WHERE name=? AND owner=?")) {
+			update.setLong(1, expires);
+			update.setString(2, name);
+			update.setString(3, nodeId);
+			return update.executeUpdate() > 0;
+		}
+	}
+
+	/**
+	 * Gives up a lease held by the node
+	 * @param name
+	 * @param nodeId
+	 * @throws SQLException
+	 */
+	void release(String name, String nodeId) throws SQLException {
+		try (Connection conn = datasource.getConnection();
+				PreparedStatement update = conn.prepareStatement("UPDATE " + LEASE_TABLE + " SET owner=NULL, expires=0 WHERE name=? AND owner=?")) {
+			update.setString(1, name);
+			update.setString(2, nodeId);
+			update.executeUpdate();
+		}
+	}
+
+	/**
+	 * Checks whether any node holds an unexpired lease
+	 * @param name
+	 * @param now
+	 * @return true if the lease is held
+	 * @throws SQLException
+	 */
+	boolean isHeld(String name, long now) throws SQLException {
+		try (Connection conn = datasource.getConnection();
+				PreparedStatement select = conn.prepareStatement("SELECT COUNT(*) FROM " + LEASE_TABLE 
+						+ " WHERE name=? AND owner IS NOT NULL AND expires>=?")) {
+			select.setString(1, name);
+			select.setLong(2, now);
+			try (ResultSet rs = select.executeQuery()) {
+				return rs.next() && rs.getInt(1) > 0;
+			}
+		}
+	}
+
+	/**
+	 * Reads a high-water mark
+	 * @param name
+	 * @return the mark, or null if it has never been set
+	 * @throws SQLException
+	 */
+	Long getHighWaterMark(String name) throws SQLException {
+		try (Connection conn = datasource.getConnection();
+				PreparedStatement select = conn.prepareStatement("SELECT mark FROM " + HIGH_WATER_TABLE + " WHERE name=?")) {
+			select.setString(1, name);
+			try (ResultSet rs = select.executeQuery()) {
+				return rs.next() ? rs.getLong(1) : null;
+			}
+		}
+	}
+
+	/**
+	 * Sets a high-water mark only if it still has the value that was read
+	 * @param name
+	 * @param expected value read before, or null if it had never been set
+	 * @param mark new value
+	 * @return true if the mark was set, false if it was changed by someone else in the meantime
+	 * @throws SQLException
+	 */
+	boolean compareAndSetHighWaterMark(String name, Long expected, long mark) throws SQLException {
+		try (Connection conn = datasource.getConnection()) {
+			if (expected == null) {
+				try (PreparedStatement insert = conn.prepareStatement("INSERT INTO " + HIGH_WATER_TABLE + " (name, mark) VALUES (?,?)")) {
+					insert.setString(1, name);
+					insert.setLong(2, mark);
+					return insert.executeUpdate() > 0;
+				} catch (SQLException e) {
+					if (!isConstraintViolation(e)) {
+						throw e;
+					}
+					//another run set the first mark
+					return false;
+				}
+			}
+			try (PreparedStatement update = conn.prepareStatement("UPDATE " + HIGH_WATER_TABLE + " SET mark=? WHERE name=? AND mark=?")) {
+				update.setLong(1, mark);
+				update.setString(2, name);
+				update.setLong(3, expected);
+				return update.executeUpdate() > 0;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether an insert failed because the row had already been created, which is expected when two nodes
+	 * create it at the same time. Any other failure is an error.
+	 * @param e
+	 * @return true if the exception is a constraint violation, SQLState class 23
+	 */
+	static boolean isConstraintViolation(SQLException e) {
+		String state = e.getSQLState();
+		if (state != null) {
+			return state.startsWith("23");
+		}
+		//extended SQLite result codes keep the primary code in the low byte
+		return e instanceof SQLIntegrityConstraintViolationException || (e.getErrorCode() & 0xff) == SQLITE_CONSTRAINT;
+	}
+
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.cluster;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.loader.osf.model.QueueName;
+
+/**
+ * Runs a transform or ingest worker over the shard queues this node owns. A consumer is started for each owned 
+ * shard and follows the node's leases: consumers for shards that are handed back stop, and shards that are taken 
+ * over get a consumer. Every node also consumes the unsharded queue, as for the legacy retry queues, so that records
+ * queued before cluster mode was switched on, or by a node not running as part of the cluster, are still processed.
+ * Returns once the upstream stage is complete and the unsharded queue and every owned shard's queue have been drained.
+ */
+public class ShardedStage {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(ShardedStage.class);
+
+	/** How often owned shards are checked for changes */
+	private static final long POLL_SECONDS = 2;
+
+	/**
+	 * Processes records from a single queue until complete returns true and the queue is empty
+	 */
+	@FunctionalInterface
+	public interface ShardTask {
+		Integer process(String queue, BooleanSupplier complete) throws Exception;
+	}
+
+	/**
+	 * Runs the task on the queue, or on the queue and each of this node's shard queues when running as a cluster
+	 * @param queue queue name without the shard
+	 * @param task
+	 * @param upstreamComplete returns true once no more records will be added by the stage feeding the queue
+	 * @return total processed
+	 * @throws Exception
+	 */
+	public static Integer process(String queue, ShardTask task, BooleanSupplier upstreamComplete) throws Exception {
+		if (ClusterCoordinator.isEnabled()) {
+			return run(queue, task, upstreamComplete);
+		}
+		return task.process(queue, upstreamComplete);
+	}
+
+	/**
+	 * Runs the task for each owned shard of the queue, and for the unsharded queue
+	 * @param queue queue name without the shard
+	 * @param task
+	 * @param upstreamComplete returns true once no more records will be added by the stage feeding the queue
+	 * @return total processed
+	 * @throws Exception
+	 */
+	public static Integer run(String queue, ShardTask task, BooleanSupplier upstreamComplete) throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		Map<Integer, Future<Integer>> running = new HashMap<Integer, Future<Integer>>();
+		Set<Integer> drained = new HashSet<Integer>();
+		Integer total = 0;
+		Future<Integer> unsharded = null;
+		boolean unshardedDrained = false;
+		try {
+			while (true) {
+				boolean complete = upstreamComplete.getAsBoolean();
+				if (unsharded != null && unsharded.isDone()) {
+					try {
+						total = total + unsharded.get();
+						unshardedDrained = true;
+					} catch (ExecutionException e) {
+						LOG.error("Consumer for " + queue + " stopped with an error, restarting", e.getCause());
+					}
+					unsharded = null;
+				}
+				Iterator<Map.Entry<Integer, Future<Integer>>> finished = running.entrySet().iterator();
+				while (finished.hasNext()) {
+					Map.Entry<Integer, Future<Integer>> entry = finished.next();
+					if (entry.getValue().isDone()) {
+						finished.remove();
+						try {
+							total = total + entry.getValue().get();
+							//a consumer on a shard that is still owned only stops once upstream is complete
+							if (ClusterCoordinator.isOwned(entry.getKey())) {
+								drained.add(entry.getKey());
+							}
+						} catch (ExecutionException e) {
+							LOG.error("Consumer for " + QueueName.getShardQueueName(queue, entry.getKey()) + " stopped with an error, restarting", e.getCause());
+						}
+					}
+				}
+
+				List<Integer> owned = ClusterCoordinator.getOwnedShards();
+				drained.retainAll(owned);
+				if (complete && running.isEmpty() && drained.containsAll(owned) && unshardedDrained) {
+					return total;
+				}
+				if (unsharded == null && !unshardedDrained) {
+					unsharded = executor.submit(() -> task.process(queue, upstreamComplete));
+				}
+				for (Integer shard : owned) {
+					if (!running.containsKey(shard) && !drained.contains(shard)) {
+						running.put(shard, executor.submit(() -> processShard(queue, shard, task, upstreamComplete)));
+					}
+				}
+				TimeUnit.SECONDS.sleep(POLL_SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static Integer processShard(String queue, int shard, ShardTask task, BooleanSupplier upstreamComplete) throws Exception {
+		String shardQueue = QueueName.getShardQueueName(queue, shard);
+		ClusterCoordinator.consumerStarted(shard);
+		try {
+			return task.process(shardQueue, () -> upstreamComplete.getAsBoolean() || !ClusterCoordinator.isOwned(shard));
+		} finally {
+			ClusterCoordinator.consumerStopped(shard);
+		}
+	}
+
+}
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.export;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.Model;
+import org.openrdf.model.Statement;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFWriter;
+import org.openrdf.rio.Rio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.loader.model.RecordInfo;
+import info.rmapproject.loader.osf.cluster.ClusterCoordinator;
+
+/**
+ * Writes transformed DiSCOs to gzipped N-Quads files in osf.export.dir, so that an RMap instance can be loaded or
+ * rebuilt from files rather than through the API. Each DiSCO is written as one named graph, named with the record
+ * ID. A new file is started every osf.export.recordsPerFile DiSCOs (default 10000), or once the current file has 
+ * been open for osf.export.maxFileSeconds (default 600, 0 for no limit), so that a daemon handling few records 
+ * still completes its files. Files are written with a .part suffix, which is removed once the file is complete. 
+ * Each DiSCO gets a line in manifest.tsv in the same directory with the record ID, record date (UTC), file name, 
+ * SHA-256 of the DiSCO's N-Quads and number of statements. Lines are only added once the file they name is 
+ * complete, so the manifest never lists a DiSCO that is not in a finished file.
+ */
+public class DiscoExporter {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(DiscoExporter.class);
+
+	private static final String MANIFEST = "manifest.tsv";
+
+	private static final String PART = ".part";
+
+	private static DiscoExporter instance = null;
+
+	private final File dir;
+
+	private final String prefix;
+
+	private final int recordsPerFile;
+
+	private final long maxFileMillis;
+
+	private final ValueFactory valueFactory = SimpleValueFactory.getInstance();
+
+	private final Writer manifest;
+
+	/** Completes files that have been open too long when no DiSCOs are being exported */
+	private final ScheduledExecutorService roller;
+
+	private OutputStream file = null;
+
+	private File fileName = null;
+
+	private long fileOpened = 0;
+
+	/** Manifest lines for the current file, written once it is complete */
+	private final StringBuilder fileEntries = new StringBuilder();
+
+	private int fileNumber = 0;
+
+	private int fileRecords = 0;
+
+	private long exported = 0;
+
+	/**
+	 * @return true if an export directory is configured
+	 */
+	public static boolean isEnabled() {
+		return string("osf.export.dir", null) != null;
+	}
+
+	/**
+	 * @return true if transformed DiSCOs are only exported and not added to the ingest queue
+	 */
+	public static boolean isExportOnly() {
+		return isEnabled() && Boolean.parseBoolean(string("osf.export.skipIngest", "false"));
+	}
+
+	/**
+	 * Retrieves the exporter shared by the process, creating it on first use
+	 * @return the exporter, or null if export is not enabled
+	 */
+	public static synchronized DiscoExporter getInstance() {
+		if (instance == null && isEnabled()) {
+			instance = new DiscoExporter(new File(string("osf.export.dir", null)), 
+					Integer.parseInt(string("osf.export.recordsPerFile", "10000")),
+					Long.parseLong(string("osf.export.maxFileSeconds", "600")));
+		}
+		return instance;
+	}
+
+	/**
+	 * Completes the current export file and closes the manifest. Called at the end of the loader run.
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			instance.close();
+			instance = null;
+		}
+	}
+
+	/**
+	 * Initiate with export directory, number of DiSCOs per file and how long a file can stay open
+	 * @param dir
+	 * @param recordsPerFile
+	 * @param maxFileSeconds 0 for no limit
+	 */
+	public DiscoExporter(File dir, int recordsPerFile, long maxFileSeconds) {
+		this.dir = dir;
+		this.recordsPerFile = recordsPerFile;
+		this.maxFileMillis = maxFileSeconds * 1000;
+		SimpleDateFormat runDate = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+		runDate.setTimeZone(TimeZone.getTimeZone("UTC"));
+		String node = ClusterCoordinator.isEnabled() ? "-" + ClusterCoordinator.getNodeId().replaceAll("[^A-Za-z0-9.-]", "_") : "";
+		this.prefix = "discos-" + runDate.format(new Date()) + node + "-";
+		try {
+			Files.createDirectories(dir.toPath());
+			this.manifest = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, MANIFEST), true), UTF_8));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open export directory " + dir.getAbsolutePath(), e);
+		}
+		if (maxFileMillis > 0) {
+			this.roller = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "osf-export-roll");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long interval = Math.max(1000, maxFileMillis / 4);
+			roller.scheduleWithFixedDelay(this::completeOldFile, interval, interval, TimeUnit.MILLISECONDS);
+		} else {
+			this.roller = null;
+		}
+		LOG.info("Exporting DiSCOs to " + dir.getAbsolutePath());
+	}
+
+	/**
+	 * Writes DiSCO to the current export file as a named graph and adds it to the manifest
+	 * @param recordInfo record the DiSCO was created from
+	 * @param model the DiSCO
+	 */
+	public void export(RecordInfo recordInfo, Model model) {
+		String id = recordInfo.getId().toString();
+		IRI graph = valueFactory.createIRI(id);
+		ByteArrayOutputStream quads = new ByteArrayOutputStream();
+		RDFWriter writer = Rio.createWriter(RDFFormat.NQUADS, quads);
+		writer.startRDF();
+		for (Statement statement : model) {
+			writer.handleStatement(valueFactory.createStatement(statement.getSubject(), statement.getPredicate(), 
+					statement.getObject(), graph));
+		}
+		writer.endRDF();
+		byte[] bytes = quads.toByteArray();
+		String hash = sha256(bytes);
+		Date date = recordInfo.getDate();
+
+		synchronized (this) {
+			try {
+				if (file == null) {
+					openFile();
+				}
+				file.write(bytes);
+				fileEntries.append(id + "\t" + (date == null ? "" : date.toInstant().toString()) + "\t" + fileName.getName() 
+						+ "\t" + hash + "\t" + model.size() + "\n");
+				exported++;
+				fileRecords++;
+				if (fileRecords >= recordsPerFile || isOld()) {
+					closeFile();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Could not export DiSCO for record " + id, e);
+			}
+		}
+	}
+
+	private void openFile() throws IOException {
+		fileNumber++;
+		fileName = new File(dir, prefix + String.format("%05d", fileNumber) + ".nq.gz");
+		file = new GZIPOutputStream(new FileOutputStream(new File(dir, fileName.getName() + PART)), 65536);
+		fileOpened = System.currentTimeMillis();
+		fileRecords = 0;
+	}
+
+	/**
+	 * Completes the current file and adds its DiSCOs to the manifest. If the file cannot be completed it is left 
+	 * with its .part suffix and its DiSCOs are not listed.
+	 * @throws IOException
+	 */
+	private void closeFile() throws IOException {
+		String entries = fileEntries.toString();
+		fileEntries.setLength(0);
+		file.close();
+		file = null;
+		Files.move(new File(dir, fileName.getName() + PART).toPath(), fileName.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		manifest.write(entries);
+		manifest.flush();
+		LOG.info("Completed export file " + fileName.getName() + " with " + fileRecords + " DiSCOs");
+	}
+
+	private boolean isOld() {
+		return maxFileMillis > 0 && System.currentTimeMillis() - fileOpened >= maxFileMillis;
+	}
+
+	private synchronized void completeOldFile() {
+		if (file != null && isOld()) {
+			try {
+				closeFile();
+			} catch (IOException e) {
+				LOG.error("Could not complete export file " + fileName.getName(), e);
+			}
+		}
+	}
+
+	private static String sha256(byte[] bytes) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 is not available", e);
+		}
+	}
+
+	private synchronized void close() {
+		if (roller != null) {
+			roller.shutdownNow();
+		}
+		try {
+			if (file != null) {
+				closeFile();
+			}
+			manifest.close();
+			LOG.info("Exported " + exported + " DiSCOs to " + dir.getAbsolutePath());
+		} catch (IOException e) {
+			LOG.error("Could not complete export to " + dir.getAbsolutePath(), e);
+		}
+	}
+
+}
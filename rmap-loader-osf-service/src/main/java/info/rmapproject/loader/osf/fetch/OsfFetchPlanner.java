@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.fetch;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import info.rmapproject.cos.osf.client.model.RecordType;
+import info.rmapproject.loader.osf.metrics.LoaderMetrics;
+import info.rmapproject.loader.osf.utils.OsfApiProxy;
+
+/**
+ * Cuts the size and number of OSF API requests made to transform a record (osf.fetch.plan=true). A local proxy is
+ * put between the OSF client and the API in the same way as OsfCaptureProxy. When the transform stage fetches a 
+ * record that it announced with expect(), the proxy asks OSF only for the fields the transformers use 
+ * (osf.fetch.fields.nodes, osf.fetch.fields.registrations, osf.fetch.fields.users) and embeds the related 
+ * resources named in osf.fetch.embed.[type] (contributors and identifiers for nodes and registrations by default).
+ * Embedded resources are removed from the response and kept for osf.fetch.embedSeconds (default 60), and when the
+ * OSF client follows the relationship link it is answered from them instead of calling OSF. Other requests are 
+ * passed on unchanged.
+ * <p>
+ * Identify shares the OSF client with transform, so an announced record can also be fetched first by identify's 
+ * parent lookup for a child record. The node and registration fields therefore always include parent.
+ * <p>
+ * If OsfCaptureProxy is also used it must be started first, so that the planned requests are the ones captured. 
+ * Captures made with and without planning do not replay against each other.
+ */
+public class OsfFetchPlanner extends OsfApiProxy {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(OsfFetchPlanner.class);
+
+	private static final String NODE_FIELDS = "title,description,category,date_created,identifiers,contributors,children,forked_from,parent";
+
+	private static final String REGISTRATION_FIELDS = "title,description,category,date_registered,identifiers,contributors,children,registered_from,parent";
+
+	private static final String USER_FIELDS = "full_name,given_name,middle_names,family_name,suffix,social,institutions";
+
+	/** Number of cached entries above which expired entries are cleared */
+	private static final int CLEANUP_SIZE = 1000;
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static OsfFetchPlanner planner = null;
+
+	private final long embedMillis;
+
+	/** Query parameters to add to a record fetch, by record type path */
+	private final Map<String, String> plans = new ConcurrentHashMap<String, String>();
+
+	/** Record fetches announced by transform, by request key, with the time the announcement expires */
+	private final Map<String, Long> expected = new ConcurrentHashMap<String, Long>();
+
+	/** Embedded resources waiting to be requested, by request key */
+	private final Map<String, Embedded> embedded = new ConcurrentHashMap<String, Embedded>();
+
+	/**
+	 * Embedded resource and the time it expires
+	 */
+	private static final class Embedded {
+
+		private final Response response;
+
+		private final long expires;
+
+		private Embedded(Response response, long expires) {
+			this.response = response;
+			this.expires = expires;
+		}
+
+	}
+
+	private OsfFetchPlanner(long embedMillis) {
+		super("fetch");
+		this.embedMillis = embedMillis;
+	}
+
+	/**
+	 * @return true if fetch planning is configured
+	 */
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(string("osf.fetch.plan", "false"));
+	}
+
+	/**
+	 * Starts the proxy and points the OSF client at it, if osf.fetch.plan is true. Must be called before the first
+	 * OSF client is created, and after OsfCaptureProxy.start().
+	 */
+	public static synchronized void start() {
+		if (planner != null || !isEnabled()) {
+			return;
+		}
+		planner = new OsfFetchPlanner(Long.parseLong(string("osf.fetch.embedSeconds", "60")) * 1000);
+		try {
+			ObjectNode clientConfig = planner.readClientConfig(MAPPER);
+			planner.addPlan(RecordType.OSF_NODE.getTypeString(), 
+					withParent(string("osf.fetch.fields.nodes", NODE_FIELDS)), string("osf.fetch.embed.nodes", "contributors,identifiers"));
+			planner.addPlan(RecordType.OSF_REGISTRATION.getTypeString(), 
+					withParent(string("osf.fetch.fields.registrations", REGISTRATION_FIELDS)), 
+					string("osf.fetch.embed.registrations", "contributors,identifiers"));
+			planner.addPlan(RecordType.OSF_USER.getTypeString(), string("osf.fetch.fields.users", USER_FIELDS), 
+					string("osf.fetch.embed.users", ""));
+			planner.startServer(MAPPER, clientConfig, Integer.parseInt(string("osf.fetch.threads", "16")), true, false);
+
+			LOG.info("Started OSF fetch planner at " + planner.getProxyBase() + " for " + planner.getUpstreamBase() 
+					+ " with plans " + planner.plans);
+		} catch (Exception e) {
+			stop();
+			throw new RuntimeException("Could not start OSF fetch planner", e);
+		}
+	}
+
+	/**
+	 * Stops the proxy and restores the OSF client configuration it replaced
+	 */
+	public static synchronized void stop() {
+		if (planner == null) {
+			return;
+		}
+		planner.stopServer();
+		planner = null;
+	}
+
+	/**
+	 * Announces that the OSF client is about to fetch a record for transform, so that the request is planned. 
+	 * Has no effect if the planner is not running.
+	 * @param type record type
+	 * @param id OSF record ID
+	 */
+	public static void expect(RecordType type, String id) {
+		OsfFetchPlanner current = planner;
+		if (current == null) {
+			return;
+		}
+		String typePath = type == null ? RecordType.OSF_NODE.getTypeString() : type.getTypeString();
+		if (current.expected.size() > CLEANUP_SIZE) {
+			current.removeExpired();
+		}
+		current.expected.put(requestKey(typePath + "/" + id, null), System.currentTimeMillis() + current.embedMillis);
+	}
+
+	/**
+	 * Adds parent to a field list, unless the list is empty, which asks for all fields
+	 * @param fields
+	 * @return the field list
+	 */
+	private static String withParent(String fields) {
+		if (fields.trim().isEmpty() || Arrays.asList(fields.replace(" ", "").split(",")).contains("parent")) {
+			return fields;
+		}
+		return fields + ",parent";
+	}
+
+	private void addPlan(String typePath, String fields, String embeds) {
+		List<String> params = new ArrayList<String>();
+		if (!fields.trim().isEmpty()) {
+			params.add("fields%5B" + typePath + "%5D=" + fields.replace(" ", ""));
+		}
+		for (String embed : embeds.split(",")) {
+			if (!embed.trim().isEmpty()) {
+				params.add("embed=" + embed.trim());
+			}
+		}
+		if (!params.isEmpty()) {
+			plans.put(typePath, String.join("&", params));
+		}
+	}
+
+	@Override
+	protected Response respond(HttpExchange exchange, String method, String relative, String query) throws Exception {
+		String plan = null;
+		if (method.equals("GET")) {
+			Response response = takeEmbedded(requestKey(relative, query));
+			if (response != null) {
+				return response;
+			}
+			Long expires = expected.remove(requestKey(relative, null));
+			if (expires != null && expires > System.currentTimeMillis()) {
+				plan = plans.get(relative.split("/", 2)[0]);
+			}
+		}
+		String upstreamQuery = plan == null ? query : (query == null || query.isEmpty() ? plan : query + "&" + plan);
+		Response response = forward(exchange, method, relative + (upstreamQuery == null ? "" : "?" + upstreamQuery));
+		if (plan != null && response.status == 200) {
+			response = keepEmbedded(response);
+		}
+		return response;
+	}
+
+	private Response takeEmbedded(String key) {
+		Embedded resource = embedded.remove(key);
+		if (resource != null && resource.expires > System.currentTimeMillis()) {
+			LoaderMetrics.countCacheRequest("osf.embed", true);
+			return resource.response;
+		}
+		for (String plan : plans.values()) {
+			if (plan.contains("embed=" + lastSegment(key))) {
+				LoaderMetrics.countCacheRequest("osf.embed", false);
+				break;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes embedded resources from a record response and keeps them to answer requests for the relationship
+	 * @param response
+	 * @return the response without embedded resources
+	 * @throws IOException
+	 */
+	private Response keepEmbedded(Response response) throws IOException {
+		JsonNode document = MAPPER.readTree(response.body);
+		JsonNode data = document.path("data");
+		JsonNode embeds = data.path("embeds");
+		if (!embeds.isObject()) {
+			return response;
+		}
+		if (embedded.size() > CLEANUP_SIZE) {
+			removeExpired();
+		}
+		String upstreamBase = getUpstreamBase();
+		long expires = System.currentTimeMillis() + embedMillis;
+		Iterator<Map.Entry<String, JsonNode>> relationships = embeds.fields();
+		while (relationships.hasNext()) {
+			Map.Entry<String, JsonNode> relationship = relationships.next();
+			JsonNode related = data.path("relationships").path(relationship.getKey()).path("links").path("related");
+			String href = related.isTextual() ? related.asText() : related.path("href").asText(null);
+			if (href == null || !href.startsWith(upstreamBase) || relationship.getValue().has("errors")) {
+				continue;
+			}
+			String[] relatedPath = href.substring(upstreamBase.length()).split("\\?", 2);
+			embedded.put(requestKey(relatedPath[0], relatedPath.length > 1 ? relatedPath[1] : null), new Embedded(
+					new Response(200, response.contentType, MAPPER.writeValueAsBytes(relationship.getValue())), expires));
+		}
+		((ObjectNode) data).remove("embeds");
+		return new Response(response.status, response.contentType, MAPPER.writeValueAsBytes(document));
+	}
+
+	private void removeExpired() {
+		long now = System.currentTimeMillis();
+		expected.values().removeIf(expires -> expires <= now);
+		embedded.values().removeIf(resource -> resource.expires <= now);
+	}
+
+	/**
+	 * Builds the key used to match requests, with surrounding slashes removed from the path and query parameters sorted
+	 * @param relative path relative to the API base path
+	 * @param query raw query string, or null
+	 * @return request key
+	 */
+	static String requestKey(String relative, String query) {
+		String path = relative.replaceAll("^/+|/+$", "");
+		if (query == null || query.isEmpty()) {
+			return path;
+		}
+		List<String> params = new ArrayList<String>();
+		for (String param : query.split("&")) {
+			if (!param.isEmpty()) {
+				params.add(param);
+			}
+		}
+		Collections.sort(params);
+		return params.isEmpty() ? path : path + "?" + String.join("&", params);
+	}
+
+	private static String lastSegment(String key) {
+		String path = key.split("\\?", 2)[0];
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event types and the code that creates them. Only loaded by LoaderEvents once it has checked that
+ * the jdk.jfr API is present, so nothing else in the loader links against it.
+ */
+final class JfrSupport {
+
+	private JfrSupport() {
+	}
+
+	static Object begin(LoaderEvents.Kind kind, String recordId, String recordType, String detail) {
+		LoaderEvent event = create(kind);
+		event.recordId = recordId;
+		event.recordType = recordType;
+		event.detail = detail;
+		event.begin();
+		return event;
+	}
+
+	static void fail(Object handle, Throwable cause) {
+		((LoaderEvent) handle).failure = cause.getClass().getName();
+	}
+
+	static void end(Object handle, long payloadSize) {
+		LoaderEvent event = (LoaderEvent) handle;
+		event.end();
+		if (event.shouldCommit()) {
+			event.payloadSize = payloadSize;
+			event.commit();
+		}
+	}
+
+	private static LoaderEvent create(LoaderEvents.Kind kind) {
+		switch (kind) {
+		case OSF_API_CALL :
+			return new OsfApiCallEvent();
+		case PARENT_WALK :
+			return new ParentWalkEvent();
+		case DISCO_MODEL :
+			return new DiscoModelEvent();
+		case TURTLE_SERIALIZE :
+			return new TurtleSerializeEvent();
+		case DISCO_VALIDATE :
+			return new DiscoValidateEvent();
+		case REGISTRY_QUERY :
+			return new RegistryQueryEvent();
+		case JMS_SEND :
+			return new JmsSendEvent();
+		case JMS_RECEIVE :
+			return new JmsReceiveEvent();
+		case DEPOSIT :
+			return new DepositEvent();
+		default :
+			throw new IllegalArgumentException("Unknown loader event kind: " + kind);
+		}
+	}
+
+	@Category({"RMap Loader", "OSF"})
+	@StackTrace(false)
+	abstract static class LoaderEvent extends Event {
+
+		@Label("Record ID")
+		String recordId;
+
+		@Label("Record Type")
+		String recordType;
+
+		@Label("Detail")
+		String detail;
+
+		@Label("Payload Size")
+		@DataAmount
+		long payloadSize;
+
+		@Label("Failure")
+		@Description("Exception the operation failed with, null if it succeeded")
+		String failure;
+
+	}
+
+	@Name("info.rmapproject.loader.osf.OsfApiCall")
+	@Label("OSF API Call")
+	@Description("Request to the OSF API, detail is the endpoint")
+	static class OsfApiCallEvent extends LoaderEvent {
+	}
+
+	@Name("info.rmapproject.loader.osf.ParentWalk")
+	@Label("Parent Node Walk")
+	@Description("Walk up the node or registration tree to the highest accessible parent")
+	static class ParentWalkEvent extends LoaderEvent {
+	}
+
+	@Name("info.rmapproject.loader.osf.DiscoModel")
+	@Label("DiSCO Model Build")
+	@Description("DiSCO model built from an OSF record by a DiscoTransformer")
+	static class DiscoModelEvent extends LoaderEvent {
+	}
+
+	@Name("info.rmapproject.loader.osf.TurtleSerialize")
+	@Label("Turtle Serialization")
+	@Description("DiSCO model written as Turtle, payload size is the output size")
+	static class TurtleSerializeEvent extends LoaderEvent {
+	}
+
+	@Name("info.rmapproject.loader.osf.DiscoValidate")
+	@Label("DiSCO Validation")
+	@Description("DiscoValidator call, detail is validate or different")
+	static class DiscoValidateEvent extends LoaderEvent {
+	}
+
+	@Name("info.rmapproject.loader.osf.RegistryQuery")
+	@Label("Registry Query")
+	@Description("Harvest record or harvest run registry call, detail is the operation")
+	static class RegistryQueryEvent extends LoaderEvent {
+	}
+
+	@Name("info.rmapproject.loader.osf.JmsSend")
+	@Label("JMS Send")
+	@Description("Record sent to a JMS queue, detail is the queue")
+	static class JmsSendEvent extends LoaderEvent {
+	}
+
+	@Name("info.rmapproject.loader.osf.JmsReceive")
+	@Label("JMS Receive")
+	@Description("Message received from a JMS queue and processed by the consumer, detail is the queue")
+	static class JmsReceiveEvent extends LoaderEvent {
+	}
+
+	@Name("info.rmapproject.loader.osf.Deposit")
+	@Label("DiSCO Deposit")
+	@Description("DiSCO created or updated in RMap")
+	static class DepositEvent extends LoaderEvent {
+	}
+
+}
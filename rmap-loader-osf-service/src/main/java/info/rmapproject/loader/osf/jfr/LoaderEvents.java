@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.jfr;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+/**
+ * Emits Java Flight Recorder events for the loader's hot paths: OSF API calls, parent node walks, DiSCO model 
+ * builds, Turtle serialization, DiSCO validation, registry queries, JMS sends and receives, and deposits. Each 
+ * event records the record ID, record type, a detail such as the endpoint or queue, and the payload size.
+ * <p>
+ * Events only cost anything while a recording that enables them is running, e.g. 
+ * java -XX:StartFlightRecording=settings=profile ... They need a JVM with the jdk.jfr API (OpenJDK 8u262 or later,
+ * or Java 11+). On other JVMs, or when osf.jfr.enabled=false, begin() returns null and end() does nothing.
+ * <p>
+ * Usage, ending the event whether or not the operation succeeds:
+ * <pre>
+ * Object event = LoaderEvents.begin(Kind.DEPOSIT, id, type, null);
+ * try {
+ *     ...
+ * } catch (Exception e) {
+ *     LoaderEvents.fail(event, e);
+ *     throw e;
+ * } finally {
+ *     LoaderEvents.end(event, body.length);
+ * }
+ * </pre>
+ */
+public final class LoaderEvents {
+
+	/** Kinds of operation events are recorded for */
+	public enum Kind {
+		OSF_API_CALL, PARENT_WALK, DISCO_MODEL, TURTLE_SERIALIZE, DISCO_VALIDATE, REGISTRY_QUERY, JMS_SEND, JMS_RECEIVE, DEPOSIT
+	}
+
+	private static final boolean ENABLED = Boolean.parseBoolean(string("osf.jfr.enabled", "true")) && isJfrAvailable();
+
+	private LoaderEvents() {
+	}
+
+	/**
+	 * Starts timing an event
+	 * @param kind
+	 * @param recordId id of the record being processed, may be null
+	 * @param recordType record type e.g. nodes, may be null
+	 * @param detail endpoint, queue or operation, may be null
+	 * @return handle to pass to end(), null if events are not available
+	 */
+	public static Object begin(Kind kind, String recordId, String recordType, String detail) {
+		return ENABLED ? JfrSupport.begin(kind, recordId, recordType, detail) : null;
+	}
+
+	/**
+	 * Records that the operation timed by an event failed. The event still needs to be ended.
+	 * @param event handle returned by begin(), may be null
+	 * @param cause exception the operation failed with
+	 */
+	public static void fail(Object event, Throwable cause) {
+		if (event != null) {
+			JfrSupport.fail(event, cause);
+		}
+	}
+
+	/**
+	 * Ends an event started by begin() and commits it if a recording is capturing it
+	 * @param event handle returned by begin(), may be null
+	 * @param payloadSize bytes handled, 0 if not known
+	 */
+	public static void end(Object event, long payloadSize) {
+		if (event != null) {
+			JfrSupport.end(event, payloadSize);
+		}
+	}
+
+	private static boolean isJfrAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+}
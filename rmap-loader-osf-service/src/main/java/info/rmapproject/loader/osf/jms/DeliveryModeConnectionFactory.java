@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.jms;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.function.Predicate;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+/**
+ * Wraps a ConnectionFactory so that producers created for queues matching the predicate provided send messages
+ * as non-persistent. All other producers keep the broker default (persistent). This is used to avoid broker disk
+ * writes for intermediate queues. Note that this trades durability for speed: the harvest date and high-water mark
+ * move forward once identify has queued its records, so a transform or ingest message lost when the broker restarts
+ * is not identified again by later harvests. Such a record is only loaded again by an identify run with filters that
+ * cover it, so this can lose records.
+ */
+public class DeliveryModeConnectionFactory implements ConnectionFactory {
+
+	private final ConnectionFactory connectionFactory;
+
+	private final Predicate<String> nonPersistentQueues;
+
+	/**
+	 * @param connectionFactory the factory to wrap
+	 * @param nonPersistentQueues returns true for queue names that should use non-persistent delivery
+	 */
+	public DeliveryModeConnectionFactory(ConnectionFactory connectionFactory, Predicate<String> nonPersistentQueues) {
+		this.connectionFactory = connectionFactory;
+		this.nonPersistentQueues = nonPersistentQueues;
+	}
+
+	@Override
+	public Connection createConnection() throws JMSException {
+		return wrapConnection(connectionFactory.createConnection());
+	}
+
+	@Override
+	public Connection createConnection(String userName, String password) throws JMSException {
+		return wrapConnection(connectionFactory.createConnection(userName, password));
+	}
+
+	private Connection wrapConnection(Connection connection) {
+		return proxy(Connection.class, connection, (proxy, method, args) -> {
+			Object result = invoke(connection, method, args);
+			if (result instanceof Session) {
+				return wrapSession((Session) result);
+			}
+			return result;
+		});
+	}
+
+	private Session wrapSession(Session session) {
+		return proxy(Session.class, session, (proxy, method, args) -> {
+			Object result = invoke(session, method, args);
+			if (result instanceof MessageProducer && args != null && args.length == 1 && args[0] instanceof Queue) {
+				String queueName = ((Queue) args[0]).getQueueName();
+				if (nonPersistentQueues.test(queueName)) {
+					((MessageProducer) result).setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+				}
+			}
+			return result;
+		});
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, T target, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler);
+	}
+
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.jms;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.Destination;
+import org.apache.activemq.broker.scheduler.Job;
+import org.apache.activemq.broker.scheduler.JobScheduler;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.openwire.OpenWireFormat;
+import org.apache.activemq.store.kahadb.KahaDBPersistenceAdapter;
+import org.apache.activemq.util.ByteSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages an ActiveMQ broker running inside the loader JVM. When enabled (jms.embedded=true) queues are reached
+ * over the vm:// transport instead of TCP, which avoids network round trips and a separate broker process
+ * when the whole pipeline runs on one machine. Messages are stored in KahaDB by default
+ * (jms.embedded.persistence=kahadb) or kept in memory only (jms.embedded.persistence=memory).
+ * In memory mode, everything the broker holds is lost when the loader stops. This includes retries waiting in
+ * the broker's scheduler, so OsfJmsQueue keeps a stage running until the scheduled retries for its queue have been
+ * delivered, see getScheduledCount(). Records left on fail queues are still lost, a warning is logged at stop.
+ */
+public class EmbeddedBroker {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(EmbeddedBroker.class);
+
+	private static final String BROKER_NAME = "osfloader";
+
+	private static final String PERSISTENCE_KAHADB = "kahadb";
+
+	private static final String PERSISTENCE_MEMORY = "memory";
+
+	/** Name of the job scheduler the broker uses for messages sent with a delivery delay */
+	private static final String SCHEDULER_NAME = "JMS";
+
+	private static BrokerService broker = null;
+
+	private static boolean inMemory = false;
+
+	/**
+	 * @return true if the loader is configured to use an embedded broker
+	 */
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(string("jms.embedded", "false"));
+	}
+
+	/**
+	 * Starts the embedded broker if it is not already running
+	 * @return URL for connecting to the embedded broker
+	 */
+	public static synchronized String start() {
+		if (broker == null) {
+			String persistence = string("jms.embedded.persistence", PERSISTENCE_KAHADB);
+			String dataDir = string("jms.embedded.dataDir", "activemq-data");
+			try {
+				BrokerService brokerService = new BrokerService();
+				brokerService.setBrokerName(BROKER_NAME);
+				brokerService.setUseJmx(false);
+				brokerService.setSchedulerSupport(true);
+				brokerService.setDataDirectoryFile(new File(dataDir));
+
+				if (persistence.equals(PERSISTENCE_MEMORY)) {
+					brokerService.setPersistent(false);
+				} else if (persistence.equals(PERSISTENCE_KAHADB)) {
+					KahaDBPersistenceAdapter kahaDb = new KahaDBPersistenceAdapter();
+					kahaDb.setDirectory(new File(dataDir, "kahadb"));
+					brokerService.setPersistenceAdapter(kahaDb);
+					brokerService.setPersistent(true);
+				} else {
+					throw new IllegalArgumentException("Only the following values are allowed for jms.embedded.persistence: "
+							+ PERSISTENCE_KAHADB + ", " + PERSISTENCE_MEMORY);
+				}
+
+				String memoryLimitMb = string("jms.embedded.memoryLimitMb", null);
+				if (memoryLimitMb != null) {
+					brokerService.getSystemUsage().getMemoryUsage().setLimit(Long.parseLong(memoryLimitMb) * 1024 * 1024);
+				}
+
+				brokerService.start();
+				brokerService.waitUntilStarted();
+				broker = brokerService;
+				inMemory = persistence.equals(PERSISTENCE_MEMORY);
+				LOG.info("Started embedded JMS broker with " + persistence + " persistence, data directory: " + dataDir);
+			} catch (Exception e) {
+				throw new RuntimeException("Could not start embedded JMS broker", e);
+			}
+		}
+		return "vm://" + BROKER_NAME + "?create=false";
+	}
+
+	/**
+	 * Reads the number of messages waiting on a queue from the broker's statistics
+	 * @param queueName
+	 * @return number of messages, 0 if the queue does not exist yet, or -1 if the embedded broker is not running
+	 */
+	public static synchronized long getQueueSize(String queueName) {
+		if (broker == null) {
+			return -1;
+		}
+		try {
+			Destination destination = broker.getDestination(new ActiveMQQueue(queueName));
+			return destination == null ? 0 : destination.getDestinationStatistics().getMessages().getCount();
+		} catch (Exception e) {
+			LOG.debug("Could not read size of queue: " + queueName, e);
+			return -1;
+		}
+	}
+
+	/**
+	 * @return true if the embedded broker is running and keeps messages in memory only
+	 */
+	public static synchronized boolean isInMemory() {
+		return broker != null && inMemory;
+	}
+
+	/**
+	 * Counts messages held in the broker's scheduler for delayed delivery to a queue. These are retries that have 
+	 * not yet reached the queue, so they are not seen when the queue is browsed.
+	 * @param queueName
+	 * @return number of scheduled messages, or -1 if the embedded broker is not running
+	 */
+	public static synchronized long getScheduledCount(String queueName) {
+		if (broker == null) {
+			return -1;
+		}
+		try {
+			JobScheduler scheduler = broker.getJobSchedulerStore().getJobScheduler(SCHEDULER_NAME);
+			if (scheduler == null) {
+				return 0;
+			}
+			OpenWireFormat wireFormat = new OpenWireFormat();
+			long count = 0;
+			for (Job job : scheduler.getAllJobs()) {
+				Message message = (Message) wireFormat.unmarshal(new ByteSequence(job.getPayload()));
+				ActiveMQDestination destination = message.getDestination();
+				if (destination != null && destination.isQueue() && queueName.equals(destination.getPhysicalName())) {
+					count++;
+				}
+			}
+			return count;
+		} catch (Exception e) {
+			LOG.debug("Could not read scheduled messages for queue: " + queueName, e);
+			return -1;
+		}
+	}
+
+	/**
+	 * Stops embedded broker if it is running. In memory mode, warns about any messages that are lost as a result.
+	 */
+	public static synchronized void stop() {
+		if (broker != null) {
+			if (inMemory) {
+				warnLostMessages();
+			}
+			try {
+				broker.stop();
+				broker.waitUntilStopped();
+			} catch (Exception e) {
+				LOG.error("Embedded JMS broker did not stop cleanly", e);
+			} finally {
+				broker = null;
+				inMemory = false;
+			}
+		}
+	}
+
+	private static void warnLostMessages() {
+		try {
+			for (Map.Entry<ActiveMQDestination, Destination> entry : broker.getRegionBroker().getDestinationMap().entrySet()) {
+				long count = entry.getValue().getDestinationStatistics().getMessages().getCount();
+				if (entry.getKey().isQueue() && count > 0) {
+					LOG.warn(count + " messages left on queue " + entry.getKey().getPhysicalName() 
+							+ " are lost as the embedded broker keeps messages in memory only");
+				}
+			}
+			JobScheduler scheduler = broker.getJobSchedulerStore().getJobScheduler(SCHEDULER_NAME);
+			int scheduled = scheduler == null ? 0 : scheduler.getAllJobs().size();
+			if (scheduled > 0) {
+				LOG.warn(scheduled + " scheduled retries are lost as the embedded broker keeps messages in memory only");
+			}
+		} catch (Exception e) {
+			LOG.debug("Could not count messages left on embedded broker", e);
+		}
+	}
+
+}
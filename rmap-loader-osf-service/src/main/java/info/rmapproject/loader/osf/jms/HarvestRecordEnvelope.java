@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.jms;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Date;
+
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.model.HarvestInfo;
+import info.rmapproject.loader.model.RecordInfo;
+import info.rmapproject.loader.osf.queue.PayloadCodec;
+
+/**
+ * Compact binary form of a HarvestRecord for JMS messages, used in place of the rmap-loader-jms message format when
+ * jms.envelope=true. Dates are carried as epoch millis, harvest info that repeats the record ID and source is not
+ * written twice, and bodies of at least osf.payload.compressMinBytes (default 1024) are deflated with 
+ * PayloadCodec.DEFLATE unless they are already compressed by a PayloadCodec. The record ID and source are only turned back into URIs when they
+ * are read.
+ */
+public class HarvestRecordEnvelope {
+
+	/** Message property holding the envelope version, marks messages in this format */
+	public static final String PROPERTY = "osfEnvelope";
+
+	public static final int VERSION = 1;
+
+	private static final int HARVEST_INFO = 1;
+
+	private static final int HARVEST_INFO_SAME_AS_RECORD = 2;
+
+	private static final int BODY = 4;
+
+	private static final int BODY_DEFLATED = 8;
+
+	private static final long NO_DATE = Long.MIN_VALUE;
+
+	/**
+	 * @return true if the loader is configured to send records in the envelope format
+	 */
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(string("jms.envelope", "false"));
+	}
+
+	/**
+	 * Converts record to envelope bytes
+	 * @param record
+	 * @return the envelope
+	 */
+	public static byte[] encode(HarvestRecord record) {
+		RecordInfo recordInfo = record.getRecordInfo();
+		HarvestInfo harvestInfo = recordInfo.getHarvestInfo();
+		String id = stringOf(recordInfo.getId());
+		String src = stringOf(recordInfo.getSrc());
+		byte[] body = record.getBody();
+
+		int flags = 0;
+		if (harvestInfo != null) {
+			flags |= HARVEST_INFO;
+			if (same(id, harvestInfo.getId()) && same(src, harvestInfo.getSrc())) {
+				flags |= HARVEST_INFO_SAME_AS_RECORD;
+			}
+		}
+		byte[] encodedBody = body;
+		int encodedLength = body == null ? 0 : body.length;
+		if (body != null) {
+			flags |= BODY;
+			if (PayloadCodec.shouldCompress(body)) {
+				byte[] deflated = PayloadCodec.DEFLATE.compress(body);
+				if (deflated.length < body.length) {
+					flags |= BODY_DEFLATED;
+					encodedBody = deflated;
+					encodedLength = deflated.length;
+				}
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + encodedLength);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(flags);
+			writeString(out, id);
+			writeString(out, src);
+			writeDate(out, recordInfo.getDate());
+			writeString(out, recordInfo.getContentType());
+			if (harvestInfo != null) {
+				writeDate(out, harvestInfo.getDate());
+				if ((flags & HARVEST_INFO_SAME_AS_RECORD) == 0) {
+					writeString(out, stringOf(harvestInfo.getId()));
+					writeString(out, stringOf(harvestInfo.getSrc()));
+				}
+			}
+			if (body != null) {
+				out.writeInt(body.length);
+				out.writeInt(encodedLength);
+				out.write(encodedBody, 0, encodedLength);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not encode record " + id, e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Converts envelope bytes to a record
+	 * @param envelope
+	 * @return the record
+	 */
+	public static HarvestRecord decode(byte[] envelope) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(envelope))) {
+			int flags = in.readUnsignedByte();
+			LazyRecordInfo recordInfo = new LazyRecordInfo(readString(in), readString(in));
+			recordInfo.setDate(readDate(in));
+			recordInfo.setContentType(readString(in));
+			if ((flags & HARVEST_INFO) != 0) {
+				Date harvestDate = readDate(in);
+				LazyHarvestInfo harvestInfo = (flags & HARVEST_INFO_SAME_AS_RECORD) != 0
+						? new LazyHarvestInfo(recordInfo.id, recordInfo.src)
+						: new LazyHarvestInfo(readString(in), readString(in));
+				harvestInfo.setDate(harvestDate);
+				recordInfo.setHarvestInfo(harvestInfo);
+			}
+
+			HarvestRecord record = new HarvestRecord();
+			record.setRecordInfo(recordInfo);
+			if ((flags & BODY) != 0) {
+				int length = in.readInt();
+				byte[] encodedBody = new byte[in.readInt()];
+				in.readFully(encodedBody);
+				record.setBody((flags & BODY_DEFLATED) != 0 
+						? PayloadCodec.DEFLATE.decompress(encodedBody, 0, encodedBody.length, length) : encodedBody);
+			}
+			return record;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not decode record envelope", e);
+		}
+	}
+
+	private static boolean same(String value, URI uri) {
+		return value == null ? uri == null : uri != null && value.equals(uri.toString());
+	}
+
+	private static String stringOf(URI value) {
+		return value == null ? null : value.toString();
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeDate(DataOutputStream out, Date value) throws IOException {
+		out.writeLong(value == null ? NO_DATE : value.getTime());
+	}
+
+	private static Date readDate(DataInputStream in) throws IOException {
+		long value = in.readLong();
+		return value == NO_DATE ? null : new Date(value);
+	}
+
+	private static URI uri(String value) {
+		return value == null ? null : URI.create(value);
+	}
+
+	/**
+	 * RecordInfo that parses the ID and source the first time they are read
+	 */
+	private static final class LazyRecordInfo extends RecordInfo {
+
+		private String id;
+
+		private String src;
+
+		private boolean idParsed = false;
+
+		private boolean srcParsed = false;
+
+		private LazyRecordInfo(String id, String src) {
+			this.id = id;
+			this.src = src;
+		}
+
+		@Override
+		public URI getId() {
+			if (!idParsed) {
+				super.setId(uri(id));
+				idParsed = true;
+			}
+			return super.getId();
+		}
+
+		@Override
+		public void setId(URI id) {
+			super.setId(id);
+			idParsed = true;
+		}
+
+		@Override
+		public URI getSrc() {
+			if (!srcParsed) {
+				super.setSrc(uri(src));
+				srcParsed = true;
+			}
+			return super.getSrc();
+		}
+
+		@Override
+		public void setSrc(URI src) {
+			super.setSrc(src);
+			srcParsed = true;
+		}
+
+	}
+
+	/**
+	 * HarvestInfo that parses the ID and source the first time they are read
+	 */
+	private static final class LazyHarvestInfo extends HarvestInfo {
+
+		private String id;
+
+		private String src;
+
+		private boolean idParsed = false;
+
+		private boolean srcParsed = false;
+
+		private LazyHarvestInfo(String id, String src) {
+			this.id = id;
+			this.src = src;
+		}
+
+		@Override
+		public URI getId() {
+			if (!idParsed) {
+				super.setId(uri(id));
+				idParsed = true;
+			}
+			return super.getId();
+		}
+
+		@Override
+		public void setId(URI id) {
+			super.setId(id);
+			idParsed = true;
+		}
+
+		@Override
+		public URI getSrc() {
+			if (!srcParsed) {
+				super.setSrc(uri(src));
+				srcParsed = true;
+			}
+			return super.getSrc();
+		}
+
+		@Override
+		public void setSrc(URI src) {
+			super.setSrc(src);
+			srcParsed = true;
+		}
+
+	}
+
+}
@@ -1,124 +1,439 @@
-/*******************************************************************************
- * Copyright 2017 Johns Hopkins University
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- *
- * This software was produced as part of the RMap Project (http://rmap-project.info),
- * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
- * collaboration between Data Conservancy, Portico, and IEEE.
- *******************************************************************************/
-package info.rmapproject.loader.osf.jms;
-
-import java.util.Enumeration;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
-
-import javax.jms.JMSException;
-import javax.jms.Queue;
-import javax.jms.QueueBrowser;
-import javax.jms.Session;
-
-import org.apache.activemq.ActiveMQConnection;
-import org.apache.activemq.ActiveMQConnectionFactory;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import info.rmapproject.loader.HarvestRecord;
-import info.rmapproject.loader.jms.HarvestRecordListener;
-import info.rmapproject.loader.jms.HarvestRecordWriter;
-import info.rmapproject.loader.jms.JmsClient;
-
-public class OsfJmsQueue implements AutoCloseable {
-
-	/** The log. */
-	private static final Logger LOG = LoggerFactory.getLogger(OsfJmsQueue.class);
-
-	protected JmsClient client;
-	
-	protected static final int JMS_FAIL_TOLERANCE = 10;
-	
-	/**
-	 * This provides a way to exit the countdownlatch wait loop if there are problems with JMS.
-	 * When the jmsFailCount reaches the JMS_FAIL_TOLERANCE number, it will exit the loop.  
-	 */
-	protected int jmsFailCount=0;
-	
-		
-	public OsfJmsQueue(){		
-		ActiveMQConnectionFactory connectionFactory = 
-				new ActiveMQConnectionFactory(ActiveMQConnection.DEFAULT_USER, 
-						ActiveMQConnection.DEFAULT_PASSWORD,ActiveMQConnection.DEFAULT_BROKER_URL);
-		JmsClient rClient = new JmsClient(connectionFactory);
-		rClient.init();
-		this.client = rClient;	
-	}
-	
-	public void add(HarvestRecord record, String queue) {
-		final HarvestRecordWriter writer = new HarvestRecordWriter(client);
-        writer.write(queue, record);
-		LOG.info("Record: " + record.getRecordInfo().getId() + " added to queue: " + queue);
-	}
-		
-	public void processMessages(String queue, Consumer<HarvestRecord> consumer) {
-		LOG.info("Processing messages from : " +  queue);
-
-		HarvestRecordListener listener = new HarvestRecordListener(consumer);
-		CountDownLatch latch = new CountDownLatch(1);
-		client.listen(queue, listener);
-		try {		
-			try {
-				do {
-					TimeUnit.SECONDS.sleep(2);
-				} while (hasMoreMessages(queue));
-				latch.countDown();
-			} catch (JMSException ex){
-				LOG.error("Repeated problems occurred while checking for messages on JMS. System will pause in an attempt to allow the process to complete naturally. "
-						+ "It is strongly recommended that the results of this harvest are verified for completeness, or that this harvest cycle is re-run to ensure all data is transferred.", ex);	
-				TimeUnit.SECONDS.sleep(10);
-				latch.countDown();
-			}
-			latch.await();
-		} catch (Exception e) {
-			LOG.error("Failed to exit countdown latch gracefully.", e);	
-		}	
-	}
-	
-	public boolean hasMoreMessages(String queueName) throws JMSException
-	{
-		try {
-			Session session = this.client.getSessionSupplier().get();
-			Queue queue = session.createQueue(queueName);
-			QueueBrowser browser = session.createBrowser(queue);
-			Enumeration<?> e = browser.getEnumeration();
-			if (e.hasMoreElements()){return true;}
-			return false;		
-		} catch (JMSException e){
-			//we can afford some tolerance of JMS errors here, but if they keep happening this could get stuck in a countdown latch loop 
-			//When the jmsFailCount hits the tolerance level specified, an error will be thrown
-			jmsFailCount = jmsFailCount+1;
-			if (jmsFailCount<=JMS_FAIL_TOLERANCE){
-				LOG.error("Repeated JMS errors have occurred while checking for more messages.", e);
-				throw e;
-			} else {
-				LOG.warn("Problem while checking JMS for more messages. Error logged, if errors continue an exception will be thrown.", e);
-				return true;
-			}
-		}
-	}
-	
-	public void close() {
-		client.close();
-	}
-
-}
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.jms;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.util.Enumeration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+
+import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.pool.PooledConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.jms.HarvestRecordListener;
+import info.rmapproject.loader.jms.HarvestRecordWriter;
+import info.rmapproject.loader.jms.JmsClient;
+import info.rmapproject.loader.osf.jfr.LoaderEvents;
+import info.rmapproject.loader.osf.jfr.LoaderEvents.Kind;
+import info.rmapproject.loader.osf.metrics.LoaderMetrics;
+import info.rmapproject.loader.osf.model.QueueName;
+import info.rmapproject.loader.osf.queue.StageQueue;
+import info.rmapproject.loader.osf.trace.RecordTrace;
+
+public class OsfJmsQueue implements StageQueue {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(OsfJmsQueue.class);
+
+	/**
+	 * Connection pool shared by all queue instances in this JVM. Connections, sessions and producers are cached 
+	 * here rather than rebuilt for each service or each message.
+	 */
+	private static PooledConnectionFactory pooledConnectionFactory = null;
+	
+	protected JmsClient client;
+	
+	/**
+	 * Writer is reused for every message added through this queue instance.
+	 */
+	protected HarvestRecordWriter writer;
+	
+	/**
+	 * True if records are sent in the HarvestRecordEnvelope format rather than the rmap-loader-jms format.
+	 * Messages in either format are read.
+	 */
+	protected final boolean envelope = HarvestRecordEnvelope.isEnabled();
+	
+	/**
+	 * Connection factory used by this queue instance, backed by the shared pool
+	 */
+	protected ConnectionFactory connectionFactory;
+	
+	protected static final int JMS_FAIL_TOLERANCE = 10;
+	
+	/** Prefix of the destination that the broker's statistics plugin answers queue statistics requests on */
+	private static final String STATISTICS_DESTINATION = "ActiveMQ.Statistics.Destination.";
+	
+	/** How long to wait for the statistics plugin to reply */
+	private static final long STATISTICS_TIMEOUT_MILLIS = 2000;
+	
+	/** True once a missing reply from the statistics plugin has been reported */
+	private static volatile boolean statisticsWarned = false;
+	
+	/**
+	 * This provides a way to exit the countdownlatch wait loop if there are problems with JMS.
+	 * When the jmsFailCount reaches the JMS_FAIL_TOLERANCE number, it will exit the loop.  
+	 */
+	protected int jmsFailCount=0;
+	
+	/**
+	 * Retry attempt number of the message currently being processed by a consumer on this thread.
+	 */
+	private final ThreadLocal<Integer> deliveryAttempt = new ThreadLocal<Integer>();
+	
+		
+	public OsfJmsQueue(){		
+		ConnectionFactory connectionFactory = getPooledConnectionFactory();
+		//jms.intermediate.nonpersistent avoids broker disk writes, but records on transform and ingest queues are lost
+		//if the broker stops, and are not picked up again by the next harvest. See DeliveryModeConnectionFactory
+		if (Boolean.parseBoolean(string("jms.intermediate.nonpersistent", "false"))) {
+			connectionFactory = new DeliveryModeConnectionFactory(connectionFactory, QueueName::isIntermediate);
+		}
+		this.connectionFactory = connectionFactory;
+		JmsClient rClient = new JmsClient(connectionFactory);
+		rClient.init();
+		this.client = rClient;	
+		this.writer = new HarvestRecordWriter(rClient);
+	}
+	
+	/**
+	 * Retrieves the connection pool shared across queue instances, creating it on first use. Broker URL, credentials,
+	 * prefetch, async send and pool sizes are read from the loader configuration.
+	 * @return the pooled connection factory
+	 */
+	protected static synchronized PooledConnectionFactory getPooledConnectionFactory() {
+		if (pooledConnectionFactory == null) {
+			String brokerUrl = string("jms.brokerUrl", ActiveMQConnection.DEFAULT_BROKER_URL);
+			if (EmbeddedBroker.isEnabled()) {
+				brokerUrl = EmbeddedBroker.start();
+			}
+			ActiveMQConnectionFactory amqConnectionFactory = 
+					new ActiveMQConnectionFactory(string("jms.username", ActiveMQConnection.DEFAULT_USER), 
+							string("jms.password", ActiveMQConnection.DEFAULT_PASSWORD),
+							brokerUrl);
+			amqConnectionFactory.getPrefetchPolicy().setQueuePrefetch(Integer.parseInt(string("jms.prefetch", "100")));
+			amqConnectionFactory.setUseAsyncSend(Boolean.parseBoolean(string("jms.asyncSend", "false")));
+			amqConnectionFactory.setTransformer(new ScheduledDeliveryTransformer());
+			
+			PooledConnectionFactory pool = new PooledConnectionFactory();
+			pool.setConnectionFactory(amqConnectionFactory);
+			pool.setMaxConnections(Integer.parseInt(string("jms.pool.maxConnections", "1")));
+			pool.setMaximumActiveSessionPerConnection(Integer.parseInt(string("jms.pool.maxSessionsPerConnection", "500")));
+			//a single cached producer per session is shared by all destinations, avoids a producer create per send
+			pool.setUseAnonymousProducers(true);
+			pool.start();
+			pooledConnectionFactory = pool;
+			LOG.info("Created JMS connection pool for broker: " + amqConnectionFactory.getBrokerURL());
+		}
+		return pooledConnectionFactory;
+	}
+	
+	/**
+	 * Stops the shared connection pool and the embedded broker, if one is running. Should be called once all queue 
+	 * instances have been closed, at the end of the loader run.
+	 */
+	public static synchronized void shutdown() {
+		if (pooledConnectionFactory != null) {
+			pooledConnectionFactory.stop();
+			pooledConnectionFactory = null;
+		}
+		EmbeddedBroker.stop();
+	}
+	
+	@Override
+	public void add(HarvestRecord record, String queue) {
+		Object event = LoaderEvents.begin(Kind.JMS_SEND, record.getRecordInfo().getId().toString(), null, queue);
+		try {
+			send(queue, record);
+		} catch (Exception e) {
+			LoaderEvents.fail(event, e);
+			throw e;
+		} finally {
+			LoaderEvents.end(event, record.getBody() == null ? 0 : record.getBody().length);
+		}
+		LOG.info("Record: " + record.getRecordInfo().getId() + " added to queue: " + queue);
+	}
+	
+	/**
+	 * Adds record to queue using broker scheduled delivery, so that it is not available to consumers until the 
+	 * delay has passed. The attempt number is carried with the message and can be read by the consumer using
+	 * getDeliveryAttempt().
+	 * @param record
+	 * @param queue
+	 * @param delayMillis
+	 * @param attempt
+	 */
+	@Override
+	public void addDelayed(HarvestRecord record, String queue, long delayMillis, int attempt) {
+		ScheduledDeliveryTransformer.schedule(delayMillis, attempt);
+		Object event = LoaderEvents.begin(Kind.JMS_SEND, record.getRecordInfo().getId().toString(), null, queue);
+		try {
+			send(queue, record);
+		} catch (Exception e) {
+			LoaderEvents.fail(event, e);
+			throw e;
+		} finally {
+			ScheduledDeliveryTransformer.clear();
+			LoaderEvents.end(event, record.getBody() == null ? 0 : record.getBody().length);
+		}
+		LOG.info("Record: " + record.getRecordInfo().getId() + " scheduled for queue: " + queue + " with delay of " + delayMillis + "ms");
+	}
+	
+	/**
+	 * Sends record in the configured message format
+	 * @param queue
+	 * @param record
+	 */
+	private void send(String queue, HarvestRecord record) {
+		if (!envelope) {
+			writer.write(queue, record);
+			return;
+		}
+		//connection, session and producer all come from the pool, so closing them returns them to it. The producer is
+		//created for the queue so that DeliveryModeConnectionFactory can set its delivery mode
+		Connection connection = null;
+		try {
+			connection = connectionFactory.createConnection();
+			Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			BytesMessage message = session.createBytesMessage();
+			message.setIntProperty(HarvestRecordEnvelope.PROPERTY, HarvestRecordEnvelope.VERSION);
+			message.writeBytes(HarvestRecordEnvelope.encode(record));
+			MessageProducer producer = session.createProducer(session.createQueue(queue));
+			producer.send(message);
+			producer.close();
+			session.close();
+		} catch (JMSException ex) {
+			LOG.error("Could not send record: " + record.getRecordInfo().getId() + " to queue: " + queue, ex);
+			throw new RuntimeException("Could not send record to queue: " + queue, ex);
+		} finally {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (JMSException e) {
+					LOG.debug("Could not close connection used to send record", e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Retrieves the retry attempt number of the message being processed. Only valid when called from within 
+	 * the consumer passed to processMessages. 
+	 * @return attempt number, 0 if the message has not been retried
+	 */
+	@Override
+	public int getDeliveryAttempt() {
+		Integer attempt = deliveryAttempt.get();
+		return attempt == null ? 0 : attempt;
+	}
+		
+	/**
+	 * @return true if the in-memory embedded broker is used, see hasScheduledRetries()
+	 */
+	@Override
+	public boolean holdsRetriesInProcess() {
+		return EmbeddedBroker.isInMemory();
+	}
+		
+	@Override
+	public void processMessages(String queue, Consumer<HarvestRecord> consumer, BooleanSupplier upstreamComplete) {
+		LOG.info("Processing messages from : " +  queue);
+		if (EmbeddedBroker.isEnabled() || isStatisticsPluginEnabled()) {
+			LoaderMetrics.monitorQueueDepth(queue, OsfJmsQueue::depth);
+		}
+		try {
+			if (upstreamComplete.getAsBoolean() && !hasScheduledRetries(queue) && !hasMoreMessages(queue)) {
+				LOG.info("No messages to process on queue: " + queue);
+				return;
+			}
+		} catch (JMSException ex) {
+			//continue, errors while checking for messages are handled in the wait loop below
+		}
+
+		HarvestRecordListener recordListener = new HarvestRecordListener(consumer);
+		MessageListener listener = message -> {
+			Object event = LoaderEvents.begin(Kind.JMS_RECEIVE, null, null, queue);
+			try {
+				if (message.propertyExists(ScheduledDeliveryTransformer.ATTEMPT_PROPERTY)) {
+					deliveryAttempt.set(message.getIntProperty(ScheduledDeliveryTransformer.ATTEMPT_PROPERTY));
+				}
+				RecordTrace.resume(message.getStringProperty(RecordTrace.PROPERTY));
+				if (message.propertyExists(HarvestRecordEnvelope.PROPERTY)) {
+					BytesMessage bytesMessage = (BytesMessage) message;
+					byte[] bytes = new byte[(int) bytesMessage.getBodyLength()];
+					bytesMessage.readBytes(bytes);
+					consumer.accept(HarvestRecordEnvelope.decode(bytes));
+				} else {
+					recordListener.onMessage(message);
+				}
+			} catch (JMSException ex) {
+				LoaderEvents.fail(event, ex);
+				throw new RuntimeException("Could not read record, retry attempt or trace from message", ex);
+			} catch (RuntimeException ex) {
+				LoaderEvents.fail(event, ex);
+				throw ex;
+			} finally {
+				deliveryAttempt.remove();
+				RecordTrace.clear();
+				LoaderEvents.end(event, 0);
+			}
+		};
+		CountDownLatch latch = new CountDownLatch(1);
+		client.listen(queue, listener);
+		try {		
+			try {
+				do {
+					TimeUnit.SECONDS.sleep(2);
+				//scheduled retries are checked before browsing, a retry delivered in between is then seen on the queue
+				} while (!upstreamComplete.getAsBoolean() || hasScheduledRetries(queue) || hasMoreMessages(queue));
+				latch.countDown();
+			} catch (JMSException ex){
+				LOG.error("Repeated problems occurred while checking for messages on JMS. System will pause in an attempt to allow the process to complete naturally. "
+						+ "It is strongly recommended that the results of this harvest are verified for completeness, or that this harvest cycle is re-run to ensure all data is transferred.", ex);	
+				TimeUnit.SECONDS.sleep(10);
+				latch.countDown();
+			}
+			latch.await();
+		} catch (Exception e) {
+			LOG.error("Failed to exit countdown latch gracefully.", e);	
+		}	
+	}
+	
+	public boolean hasMoreMessages(String queueName) throws JMSException
+	{
+		try {
+			Session session = this.client.getSessionSupplier().get();
+			Queue queue = session.createQueue(queueName);
+			QueueBrowser browser = session.createBrowser(queue);
+			Enumeration<?> e = browser.getEnumeration();
+			if (e.hasMoreElements()){return true;}
+			return false;		
+		} catch (JMSException e){
+			//we can afford some tolerance of JMS errors here, but if they keep happening this could get stuck in a countdown latch loop 
+			//When the jmsFailCount hits the tolerance level specified, an error will be thrown
+			jmsFailCount = jmsFailCount+1;
+			if (jmsFailCount<=JMS_FAIL_TOLERANCE){
+				LOG.error("Repeated JMS errors have occurred while checking for more messages.", e);
+				throw e;
+			} else {
+				LOG.warn("Problem while checking JMS for more messages. Error logged, if errors continue an exception will be thrown.", e);
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Retries waiting in the scheduler of an in-memory embedded broker are lost when the loader stops, so in that 
+	 * mode a stage keeps running until they have been delivered. Other brokers keep scheduled retries, which are
+	 * processed by a later run.
+	 * @param queueName
+	 * @return true if the in-memory embedded broker holds scheduled retries for the queue
+	 */
+	private boolean hasScheduledRetries(String queueName) {
+		return holdsRetriesInProcess() && EmbeddedBroker.getScheduledCount(queueName) > 0;
+	}
+	
+	/**
+	 * The depth of queues on an external broker is read from the broker's statistics plugin, which must be enabled
+	 * on the broker (statisticsBrokerPlugin) before setting jms.statisticsPlugin=true. Without it, queue depth is not
+	 * published for an external broker.
+	 * @return true if queue depth can be requested from the broker's statistics plugin
+	 */
+	private static boolean isStatisticsPluginEnabled() {
+		return Boolean.parseBoolean(string("jms.statisticsPlugin", "false"));
+	}
+	
+	/**
+	 * Counts messages waiting on the named queue. With the embedded broker this is read from the broker's statistics,
+	 * otherwise it is requested from the broker's statistics plugin. Uses the shared connection pool so that it does 
+	 * not depend on any queue instance remaining open.
+	 * @param queueName
+	 * @return number of messages, or -1 if the queue could not be read
+	 */
+	private static double depth(String queueName) {
+		long embeddedCount = EmbeddedBroker.getQueueSize(queueName);
+		if (embeddedCount >= 0) {
+			return embeddedCount;
+		}
+		PooledConnectionFactory pool;
+		synchronized (OsfJmsQueue.class) {
+			pool = pooledConnectionFactory;
+		}
+		if (pool == null) {
+			return -1;
+		}
+		Connection connection = null;
+		try {
+			connection = pool.createConnection();
+			connection.start();
+			Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			TemporaryQueue replyTo = session.createTemporaryQueue();
+			MessageConsumer consumer = session.createConsumer(replyTo);
+			Message request = session.createMessage();
+			request.setJMSReplyTo(replyTo);
+			MessageProducer producer = session.createProducer(session.createQueue(STATISTICS_DESTINATION + queueName));
+			//if the plugin is not enabled the request sits on an ordinary queue, let it expire
+			producer.setTimeToLive(STATISTICS_TIMEOUT_MILLIS);
+			producer.send(request);
+			Message reply = consumer.receive(STATISTICS_TIMEOUT_MILLIS);
+			producer.close();
+			consumer.close();
+			replyTo.delete();
+			session.close();
+			if (reply instanceof MapMessage) {
+				return ((MapMessage) reply).getLong("size");
+			}
+			if (!statisticsWarned) {
+				statisticsWarned = true;
+				LOG.warn("No reply from the broker statistics plugin, queue depth is not available. Enable the "
+						+ "statisticsBrokerPlugin on the broker or set jms.statisticsPlugin=false");
+			}
+			return -1;
+		} catch (JMSException e) {
+			LOG.debug("Could not read depth of queue: " + queueName, e);
+			return -1;
+		} finally {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (JMSException e) {
+					LOG.debug("Could not close connection used to read queue depth", e);
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void close() {
+		client.close();
+	}
+
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.jms;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.MessageTransformer;
+import org.apache.activemq.ScheduledMessage;
+
+import info.rmapproject.loader.osf.trace.RecordTrace;
+
+/**
+ * ActiveMQ message transformer that adds a scheduled delivery delay and a retry attempt number to messages
+ * sent while a schedule is set on the current thread. The HarvestRecordWriter builds the JMS message itself,
+ * so this is the point at which broker scheduling properties can be added to it.
+ * Note that the broker must have scheduler support enabled for the delay to be honored.
+ * The trace of the record being sent, if tracing is enabled, is added here for the same reason.
+ */
+public class ScheduledDeliveryTransformer implements MessageTransformer {
+
+	/** Message property holding the number of times a record has been retried. */
+	public static final String ATTEMPT_PROPERTY = "osfRetryAttempt";
+
+	private static final ThreadLocal<long[]> SCHEDULE = new ThreadLocal<long[]>();
+
+	/**
+	 * Sets delay and attempt number to apply to the next messages sent on this thread.
+	 * @param delayMillis delivery delay in milliseconds
+	 * @param attempt retry attempt number
+	 */
+	public static void schedule(long delayMillis, int attempt) {
+		SCHEDULE.set(new long[] {delayMillis, attempt});
+	}
+
+	/**
+	 * Clears schedule for current thread
+	 */
+	public static void clear() {
+		SCHEDULE.remove();
+	}
+
+	@Override
+	public Message producerTransform(Session session, MessageProducer producer, Message message) throws JMSException {
+		long[] schedule = SCHEDULE.get();
+		if (schedule != null) {
+			if (schedule[0] > 0) {
+				message.setLongProperty(ScheduledMessage.AMQ_SCHEDULED_DELAY, schedule[0]);
+			}
+			message.setIntProperty(ATTEMPT_PROPERTY, (int) schedule[1]);
+		}
+		String trace = RecordTrace.current();
+		if (trace != null) {
+			message.setStringProperty(RecordTrace.PROPERTY, trace);
+		}
+		return message;
+	}
+
+	@Override
+	public Message consumerTransform(Session session, MessageConsumer consumer, Message message) throws JMSException {
+		return message;
+	}
+
+}
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.metrics;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+/**
+ * Collects loader metrics in a single registry shared by all stages. Metrics are published over JMX unless 
+ * osf.metrics.jmx=false, and in Prometheus text format at http://[host]:[port]/metrics when 
+ * osf.metrics.prometheus.port is set. The following are recorded:
+ * <ul>
+ * <li>osf.loader.records - time to process each record, by stage, record type and outcome</li>
+ * <li>osf.loader.calls - latency of calls to OSF, RMap and the harvest registry, by system and endpoint</li>
+ * <li>osf.loader.queue.depth - number of records waiting on each queue. For an external JMS broker this needs the
+ * broker statistics plugin, see jms.statisticsPlugin</li>
+ * <li>osf.loader.retries and osf.loader.failures - records scheduled for retry or moved to a fail queue</li>
+ * <li>osf.loader.cache.requests - lookups that avoided repeat work, by cache and result (hit or miss)</li>
+ * </ul>
+ */
+public class LoaderMetrics {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(LoaderMetrics.class);
+
+	private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static CompositeMeterRegistry registry = null;
+
+	private static HttpServer prometheusServer = null;
+
+	/**
+	 * Queue names passed to the depth gauges. Gauges only hold their state weakly, so the names are kept here to 
+	 * stop them being collected, after which the gauge would report NaN.
+	 */
+	private static final Map<String, String> monitoredQueues = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Meters already registered, by tag values. Building and registering a meter on every record means a registry 
+	 * lookup and several allocations in the hot path, so each meter is looked up once and reused.
+	 */
+	private static final Map<List<String>, Timer> stageTimers = new ConcurrentHashMap<List<String>, Timer>();
+	private static final Map<List<String>, Timer> callTimers = new ConcurrentHashMap<List<String>, Timer>();
+	private static final Map<String, Counter> retryCounters = new ConcurrentHashMap<String, Counter>();
+	private static final Map<String, Counter> failureCounters = new ConcurrentHashMap<String, Counter>();
+	private static final Map<List<String>, Counter> cacheCounters = new ConcurrentHashMap<List<String>, Counter>();
+
+	/**
+	 * Retrieves the registry shared by all loader components, creating it and the configured publishers on first use
+	 * @return the registry
+	 */
+	public static synchronized MeterRegistry getRegistry() {
+		if (registry == null) {
+			CompositeMeterRegistry composite = new CompositeMeterRegistry();
+			if (Boolean.parseBoolean(string("osf.metrics.jmx", "true"))) {
+				composite.add(new JmxMeterRegistry(JmxConfig.DEFAULT, Clock.SYSTEM));
+			}
+			String prometheusPort = string("osf.metrics.prometheus.port", null);
+			if (prometheusPort != null) {
+				PrometheusMeterRegistry prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+				composite.add(prometheus);
+				prometheusServer = startPrometheusEndpoint(prometheus, Integer.parseInt(prometheusPort));
+			}
+			registry = composite;
+		}
+		return registry;
+	}
+
+	/**
+	 * Starts timing a record or operation
+	 * @return sample to pass to recordStage once the record has been processed
+	 */
+	public static Timer.Sample start() {
+		return Timer.start(getRegistry());
+	}
+
+	/**
+	 * Records time taken to process one record in a stage
+	 * @param sample started when the record was received
+	 * @param stage identify, transform or ingest
+	 * @param type record type e.g. nodes
+	 * @param outcome e.g. success, skipped, error
+	 */
+	public static void recordStage(Timer.Sample sample, String stage, String type, String outcome) {
+		Timer timer = stageTimers.computeIfAbsent(Arrays.asList(stage, type, outcome), 
+				key -> Timer.builder("osf.loader.records")
+						.description("Time to process a record in a loader stage")
+						.tag("stage", stage)
+						.tag("type", type)
+						.tag("outcome", outcome)
+						.publishPercentiles(0.5, 0.95, 0.99)
+						.publishPercentileHistogram()
+						.register(getRegistry()));
+		sample.stop(timer);
+	}
+
+	/**
+	 * Times a call to an external system
+	 * @param system osf, rmap or registry
+	 * @param endpoint the endpoint or operation called
+	 * @param call
+	 * @return result of the call
+	 */
+	public static <T> T timeCall(String system, String endpoint, Supplier<T> call) {
+		return callTimer(system, endpoint).record(call);
+	}
+
+	/**
+	 * Times a call to an external system that can throw a checked exception
+	 * @param system osf, rmap or registry
+	 * @param endpoint the endpoint or operation called
+	 * @param call
+	 * @return result of the call
+	 * @throws Exception
+	 */
+	public static <T> T timeCheckedCall(String system, String endpoint, Callable<T> call) throws Exception {
+		return callTimer(system, endpoint).recordCallable(call);
+	}
+
+	/**
+	 * Counts a record scheduled for retry
+	 * @param queue the queue the record will be redelivered to
+	 */
+	public static void countRetry(String queue) {
+		retryCounters.computeIfAbsent(queue, 
+				key -> Counter.builder("osf.loader.retries").tag("queue", queue).register(getRegistry())).increment();
+	}
+
+	/**
+	 * Counts a record moved to a fail queue
+	 * @param queue the fail queue
+	 */
+	public static void countFailure(String queue) {
+		failureCounters.computeIfAbsent(queue, 
+				key -> Counter.builder("osf.loader.failures").tag("queue", queue).register(getRegistry())).increment();
+	}
+
+	/**
+	 * Counts a lookup that could avoid repeating work
+	 * @param cache name of the lookup
+	 * @param hit true if the work was avoided
+	 */
+	public static void countCacheRequest(String cache, boolean hit) {
+		String result = hit ? "hit" : "miss";
+		cacheCounters.computeIfAbsent(Arrays.asList(cache, result), 
+				key -> Counter.builder("osf.loader.cache.requests")
+						.tag("cache", cache)
+						.tag("result", result)
+						.register(getRegistry())).increment();
+	}
+
+	/**
+	 * Publishes the depth of a queue. Registering the same queue again has no effect. The depth function must
+	 * not depend on a queue instance that may be closed while the loader is still running.
+	 * @param queue queue name
+	 * @param depth function returning the number of records waiting on the named queue
+	 */
+	public static void monitorQueueDepth(String queue, ToDoubleFunction<String> depth) {
+		String state = monitoredQueues.computeIfAbsent(queue, name -> name);
+		Gauge.builder("osf.loader.queue.depth", state, depth)
+				.description("Records waiting on the queue")
+				.tag("queue", queue)
+				.register(getRegistry());
+	}
+
+	/**
+	 * Stops the Prometheus endpoint and releases the registry. Called at the end of the loader run.
+	 */
+	public static synchronized void shutdown() {
+		if (prometheusServer != null) {
+			prometheusServer.stop(0);
+			prometheusServer = null;
+		}
+		if (registry != null) {
+			registry.close();
+			registry = null;
+		}
+		monitoredQueues.clear();
+		stageTimers.clear();
+		callTimers.clear();
+		retryCounters.clear();
+		failureCounters.clear();
+		cacheCounters.clear();
+	}
+
+	private static Timer callTimer(String system, String endpoint) {
+		return callTimers.computeIfAbsent(Arrays.asList(system, endpoint), 
+				key -> Timer.builder("osf.loader.calls")
+						.description("Latency of calls to external systems")
+						.tag("system", system)
+						.tag("endpoint", endpoint)
+						.publishPercentileHistogram()
+						.register(getRegistry()));
+	}
+
+	private static HttpServer startPrometheusEndpoint(PrometheusMeterRegistry prometheus, int port) {
+		try {
+			HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+			server.createContext("/metrics", exchange -> {
+				byte[] response = prometheus.scrape().getBytes(UTF_8);
+				exchange.getResponseHeaders().add("Content-Type", PROMETHEUS_CONTENT_TYPE);
+				exchange.sendResponseHeaders(200, response.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(response);
+				}
+			});
+			server.start();
+			LOG.info("Prometheus metrics available on port " + port + " at /metrics");
+			return server;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not start Prometheus metrics endpoint on port " + port, e);
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Date;
+
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.model.HarvestInfo;
+import info.rmapproject.loader.model.RecordInfo;
+
+/**
+ * Writes and reads HarvestRecords in a compact binary form, used where records leave memory without going through JMS.
+ */
+public class HarvestRecordCodec {
+
+	/**
+	 * Writes record to output
+	 * @param record
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(HarvestRecord record, DataOutput out) throws IOException {
+		writeRecordInfo(record.getRecordInfo(), out);
+
+		byte[] body = record.getBody();
+		out.writeInt(body == null ? -1 : body.length);
+		if (body != null) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * Writes record info, including its harvest info, to output
+	 * @param recordInfo
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void writeRecordInfo(RecordInfo recordInfo, DataOutput out) throws IOException {
+		writeUri(out, recordInfo.getId());
+		writeUri(out, recordInfo.getSrc());
+		writeDate(out, recordInfo.getDate());
+		writeString(out, recordInfo.getContentType());
+
+		HarvestInfo harvestInfo = recordInfo.getHarvestInfo();
+		out.writeBoolean(harvestInfo != null);
+		if (harvestInfo != null) {
+			writeUri(out, harvestInfo.getId());
+			writeUri(out, harvestInfo.getSrc());
+			writeDate(out, harvestInfo.getDate());
+		}
+	}
+
+	/**
+	 * Reads record from input
+	 * @param in
+	 * @return the record
+	 * @throws IOException
+	 */
+	public static HarvestRecord read(DataInput in) throws IOException {
+		HarvestRecord record = new HarvestRecord();
+		record.setRecordInfo(readRecordInfo(in));
+		int bodyLength = in.readInt();
+		if (bodyLength >= 0) {
+			byte[] body = new byte[bodyLength];
+			in.readFully(body);
+			record.setBody(body);
+		}
+		return record;
+	}
+
+	/**
+	 * Reads record info written by {@link #writeRecordInfo(RecordInfo, DataOutput)} from input
+	 * @param in
+	 * @return the record info
+	 * @throws IOException
+	 */
+	public static RecordInfo readRecordInfo(DataInput in) throws IOException {
+		RecordInfo recordInfo = new RecordInfo();
+		recordInfo.setId(readUri(in));
+		recordInfo.setSrc(readUri(in));
+		recordInfo.setDate(readDate(in));
+		recordInfo.setContentType(readString(in));
+
+		if (in.readBoolean()) {
+			HarvestInfo harvestInfo = new HarvestInfo();
+			harvestInfo.setId(readUri(in));
+			harvestInfo.setSrc(readUri(in));
+			harvestInfo.setDate(readDate(in));
+			recordInfo.setHarvestInfo(harvestInfo);
+		}
+		return recordInfo;
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeUri(DataOutput out, URI value) throws IOException {
+		writeString(out, value == null ? null : value.toString());
+	}
+
+	private static URI readUri(DataInput in) throws IOException {
+		String value = readString(in);
+		return value == null ? null : URI.create(value);
+	}
+
+	private static void writeDate(DataOutput out, Date value) throws IOException {
+		out.writeLong(value == null ? Long.MIN_VALUE : value.getTime());
+	}
+
+	private static Date readDate(DataInput in) throws IOException {
+		long value = in.readLong();
+		return value == Long.MIN_VALUE ? null : new Date(value);
+	}
+
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed size memory-mapped file that records spill into when an in-process queue is full. The file is used as a
+ * ring: records are appended at the write position and read back in the same order, and when a record does not fit
+ * before the end of the file the write position wraps to the start, provided the records there have been read.
+ * A wrap marker is left at the end so the reader follows. Not thread safe, access is guarded by the owning 
+ * RecordRingBuffer.
+ */
+class MappedRecordJournal {
+
+	/** Written in place of a record length where the writer wrapped to the start of the file */
+	private static final int WRAP = -1;
+
+	/** Size of the length written before each record */
+	private static final int LENGTH_BYTES = 4;
+
+	private final File file;
+
+	private final RandomAccessFile raf;
+
+	private final MappedByteBuffer buffer;
+
+	private int writePosition = 0;
+
+	private int readPosition = 0;
+
+	private int count = 0;
+
+	MappedRecordJournal(File file, int sizeBytes) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		raf.setLength(sizeBytes);
+		this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, sizeBytes);
+	}
+
+	/**
+	 * Appends record to journal
+	 * @param item
+	 * @return false if there is not enough space left in the journal
+	 */
+	boolean append(QueuedRecord item) {
+		byte[] bytes;
+		try {
+			ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bOut);
+			out.writeInt(item.attempt);
+			out.writeBoolean(item.trace != null);
+			if (item.trace != null) {
+				out.writeUTF(item.trace);
+			}
+			HarvestRecordCodec.write(item.record, out);
+			out.flush();
+			bytes = bOut.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write record to queue journal", e);
+		}
+		int needed = LENGTH_BYTES + bytes.length;
+		int capacity = buffer.capacity();
+		if (count == 0 || writePosition > readPosition) {
+			//unread records, if any, lie between the read and write positions
+			if (writePosition + needed > capacity) {
+				//wrap to the start of the file if the record fits before the first unread record
+				if (count == 0 || needed > readPosition) {
+					return false;
+				}
+				if (capacity - writePosition >= LENGTH_BYTES) {
+					buffer.putInt(writePosition, WRAP);
+				}
+				writePosition = 0;
+			}
+		} else if (writePosition + needed > readPosition) {
+			//already wrapped, only the space up to the first unread record is free
+			return false;
+		}
+		buffer.position(writePosition);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+		writePosition = buffer.position();
+		count = count + 1;
+		return true;
+	}
+
+	/**
+	 * Reads the next record from the journal
+	 * @return the record, or null if journal is empty
+	 */
+	QueuedRecord poll() {
+		if (count == 0) {
+			return null;
+		}
+		if (buffer.capacity() - readPosition < LENGTH_BYTES || buffer.getInt(readPosition) == WRAP) {
+			readPosition = 0;
+		}
+		buffer.position(readPosition);
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		readPosition = buffer.position();
+		count = count - 1;
+		if (count == 0) {
+			readPosition = 0;
+			writePosition = 0;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			int attempt = in.readInt();
+			String trace = in.readBoolean() ? in.readUTF() : null;
+			return new QueuedRecord(HarvestRecordCodec.read(in), attempt, trace);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read record from queue journal", e);
+		}
+	}
+
+	boolean isEmpty() {
+		return count == 0;
+	}
+
+	int size() {
+		return count;
+	}
+
+	void close() {
+		try {
+			raf.close();
+		} catch (IOException e) {
+			//nothing to do, the file is removed below
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Compression applied to record bodies passed between stages. An encoded body starts with a header naming the codec
+ * used and the original length, so a stage can read bodies from any codec, or none, whatever it is configured to
+ * write. The transform stage compresses DiSCOs for the ingest queues with the codec in osf.payload.codec 
+ * (none, deflate or gzip, default none) when they are at least osf.payload.compressMinBytes (default 1024).
+ * <p>
+ * This is the only compression code in the loader: the JMS envelope and the OSF capture archive use 
+ * {@link #compress(byte[])} and {@link #decompress(byte[], int, int, int)}, which leave out the header because 
+ * those formats record the codec and length themselves. The same minimum size applies to the JMS envelope. 
+ * Deflate uses the fastest compression level, with a deflater and inflater kept per thread.
+ */
+public enum PayloadCodec {
+
+	DEFLATE(1) {
+		@Override
+		OutputStream compress(OutputStream out) {
+			Deflater deflater = DEFLATER.get();
+			deflater.reset();
+			return new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+		}
+
+		@Override
+		InputStream decompress(InputStream in) {
+			Inflater inflater = INFLATER.get();
+			inflater.reset();
+			return new InflaterInputStream(in, inflater, BUFFER_SIZE);
+		}
+	},
+
+	GZIP(2) {
+		@Override
+		OutputStream compress(OutputStream out) throws IOException {
+			return new GZIPOutputStream(out);
+		}
+
+		@Override
+		InputStream decompress(InputStream in) throws IOException {
+			return new GZIPInputStream(in);
+		}
+	};
+
+	private static final byte[] MAGIC = {'O', 'S', 'F', 'Z'};
+
+	private static final int HEADER_LENGTH = MAGIC.length + 5;
+
+	private static final int COMPRESS_MIN_BYTES = Integer.parseInt(string("osf.payload.compressMinBytes", "1024"));
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+	private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+	private final int id;
+
+	private PayloadCodec(int id) {
+		this.id = id;
+	}
+
+	abstract OutputStream compress(OutputStream out) throws IOException;
+
+	abstract InputStream decompress(InputStream in) throws IOException;
+
+	/**
+	 * Retrieves the codec configured for writing payloads
+	 * @return the codec, or null if payloads are not compressed
+	 */
+	public static PayloadCodec configured() {
+		String name = string("osf.payload.codec", "none").trim();
+		if (name.isEmpty() || name.equalsIgnoreCase("none")) {
+			return null;
+		}
+		try {
+			return valueOf(name.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new RuntimeException("Unknown osf.payload.codec: " + name + ", expected none, deflate or gzip", e);
+		}
+	}
+
+	/**
+	 * @param payload
+	 * @return true if payload is at least the configured minimum size and is not already encoded
+	 */
+	public static boolean shouldCompress(byte[] payload) {
+		return payload != null && payload.length >= COMPRESS_MIN_BYTES && !isEncoded(payload);
+	}
+
+	/**
+	 * Compresses data without adding the codec header
+	 * @param data
+	 * @return the compressed data
+	 */
+	public byte[] compress(byte[] data) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+		try (OutputStream out = compress(bytes)) {
+			out.write(data);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not compress data with " + this, e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decompresses data written by {@link #compress(byte[])}
+	 * @param compressed
+	 * @param offset start of the compressed data
+	 * @param compressedLength
+	 * @param length length of the original data
+	 * @return the original data
+	 * @throws IOException if the compressed data is corrupt, or does not hold exactly length bytes
+	 */
+	public byte[] decompress(byte[] compressed, int offset, int compressedLength, int length) throws IOException {
+		byte[] data = new byte[length];
+		try (InputStream in = decompress(new ByteArrayInputStream(compressed, offset, compressedLength))) {
+			IOUtils.readFully(in, data);
+			//reading to the end checks the codec's trailer and checksum
+			if (in.read() != -1) {
+				throw new IOException("Data is longer than its recorded length of " + length + " bytes");
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Compresses payload with codec, adding the codec header. Payloads below the configured minimum size, 
+	 * or that do not get smaller, are returned unchanged.
+	 * @param payload
+	 * @param codec codec to use, null for none
+	 * @return the encoded payload
+	 */
+	public static byte[] encode(byte[] payload, PayloadCodec codec) {
+		if (codec == null || !shouldCompress(payload)) {
+			return payload;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length / 4 + HEADER_LENGTH);
+		bytes.write(MAGIC, 0, MAGIC.length);
+		bytes.write(codec.id);
+		bytes.write(payload.length >>> 24);
+		bytes.write(payload.length >>> 16);
+		bytes.write(payload.length >>> 8);
+		bytes.write(payload.length);
+		try (OutputStream out = codec.compress(bytes)) {
+			out.write(payload);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not compress payload with " + codec, e);
+		}
+		return bytes.size() < payload.length ? bytes.toByteArray() : payload;
+	}
+
+	/**
+	 * Decompresses payload if it has a codec header, otherwise returns it unchanged
+	 * @param payload
+	 * @return the original payload
+	 */
+	public static byte[] decode(byte[] payload) {
+		if (!isEncoded(payload)) {
+			return payload;
+		}
+		PayloadCodec codec = null;
+		for (PayloadCodec candidate : values()) {
+			if (candidate.id == payload[MAGIC.length]) {
+				codec = candidate;
+			}
+		}
+		if (codec == null) {
+			throw new RuntimeException("Payload was compressed with an unknown codec: " + payload[MAGIC.length]);
+		}
+		int length = ((payload[MAGIC.length + 1] & 0xff) << 24) | ((payload[MAGIC.length + 2] & 0xff) << 16)
+				| ((payload[MAGIC.length + 3] & 0xff) << 8) | (payload[MAGIC.length + 4] & 0xff);
+		try {
+			return codec.decompress(payload, HEADER_LENGTH, payload.length - HEADER_LENGTH, length);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not decompress payload with " + codec, e);
+		}
+	}
+
+	/**
+	 * @param payload
+	 * @return true if payload starts with a codec header
+	 */
+	public static boolean isEncoded(byte[] payload) {
+		if (payload == null || payload.length < HEADER_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (payload[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
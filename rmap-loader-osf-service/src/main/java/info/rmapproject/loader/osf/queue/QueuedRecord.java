@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import info.rmapproject.loader.HarvestRecord;
+
+/**
+ * A record held on an in-process queue, along with its retry attempt number and encoded trace.
+ */
+class QueuedRecord {
+
+	final HarvestRecord record;
+
+	final int attempt;
+
+	/** Encoded RecordTrace, null if the record is not being traced */
+	final String trace;
+
+	QueuedRecord(HarvestRecord record, int attempt, String trace) {
+		this.record = record;
+		this.attempt = attempt;
+		this.trace = trace;
+	}
+
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer of records for one in-process queue. When the buffer is full, producers either spill
+ * to the journal, if one is configured, or wait for space to become available. Producers that wait longer
+ * than the put timeout get an exception rather than blocking forever, because in a sequential run nothing
+ * consumes the queue until the producing stage has finished.
+ */
+class RecordRingBuffer {
+
+	private final QueuedRecord[] items;
+
+	private int head = 0;
+
+	private int tail = 0;
+
+	private int count = 0;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	private final Condition notFull = lock.newCondition();
+
+	private final MappedRecordJournal journal;
+
+	private final long putTimeoutMillis;
+
+	/**
+	 * @param capacity number of records held in memory
+	 * @param journal spill journal, or null to always wait for space
+	 * @param putTimeoutMillis maximum time to wait for space
+	 */
+	RecordRingBuffer(int capacity, MappedRecordJournal journal, long putTimeoutMillis) {
+		this.items = new QueuedRecord[capacity];
+		this.journal = journal;
+		this.putTimeoutMillis = putTimeoutMillis;
+	}
+
+	void put(QueuedRecord item) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			//once records have spilled, keep appending to the journal so they are read back in order
+			if (journal != null && (count == items.length || !journal.isEmpty()) && journal.append(item)) {
+				notEmpty.signal();
+				return;
+			}
+			long nanos = TimeUnit.MILLISECONDS.toNanos(putTimeoutMillis);
+			while (count == items.length) {
+				if (nanos <= 0) {
+					throw new IllegalStateException("In-process queue is full and no space became available within "
+							+ putTimeoutMillis + "ms. Increase osf.queue.memory.capacity or osf.queue.memory.spillSizeMb, "
+							+ "configure a spill directory or run the stages concurrently.");
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			enqueue(item);
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Retrieves next record, waiting up to the timeout for one to arrive
+	 * @param timeoutMillis
+	 * @return next record, or null if none arrived before the timeout
+	 * @throws InterruptedException
+	 */
+	QueuedRecord poll(long timeoutMillis) throws InterruptedException {
+		long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		lock.lockInterruptibly();
+		try {
+			refill();
+			while (count == 0) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+				refill();
+			}
+			QueuedRecord item = dequeue();
+			refill();
+			notFull.signal();
+			return item;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int size() {
+		lock.lock();
+		try {
+			return count + (journal == null ? 0 : journal.size());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void close() {
+		if (journal != null) {
+			journal.close();
+		}
+	}
+
+	private void refill() {
+		while (journal != null && count < items.length && !journal.isEmpty()) {
+			enqueue(journal.poll());
+		}
+	}
+
+	private void enqueue(QueuedRecord item) {
+		items[tail] = item;
+		tail = (tail + 1) % items.length;
+		count = count + 1;
+	}
+
+	private QueuedRecord dequeue() {
+		QueuedRecord item = items[head];
+		items[head] = null;
+		head = (head + 1) % items.length;
+		count = count - 1;
+		return item;
+	}
+
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.osf.metrics.LoaderMetrics;
+import info.rmapproject.loader.osf.trace.RecordTrace;
+
+/**
+ * Decides what happens to a record that failed to process. Until the configured number of attempts is reached the
+ * record is put back on the retry queue with a delivery delay that grows exponentially with each attempt, with some
+ * random jitter so that a batch of failures does not all come back at once. After that it goes to the fail queue.
+ * <p>
+ * When the queue holds retries in-process (the memory backend or the in-memory embedded broker) stages wait for 
+ * them before completing, so the first retry defaults to 5 seconds rather than 5 minutes, and a record whose next 
+ * retry would be later than osf.retry.inProcessMaxDelaySeconds (default 120) goes to the fail queue instead.
+ */
+public class RetryScheduler {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(RetryScheduler.class);
+
+	private final StageQueue queue;
+
+	private final int maxAttempts;
+
+	private final long initialDelayMillis;
+
+	private final double multiplier;
+
+	private final long maxDelayMillis;
+
+	private final double jitter;
+
+	/** Longest retry delay waited on in-process, 0 if retries are not held in-process */
+	private final long maxInProcessDelayMillis;
+
+	/**
+	 * Initiate with queue that retries and failures will be written to. Settings are read from the loader configuration.
+	 * @param queue
+	 */
+	public RetryScheduler(StageQueue queue) {
+		this.queue = queue;
+		boolean inProcess = queue.holdsRetriesInProcess();
+		this.maxAttempts = Integer.parseInt(string("osf.retry.maxAttempts", "3"));
+		this.initialDelayMillis = Long.parseLong(string("osf.retry.initialDelaySeconds", inProcess ? "5" : "300")) * 1000;
+		this.multiplier = Double.parseDouble(string("osf.retry.multiplier", "4"));
+		this.maxDelayMillis = Long.parseLong(string("osf.retry.maxDelaySeconds", "86400")) * 1000;
+		this.jitter = Double.parseDouble(string("osf.retry.jitter", "0.2"));
+		this.maxInProcessDelayMillis = inProcess ? Long.parseLong(string("osf.retry.inProcessMaxDelaySeconds", "120")) * 1000 : 0;
+	}
+
+	/**
+	 * Schedules a failed record for another attempt on the retry queue, or moves it to the fail queue if it has
+	 * already been attempted the maximum number of times, or its retry would wait too long in-process. Must be called from the consumer that received the
+	 * record so that the current attempt number can be read.
+	 * @param record the failed record
+	 * @param retryQueue queue to redeliver to
+	 * @param failQueue queue for records that have exhausted their retries
+	 * @return true if the record was scheduled for retry, false if it was moved to the fail queue
+	 */
+	public boolean retryOrFail(HarvestRecord record, String retryQueue, String failQueue) {
+		int attempt = queue.getDeliveryAttempt() + 1;
+		if (attempt > maxAttempts) {
+			fail(record, failQueue, "failed after " + maxAttempts + " retries");
+			return false;
+		}
+		long delay = getDelay(attempt);
+		if (maxInProcessDelayMillis > 0 && delay > maxInProcessDelayMillis) {
+			fail(record, failQueue, "failed, retry " + attempt + " in " + (delay/1000) 
+					+ " seconds would be later than osf.retry.inProcessMaxDelaySeconds");
+			return false;
+		}
+		RecordTrace.mark("retry" + attempt);
+		queue.addDelayed(record, retryQueue, delay, attempt);
+		LoaderMetrics.countRetry(retryQueue);
+		LOG.warn("Record " + record.getRecordInfo().getId() + " scheduled for retry " + attempt + " of " + maxAttempts
+				+ " on queue: " + retryQueue + " in " + (delay/1000) + " seconds");
+		return true;
+	}
+
+	private void fail(HarvestRecord record, String failQueue, String reason) {
+		queue.add(record, failQueue);
+		LoaderMetrics.countFailure(failQueue);
+		RecordTrace.complete(record.getRecordInfo().getId().toString(), "failed");
+		LOG.error("Record " + record.getRecordInfo().getId() + " " + reason + ", added to fail queue: " + failQueue);
+	}
+
+	/**
+	 * Calculates the delay before the attempt number provided, applying jitter
+	 * @param attempt
+	 * @return delay in milliseconds
+	 */
+	protected long getDelay(int attempt) {
+		double delay = initialDelayMillis * Math.pow(multiplier, attempt - 1);
+		delay = Math.min(delay, maxDelayMillis);
+		if (jitter > 0) {
+			delay = delay * (1 + ThreadLocalRandom.current().nextDouble(-jitter, jitter));
+		}
+		return Math.max(0, (long) delay);
+	}
+
+}
@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.osf.metrics.LoaderMetrics;
+import info.rmapproject.loader.osf.model.QueueName;
+import info.rmapproject.loader.osf.trace.RecordTrace;
+
+/**
+ * In-process queue backend for runs where identify, transform and ingest all happen inside one JVM. Each named
+ * queue is a bounded ring buffer shared by all instances of this class, so records are handed between stages
+ * without serialization or a broker. If osf.queue.memory.spillDir is set, records that do not fit in the buffer
+ * go to a memory-mapped journal file in that directory instead of making the producer wait. When the stages run 
+ * one after the other a queue has to hold every record of a stage, so records then spill to a temporary directory
+ * if no spill directory is set.
+ * A stage does not complete while records for its queue are waiting on a delayed retry, so failed records are 
+ * retried within the run, see RetryScheduler for the shorter retry delays used with this backend. Records only 
+ * live as long as the JVM, so anything left at shutdown, including records on fail queues, is lost. The IDs of 
+ * records discarded from fail queues are logged.
+ */
+public class RingBufferStageQueue implements StageQueue {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(RingBufferStageQueue.class);
+
+	/** How long to wait for a new record before checking again whether the producing stage has completed */
+	private static final long POLL_TIMEOUT_MILLIS = 2000;
+
+	private static final Map<String, RecordRingBuffer> buffers = new ConcurrentHashMap<String, RecordRingBuffer>();
+
+	/** Number of records waiting on a delayed retry, by the queue they will be added to */
+	private static final Map<String, AtomicInteger> delayed = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private static ScheduledExecutorService delayExecutor = null;
+
+	/** True if the stages run one after the other */
+	private static volatile boolean sequential = false;
+
+	/** Spill directory created for a sequential run without osf.queue.memory.spillDir, null if none was created */
+	private static File tempSpillDir = null;
+
+	private final ThreadLocal<Integer> deliveryAttempt = new ThreadLocal<Integer>();
+
+	@Override
+	public void add(HarvestRecord record, String queue) {
+		put(queue, new QueuedRecord(record, 0, RecordTrace.current()));
+		LOG.debug("Record: " + record.getRecordInfo().getId() + " added to queue: " + queue);
+	}
+
+	@Override
+	public void addDelayed(HarvestRecord record, String queue, long delayMillis, int attempt) {
+		QueuedRecord item = new QueuedRecord(record, attempt, RecordTrace.current());
+		if (delayMillis <= 0) {
+			put(queue, item);
+		} else {
+			AtomicInteger pending = getDelayedCount(queue);
+			pending.incrementAndGet();
+			getDelayExecutor().schedule(() -> {
+				//count goes down only once the record is on the queue, so a consumer always sees one or the other
+				try {
+					put(queue, item);
+				} catch (RuntimeException e) {
+					LOG.error("Could not add delayed retry of record " + record.getRecordInfo().getId() + " to queue: " + queue, e);
+				} finally {
+					pending.decrementAndGet();
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
+		}
+		LOG.debug("Record: " + record.getRecordInfo().getId() + " scheduled for queue: " + queue + " with delay of " + delayMillis + "ms");
+	}
+
+	@Override
+	public int getDeliveryAttempt() {
+		Integer attempt = deliveryAttempt.get();
+		return attempt == null ? 0 : attempt;
+	}
+
+	@Override
+	public boolean holdsRetriesInProcess() {
+		return true;
+	}
+
+	@Override
+	public void processMessages(String queue, Consumer<HarvestRecord> consumer, BooleanSupplier upstreamComplete) {
+		LOG.info("Processing messages from : " +  queue);
+		RecordRingBuffer buffer = getBuffer(queue);
+		AtomicInteger pending = getDelayedCount(queue);
+		LoaderMetrics.monitorQueueDepth(queue, RingBufferStageQueue::depth);
+		try {
+			while (true) {
+				//read completion and delayed retries before polling, so an empty poll after that means nothing 
+				//more will arrive
+				boolean complete = upstreamComplete.getAsBoolean() && pending.get() == 0;
+				QueuedRecord item = buffer.poll(complete ? 0 : POLL_TIMEOUT_MILLIS);
+				if (item == null) {
+					if (complete) {
+						break;
+					}
+					continue;
+				}
+				deliveryAttempt.set(item.attempt);
+				RecordTrace.resume(item.trace);
+				try {
+					consumer.accept(item.record);
+				} finally {
+					deliveryAttempt.remove();
+					RecordTrace.clear();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Interrupted while processing messages from: " + queue);
+		}
+	}
+
+	/**
+	 * @param queue
+	 * @return number of records waiting on the named queue
+	 */
+	public int size(String queue) {
+		return getBuffer(queue).size();
+	}
+
+	/**
+	 * @param queue
+	 * @return number of records waiting on the named queue or on a delayed retry to it, 0 if the queue has not been 
+	 * used or has been released
+	 */
+	private static int depth(String queue) {
+		RecordRingBuffer buffer = buffers.get(queue);
+		AtomicInteger pending = delayed.get(queue);
+		return (buffer == null ? 0 : buffer.size()) + (pending == null ? 0 : pending.get());
+	}
+
+	@Override
+	public void close() {
+		//buffers are shared between instances and released in shutdown()
+	}
+
+	/**
+	 * Sets whether the stages run one after the other. Must be called before the first queue is used.
+	 * @param sequential
+	 */
+	public static void setSequential(boolean sequential) {
+		RingBufferStageQueue.sequential = sequential;
+	}
+
+	/**
+	 * Releases all in-process queues and any spill files. Records still queued, or waiting on a delayed retry, are lost.
+	 * Stages wait for delayed retries, so these are only left if a stage did not complete.
+	 */
+	public static synchronized void shutdown() {
+		if (delayExecutor != null) {
+			int pending = delayExecutor.shutdownNow().size();
+			if (pending > 0) {
+				LOG.warn(pending + " delayed retries were still pending at shutdown and have been discarded");
+			}
+			delayExecutor = null;
+		}
+		delayed.clear();
+		for (Map.Entry<String, RecordRingBuffer> entry : buffers.entrySet()) {
+			int remaining = entry.getValue().size();
+			if (remaining > 0) {
+				LOG.warn(remaining + " records left on in-process queue " + entry.getKey() + " have been discarded");
+				if (!QueueName.isIntermediate(entry.getKey())) {
+					logDiscarded(entry.getKey(), entry.getValue());
+				}
+			}
+			entry.getValue().close();
+		}
+		buffers.clear();
+		if (tempSpillDir != null) {
+			tempSpillDir.delete();
+			tempSpillDir = null;
+		}
+	}
+
+	/**
+	 * Logs the ID of each record left on a fail queue, so that they can be harvested again
+	 * @param queue
+	 * @param buffer
+	 */
+	private static void logDiscarded(String queue, RecordRingBuffer buffer) {
+		try {
+			QueuedRecord item;
+			while ((item = buffer.poll(0)) != null) {
+				LOG.error("Record " + item.record.getRecordInfo().getId() + " on fail queue " + queue + " discarded at shutdown");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void put(String queue, QueuedRecord item) {
+		try {
+			getBuffer(queue).put(item);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while adding record to queue: " + queue, e);
+		}
+	}
+
+	private static AtomicInteger getDelayedCount(String queue) {
+		return delayed.computeIfAbsent(queue, q -> new AtomicInteger());
+	}
+
+	private static RecordRingBuffer getBuffer(String queue) {
+		return buffers.computeIfAbsent(queue, RingBufferStageQueue::createBuffer);
+	}
+
+	private static RecordRingBuffer createBuffer(String queue) {
+		int capacity = Integer.parseInt(string("osf.queue.memory.capacity", "10000"));
+		long putTimeoutMillis = Long.parseLong(string("osf.queue.memory.putTimeoutSeconds", "300")) * 1000;
+		String spillDir = string("osf.queue.memory.spillDir", null);
+		MappedRecordJournal journal = null;
+		if (spillDir != null || sequential) {
+			int spillSizeBytes = Integer.parseInt(string("osf.queue.memory.spillSizeMb", "512")) * 1024 * 1024;
+			try {
+				File dir = spillDir != null ? new File(spillDir) : getTempSpillDir();
+				dir.mkdirs();
+				journal = new MappedRecordJournal(new File(dir, queue + ".journal"), spillSizeBytes);
+			} catch (IOException e) {
+				throw new RuntimeException("Could not create spill journal for queue: " + queue, e);
+			}
+		}
+		return new RecordRingBuffer(capacity, journal, putTimeoutMillis);
+	}
+
+	private static synchronized File getTempSpillDir() throws IOException {
+		if (tempSpillDir == null) {
+			tempSpillDir = Files.createTempDirectory("osf-queue").toFile();
+			LOG.info("Stages run one after the other and osf.queue.memory.spillDir is not set, in-process queues spill to " 
+					+ tempSpillDir);
+		}
+		return tempSpillDir;
+	}
+
+	private static synchronized ScheduledExecutorService getDelayExecutor() {
+		if (delayExecutor == null) {
+			delayExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "osf-queue-delay");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return delayExecutor;
+	}
+
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import info.rmapproject.loader.HarvestRecord;
+
+/**
+ * Queue used to pass records between the identify, transform and ingest stages. Queues are addressed by name,
+ * see QueueName.
+ */
+public interface StageQueue extends AutoCloseable {
+
+	/**
+	 * Adds record to the named queue
+	 * @param record
+	 * @param queue
+	 */
+	public void add(HarvestRecord record, String queue);
+
+	/**
+	 * Adds record to the named queue so that it is not available to consumers until the delay has passed. The
+	 * attempt number can be read by the consumer using getDeliveryAttempt().
+	 * @param record
+	 * @param queue
+	 * @param delayMillis
+	 * @param attempt
+	 */
+	public void addDelayed(HarvestRecord record, String queue, long delayMillis, int attempt);
+
+	/**
+	 * Retrieves the retry attempt number of the record being processed. Only valid when called from within
+	 * the consumer passed to processMessages.
+	 * @return attempt number, 0 if the record has not been retried
+	 */
+	public int getDeliveryAttempt();
+
+	/**
+	 * Delayed retries held only by the loader process are lost when it stops, so stages wait for them before 
+	 * completing
+	 * @return true if stages wait for this queue's delayed retries
+	 */
+	public default boolean holdsRetriesInProcess() {
+		return false;
+	}
+
+	/**
+	 * Passes each record on the named queue to the consumer, returns once the queue is empty.
+	 * @param queue
+	 * @param consumer
+	 */
+	public default void processMessages(String queue, Consumer<HarvestRecord> consumer) {
+		processMessages(queue, consumer, () -> true);
+	}
+
+	/**
+	 * Passes each record on the named queue to the consumer. Keeps waiting for more records until the stage
+	 * that feeds this queue reports that it is complete, then returns once the queue is empty.
+	 * @param queue
+	 * @param consumer
+	 * @param upstreamComplete returns true once no more records will be added by the stage feeding this queue
+	 */
+	public void processMessages(String queue, Consumer<HarvestRecord> consumer, BooleanSupplier upstreamComplete);
+
+	@Override
+	public void close();
+
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import info.rmapproject.loader.osf.jms.OsfJmsQueue;
+
+/**
+ * Creates the queue backend selected by the osf.queue.backend setting. Options are: jms (default), which 
+ * uses ActiveMQ, or memory, which keeps queues inside the loader JVM. The memory backend can only be used when
+ * one process runs all of the stages, see configure().
+ */
+public class StageQueueFactory {
+
+	public static final String BACKEND_JMS = "jms";
+
+	public static final String BACKEND_MEMORY = "memory";
+
+	/**
+	 * Checks that the configured backend can be used for the process. Records on in-process queues are lost when
+	 * the loader stops, so the memory backend is only allowed for the all process or the daemon. When the stages 
+	 * of the all process run one after the other, in-process queues spill to disk, see RingBufferStageQueue.
+	 * @param process identify, transform, ingest, all or requeuefails
+	 * @param concurrent true if the stages run at the same time, in the pipeline or the daemon
+	 */
+	public static void configure(String process, boolean concurrent) {
+		if (!string("osf.queue.backend", BACKEND_JMS).equals(BACKEND_MEMORY)) {
+			return;
+		}
+		if (!process.equals("all")) {
+			throw new IllegalArgumentException("osf.queue.backend=" + BACKEND_MEMORY + " can only be used with the all "
+					+ "process or the daemon, records queued by the " + process + " process would be lost when it ends");
+		}
+		RingBufferStageQueue.setSequential(!concurrent);
+	}
+
+	/**
+	 * Creates a queue for the configured backend
+	 * @return the queue
+	 */
+	public static StageQueue createQueue() {
+		String backend = string("osf.queue.backend", BACKEND_JMS);
+		switch (backend) {
+		case BACKEND_MEMORY :
+			return new RingBufferStageQueue();
+		case BACKEND_JMS :
+			return new OsfJmsQueue();
+		default :
+			throw new IllegalArgumentException("Only the following values are allowed for osf.queue.backend: "
+					+ BACKEND_JMS + ", " + BACKEND_MEMORY);
+		}
+	}
+
+	/**
+	 * Releases resources held by the queue backends. Called at the end of the loader run.
+	 */
+	public static void shutdown() {
+		OsfJmsQueue.shutdown();
+		RingBufferStageQueue.shutdown();
+	}
+
+}
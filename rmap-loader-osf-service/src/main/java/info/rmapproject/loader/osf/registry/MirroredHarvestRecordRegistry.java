@@ -0,0 +1,520 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.registry;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.loader.HarvestRecordStatus;
+import info.rmapproject.loader.HarvestRegistry;
+import info.rmapproject.loader.model.RecordInfo;
+import info.rmapproject.loader.osf.metrics.LoaderMetrics;
+import info.rmapproject.loader.osf.queue.HarvestRecordCodec;
+
+/**
+ * Harvest record registry that answers lookups from memory and writes to the database in the background 
+ * (osf.registry.mirror=true). Every registration is appended to a local journal (osf.registry.mirror.journal)
+ * before it is acknowledged, and is written to the database registry by a background flush every 
+ * osf.registry.mirror.flushSeconds (default 5), or sooner once osf.registry.mirror.batchSize registrations 
+ * (default 500) are waiting. Repeated registrations of a record in one batch are written once. The journal 
+ * records how far the flush has got, so registrations that had not reached the database when the loader stopped
+ * are flushed on the next start. Journal writes are handed to the operating system as each registration is made,
+ * so they survive the loader process stopping, but are only synced to disk in batches by the background flush. 
+ * Registrations made since the last sync can be lost if the host itself fails, in which case those records are 
+ * looked up in the database again.
+ * <p>
+ * The journal header names the database it mirrors (jdbc.url, without its parameters). If the loader is started 
+ * against a different database, a journal with nothing waiting to be written is discarded and started again, and
+ * one with registrations still waiting is refused, so that they are not written to the wrong database. A journal 
+ * for an in-memory SQLite database is started again on every run.
+ * <p>
+ * At startup the index of record ID to latest record date and DiSCO URI is loaded from the journal. Records that
+ * are not in the index are looked up in the database once and then kept in memory. The index assumes this process
+ * is the only one writing to the registry for the records it ingests. The journal is rewritten with one 
+ * registration per record once it holds many more registrations than records, at startup or after a background 
+ * flush.
+ */
+public class MirroredHarvestRecordRegistry implements HarvestRegistry {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(MirroredHarvestRecordRegistry.class);
+
+	private static final int MAGIC = 0x4f53524d;
+
+	private static final int VERSION = 2;
+
+	private static final byte REGISTERED = 'R';
+
+	private static final byte FLUSHED = 'F';
+
+	/** Registrations over twice the number of records that the journal can hold before it is rewritten */
+	private static final long COMPACT_SLACK = 10000;
+
+	/** Date used for records that exist in the database with an unknown date older than the one looked up */
+	private static final long UNKNOWN_OLDER = Long.MIN_VALUE;
+
+	private static MirroredHarvestRecordRegistry instance = null;
+
+	private final HarvestRegistry delegate;
+
+	private final File journalFile;
+
+	/** Database the journal mirrors */
+	private final String database;
+
+	private final int batchSize;
+
+	private final Map<String, Entry> index = new ConcurrentHashMap<String, Entry>();
+
+	/** Registrations not yet written to the database, by record ID, in the order they were made */
+	private final Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+
+	private final ScheduledExecutorService flusher;
+
+	/** Held while a batch is written, so that flush can be called while the background flush runs */
+	private final Object flushLock = new Object();
+
+	private DataOutputStream journal;
+
+	/** File stream under the journal, used to sync it to disk */
+	private FileOutputStream journalOut;
+
+	/** Number of registrations written to the journal */
+	private long registered = 0;
+
+	/**
+	 * Latest record date and DiSCO URI for a record
+	 */
+	private static final class Entry {
+
+		private final long date;
+
+		private final URI latest;
+
+		private Entry(long date, URI latest) {
+			this.date = date;
+			this.latest = latest;
+		}
+
+	}
+
+	/**
+	 * Registration waiting to be written to the database
+	 */
+	private static final class Pending {
+
+		private final RecordInfo info;
+
+		private final URI latest;
+
+		private final long sequence;
+
+		private Pending(RecordInfo info, URI latest, long sequence) {
+			this.info = info;
+			this.latest = latest;
+			this.sequence = sequence;
+		}
+
+	}
+
+	/**
+	 * @return true if the loader is configured to use the mirrored registry
+	 */
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(string("osf.registry.mirror", "false"));
+	}
+
+	/**
+	 * Retrieves the registry shared by the process, loading it from the journal on first use
+	 * @param delegate database registry that registrations are flushed to
+	 * @param jdbcUrl JDBC URL of the database behind the delegate
+	 * @return the registry
+	 */
+	public static synchronized MirroredHarvestRecordRegistry getInstance(HarvestRegistry delegate, String jdbcUrl) {
+		if (instance == null) {
+			instance = new MirroredHarvestRecordRegistry(delegate, 
+					new File(string("osf.registry.mirror.journal", "registry-mirror.journal")), jdbcUrl);
+		}
+		return instance;
+	}
+
+	/**
+	 * Flushes waiting registrations to the database and closes the journal. Called at the end of the loader run,
+	 * before the datasource is closed.
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			instance.close();
+			instance = null;
+		}
+	}
+
+	/**
+	 * Initiate with the database registry, journal file and the JDBC URL of the database
+	 * @param delegate
+	 * @param journalFile
+	 * @param jdbcUrl
+	 */
+	public MirroredHarvestRecordRegistry(HarvestRegistry delegate, File journalFile, String jdbcUrl) {
+		this.delegate = delegate;
+		this.journalFile = journalFile;
+		//parameters are left out, they can hold credentials
+		this.database = jdbcUrl.contains("?") ? jdbcUrl.substring(0, jdbcUrl.indexOf('?')) : jdbcUrl;
+		this.batchSize = Integer.parseInt(string("osf.registry.mirror.batchSize", "500"));
+		try {
+			long start = System.currentTimeMillis();
+			load();
+			LOG.info("Loaded " + index.size() + " records from registry journal " + journalFile.getAbsolutePath() + " in " 
+					+ (System.currentTimeMillis() - start) + "ms, " + pending.size() + " waiting to be written to the database");
+		} catch (IOException e) {
+			throw new RuntimeException("Could not load registry journal " + journalFile.getAbsolutePath(), e);
+		}
+		this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "osf-registry-flush");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = Long.parseLong(string("osf.registry.mirror.flushSeconds", "5"));
+		flusher.scheduleWithFixedDelay(this::flushQuietly, 0, interval, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public HarvestRecordStatus getStatus(RecordInfo info) {
+		String id = info.getId().toString();
+		Entry entry = index.get(id);
+		LoaderMetrics.countCacheRequest("registry.mirror", entry != null);
+		if (entry == null) {
+			HarvestRecordStatus status = delegate.getStatus(info);
+			if (!status.recordExists()) {
+				return status;
+			}
+			//the database does not give the record date, but up to date means it is at least the one looked up
+			entry = new Entry(status.isUpToDate() ? info.getDate().getTime() : UNKNOWN_OLDER, status.latest());
+			index.putIfAbsent(id, entry);
+			entry = index.get(id);
+		}
+		return status(entry, info.getDate().getTime());
+	}
+
+	@Override
+	public void register(RecordInfo info, URI latest) {
+		String id = info.getId().toString();
+		long date = info.getDate().getTime();
+		synchronized (this) {
+			try {
+				writeRegistration(journal, info, latest);
+				journal.flush();
+			} catch (IOException e) {
+				throw new RuntimeException("Could not write registration of " + id + " to registry journal", e);
+			}
+			registered++;
+			index.put(id, new Entry(date, latest));
+			pending.remove(id);
+			pending.put(id, new Pending(info, latest, registered));
+		}
+		if (pendingCount() >= batchSize) {
+			flusher.execute(this::flushQuietly);
+		}
+	}
+
+	/**
+	 * Syncs the journal to disk, writes waiting registrations to the database and records in the journal how far 
+	 * it got. The journal is compacted afterwards if it has grown too large.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		synchronized (flushLock) {
+			Map<String, Pending> batch;
+			FileOutputStream out;
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					return;
+				}
+				batch = new LinkedHashMap<String, Pending>(pending);
+				out = journalOut;
+			}
+			//one sync covers every registration made since the last flush
+			out.getChannel().force(false);
+			long flushedTo = 0;
+			try {
+				for (Pending registration : batch.values()) {
+					delegate.register(registration.info, registration.latest);
+					flushedTo = registration.sequence;
+				}
+			} finally {
+				if (flushedTo > 0) {
+					synchronized (this) {
+						for (Map.Entry<String, Pending> registration : batch.entrySet()) {
+							if (registration.getValue().sequence > flushedTo) {
+								break;
+							}
+							//leave it if the record was registered again since the batch was taken
+							pending.remove(registration.getKey(), registration.getValue());
+						}
+						journal.writeByte(FLUSHED);
+						journal.writeLong(flushedTo);
+						journal.flush();
+						compactIfLarge();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the journal once it holds many more registrations than records, so that it does not keep growing 
+	 * while the loader runs. Registrations wait until it is rewritten. If it cannot be rewritten the current 
+	 * journal is kept and this is tried again after the next flush.
+	 */
+	private synchronized void compactIfLarge() {
+		if (registered <= 2L * index.size() + COMPACT_SLACK) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			journal.close();
+			compact();
+			LOG.info("Compacted registry journal " + journalFile.getAbsolutePath() + " to " + registered + " registrations in " 
+					+ (System.currentTimeMillis() - start) + "ms");
+		} catch (IOException e) {
+			LOG.error("Could not compact registry journal " + journalFile.getAbsolutePath() + ", will try again", e);
+			try {
+				openJournal();
+			} catch (IOException reopenFailure) {
+				throw new RuntimeException("Could not reopen registry journal " + journalFile.getAbsolutePath(), reopenFailure);
+			}
+		}
+	}
+
+	private synchronized int pendingCount() {
+		return pending.size();
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (Exception e) {
+			LOG.error("Could not write registrations to the database registry, will try again", e);
+		}
+	}
+
+	private HarvestRecordStatus status(Entry entry, long date) {
+		boolean upToDate = entry.date != UNKNOWN_OLDER && entry.date >= date;
+		URI latest = entry.latest;
+		return new HarvestRecordStatus() {
+			@Override
+			public boolean recordExists() {
+				return true;
+			}
+
+			@Override
+			public boolean isUpToDate() {
+				return upToDate;
+			}
+
+			@Override
+			public URI latest() {
+				return latest;
+			}
+		};
+	}
+
+	/**
+	 * Reads the index from the journal. Registrations after the last flush marker are queued to be written to the
+	 * database again. A partial record at the end, left by a crash, is dropped. The journal is rewritten when it 
+	 * holds many more registrations than records, and started again when it was written for another database.
+	 * @throws IOException
+	 */
+	private void load() throws IOException {
+		Map<String, Pending> unflushed = new LinkedHashMap<String, Pending>();
+		String journalDatabase = null;
+		long validLength = 0;
+		long flushedTo = 0;
+		if (journalFile.exists() && journalFile.length() > 0) {
+			try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+					DataInputStream in = new DataInputStream(counter)) {
+				if (in.readInt() != MAGIC) {
+					throw new IOException("Not a registry journal: " + journalFile.getAbsolutePath());
+				}
+				int version = in.readInt();
+				if (version != VERSION) {
+					throw new IOException("Unsupported registry journal version " + version + " in " + journalFile.getAbsolutePath() 
+							+ ", move it aside to start a new journal");
+				}
+				journalDatabase = in.readUTF();
+				validLength = counter.getByteCount();
+				while (true) {
+					byte kind = in.readByte();
+					if (kind == REGISTERED) {
+						RecordInfo info = HarvestRecordCodec.readRecordInfo(in);
+						URI latest = URI.create(in.readUTF());
+						String id = info.getId().toString();
+						registered++;
+						index.put(id, new Entry(info.getDate().getTime(), latest));
+						unflushed.remove(id);
+						unflushed.put(id, new Pending(info, latest, registered));
+					} else if (kind == FLUSHED) {
+						flushedTo = Math.max(flushedTo, in.readLong());
+					} else {
+						throw new IOException("Unexpected record type in registry journal at byte " + validLength);
+					}
+					validLength = counter.getByteCount();
+				}
+			} catch (EOFException e) {
+				//end of journal, or a partial record written when the loader stopped
+			}
+		}
+		for (Map.Entry<String, Pending> registration : unflushed.entrySet()) {
+			if (registration.getValue().sequence > flushedTo) {
+				pending.put(registration.getKey(), registration.getValue());
+			}
+		}
+
+		if (journalDatabase != null && (!journalDatabase.equals(database) || isInMemory(database))) {
+			if (!pending.isEmpty() && !isInMemory(journalDatabase)) {
+				throw new IOException("Registry journal " + journalFile.getAbsolutePath() + " was written for database " 
+						+ journalDatabase + " and has " + pending.size() + " registrations that were not written to it. Start the "
+						+ "loader with jdbc.url set to that database to write them, or set osf.registry.mirror.journal to a new file");
+			}
+			LOG.info("Registry journal " + journalFile.getAbsolutePath() + " was written for database " + journalDatabase 
+					+ ", starting a new journal for " + database);
+			index.clear();
+			pending.clear();
+			registered = 0;
+			validLength = 0;
+		}
+
+		if (validLength == 0 || registered > 2L * index.size() + COMPACT_SLACK) {
+			compact();
+		} else {
+			try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+				file.setLength(validLength);
+			}
+			openJournal();
+		}
+	}
+
+	/**
+	 * Rewrites the journal with one registration per record, followed by the registrations still waiting to be
+	 * written to the database. The registry is left as it was if the new journal cannot be written.
+	 * @throws IOException
+	 */
+	private void compact() throws IOException {
+		File compacted = new File(journalFile.getAbsolutePath() + ".tmp");
+		long count = 0;
+		Map<String, Pending> requeued = new LinkedHashMap<String, Pending>();
+		try {
+			FileOutputStream fileOut = new FileOutputStream(compacted);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(database);
+				for (Map.Entry<String, Entry> record : index.entrySet()) {
+					if (!pending.containsKey(record.getKey())) {
+						//only the date and URI are needed for records already in the database
+						RecordInfo info = new RecordInfo();
+						info.setId(URI.create(record.getKey()));
+						info.setDate(new Date(record.getValue().date));
+						writeRegistration(out, info, record.getValue().latest);
+						count++;
+					}
+				}
+				out.writeByte(FLUSHED);
+				out.writeLong(count);
+				for (Pending waiting : pending.values()) {
+					writeRegistration(out, waiting.info, waiting.latest);
+					count++;
+					requeued.put(waiting.info.getId().toString(), new Pending(waiting.info, waiting.latest, count));
+				}
+				out.flush();
+				fileOut.getChannel().force(false);
+			}
+			Files.move(compacted.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Files.deleteIfExists(compacted.toPath());
+			throw e;
+		}
+		registered = count;
+		pending.clear();
+		pending.putAll(requeued);
+		openJournal();
+	}
+
+	private void openJournal() throws IOException {
+		journalOut = new FileOutputStream(journalFile, true);
+		journal = new DataOutputStream(new BufferedOutputStream(journalOut));
+	}
+
+	private static void writeRegistration(DataOutput out, RecordInfo info, URI latest) throws IOException {
+		out.writeByte(REGISTERED);
+		HarvestRecordCodec.writeRecordInfo(info, out);
+		out.writeUTF(latest.toString());
+	}
+
+	/**
+	 * @param database
+	 * @return true if the database does not outlive the loader process, so a journal for it is never reused
+	 */
+	private static boolean isInMemory(String database) {
+		return database.equals("jdbc:sqlite:") || database.contains(":memory:");
+	}
+
+	private void close() {
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(30, TimeUnit.SECONDS);
+			flush();
+		} catch (Exception e) {
+			LOG.error("Could not write all registrations to the database registry, they will be written at the next start", e);
+		} finally {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				LOG.warn("Could not close registry journal", e);
+			}
+		}
+	}
+
+}
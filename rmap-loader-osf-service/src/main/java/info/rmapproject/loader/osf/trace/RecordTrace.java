@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.trace;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timeline of one record as it moves through the loader. A mark is added with the current time at each step, 
+ * e.g. when the record is identified, fetched from OSF, serialized, received by ingest and deposited. The trace 
+ * travels with the record between stages as a short string, see encode(), so it survives the JMS broker and the
+ * in-process queue. When the record completes, its trace is passed to TraceRecorder.
+ * <p>
+ * Tracing is off unless osf.trace.enabled=true. The trace for the record being processed is held per thread:
+ * queue backends set it before passing a record to a consumer and clear it afterwards, and attach it to records 
+ * added to a queue while it is set.
+ */
+public class RecordTrace {
+
+	/** Name of the message property or field the encoded trace is carried in */
+	public static final String PROPERTY = "osfTrace";
+
+	private static final boolean ENABLED = Boolean.parseBoolean(string("osf.trace.enabled", "false"));
+
+	private static final ThreadLocal<RecordTrace> CURRENT = new ThreadLocal<RecordTrace>();
+
+	private final long start;
+
+	private final List<String> names = new ArrayList<String>();
+
+	private final List<Long> offsets = new ArrayList<Long>();
+
+	private RecordTrace(long start) {
+		this.start = start;
+	}
+
+	/**
+	 * @return true if records are being traced
+	 */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * Starts a new trace for a record on this thread, replacing any current trace
+	 * @param name name of the first mark
+	 */
+	public static void begin(String name) {
+		if (ENABLED) {
+			RecordTrace trace = new RecordTrace(System.currentTimeMillis());
+			trace.add(name, 0);
+			CURRENT.set(trace);
+		}
+	}
+
+	/**
+	 * Continues the trace carried by a record received from a queue. If the record has no trace, e.g. it was queued
+	 * before tracing was enabled, a new one is started.
+	 * @param encoded trace as returned by encode(), may be null
+	 */
+	public static void resume(String encoded) {
+		if (ENABLED) {
+			RecordTrace trace = decode(encoded);
+			CURRENT.set(trace != null ? trace : new RecordTrace(System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * Adds a mark with the current time to the trace on this thread
+	 * @param name name of the step just reached
+	 */
+	public static void mark(String name) {
+		RecordTrace trace = CURRENT.get();
+		if (trace != null) {
+			trace.add(name, System.currentTimeMillis() - trace.start);
+		}
+	}
+
+	/**
+	 * @return trace on this thread in encoded form, or null if there is none
+	 */
+	public static String current() {
+		RecordTrace trace = CURRENT.get();
+		return trace == null ? null : trace.encode();
+	}
+
+	/**
+	 * Marks the trace on this thread as complete, passes it to the TraceRecorder and clears it
+	 * @param recordId
+	 * @param outcome e.g. deposited, unchanged, failed
+	 */
+	public static void complete(String recordId, String outcome) {
+		RecordTrace trace = CURRENT.get();
+		if (trace != null) {
+			trace.add(outcome, System.currentTimeMillis() - trace.start);
+			TraceRecorder.record(recordId, trace);
+			CURRENT.remove();
+		}
+	}
+
+	/**
+	 * Clears the trace on this thread
+	 */
+	public static void clear() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * @return time the trace started, in milliseconds since the epoch
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return names of the marks, in order
+	 */
+	public List<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * @return milliseconds from the start of the trace to each mark, in order
+	 */
+	public List<Long> getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * @return total milliseconds from the first to the last mark
+	 */
+	public long getDuration() {
+		return offsets.isEmpty() ? 0 : offsets.get(offsets.size() - 1);
+	}
+
+	/**
+	 * Encodes trace as start time followed by each mark and its offset, e.g. 1500000000000|identified:0,transform.start:512
+	 * @return encoded trace
+	 */
+	public String encode() {
+		StringBuilder encoded = new StringBuilder();
+		encoded.append(start).append('|');
+		for (int i = 0; i < names.size(); i++) {
+			if (i > 0) {
+				encoded.append(',');
+			}
+			encoded.append(names.get(i)).append(':').append(offsets.get(i));
+		}
+		return encoded.toString();
+	}
+
+	/**
+	 * Reads trace from its encoded form
+	 * @param encoded
+	 * @return the trace, or null if the value is empty or not a valid trace
+	 */
+	public static RecordTrace decode(String encoded) {
+		if (encoded == null || encoded.isEmpty()) {
+			return null;
+		}
+		try {
+			int separator = encoded.indexOf('|');
+			RecordTrace trace = new RecordTrace(Long.parseLong(encoded.substring(0, separator)));
+			String marks = encoded.substring(separator + 1);
+			if (!marks.isEmpty()) {
+				for (String mark : marks.split(",")) {
+					int colon = mark.lastIndexOf(':');
+					trace.add(mark.substring(0, colon), Long.parseLong(mark.substring(colon + 1)));
+				}
+			}
+			return trace;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private void add(String name, long offset) {
+		names.add(name);
+		offsets.add(offset);
+	}
+
+}
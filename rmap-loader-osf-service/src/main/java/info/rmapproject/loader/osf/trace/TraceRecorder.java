@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.trace;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects completed record traces. Each trace is written as one line to a rolling file (osf.trace.file, default 
+ * osf-trace.log), which rolls over at osf.trace.maxFileMb (default 50) keeping osf.trace.maxFiles old files 
+ * (default 5). The time between each pair of consecutive marks is also added to a histogram so that percentiles 
+ * can be reported at the end of the run by summarize(), along with the slowest records.
+ * <p>
+ * Line format is tab separated: record id, start time, total milliseconds, then each mark with the milliseconds 
+ * since the previous mark, e.g. identified=+0 transform.start=+5120.
+ */
+public class TraceRecorder {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(TraceRecorder.class);
+
+	/** Number of slowest records listed in the summary */
+	private static final int SLOWEST_COUNT = 10;
+
+	/** Longest duration tracked by the histograms, longer values are capped */
+	private static final long MAX_TRACKED_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+	private static final Map<String, Histogram> segments = new LinkedHashMap<String, Histogram>();
+
+	private static final PriorityQueue<Slowest> slowest = new PriorityQueue<Slowest>(Comparator.comparingLong(s -> s.duration));
+
+	private static Writer writer = null;
+
+	private static File file = null;
+
+	private static long fileSize = 0;
+
+	/**
+	 * Records a completed trace
+	 * @param recordId
+	 * @param trace
+	 */
+	static synchronized void record(String recordId, RecordTrace trace) {
+		StringBuilder line = new StringBuilder();
+		line.append(recordId).append('\t').append(trace.getStart()).append('\t').append(trace.getDuration());
+
+		String previousName = null;
+		long previousOffset = 0;
+		for (int i = 0; i < trace.getNames().size(); i++) {
+			String name = trace.getNames().get(i);
+			long offset = trace.getOffsets().get(i);
+			long elapsed = offset - previousOffset;
+			line.append('\t').append(name).append("=+").append(elapsed);
+			if (previousName != null) {
+				histogram(previousName + " -> " + name).recordValue(cap(elapsed));
+			}
+			previousName = name;
+			previousOffset = offset;
+		}
+		histogram("total").recordValue(cap(trace.getDuration()));
+
+		slowest.add(new Slowest(recordId, trace.getDuration()));
+		if (slowest.size() > SLOWEST_COUNT) {
+			slowest.poll();
+		}
+
+		write(line.toString());
+	}
+
+	/**
+	 * Logs and prints percentiles for each step and the slowest records seen since the last summary, then resets 
+	 * the statistics. Does nothing if no traces have been recorded.
+	 */
+	public static synchronized void summarize() {
+		if (segments.isEmpty()) {
+			return;
+		}
+		StringBuilder summary = new StringBuilder("Record timing summary (ms):");
+		summary.append(String.format("%n  %-60s %8s %8s %8s %8s %8s", "step", "count", "p50", "p90", "p99", "max"));
+		for (Map.Entry<String, Histogram> entry : segments.entrySet()) {
+			Histogram h = entry.getValue();
+			summary.append(String.format("%n  %-60s %8d %8d %8d %8d %8d", entry.getKey(), h.getTotalCount(),
+					h.getValueAtPercentile(50), h.getValueAtPercentile(90), h.getValueAtPercentile(99), h.getMaxValue()));
+		}
+		summary.append(String.format("%nSlowest records (ms):"));
+		Slowest[] ordered = slowest.toArray(new Slowest[slowest.size()]);
+		Arrays.sort(ordered, Comparator.comparingLong((Slowest s) -> s.duration).reversed());
+		for (Slowest s : ordered) {
+			summary.append(String.format("%n  %-60s %8d", s.recordId, s.duration));
+		}
+		LOG.info(summary.toString());
+		System.out.println(summary.toString());
+
+		segments.clear();
+		slowest.clear();
+		flush();
+	}
+
+	/**
+	 * Closes the trace file. Called at the end of the loader run.
+	 */
+	public static synchronized void shutdown() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				LOG.warn("Could not close trace file", e);
+			}
+			writer = null;
+		}
+	}
+
+	private static Histogram histogram(String segment) {
+		return segments.computeIfAbsent(segment, s -> new Histogram(MAX_TRACKED_MILLIS, 2));
+	}
+
+	private static long cap(long millis) {
+		return Math.max(0, Math.min(millis, MAX_TRACKED_MILLIS));
+	}
+
+	private static void write(String line) {
+		try {
+			if (writer == null) {
+				open();
+			}
+			writer.write(line);
+			writer.write(System.lineSeparator());
+			fileSize = fileSize + line.length() + System.lineSeparator().length();
+			if (fileSize > Long.parseLong(string("osf.trace.maxFileMb", "50")) * 1024 * 1024) {
+				roll();
+			}
+		} catch (IOException e) {
+			LOG.warn("Could not write record trace to file", e);
+		}
+	}
+
+	private static void flush() {
+		if (writer != null) {
+			try {
+				writer.flush();
+			} catch (IOException e) {
+				LOG.warn("Could not flush trace file", e);
+			}
+		}
+	}
+
+	private static void open() throws IOException {
+		file = new File(string("osf.trace.file", "osf-trace.log"));
+		fileSize = file.length();
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF_8));
+	}
+
+	private static void roll() throws IOException {
+		writer.close();
+		writer = null;
+		int maxFiles = Integer.parseInt(string("osf.trace.maxFiles", "5"));
+		new File(file.getPath() + "." + maxFiles).delete();
+		for (int i = maxFiles - 1; i >= 1; i--) {
+			File older = new File(file.getPath() + "." + i);
+			if (older.exists()) {
+				older.renameTo(new File(file.getPath() + "." + (i + 1)));
+			}
+		}
+		if (maxFiles > 0) {
+			file.renameTo(new File(file.getPath() + ".1"));
+		} else {
+			file.delete();
+		}
+		open();
+	}
+
+	private static class Slowest {
+		private final String recordId;
+		private final long duration;
+
+		private Slowest(String recordId, long duration) {
+			this.recordId = recordId;
+			this.duration = duration;
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.utils;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Provides the datasource used for the harvest run and harvest record registries. A single pool is shared by all
+ * services in the loader process and is closed by shutdown() at the end of the run. Pool settings:
+ * <ul>
+ * <li>jdbc.pool.maxSize - maximum connections, default 10, or 1 for SQLite which only allows one writer. Always 1
+ * for in-memory SQLite</li>
+ * <li>jdbc.pool.minIdle - connections kept open when idle, default is the maximum</li>
+ * <li>jdbc.pool.connectionTimeoutSeconds - how long to wait for a free connection, default 30</li>
+ * <li>jdbc.pool.maxLifetimeMinutes - connections are replaced after this long, default 30. Not used for in-memory 
+ * SQLite, where the database only lives as long as its one connection</li>
+ * <li>jdbc.pool.warmup - open the idle connections when the pool is created, default true</li>
+ * <li>jdbc.statementCacheSize - prepared statements cached per connection by drivers that support it (MySQL), 
+ * default 250, 0 to disable</li>
+ * </ul>
+ */
+public class DataSourceProvider {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(DataSourceProvider.class);
+
+	private static HikariDataSource dataSource = null;
+
+	/**
+	 * Retrieves the shared datasource, creating it on first use
+	 * @return the datasource
+	 */
+	public static synchronized DataSource getDataSource() {
+		if (dataSource == null) {
+			String url = getJdbcUrl();
+			boolean sqlite = url.startsWith("jdbc:sqlite:");
+			boolean inMemory = isInMemorySqlite(url);
+	        final HikariDataSource ds = new HikariDataSource();
+	        ds.setPoolName("osf-loader");
+	        ds.setJdbcUrl(url);
+	        ds.setUsername(string("jdbc.username", null));
+	        ds.setPassword(string("jdbc.password", null));
+	        ds.setDriverClassName(string("jdbc.driver",null));
+	        
+	        //each connection to an in-memory SQLite database opens a new, empty database, so its one connection is kept
+	        int maxSize = inMemory ? 1 : Integer.parseInt(string("jdbc.pool.maxSize", sqlite ? "1" : "10"));
+	        ds.setMaximumPoolSize(maxSize);
+	        ds.setMinimumIdle(inMemory ? 1 : Math.min(maxSize, Integer.parseInt(string("jdbc.pool.minIdle", String.valueOf(maxSize)))));
+	        ds.setConnectionTimeout(Long.parseLong(string("jdbc.pool.connectionTimeoutSeconds", "30")) * 1000);
+	        //0 keeps the connection open until the pool is closed
+	        ds.setMaxLifetime(inMemory ? 0 : Long.parseLong(string("jdbc.pool.maxLifetimeMinutes", "30")) * 60000);
+	        
+	        int statementCacheSize = Integer.parseInt(string("jdbc.statementCacheSize", "250"));
+	        if (url.startsWith("jdbc:mysql:") && statementCacheSize > 0) {
+	        	ds.addDataSourceProperty("cachePrepStmts", "true");
+	        	ds.addDataSourceProperty("prepStmtCacheSize", String.valueOf(statementCacheSize));
+	        	ds.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+	        	ds.addDataSourceProperty("useServerPrepStmts", "true");
+	        }
+	        
+	        if (Boolean.parseBoolean(string("jdbc.pool.warmup", "true"))) {
+	        	warmup(ds);
+	        }
+	        dataSource = ds;
+	        LOG.info("Created database connection pool for " + url + " with up to " + maxSize + " connections");
+		}
+		return dataSource;
+	}
+
+	/**
+	 * @return JDBC URL of the shared datasource
+	 */
+	public static String getJdbcUrl() {
+		return string("jdbc.url", "jdbc:sqlite:");
+	}
+
+	/**
+	 * Checks whether the URL is for an in-memory SQLite database, e.g. jdbc:sqlite: or jdbc:sqlite::memory:
+	 * @param url
+	 * @return true if the database is held in memory
+	 */
+	static boolean isInMemorySqlite(String url) {
+		if (!url.startsWith("jdbc:sqlite:")) {
+			return false;
+		}
+		String path = url.substring("jdbc:sqlite:".length());
+		return path.isEmpty() || path.startsWith(":memory:") || path.contains("mode=memory");
+	}
+
+	/**
+	 * Opens the pool's idle connections up front so that the first records do not wait for them, and so that
+	 * connection problems are reported before any stage starts
+	 * @param ds
+	 */
+	private static void warmup(HikariDataSource ds) {
+		long start = System.currentTimeMillis();
+		List<Connection> connections = new ArrayList<Connection>();
+		try {
+			for (int i = 0; i < ds.getMinimumIdle(); i++) {
+				connections.add(ds.getConnection());
+			}
+		} catch (Exception e) {
+			ds.close();
+			throw new RuntimeException("Could not open database connections for " + ds.getJdbcUrl(), e);
+		} finally {
+			for (Connection connection : connections) {
+				try {
+					connection.close();
+				} catch (Exception e) {
+					LOG.debug("Could not return warmup connection to the pool", e);
+				}
+			}
+		}
+		LOG.debug("Opened " + connections.size() + " database connections in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Closes the shared datasource. Called at the end of the loader run.
+	 */
+	public static synchronized void shutdown() {
+		if (dataSource != null) {
+			dataSource.close();
+			dataSource = null;
+		}
+	}
+
+}
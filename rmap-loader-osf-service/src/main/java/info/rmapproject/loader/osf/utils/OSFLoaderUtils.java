@@ -1,125 +1,230 @@
-/*******************************************************************************
- * Copyright 2017 Johns Hopkins University
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- *
- * This software was produced as part of the RMap Project (http://rmap-project.info),
- * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
- * collaboration between Data Conservancy, Portico, and IEEE.
- *******************************************************************************/
-package info.rmapproject.loader.osf.utils;
-
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-
-import org.apache.http.NameValuePair;
-import org.apache.http.client.utils.URLEncodedUtils;
-import org.joda.time.DateTime;
-
-
-/**
- * Utilities used in transform
- * @author khanson
- */
-public class OSFLoaderUtils {
-	
-	/**
-	 * Extract the last subfolder name from a path.
-	 * e.g. for https://api.osf.io/v2/registrations/sdfkj/ sdfkj will be extracted
-	 *
-	 * @param linkUrl the link url
-	 * @return the last subfolder
-	 */
-	public static String extractLastSubFolder(String linkUrl){
-		if (linkUrl!=null && linkUrl.length()>0 && linkUrl.contains("/")){
-			if (linkUrl.endsWith("/")){
-				linkUrl = linkUrl.substring(0,linkUrl.length()-1);
-			}
-			String id = linkUrl.substring(linkUrl.lastIndexOf('/') + 1);
-			return id;
-		} else {
-			return null;
-		}		
-	}
-	
-	/**
-	 * Convert URL params to Map<String,String>.
-	 *
-	 * @param filters the filters
-	 * @param charset the charset
-	 * @return the URL params as a Map
-	 * @exception URISyntaxException the URI syntax exception
-	 */
-	public static HashMap<String, String> readParamsIntoMap(String filters) throws URISyntaxException {
-		HashMap<String, String> params = new HashMap<>();
-		
-		String url = "http://fakeurl.fake";
-		if (!filters.startsWith("?")){
-			url = url + "?";
-		}
-		url = url + filters;
-		
-	    List<NameValuePair> result = URLEncodedUtils.parse(new URI(url), StandardCharsets.UTF_8);
-
-	    for (NameValuePair nvp : result) {
-	        params.put(nvp.getName(), nvp.getValue());
-	    }
-
-	    return params;
-	}
-
-	
-	/**
-	 * Returns date provided minus one day
-	 * @param date
-	 * @return
-	 */
-	public static Date subtractDay(Date date) {
-		//default filter to yesterday
-	    Calendar cal = Calendar.getInstance();
-	    cal.setTime(date);
-	    cal.add(Calendar.DAY_OF_MONTH, -1);
-		Date dayBefore = cal.getTime();		
-		return dayBefore;
-	}
-	
-
-	/**
-	 * Returns date provided minus one day
-	 * @param date
-	 * @return
-	 */
-	public static String previousDayAsString(DateTime date) {
-		DateTime dayBefore = date.minusDays(1);
-		String sDayBefore = convertToOsfDateParam(dayBefore);
-		return sDayBefore;
-	}
-	
-	
-	/**
-	 * Returns string format of date, suitable for OSF date filter
-	 * @param date
-	 * @return
-	 */
-	public static String convertToOsfDateParam(DateTime date) {
-		String dateParam = date.toString("yyyy-MM-dd");	
-		return dateParam;
-	}	
-	
-	
-}
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.utils;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.cos.osf.client.model.RecordType;
+
+
+/**
+ * Utilities used in transform
+ * @author khanson
+ */
+public class OSFLoaderUtils {
+	
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(OSFLoaderUtils.class);
+	
+	/** How long to wait for the other workers to stop after one has failed */
+	private static final long WORKER_STOP_SECONDS = 60;
+	
+	/**
+	 * Extract the last subfolder name from a path.
+	 * e.g. for https://api.osf.io/v2/registrations/sdfkj/ sdfkj will be extracted
+	 *
+	 * @param linkUrl the link url
+	 * @return the last subfolder
+	 */
+	public static String extractLastSubFolder(String linkUrl){
+		if (linkUrl!=null && linkUrl.length()>0 && linkUrl.contains("/")){
+			if (linkUrl.endsWith("/")){
+				linkUrl = linkUrl.substring(0,linkUrl.length()-1);
+			}
+			String id = linkUrl.substring(linkUrl.lastIndexOf('/') + 1);
+			return id;
+		} else {
+			return null;
+		}		
+	}
+	
+	/**
+	 * Convert URL params to Map<String,String>.
+	 *
+	 * @param filters the filters
+	 * @param charset the charset
+	 * @return the URL params as a Map
+	 * @exception URISyntaxException the URI syntax exception
+	 */
+	public static HashMap<String, String> readParamsIntoMap(String filters) throws URISyntaxException {
+		HashMap<String, String> params = new HashMap<>();
+		
+		String url = "http://fakeurl.fake";
+		if (!filters.startsWith("?")){
+			url = url + "?";
+		}
+		url = url + filters;
+		
+	    List<NameValuePair> result = URLEncodedUtils.parse(new URI(url), StandardCharsets.UTF_8);
+
+	    for (NameValuePair nvp : result) {
+	        params.put(nvp.getName(), nvp.getValue());
+	    }
+
+	    return params;
+	}
+
+	
+	/**
+	 * Returns date provided minus one day
+	 * @param date
+	 * @return
+	 */
+	public static Date subtractDay(Date date) {
+		//default filter to yesterday
+	    Calendar cal = Calendar.getInstance();
+	    cal.setTime(date);
+	    cal.add(Calendar.DAY_OF_MONTH, -1);
+		Date dayBefore = cal.getTime();		
+		return dayBefore;
+	}
+	
+
+	/**
+	 * Returns date provided minus one day
+	 * @param date
+	 * @return
+	 */
+	public static String previousDayAsString(DateTime date) {
+		DateTime dayBefore = date.minusDays(1);
+		String sDayBefore = convertToOsfDateParam(dayBefore);
+		return sDayBefore;
+	}
+	
+	
+	/**
+	 * Returns string format of date, suitable for OSF date filter
+	 * @param date
+	 * @return
+	 */
+	public static String convertToOsfDateParam(DateTime date) {
+		String dateParam = date.toString("yyyy-MM-dd");	
+		return dateParam;
+	}	
+	
+	
+	/**
+	 * Returns string format of date and time to the second in UTC, suitable for OSF date filter
+	 * @param date
+	 * @return
+	 */
+	public static String convertToOsfDateTimeParam(DateTime date) {
+		String dateParam = date.withZone(DateTimeZone.UTC).toString("yyyy-MM-dd'T'HH:mm:ss");	
+		return dateParam;
+	}	
+	
+	
+	/**
+	 * Checks whether identify should run as a change feed (osf.identify.changefeed=true). In this mode records
+	 * are identified from the exact time of the last run rather than from the start of that day, so frequent 
+	 * runs only retrieve the records changed since the previous run.
+	 * @return true if change feed mode is enabled
+	 */
+	public static boolean isChangeFeedEnabled() {
+		return Boolean.parseBoolean(string("osf.identify.changefeed", "false"));
+	}
+	
+	
+	/**
+	 * Retrieves number of seconds that each change feed window should overlap the previous one 
+	 * (osf.identify.changefeed.overlapSeconds). Default is 120.
+	 * @return overlap in seconds
+	 */
+	public static int getChangeFeedOverlapSeconds() {
+		return Integer.parseInt(string("osf.identify.changefeed.overlapSeconds", "120"));
+	}
+	
+	
+	/**
+	 * Retrieves number of concurrent workers configured for a stage and record type, 
+	 * e.g. osf.nodes.transform.workers. Default is 1.
+	 * @param type
+	 * @param stage
+	 * @return number of workers
+	 */
+	public static int getWorkerCount(RecordType type, String stage) {
+		int workers = Integer.parseInt(string("osf." + type.getTypeString() + "." + stage + ".workers", "1"));
+		return Math.max(1, workers);
+	}
+	
+	/**
+	 * Runs the task in the number of threads specified and waits for all to complete. If a worker fails the others
+	 * are interrupted, and have stopped before its exception is thrown, so that the caller can release what they use.
+	 * @param workers
+	 * @param task
+	 * @return sum of the counts returned by each worker
+	 * @throws Exception
+	 */
+	public static Integer runWorkers(int workers, Callable<Integer> task) throws Exception {
+		if (workers <= 1) {
+			return task.call();
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		boolean completed = false;
+		try {
+			//results are taken as workers finish, so a failure is seen while other workers are still running
+			CompletionService<Integer> results = new ExecutorCompletionService<Integer>(executor);
+			for (int i = 0; i < workers; i++) {
+				results.submit(task);
+			}
+			Integer total = 0;
+			for (int i = 0; i < workers; i++) {
+				total = total + results.take().get();
+			}
+			completed = true;
+			return total;
+		} finally {
+			if (completed) {
+				executor.shutdown();
+			} else {
+				executor.shutdownNow();
+				try {
+					if (!executor.awaitTermination(WORKER_STOP_SECONDS, TimeUnit.SECONDS)) {
+						LOG.warn("Workers did not stop within " + WORKER_STOP_SECONDS + " seconds of a worker failing");
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+	
+}
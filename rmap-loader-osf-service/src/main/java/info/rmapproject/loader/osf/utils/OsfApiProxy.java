@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import info.rmapproject.loader.osf.metrics.LoaderMetrics;
+
+/**
+ * Local HTTP proxy between the OSF client and the OSF API. It replaces the OSF client configuration with one that
+ * points at the proxy, forwards requests to the API base of the configuration it replaced, and rewrites links to
+ * the OSF API in responses so that paging and relationships are followed through the proxy too. Subclasses decide
+ * how each request is answered.
+ */
+public abstract class OsfApiProxy {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(OsfApiProxy.class);
+
+	/** Request headers passed on to OSF. */
+	private static final String[] FORWARDED_HEADERS = {"Authorization", "Accept", "Content-Type", "User-Agent"};
+
+	/** Name used in log messages and metrics, e.g. capture */
+	private final String name;
+
+	private HttpServer server = null;
+
+	private ExecutorService executor = null;
+
+	private HttpClient upstreamClient = null;
+
+	private String upstreamBase;
+
+	private String proxyBase;
+
+	private String originalClientConf;
+
+	private boolean clientConfRead = false;
+
+	/**
+	 * Status, content type and body of an API response
+	 */
+	public static class Response {
+
+		public final int status;
+
+		public final String contentType;
+
+		public final byte[] body;
+
+		public Response(int status, String contentType, byte[] body) {
+			this.status = status;
+			this.contentType = contentType;
+			this.body = body;
+		}
+
+	}
+
+	/**
+	 * @param name name used in log messages and metrics
+	 */
+	protected OsfApiProxy(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Answers a request made to the proxy
+	 * @param exchange the request
+	 * @param method HTTP method
+	 * @param relative raw path relative to the API base path
+	 * @param query raw query string, or null
+	 * @return the response
+	 * @throws Exception
+	 */
+	protected abstract Response respond(HttpExchange exchange, String method, String relative, String query) throws Exception;
+
+	/**
+	 * Reads the current OSF client configuration. Requests are forwarded to the API base it names.
+	 * @param mapper
+	 * @return the configuration
+	 * @throws IOException
+	 */
+	protected ObjectNode readClientConfig(ObjectMapper mapper) throws IOException {
+		originalClientConf = OsfClientConfig.getLocation();
+		clientConfRead = true;
+		ObjectNode clientConfig = OsfClientConfig.read(mapper, originalClientConf);
+		upstreamBase = OsfClientConfig.getApiBase(OsfClientConfig.getApiConfig(clientConfig));
+		return clientConfig;
+	}
+
+	/**
+	 * Starts the proxy and points the OSF client at it
+	 * @param mapper
+	 * @param clientConfig configuration returned by readClientConfig, this is modified
+	 * @param threads number of requests handled at once
+	 * @param forwarding true if requests are forwarded to the OSF API
+	 * @param removeAuth true if the authorization header should not be sent to the proxy
+	 * @throws IOException
+	 */
+	protected void startServer(ObjectMapper mapper, ObjectNode clientConfig, int threads, boolean forwarding, 
+			boolean removeAuth) throws IOException {
+		if (forwarding) {
+			upstreamClient = HttpClientBuilder.create().useSystemProperties()
+					.setMaxConnPerRoute(threads).setMaxConnTotal(threads).build();
+		}
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+		proxyBase = OsfClientConfig.pointAtProxy(mapper, clientConfig, server.getAddress().getPort(), removeAuth);
+	}
+
+	/**
+	 * Stops the proxy and restores the OSF client configuration it replaced
+	 */
+	protected void stopServer() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+		if (clientConfRead) {
+			OsfClientConfig.restore(originalClientConf);
+			clientConfRead = false;
+		}
+		originalClientConf = null;
+		upstreamClient = null;
+	}
+
+	/**
+	 * @return API base URL requests are forwarded to, ending in /
+	 */
+	protected String getUpstreamBase() {
+		return upstreamBase;
+	}
+
+	/**
+	 * @return API base URL of the proxy, ending in /
+	 */
+	protected String getProxyBase() {
+		return proxyBase;
+	}
+
+	/**
+	 * Sends request to the OSF API
+	 * @param exchange the request, its body and some of its headers are passed on
+	 * @param method HTTP method
+	 * @param relative path and query relative to the API base
+	 * @return the response
+	 * @throws Exception
+	 */
+	protected Response forward(HttpExchange exchange, String method, String relative) throws Exception {
+		byte[] requestBody;
+		try (InputStream in = exchange.getRequestBody()) {
+			requestBody = IOUtils.toByteArray(in);
+		}
+		RequestBuilder request = RequestBuilder.create(method).setUri(upstreamBase + relative);
+		for (String header : FORWARDED_HEADERS) {
+			String value = exchange.getRequestHeaders().getFirst(header);
+			if (value != null) {
+				request.setHeader(header, value);
+			}
+		}
+		if (requestBody.length > 0) {
+			request.setEntity(new ByteArrayEntity(requestBody));
+		}
+		HttpResponse upstream = LoaderMetrics.timeCheckedCall("osf", name + ".forward", () -> upstreamClient.execute(request.build()));
+		byte[] body = upstream.getEntity() == null ? new byte[0] : EntityUtils.toByteArray(upstream.getEntity());
+		String contentType = upstream.getFirstHeader("Content-Type") == null ? "" : upstream.getFirstHeader("Content-Type").getValue();
+		return new Response(upstream.getStatusLine().getStatusCode(), contentType, body);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getRawPath();
+		String relative = path.startsWith(OsfClientConfig.BASE_PATH) 
+				? path.substring(OsfClientConfig.BASE_PATH.length()) : path.replaceFirst("^/", "");
+		String query = exchange.getRequestURI().getRawQuery();
+		Response response;
+		try {
+			response = respond(exchange, method, relative, query);
+		} catch (Exception e) {
+			LOG.error("OSF " + name + " proxy could not handle request: " + method + " " + relative 
+					+ (query == null ? "" : "?" + query), e);
+			response = new Response(502, "text/plain", String.valueOf(e.getMessage()).getBytes(UTF_8));
+		}
+
+		byte[] body = rewrite(response);
+		try {
+			if (response.contentType.length() > 0) {
+				exchange.getResponseHeaders().set("Content-Type", response.contentType);
+			}
+			exchange.sendResponseHeaders(response.status, body.length == 0 ? -1 : body.length);
+			if (body.length > 0) {
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Replaces links to the OSF API with links to the proxy in text responses
+	 * @param response
+	 * @return the response body
+	 */
+	private byte[] rewrite(Response response) {
+		if (!response.contentType.contains("json") && !response.contentType.startsWith("text/")) {
+			return response.body;
+		}
+		String body = new String(response.body, UTF_8);
+		return body.contains(upstreamBase) ? body.replace(upstreamBase, proxyBase).getBytes(UTF_8) : response.body;
+	}
+
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.utils;
+
+import static info.rmapproject.loader.util.ConfigUtil.string;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Reads the OSF client configuration (osf.client.conf) and points the OSF client at a local proxy. Used by the 
+ * proxies that sit between the OSF client and the OSF API. Proxies started one after another are chained, each
+ * forwarding to the API base of the configuration that was current when it started.
+ */
+public class OsfClientConfig {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(OsfClientConfig.class);
+
+	/** System property holding the location of the OSF client configuration */
+	public static final String PROPERTY = "osf.client.conf";
+
+	/** API base path used by proxies */
+	public static final String BASE_PATH = "/v2/";
+
+	/** API base used by the OSF client when the configuration does not give a host */
+	public static final String DEFAULT_API_BASE = "https://api.osf.io/v2/";
+
+	private OsfClientConfig() {
+	}
+
+	/**
+	 * @return location of the current OSF client configuration, or null if it is not set
+	 */
+	public static String getLocation() {
+		return string(PROPERTY, null);
+	}
+
+	/**
+	 * Reads OSF client configuration
+	 * @param mapper
+	 * @param location classpath:, URL or file location, as accepted by the OSF client
+	 * @return the configuration, empty if location is null
+	 * @throws IOException
+	 */
+	public static ObjectNode read(ObjectMapper mapper, String location) throws IOException {
+		if (location == null) {
+			LOG.warn(PROPERTY + " is not set, the OSF API at " + DEFAULT_API_BASE + " will be used");
+			return mapper.createObjectNode();
+		}
+		InputStream in;
+		if (location.startsWith("classpath:")) {
+			in = OsfClientConfig.class.getResourceAsStream("/" + location.substring("classpath:".length()).replaceFirst("^/", ""));
+			if (in == null) {
+				throw new IOException("OSF client configuration not found: " + location);
+			}
+		} else if (location.contains(":") && !new File(location).exists()) {
+			in = new URL(location).openStream();
+		} else {
+			in = Files.newInputStream(new File(location).toPath());
+		}
+		try {
+			return (ObjectNode) mapper.readTree(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Retrieves the OSF API section of the client configuration, creating it if it is missing
+	 * @param clientConfig
+	 * @return the API configuration
+	 */
+	public static ObjectNode getApiConfig(ObjectNode clientConfig) {
+		return (ObjectNode) clientConfig.with("osf").with("v2");
+	}
+
+	/**
+	 * Builds the API base URL from the OSF API configuration
+	 * @param apiConfig
+	 * @return the API base URL, ending in /
+	 */
+	public static String getApiBase(ObjectNode apiConfig) {
+		JsonNode host = apiConfig.get("host");
+		if (host == null) {
+			return DEFAULT_API_BASE;
+		}
+		String scheme = apiConfig.path("scheme").asText("https");
+		String port = apiConfig.path("port").asText("");
+		boolean defaultPort = port.isEmpty() || (scheme.equals("https") && port.equals("443")) || (scheme.equals("http") && port.equals("80"));
+		String basePath = apiConfig.path("basePath").asText(BASE_PATH);
+		return scheme + "://" + host.asText() + (defaultPort ? "" : ":" + port) + basePath;
+	}
+
+	/**
+	 * Writes a copy of the client configuration that points at a proxy on localhost, and sets osf.client.conf to it
+	 * @param mapper
+	 * @param clientConfig configuration to copy, this is modified
+	 * @param port proxy port
+	 * @param removeAuth true if the authorization header should not be sent to the proxy
+	 * @return the proxy API base URL
+	 * @throws IOException
+	 */
+	public static String pointAtProxy(ObjectMapper mapper, ObjectNode clientConfig, int port, boolean removeAuth) throws IOException {
+		ObjectNode apiConfig = getApiConfig(clientConfig);
+		apiConfig.put("scheme", "http");
+		apiConfig.put("host", "localhost");
+		apiConfig.put("port", String.valueOf(port));
+		apiConfig.put("basePath", BASE_PATH);
+		if (removeAuth) {
+			apiConfig.put("authHeader", "");
+		}
+		File proxyConfig = File.createTempFile("osf-proxy-config", ".json");
+		proxyConfig.deleteOnExit();
+		Files.write(proxyConfig.toPath(), mapper.writeValueAsBytes(clientConfig));
+		System.setProperty(PROPERTY, proxyConfig.toURI().toString());
+		return "http://localhost:" + port + BASE_PATH;
+	}
+
+	/**
+	 * Sets osf.client.conf back to a location read before a proxy was started
+	 * @param location the location, or null if it was not set
+	 */
+	public static void restore(String location) {
+		if (location != null) {
+			System.setProperty(PROPERTY, location);
+		} else {
+			System.clearProperty(PROPERTY);
+		}
+	}
+
+}
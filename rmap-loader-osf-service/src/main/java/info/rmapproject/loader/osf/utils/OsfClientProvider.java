@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.utils;
+
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.rmapproject.cos.osf.client.service.OsfClientService;
+
+/**
+ * Provides the OSF API client used for record and parent lookups. A single client, and so a single HTTP connection
+ * pool, is shared by the identify and transform services of all record types and workers in the loader process.
+ * The client reads osf.client.conf when it is created. If the setting has changed since then, for example because
+ * a proxy was started or stopped, a new client is created for the new configuration.
+ */
+public class OsfClientProvider {
+
+	/** The log. */
+	private static final Logger LOG = LoggerFactory.getLogger(OsfClientProvider.class);
+
+	private static OsfClientService client = null;
+
+	/** osf.client.conf value the client was created with */
+	private static String clientLocation = null;
+
+	/**
+	 * Retrieves the shared OSF client, creating it on first use
+	 * @return the client
+	 */
+	public static synchronized OsfClientService getClient() {
+		String location = OsfClientConfig.getLocation();
+		if (client == null || !Objects.equals(location, clientLocation)) {
+			client = new OsfClientService();
+			clientLocation = location;
+			LOG.debug("Created OSF client for configuration: " + location);
+		}
+		return client;
+	}
+
+	/**
+	 * Releases the shared client. Called at the end of the loader run.
+	 */
+	public static synchronized void shutdown() {
+		client = null;
+		clientLocation = null;
+	}
+
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+
+import info.rmapproject.cos.osf.client.model.RecordType;
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.model.RecordInfo;
+import info.rmapproject.loader.osf.model.QueueName;
+import info.rmapproject.loader.osf.queue.RingBufferStageQueue;
+
+public class OsfPipelineTest {
+
+	private static final String TRANSFORM_Q = QueueName.getQueueName(QueueName.TRANSFORM, RecordType.OSF_NODE, null);
+
+	private static final String INGEST_Q = QueueName.getQueueName(QueueName.INGEST, RecordType.OSF_NODE, null);
+
+	@Rule
+	public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+	@Before
+	public void setUp() {
+		System.setProperty("osf.metrics.jmx", "false");
+	}
+
+	@After
+	public void tearDown() {
+		RingBufferStageQueue.shutdown();
+	}
+
+	@Test(timeout = 30000)
+	public void testAllStagesComplete() throws Exception {
+		TestPipeline pipeline = new TestPipeline(null, null);
+		pipeline.run();
+		assertEquals(2, pipeline.getNumIdentified().intValue());
+		assertEquals(2, pipeline.getNumTransformed().intValue());
+		assertEquals(2, pipeline.getNumIngested().intValue());
+		assertEquals(2, pipeline.ingested.size());
+	}
+
+	@Test(timeout = 30000)
+	public void testQueuedRecordsIngestedAfterIdentifyFails() throws Exception {
+		RuntimeException identifyFailure = new IllegalStateException("OSF unavailable");
+		TestPipeline pipeline = new TestPipeline(identifyFailure, null);
+		try {
+			pipeline.run();
+			fail("Expected identify failure to be thrown");
+		} catch (IllegalStateException e) {
+			assertSame(identifyFailure, e);
+		}
+		assertEquals(2, pipeline.ingested.size());
+		assertEquals("osf:abc12", pipeline.ingested.get(0));
+		assertEquals(2, pipeline.getNumIngested().intValue());
+	}
+
+	@Test(timeout = 30000)
+	public void testTransformedRecordsIngestedAfterTransformFails() throws Exception {
+		RuntimeException transformFailure = new IllegalStateException("Transform failed");
+		TestPipeline pipeline = new TestPipeline(null, transformFailure);
+		try {
+			pipeline.run();
+			fail("Expected transform failure to be thrown");
+		} catch (IllegalStateException e) {
+			assertSame(transformFailure, e);
+		}
+		assertEquals(2, pipeline.getNumIdentified().intValue());
+		assertEquals(1, pipeline.ingested.size());
+		assertEquals("osf:abc12", pipeline.ingested.get(0));
+	}
+
+	/**
+	 * Pipeline with stages that pass records through in-process queues. Identify queues two records, and 
+	 * transform stops after the first record, each then throws its failure if one is given.
+	 */
+	private static class TestPipeline extends OsfPipeline {
+
+		private final RuntimeException identifyFailure;
+
+		private final RuntimeException transformFailure;
+
+		private final List<String> ingested = new CopyOnWriteArrayList<String>();
+
+		private TestPipeline(RuntimeException identifyFailure, RuntimeException transformFailure) {
+			super(RecordType.OSF_NODE, "");
+			this.identifyFailure = identifyFailure;
+			this.transformFailure = transformFailure;
+		}
+
+		@Override
+		protected Integer identify() throws Exception {
+			RingBufferStageQueue queue = new RingBufferStageQueue();
+			queue.add(record("osf:abc12"), TRANSFORM_Q);
+			queue.add(record("osf:def34"), TRANSFORM_Q);
+			if (identifyFailure != null) {
+				//leave time for transform to start on the queued records
+				Thread.sleep(200);
+				throw identifyFailure;
+			}
+			return 2;
+		}
+
+		@Override
+		protected Integer transform(String fromQueue, String failQueue, BooleanSupplier upstreamComplete) throws Exception {
+			RingBufferStageQueue queue = new RingBufferStageQueue();
+			int[] count = {0};
+			queue.processMessages(fromQueue, record -> {
+				if (transformFailure != null && count[0] == 1) {
+					throw transformFailure;
+				}
+				queue.add(record, INGEST_Q);
+				count[0]++;
+			}, upstreamComplete);
+			return count[0];
+		}
+
+		@Override
+		protected Integer ingest(String fromQueue, String failQueue, BooleanSupplier upstreamComplete) throws Exception {
+			RingBufferStageQueue queue = new RingBufferStageQueue();
+			queue.processMessages(fromQueue, record -> ingested.add(record.getRecordInfo().getId().toString()), upstreamComplete);
+			return ingested.size();
+		}
+
+	}
+
+	private static HarvestRecord record(String id) {
+		RecordInfo recordInfo = new RecordInfo();
+		recordInfo.setId(URI.create(id));
+		HarvestRecord record = new HarvestRecord();
+		record.setRecordInfo(recordInfo);
+		record.setBody(id.getBytes());
+		return record;
+	}
+
+}
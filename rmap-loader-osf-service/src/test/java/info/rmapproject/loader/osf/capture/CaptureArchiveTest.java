@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.capture;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.rmapproject.loader.osf.capture.CaptureArchive.Exchange;
+
+public class CaptureArchiveTest {
+
+	private static final String CONTENT_TYPE = "application/vnd.api+json";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testEntriesReturnedInCaptureOrder() throws Exception {
+		File file = new File(folder.getRoot(), "capture.osfc");
+		try (CaptureArchive archive = CaptureArchive.append(file)) {
+			archive.add("GET", "nodes/abc12/", exchange(200, "first"));
+			archive.add("GET", "nodes/abc12/", exchange(200, "second"));
+			archive.add("GET", "users/xyz34/", exchange(404, "missing"));
+		}
+		try (CaptureArchive archive = CaptureArchive.read(file)) {
+			assertEquals(3, archive.size());
+			assertEquals("first", body(archive.next("GET", "nodes/abc12/")));
+			assertEquals("second", body(archive.next("GET", "nodes/abc12/")));
+			//the last entry is repeated once all have been returned
+			assertEquals("second", body(archive.next("GET", "nodes/abc12/")));
+			Exchange missing = archive.next("GET", "users/xyz34/");
+			assertEquals(404, missing.status);
+			assertEquals(CONTENT_TYPE, missing.contentType);
+			assertNull(archive.next("GET", "nodes/other/"));
+		}
+	}
+
+	@Test
+	public void testTruncatedBodyIgnoredAndOverwritten() throws Exception {
+		File file = writeArchive(3);
+		long complete = file.length();
+		truncate(file, complete - 5);
+
+		try (CaptureArchive archive = CaptureArchive.read(file)) {
+			assertEquals(2, archive.size());
+			assertEquals("body 1", body(archive.next("GET", "nodes/n1/")));
+			assertNull(archive.next("GET", "nodes/n2/"));
+		}
+
+		//appending drops the partly written entry so the new one can be read
+		try (CaptureArchive archive = CaptureArchive.append(file)) {
+			assertEquals(2, archive.size());
+			archive.add("GET", "nodes/n3/", exchange(200, "body 3"));
+		}
+		try (CaptureArchive archive = CaptureArchive.read(file)) {
+			assertEquals(3, archive.size());
+			assertNull(archive.next("GET", "nodes/n2/"));
+			assertEquals("body 3", body(archive.next("GET", "nodes/n3/")));
+		}
+	}
+
+	@Test
+	public void testTruncatedHeaderIgnored() throws Exception {
+		File twoEntries = writeArchive(2);
+		long twoLength = twoEntries.length();
+		File file = writeArchive(3);
+		//cut the third entry part way through its key
+		truncate(file, twoLength + 12);
+
+		try (CaptureArchive archive = CaptureArchive.read(file)) {
+			assertEquals(2, archive.size());
+			assertEquals("body 0", body(archive.next("GET", "nodes/n0/")));
+			assertEquals("body 1", body(archive.next("GET", "nodes/n1/")));
+		}
+		try (CaptureArchive archive = CaptureArchive.append(file)) {
+			assertEquals(2, archive.size());
+		}
+		assertEquals(twoLength, file.length());
+	}
+
+	@Test(expected = IOException.class, timeout = 10000)
+	public void testCorruptBodyLengthFails() throws Exception {
+		File file = writeArchive(1);
+		//record a body longer than the one compressed
+		writeInt(file, bodyLengthPosition("nodes/n0/"), 1000);
+		try (CaptureArchive archive = CaptureArchive.read(file)) {
+			archive.next("GET", "nodes/n0/");
+		}
+	}
+
+	@Test(expected = IOException.class, timeout = 10000)
+	public void testCutCompressedBodyFails() throws Exception {
+		File file = writeArchive(1, "a body long enough that deflate writes more than a few bytes for it, "
+				+ "with some variety: 0123456789 abcdefghijklmnopqrstuvwxyz");
+		long compressedLengthPosition = bodyLengthPosition("nodes/n0/") + 4;
+		int compressedLength = readInt(file, compressedLengthPosition);
+		//an entry that claims fewer compressed bytes than were written, so the inflater runs out of input
+		int cut = compressedLength / 2;
+		writeInt(file, compressedLengthPosition, cut);
+		truncate(file, file.length() - (compressedLength - cut));
+		try (CaptureArchive archive = CaptureArchive.read(file)) {
+			assertEquals(1, archive.size());
+			archive.next("GET", "nodes/n0/");
+		}
+	}
+
+	private File writeArchive(int entries) throws IOException {
+		return writeArchive(entries, null);
+	}
+
+	private File writeArchive(int entries, String body) throws IOException {
+		File file = folder.newFile();
+		file.delete();
+		try (CaptureArchive archive = CaptureArchive.append(file)) {
+			for (int i = 0; i < entries; i++) {
+				archive.add("GET", "nodes/n" + i + "/", exchange(200, body == null ? "body " + i : body));
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Position of the body length in the first entry of an archive: the file header, then the entry's capture time, 
+	 * method, key, status and content type
+	 */
+	private static long bodyLengthPosition(String key) {
+		return 8 + 8 + (2 + "GET".length()) + (2 + key.length()) + 2 + (2 + CONTENT_TYPE.length());
+	}
+
+	private static int readInt(File file, long position) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.seek(position);
+			return raf.readInt();
+		}
+	}
+
+	private static void writeInt(File file, long position, int value) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(position);
+			raf.writeInt(value);
+		}
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length);
+		}
+	}
+
+	private static Exchange exchange(int status, String body) {
+		return new Exchange(status, CONTENT_TYPE, body.getBytes(UTF_8));
+	}
+
+	private static String body(Exchange exchange) {
+		return new String(exchange.body, UTF_8);
+	}
+
+}
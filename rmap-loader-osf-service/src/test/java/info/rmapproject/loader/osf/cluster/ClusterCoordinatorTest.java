@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+import org.junit.rules.TemporaryFolder;
+
+import info.rmapproject.loader.osf.model.QueueName;
+import info.rmapproject.loader.osf.utils.DataSourceProvider;
+
+public class ClusterCoordinatorTest {
+
+	private static final String OTHER_NODE = "other-node";
+
+	private static final long LEASE_MILLIS = 60000;
+
+	@Rule
+	public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/** Lease table as seen by another node sharing the database */
+	private LeaseStore otherNode;
+
+	@Before
+	public void setUp() throws Exception {
+		System.setProperty("jdbc.driver", "org.sqlite.JDBC");
+		System.setProperty("jdbc.url", "jdbc:sqlite:" + tempFolder.newFile("cluster.db").getAbsolutePath());
+		System.setProperty("osf.cluster.enabled", "true");
+		System.setProperty("osf.cluster.shards", "4");
+		System.setProperty("osf.cluster.leaseSeconds", String.valueOf(LEASE_MILLIS / 1000));
+		System.setProperty("osf.cluster.nodeId", "this-node");
+		otherNode = new LeaseStore(DataSourceProvider.getDataSource());
+		otherNode.init();
+	}
+
+	@After
+	public void tearDown() {
+		ClusterCoordinator.stop();
+		DataSourceProvider.shutdown();
+	}
+
+	@Test
+	public void testQueuesAreNotShardedWhenClusterIsOff() {
+		System.setProperty("osf.cluster.enabled", "false");
+		ClusterCoordinator.start();
+		assertEquals("transform.nodes", ClusterCoordinator.route("transform.nodes", "abc12"));
+		assertTrue(ClusterCoordinator.isOwned(QueueName.getShardQueueName("transform.nodes", 1)));
+		assertFalse(ClusterCoordinator.isTaskRunning("identify.nodes"));
+	}
+
+	@Test
+	public void testOnlyNodeOwnsEveryShard() {
+		ClusterCoordinator.start();
+		assertEquals(Arrays.asList(0, 1, 2, 3), ClusterCoordinator.getOwnedShards());
+
+		String queue = ClusterCoordinator.route("transform.nodes", "abc12");
+		assertEquals(QueueName.getShardQueueName("transform.nodes", ClusterCoordinator.shardOf("abc12")), queue);
+		assertEquals(ClusterCoordinator.shardOf("abc12"), QueueName.getShard(queue));
+		assertTrue(ClusterCoordinator.isOwned(queue));
+		//already routed queues are left as they are
+		assertEquals(queue, ClusterCoordinator.route(queue, "xyz34"));
+	}
+
+	@Test
+	public void testShardOfIsStableAndInRange() {
+		ClusterCoordinator.start();
+		for (String id : new String[] {"abc12", "xyz34", "", "a", "zzzzzzzzzzzzzzzzzzzz"}) {
+			int shard = ClusterCoordinator.shardOf(id);
+			assertTrue(shard >= 0 && shard < 4);
+			assertEquals(shard, ClusterCoordinator.shardOf(new String(id)));
+		}
+	}
+
+	@Test
+	public void testShardsHeldByAnotherLiveNodeAreNotTaken() throws Exception {
+		long now = System.currentTimeMillis();
+		otherNode.heartbeat(OTHER_NODE, now);
+		assertTrue(otherNode.acquire("shard.1", OTHER_NODE, now, now + LEASE_MILLIS));
+		assertTrue(otherNode.acquire("shard.2", OTHER_NODE, now, now + LEASE_MILLIS));
+
+		ClusterCoordinator.start();
+		assertEquals(Arrays.asList(0, 3), ClusterCoordinator.getOwnedShards());
+		assertFalse(ClusterCoordinator.isOwned(QueueName.getShardQueueName("transform.nodes", 1)));
+	}
+
+	@Test
+	public void testShardsOfDeadNodeAreTakenOver() throws Exception {
+		long expired = System.currentTimeMillis() - 2 * LEASE_MILLIS;
+		otherNode.heartbeat(OTHER_NODE, expired);
+		assertTrue(otherNode.acquire("shard.0", OTHER_NODE, expired, expired + 1000));
+		assertTrue(otherNode.acquire("shard.1", OTHER_NODE, expired, expired + 1000));
+
+		ClusterCoordinator.start();
+		assertEquals(Arrays.asList(0, 1, 2, 3), ClusterCoordinator.getOwnedShards());
+		assertFalse(otherNode.renew("shard.0", OTHER_NODE, System.currentTimeMillis() + LEASE_MILLIS));
+	}
+
+	@Test
+	public void testShardsAreHandedBackWhenAnotherNodeJoins() throws Exception {
+		ClusterCoordinator.start();
+		otherNode.heartbeat(OTHER_NODE, System.currentTimeMillis());
+
+		//shards over this node's share stop being owned straight away, then are released on the next renewal
+		ClusterCoordinator.renew();
+		assertEquals(Arrays.asList(0, 1), ClusterCoordinator.getOwnedShards());
+		ClusterCoordinator.renew();
+
+		long now = System.currentTimeMillis();
+		assertTrue(otherNode.acquire("shard.2", OTHER_NODE, now, now + LEASE_MILLIS));
+		assertTrue(otherNode.acquire("shard.3", OTHER_NODE, now, now + LEASE_MILLIS));
+		assertFalse(otherNode.acquire("shard.0", OTHER_NODE, now, now + LEASE_MILLIS));
+		ClusterCoordinator.renew();
+		assertEquals(Arrays.asList(0, 1), ClusterCoordinator.getOwnedShards());
+	}
+
+	@Test
+	public void testShardIsNotReleasedWhileItsConsumersRun() throws Exception {
+		ClusterCoordinator.start();
+		ClusterCoordinator.consumerStarted(3);
+		try {
+			otherNode.heartbeat(OTHER_NODE, System.currentTimeMillis());
+			ClusterCoordinator.renew();
+			ClusterCoordinator.renew();
+			assertFalse(ClusterCoordinator.isOwned(3));
+			long now = System.currentTimeMillis();
+			assertTrue(otherNode.acquire("shard.2", OTHER_NODE, now, now + LEASE_MILLIS));
+			assertFalse(otherNode.acquire("shard.3", OTHER_NODE, now, now + LEASE_MILLIS));
+		} finally {
+			ClusterCoordinator.consumerStopped(3);
+		}
+		ClusterCoordinator.renew();
+		long now = System.currentTimeMillis();
+		assertTrue(otherNode.acquire("shard.3", OTHER_NODE, now, now + LEASE_MILLIS));
+	}
+
+	@Test
+	public void testStopReleasesLeases() throws Exception {
+		ClusterCoordinator.start();
+		ClusterCoordinator.stop();
+		assertEquals(Collections.emptyList(), ClusterCoordinator.getOwnedShards());
+		long now = System.currentTimeMillis();
+		for (int shard = 0; shard < 4; shard++) {
+			assertFalse(otherNode.isHeld("shard." + shard, now));
+		}
+		assertEquals(0, otherNode.countLiveNodes(0));
+	}
+
+	@Test
+	public void testTaskLeaseIsSeenByOtherNodes() throws Exception {
+		ClusterCoordinator.start();
+		assertFalse(ClusterCoordinator.isTaskRunning("identify.nodes"));
+		long now = System.currentTimeMillis();
+		assertTrue(otherNode.acquire("identify.users", OTHER_NODE, now, now + LEASE_MILLIS));
+		assertTrue(ClusterCoordinator.isTaskRunning("identify.users"));
+	}
+
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+import org.junit.rules.TemporaryFolder;
+
+import info.rmapproject.loader.osf.cluster.HarvestRunCoordinator.HighWaterMark;
+import info.rmapproject.loader.osf.utils.DataSourceProvider;
+
+public class HarvestRunCoordinatorTest {
+
+	private static final String HARVEST = "osf.nodes";
+
+	@Rule
+	public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private final List<HarvestRunCoordinator> coordinators = new ArrayList<HarvestRunCoordinator>();
+
+	@Before
+	public void setUp() throws Exception {
+		System.setProperty("jdbc.driver", "org.sqlite.JDBC");
+		System.setProperty("jdbc.url", "jdbc:sqlite:" + tempFolder.newFile("runs.db").getAbsolutePath());
+	}
+
+	@After
+	public void tearDown() {
+		for (HarvestRunCoordinator coordinator : coordinators) {
+			coordinator.close();
+		}
+		DataSourceProvider.shutdown();
+	}
+
+	@Test
+	public void testOnlyOneRunHoldsTheLock() {
+		HarvestRunCoordinator host1 = coordinator("host1");
+		HarvestRunCoordinator host2 = coordinator("host2");
+
+		assertTrue(host1.tryLock(HARVEST));
+		//held by this process
+		assertFalse(host1.tryLock(HARVEST));
+		//held by another host
+		assertFalse(host2.tryLock(HARVEST));
+		//other harvests are not affected
+		assertTrue(host2.tryLock("osf.users"));
+
+		host1.unlock(HARVEST);
+		assertTrue(host2.tryLock(HARVEST));
+		assertFalse(host1.tryLock(HARVEST));
+	}
+
+	@Test
+	public void testCloseReleasesLocks() {
+		HarvestRunCoordinator host1 = coordinator("host1");
+		HarvestRunCoordinator host2 = coordinator("host2");
+		assertTrue(host1.tryLock(HARVEST));
+		host1.close();
+		assertTrue(host2.tryLock(HARVEST));
+	}
+
+	@Test
+	public void testHighWaterMarkIsAdvancedByOneOfTwoOverlappingRuns() {
+		HarvestRunCoordinator host1 = coordinator("host1");
+		HarvestRunCoordinator host2 = coordinator("host2");
+		DateTime first = new DateTime(2024, 1, 1, 12, 0, DateTimeZone.UTC);
+		DateTime second = first.plusHours(1);
+
+		HighWaterMark read1 = host1.getHighWaterMark(HARVEST);
+		HighWaterMark read2 = host2.getHighWaterMark(HARVEST);
+		assertNull(read1.getDate());
+
+		assertTrue(host1.advance(HARVEST, read1, first));
+		assertFalse(host2.advance(HARVEST, read2, second));
+		assertEquals(first.getMillis(), host2.getHighWaterMark(HARVEST).getDate().getMillis());
+
+		HighWaterMark read3 = host2.getHighWaterMark(HARVEST);
+		assertTrue(host2.advance(HARVEST, read3, second));
+		assertFalse(host1.advance(HARVEST, read3, second.plusHours(1)));
+		assertEquals(second.getMillis(), host1.getHighWaterMark(HARVEST).getDate().getMillis());
+	}
+
+	@Test
+	public void testHighWaterMarkIsNotMovedBack() {
+		HarvestRunCoordinator host1 = coordinator("host1");
+		DateTime mark = new DateTime(2024, 1, 1, 12, 0, DateTimeZone.UTC);
+		assertTrue(host1.advance(HARVEST, host1.getHighWaterMark(HARVEST), mark));
+		assertFalse(host1.advance(HARVEST, host1.getHighWaterMark(HARVEST), mark.minusMinutes(1)));
+		assertFalse(host1.advance(HARVEST, host1.getHighWaterMark(HARVEST), mark));
+	}
+
+	@Test
+	public void testDatabaseErrorOnFirstMarkIsThrown() throws Exception {
+		HarvestRunCoordinator host1 = coordinator("host1");
+		HighWaterMark read = host1.getHighWaterMark(HARVEST);
+		try (Connection conn = DataSourceProvider.getDataSource().getConnection(); Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("DROP TABLE osf_loader_high_water");
+		}
+		try {
+			host1.advance(HARVEST, read, new DateTime(2024, 1, 1, 12, 0, DateTimeZone.UTC));
+			fail("Expected failure to write the high-water mark to be thrown");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains(HARVEST));
+		}
+	}
+
+	private HarvestRunCoordinator coordinator(String nodeId) {
+		System.setProperty("osf.cluster.nodeId", nodeId);
+		HarvestRunCoordinator coordinator = new HarvestRunCoordinator(DataSourceProvider.getDataSource());
+		coordinators.add(coordinator);
+		return coordinator;
+	}
+
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+import org.junit.rules.TemporaryFolder;
+
+import info.rmapproject.loader.osf.utils.DataSourceProvider;
+
+public class LeaseStoreTest {
+
+	private static final String NODE_A = "node-a";
+
+	private static final String NODE_B = "node-b";
+
+	@Rule
+	public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private DataSource datasource;
+
+	private LeaseStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		System.setProperty("jdbc.driver", "org.sqlite.JDBC");
+		System.setProperty("jdbc.url", "jdbc:sqlite:" + tempFolder.newFile("lease.db").getAbsolutePath());
+		datasource = DataSourceProvider.getDataSource();
+		store = new LeaseStore(datasource);
+		store.init();
+	}
+
+	@After
+	public void tearDown() {
+		DataSourceProvider.shutdown();
+	}
+
+	@Test
+	public void testLeaseIsHeldByOneNodeUntilItExpires() throws Exception {
+		assertTrue(store.acquire("shard.0", NODE_A, 1000, 2000));
+		assertFalse(store.acquire("shard.0", NODE_B, 1500, 2500));
+		assertTrue(store.isHeld("shard.0", 1500));
+		//the holder can take it again, which extends it
+		assertTrue(store.acquire("shard.0", NODE_A, 1500, 3000));
+		assertFalse(store.acquire("shard.0", NODE_B, 2500, 3500));
+
+		assertFalse(store.isHeld("shard.0", 3001));
+		assertTrue(store.acquire("shard.0", NODE_B, 3001, 4000));
+		assertFalse(store.renew("shard.0", NODE_A, 5000));
+		assertTrue(store.renew("shard.0", NODE_B, 5000));
+	}
+
+	@Test
+	public void testReleasedLeaseCanBeTakenStraightAway() throws Exception {
+		assertTrue(store.acquire("run.osf.nodes", NODE_A, 1000, 10000));
+		//only the holder can release it
+		store.release("run.osf.nodes", NODE_B);
+		assertTrue(store.isHeld("run.osf.nodes", 2000));
+		store.release("run.osf.nodes", NODE_A);
+		assertFalse(store.isHeld("run.osf.nodes", 2000));
+		assertTrue(store.acquire("run.osf.nodes", NODE_B, 2000, 10000));
+	}
+
+	@Test
+	public void testLiveNodesAreCountedByHeartbeat() throws Exception {
+		store.heartbeat(NODE_A, 1000);
+		store.heartbeat(NODE_B, 1000);
+		store.heartbeat(NODE_A, 5000);
+		assertEquals(2, store.countLiveNodes(1000));
+		assertEquals(1, store.countLiveNodes(2000));
+		store.deregister(NODE_A);
+		assertEquals(0, store.countLiveNodes(2000));
+	}
+
+	@Test
+	public void testHighWaterMarkOnlyMovesFromTheValueRead() throws Exception {
+		assertNull(store.getHighWaterMark("osf.nodes"));
+		assertTrue(store.compareAndSetHighWaterMark("osf.nodes", null, 1000L));
+		//another run that also read no mark loses
+		assertFalse(store.compareAndSetHighWaterMark("osf.nodes", null, 2000L));
+		assertEquals(Long.valueOf(1000), store.getHighWaterMark("osf.nodes"));
+
+		assertTrue(store.compareAndSetHighWaterMark("osf.nodes", 1000L, 3000L));
+		assertFalse(store.compareAndSetHighWaterMark("osf.nodes", 1000L, 4000L));
+		assertEquals(Long.valueOf(3000), store.getHighWaterMark("osf.nodes"));
+	}
+
+	@Test
+	public void testDatabaseErrorIsNotTakenForContention() throws Exception {
+		try (Connection conn = datasource.getConnection(); Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("DROP TABLE osf_loader_high_water");
+			stmt.executeUpdate("DROP TABLE osf_loader_lease");
+		}
+		try {
+			store.compareAndSetHighWaterMark("osf.nodes", null, 1000L);
+			fail("Expected high-water mark insert failure to be thrown");
+		} catch (SQLException e) {
+			assertFalse(LeaseStore.isConstraintViolation(e));
+		}
+		try {
+			store.acquire("shard.0", NODE_A, 1000, 2000);
+			fail("Expected lease failure to be thrown");
+		} catch (SQLException e) {
+			assertFalse(LeaseStore.isConstraintViolation(e));
+		}
+	}
+
+	@Test
+	public void testConstraintViolationIsSqlStateClass23() {
+		assertTrue(LeaseStore.isConstraintViolation(new SQLException("duplicate", "23000", 1062)));
+		assertTrue(LeaseStore.isConstraintViolation(new SQLException("duplicate", "23505")));
+		assertFalse(LeaseStore.isConstraintViolation(new SQLException("deadlock", "40001", 1213)));
+		assertFalse(LeaseStore.isConstraintViolation(new SQLException("connection", "08S01")));
+		//SQLite leaves SQLState unset and reports its result code, with or without the extended code
+		assertTrue(LeaseStore.isConstraintViolation(new SQLException("constraint", null, 19)));
+		assertTrue(LeaseStore.isConstraintViolation(new SQLException("primary key", null, 1555)));
+		assertFalse(LeaseStore.isConstraintViolation(new SQLException("busy", null, 5)));
+	}
+
+}
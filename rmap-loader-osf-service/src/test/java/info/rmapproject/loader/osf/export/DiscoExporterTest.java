@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.export;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+import org.junit.rules.TemporaryFolder;
+import org.openrdf.model.Model;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.LinkedHashModel;
+import org.openrdf.model.impl.SimpleValueFactory;
+
+import info.rmapproject.loader.model.RecordInfo;
+
+public class DiscoExporterTest {
+
+	@Rule
+	public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File dir;
+
+	@Before
+	public void setUp() {
+		dir = new File(folder.getRoot(), "export");
+		System.setProperty("osf.export.dir", dir.getAbsolutePath());
+		System.setProperty("osf.export.recordsPerFile", "2");
+		System.setProperty("osf.export.maxFileSeconds", "0");
+	}
+
+	@After
+	public void tearDown() {
+		DiscoExporter.shutdown();
+	}
+
+	@Test
+	public void testManifestOnlyListsCompletedFiles() throws Exception {
+		DiscoExporter exporter = DiscoExporter.getInstance();
+		exporter.export(recordInfo("osf:abc12"), disco("abc12"));
+		assertEquals(Collections.emptyList(), manifest());
+		exporter.export(recordInfo("osf:def34"), disco("def34"));
+		exporter.export(recordInfo("osf:ghi56"), disco("ghi56"));
+
+		List<String[]> entries = manifest();
+		assertEquals(2, entries.size());
+		assertEquals("osf:abc12", entries.get(0)[0]);
+		assertEquals("osf:def34", entries.get(1)[0]);
+		File first = new File(dir, entries.get(0)[2]);
+		assertTrue(first.exists());
+		assertEquals(2, quads(first).size());
+		assertEquals(1, partFiles().size());
+
+		DiscoExporter.shutdown();
+		entries = manifest();
+		assertEquals(3, entries.size());
+		assertEquals("osf:ghi56", entries.get(2)[0]);
+		assertEquals("1970-01-01T00:00:01Z", entries.get(2)[1]);
+		assertEquals("1", entries.get(2)[4]);
+		List<String> last = quads(new File(dir, entries.get(2)[2]));
+		assertEquals(1, last.size());
+		assertTrue(last.get(0).endsWith("<osf:ghi56> ."));
+		assertEquals(0, partFiles().size());
+	}
+
+	@Test
+	public void testOpenFileCompletedOnceOld() throws Exception {
+		System.setProperty("osf.export.recordsPerFile", "1000");
+		System.setProperty("osf.export.maxFileSeconds", "1");
+		DiscoExporter exporter = DiscoExporter.getInstance();
+		exporter.export(recordInfo("osf:abc12"), disco("abc12"));
+
+		//completed by the exporter with no further DiSCOs exported
+		long deadline = System.currentTimeMillis() + 10000;
+		while (manifest().isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		List<String[]> entries = manifest();
+		assertEquals(1, entries.size());
+		assertTrue(new File(dir, entries.get(0)[2]).exists());
+		assertEquals(0, partFiles().size());
+
+		//the next DiSCO goes to a new file
+		exporter.export(recordInfo("osf:def34"), disco("def34"));
+		assertEquals(1, partFiles().size());
+	}
+
+	@Test
+	public void testFileThatCannotBeCompletedIsNotListed() throws Exception {
+		DiscoExporter exporter = DiscoExporter.getInstance();
+		exporter.export(recordInfo("osf:abc12"), disco("abc12"));
+		//block the rename of the part file with a directory of the same name
+		String part = partFiles().get(0);
+		File blocker = new File(dir, part.substring(0, part.length() - ".part".length()));
+		assertTrue(new File(blocker, "blocker").mkdirs());
+		try {
+			exporter.export(recordInfo("osf:def34"), disco("def34"));
+			fail("Expected export file completion to fail");
+		} catch (RuntimeException e) {
+			//expected
+		}
+		assertEquals(Collections.emptyList(), manifest());
+
+		exporter.export(recordInfo("osf:ghi56"), disco("ghi56"));
+		DiscoExporter.shutdown();
+		List<String[]> entries = manifest();
+		assertEquals(1, entries.size());
+		assertEquals("osf:ghi56", entries.get(0)[0]);
+	}
+
+	private List<String[]> manifest() throws IOException {
+		File manifest = new File(dir, "manifest.tsv");
+		List<String[]> entries = new ArrayList<String[]>();
+		if (manifest.exists()) {
+			for (String line : Files.readAllLines(manifest.toPath(), UTF_8)) {
+				entries.add(line.split("\t"));
+			}
+		}
+		return entries;
+	}
+
+	private List<String> partFiles() {
+		List<String> parts = new ArrayList<String>();
+		for (String name : dir.list()) {
+			if (name.endsWith(".part")) {
+				parts.add(name);
+			}
+		}
+		return parts;
+	}
+
+	private static List<String> quads(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	private static RecordInfo recordInfo(String id) {
+		RecordInfo info = new RecordInfo();
+		info.setId(URI.create(id));
+		info.setDate(new Date(1000));
+		return info;
+	}
+
+	private static Model disco(String id) {
+		ValueFactory vf = SimpleValueFactory.getInstance();
+		Model model = new LinkedHashModel();
+		model.add(vf.createIRI("rmap:disco-" + id), vf.createIRI("http://purl.org/dc/terms/description"), vf.createLiteral(id));
+		return model;
+	}
+
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.fetch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import info.rmapproject.cos.osf.client.model.RecordType;
+import info.rmapproject.loader.osf.utils.OsfClientConfig;
+
+public class OsfFetchPlannerTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private HttpServer osf;
+
+	private String osfBase;
+
+	/** Path and query of each request received by the stub OSF API */
+	private final List<String> osfRequests = new CopyOnWriteArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		osf = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		osf.createContext("/", this::respond);
+		osf.start();
+		osfBase = "http://localhost:" + osf.getAddress().getPort() + OsfClientConfig.BASE_PATH;
+
+		ObjectNode clientConfig = MAPPER.createObjectNode();
+		ObjectNode apiConfig = OsfClientConfig.getApiConfig(clientConfig);
+		apiConfig.put("scheme", "http");
+		apiConfig.put("host", "localhost");
+		apiConfig.put("port", String.valueOf(osf.getAddress().getPort()));
+		File clientConf = folder.newFile("osf-client.json");
+		Files.write(clientConf.toPath(), MAPPER.writeValueAsBytes(clientConfig));
+		System.setProperty(OsfClientConfig.PROPERTY, clientConf.getAbsolutePath());
+		System.setProperty("osf.fetch.plan", "true");
+	}
+
+	@After
+	public void tearDown() {
+		OsfFetchPlanner.stop();
+		osf.stop(0);
+		System.clearProperty(OsfClientConfig.PROPERTY);
+		System.clearProperty("osf.fetch.plan");
+		System.clearProperty("osf.fetch.fields.nodes");
+	}
+
+	@Test
+	public void testEmbeddedRelationshipAnsweredFromRecordFetch() throws Exception {
+		OsfFetchPlanner.start();
+		String proxyBase = clientApiBase();
+		assertFalse(proxyBase.equals(osfBase));
+
+		OsfFetchPlanner.expect(RecordType.OSF_NODE, "abc12");
+		JsonNode node = get(proxyBase + "nodes/abc12/");
+		assertEquals(1, osfRequests.size());
+		assertTrue(osfRequests.get(0).startsWith("/v2/nodes/abc12/?"));
+		assertTrue(osfRequests.get(0).contains("embed=contributors"));
+		assertTrue(osfRequests.get(0).contains(",parent"));
+		assertTrue(node.path("data").path("embeds").isMissingNode());
+
+		//the OSF client follows the related link as given in the record
+		String related = node.path("data").path("relationships").path("contributors").path("links").path("related")
+				.path("href").asText();
+		assertEquals(proxyBase + "nodes/abc12/contributors/", related);
+		JsonNode contributors = get(related);
+		assertEquals("user1", contributors.path("data").path(0).path("id").asText());
+		assertEquals(1, osfRequests.size());
+
+		//an embedded resource is only used once
+		get(related);
+		assertEquals(2, osfRequests.size());
+		assertEquals("/v2/nodes/abc12/contributors/", osfRequests.get(1));
+	}
+
+	@Test
+	public void testUnannouncedRequestPassedOnUnchanged() throws Exception {
+		OsfFetchPlanner.start();
+		get(clientApiBase() + "nodes/abc12/");
+		get(clientApiBase() + "nodes/abc12/contributors/?page=2");
+		assertEquals(2, osfRequests.size());
+		assertEquals("/v2/nodes/abc12/", osfRequests.get(0));
+		assertEquals("/v2/nodes/abc12/contributors/?page=2", osfRequests.get(1));
+	}
+
+	@Test
+	public void testConfiguredNodeFieldsKeepParent() throws Exception {
+		System.setProperty("osf.fetch.fields.nodes", "title");
+		OsfFetchPlanner.start();
+		OsfFetchPlanner.expect(RecordType.OSF_NODE, "abc12");
+		get(clientApiBase() + "nodes/abc12/");
+		assertTrue(osfRequests.get(0).contains("fields%5Bnodes%5D=title,parent"));
+	}
+
+	@Test
+	public void testClientConfigurationRestoredOnStop() throws Exception {
+		String location = OsfClientConfig.getLocation();
+		OsfFetchPlanner.start();
+		assertFalse(location.equals(OsfClientConfig.getLocation()));
+		OsfFetchPlanner.stop();
+		assertEquals(location, OsfClientConfig.getLocation());
+	}
+
+	private String clientApiBase() throws Exception {
+		ObjectNode clientConfig = OsfClientConfig.read(MAPPER, OsfClientConfig.getLocation());
+		return OsfClientConfig.getApiBase(OsfClientConfig.getApiConfig(clientConfig));
+	}
+
+	private static JsonNode get(String url) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try (InputStream in = connection.getInputStream()) {
+			assertEquals(200, connection.getResponseCode());
+			return MAPPER.readTree(in);
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Stub OSF API, answers a node with its contributors embedded if asked for, and the contributors relationship
+	 * @param exchange
+	 * @throws IOException
+	 */
+	private void respond(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getRawPath();
+		String query = exchange.getRequestURI().getRawQuery();
+		osfRequests.add(path + (query == null ? "" : "?" + query));
+		IOUtils.toByteArray(exchange.getRequestBody());
+
+		String contributors = "{\"data\":[{\"id\":\"user1\",\"type\":\"contributors\"}]}";
+		String body;
+		if (path.equals("/v2/nodes/abc12/")) {
+			body = "{\"data\":{\"id\":\"abc12\",\"type\":\"nodes\",\"attributes\":{\"title\":\"Node\"},"
+					+ "\"relationships\":{\"contributors\":{\"links\":{\"related\":{\"href\":\"" + osfBase 
+					+ "nodes/abc12/contributors/\"}}}},"
+					+ (query != null && query.contains("embed=contributors") ? "\"embeds\":{\"contributors\":" + contributors + "}," : "")
+					+ "\"links\":{\"self\":\"" + osfBase + "nodes/abc12/\"}}}";
+		} else if (path.equals("/v2/nodes/abc12/contributors/")) {
+			body = contributors;
+		} else {
+			body = "{\"errors\":[{\"detail\":\"Not found.\"}]}";
+		}
+		byte[] bytes = body.getBytes(UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/vnd.api+json");
+		exchange.sendResponseHeaders(body.startsWith("{\"errors\"") ? 404 : 200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.jms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.Test;
+
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.model.HarvestInfo;
+import info.rmapproject.loader.model.RecordInfo;
+
+public class HarvestRecordEnvelopeTest {
+
+	private static final URI ID = URI.create("osf:abc12");
+
+	private static final URI SRC = URI.create("https://api.osf.io/v2/nodes/abc12/");
+
+	private static final String CONTENT_TYPE = "application/vnd.api+json";
+
+	@Test
+	public void testRecordRoundTrip() {
+		HarvestRecord decoded = HarvestRecordEnvelope.decode(HarvestRecordEnvelope.encode(record(harvestInfo(URI.create("osf:harvest1"), 
+				URI.create("https://api.osf.io/v2/nodes/")), body(100))));
+		RecordInfo recordInfo = decoded.getRecordInfo();
+		assertEquals(ID, recordInfo.getId());
+		assertEquals(SRC, recordInfo.getSrc());
+		assertEquals(new Date(1000), recordInfo.getDate());
+		assertEquals(CONTENT_TYPE, recordInfo.getContentType());
+		assertEquals(URI.create("osf:harvest1"), recordInfo.getHarvestInfo().getId());
+		assertEquals(URI.create("https://api.osf.io/v2/nodes/"), recordInfo.getHarvestInfo().getSrc());
+		assertEquals(new Date(500), recordInfo.getHarvestInfo().getDate());
+		assertArrayEquals(body(100), decoded.getBody());
+	}
+
+	@Test
+	public void testEmptyFieldsRoundTrip() {
+		RecordInfo recordInfo = new RecordInfo();
+		recordInfo.setId(ID);
+		HarvestRecord record = new HarvestRecord();
+		record.setRecordInfo(recordInfo);
+
+		HarvestRecord decoded = HarvestRecordEnvelope.decode(HarvestRecordEnvelope.encode(record));
+		assertEquals(ID, decoded.getRecordInfo().getId());
+		assertNull(decoded.getRecordInfo().getSrc());
+		assertNull(decoded.getRecordInfo().getDate());
+		assertNull(decoded.getRecordInfo().getContentType());
+		assertNull(decoded.getRecordInfo().getHarvestInfo());
+		assertNull(decoded.getBody());
+
+		record.setBody(new byte[0]);
+		assertArrayEquals(new byte[0], HarvestRecordEnvelope.decode(HarvestRecordEnvelope.encode(record)).getBody());
+	}
+
+	@Test
+	public void testHarvestInfoSameAsRecordNotWrittenTwice() {
+		byte[] same = HarvestRecordEnvelope.encode(record(harvestInfo(ID, SRC), body(100)));
+		byte[] different = HarvestRecordEnvelope.encode(record(harvestInfo(URI.create("osf:harvest1"), SRC), body(100)));
+		assertTrue(same.length + ID.toString().length() + SRC.toString().length() < different.length);
+
+		HarvestInfo harvestInfo = HarvestRecordEnvelope.decode(same).getRecordInfo().getHarvestInfo();
+		assertEquals(ID, harvestInfo.getId());
+		assertEquals(SRC, harvestInfo.getSrc());
+		assertEquals(new Date(500), harvestInfo.getDate());
+		assertEquals(URI.create("osf:harvest1"), 
+				HarvestRecordEnvelope.decode(different).getRecordInfo().getHarvestInfo().getId());
+	}
+
+	@Test
+	public void testIdentifiersParsedWhenRead() throws Exception {
+		//an ID that is not a valid URI only fails when it is read
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(0);
+			out.writeBoolean(true);
+			out.writeUTF("osf:not a uri");
+			out.writeBoolean(false);
+			out.writeLong(1000);
+			out.writeBoolean(true);
+			out.writeUTF(CONTENT_TYPE);
+		}
+		RecordInfo recordInfo = HarvestRecordEnvelope.decode(bytes.toByteArray()).getRecordInfo();
+		assertEquals(new Date(1000), recordInfo.getDate());
+		assertEquals(CONTENT_TYPE, recordInfo.getContentType());
+		assertNull(recordInfo.getSrc());
+		try {
+			recordInfo.getId();
+			fail("Invalid ID should fail when it is read");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+
+		recordInfo.setId(ID);
+		assertEquals(ID, recordInfo.getId());
+	}
+
+	@Test
+	public void testLargeBodyDeflated() {
+		byte[] body = body(20000);
+		byte[] envelope = HarvestRecordEnvelope.encode(record(null, body));
+		assertTrue(envelope.length < body.length / 2);
+		assertArrayEquals(body, HarvestRecordEnvelope.decode(envelope).getBody());
+	}
+
+	@Test
+	public void testSmallOrIncompressibleBodyNotDeflated() {
+		byte[] small = body(100);
+		byte[] envelope = HarvestRecordEnvelope.encode(record(null, small));
+		assertTrue(envelope.length > small.length);
+		assertArrayEquals(small, HarvestRecordEnvelope.decode(envelope).getBody());
+
+		byte[] random = new byte[20000];
+		new Random(42).nextBytes(random);
+		envelope = HarvestRecordEnvelope.encode(record(null, random));
+		assertTrue(envelope.length > random.length);
+		assertArrayEquals(random, HarvestRecordEnvelope.decode(envelope).getBody());
+	}
+
+	@Test
+	public void testTruncatedEnvelopeRejected() {
+		for (byte[] body : new byte[][] {null, body(100), body(20000)}) {
+			byte[] envelope = HarvestRecordEnvelope.encode(record(harvestInfo(URI.create("osf:harvest1"), SRC), body));
+			for (int length = 0; length < envelope.length; length++) {
+				try {
+					HarvestRecordEnvelope.decode(Arrays.copyOf(envelope, length));
+					fail("Envelope cut to " + length + " of " + envelope.length + " bytes should not decode");
+				} catch (RuntimeException e) {
+					//expected
+				}
+			}
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testCorruptDeflatedBodyRejected() {
+		byte[] envelope = HarvestRecordEnvelope.encode(record(null, body(20000)));
+		//the deflated body follows the fields and two length ints
+		int bodyStart = HarvestRecordEnvelope.encode(record(null, null)).length + 8;
+		Arrays.fill(envelope, bodyStart, envelope.length, (byte) 0);
+		HarvestRecordEnvelope.decode(envelope);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testDeflatedBodyShorterThanRecordedLengthRejected() {
+		byte[] envelope = HarvestRecordEnvelope.encode(record(null, body(20000)));
+		int lengthStart = HarvestRecordEnvelope.encode(record(null, null)).length;
+		ByteBuffer.wrap(envelope).putInt(lengthStart, 20001);
+		HarvestRecordEnvelope.decode(envelope);
+	}
+
+	private static HarvestRecord record(HarvestInfo harvestInfo, byte[] body) {
+		RecordInfo recordInfo = new RecordInfo();
+		recordInfo.setId(ID);
+		recordInfo.setSrc(SRC);
+		recordInfo.setDate(new Date(1000));
+		recordInfo.setContentType(CONTENT_TYPE);
+		recordInfo.setHarvestInfo(harvestInfo);
+		HarvestRecord record = new HarvestRecord();
+		record.setRecordInfo(recordInfo);
+		record.setBody(body);
+		return record;
+	}
+
+	private static HarvestInfo harvestInfo(URI id, URI src) {
+		HarvestInfo harvestInfo = new HarvestInfo();
+		harvestInfo.setId(id);
+		harvestInfo.setSrc(src);
+		harvestInfo.setDate(new Date(500));
+		return harvestInfo;
+	}
+
+	private static byte[] body(int length) {
+		StringBuilder body = new StringBuilder();
+		while (body.length() < length) {
+			body.append("{\"id\":\"abc12\",\"type\":\"nodes\",\"attributes\":{\"title\":\"Project ").append(body.length()).append("\"}}");
+		}
+		return body.substring(0, length).getBytes(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.model.HarvestInfo;
+import info.rmapproject.loader.model.RecordInfo;
+
+public class HarvestRecordCodecTest {
+
+	@Test
+	public void testRecordsRoundTrip() throws Exception {
+		HarvestRecord full = record("osf:abc12", true, "{\"id\":\"abc12\"}".getBytes(StandardCharsets.UTF_8));
+		HarvestRecord empty = new HarvestRecord();
+		empty.setRecordInfo(new RecordInfo());
+		HarvestRecord emptyBody = record("osf:def34", false, new byte[0]);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			HarvestRecordCodec.write(full, out);
+			HarvestRecordCodec.write(empty, out);
+			HarvestRecordCodec.write(emptyBody, out);
+		}
+
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			HarvestRecord decoded = HarvestRecordCodec.read(in);
+			RecordInfo recordInfo = decoded.getRecordInfo();
+			assertEquals(URI.create("osf:abc12"), recordInfo.getId());
+			assertEquals(URI.create("https://api.osf.io/v2/nodes/abc12/"), recordInfo.getSrc());
+			assertEquals(new Date(1000), recordInfo.getDate());
+			assertEquals("application/vnd.api+json", recordInfo.getContentType());
+			assertEquals(URI.create("osf:harvest1"), recordInfo.getHarvestInfo().getId());
+			assertEquals(URI.create("https://api.osf.io/v2/nodes/"), recordInfo.getHarvestInfo().getSrc());
+			assertEquals(new Date(500), recordInfo.getHarvestInfo().getDate());
+			assertArrayEquals(full.getBody(), decoded.getBody());
+
+			decoded = HarvestRecordCodec.read(in);
+			assertNull(decoded.getRecordInfo().getId());
+			assertNull(decoded.getRecordInfo().getSrc());
+			assertNull(decoded.getRecordInfo().getDate());
+			assertNull(decoded.getRecordInfo().getContentType());
+			assertNull(decoded.getRecordInfo().getHarvestInfo());
+			assertNull(decoded.getBody());
+
+			decoded = HarvestRecordCodec.read(in);
+			assertEquals(URI.create("osf:def34"), decoded.getRecordInfo().getId());
+			assertNull(decoded.getRecordInfo().getHarvestInfo());
+			assertArrayEquals(new byte[0], decoded.getBody());
+		}
+	}
+
+	@Test
+	public void testRecordInfoRoundTrip() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			HarvestRecordCodec.writeRecordInfo(record("osf:abc12", true, null).getRecordInfo(), out);
+			out.writeUTF("rmap:disco1");
+		}
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			RecordInfo recordInfo = HarvestRecordCodec.readRecordInfo(in);
+			assertEquals(URI.create("osf:abc12"), recordInfo.getId());
+			assertEquals(new Date(500), recordInfo.getHarvestInfo().getDate());
+			assertEquals("rmap:disco1", in.readUTF());
+		}
+	}
+
+	@Test
+	public void testTruncatedRecordRejected() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			HarvestRecordCodec.write(record("osf:abc12", true, "{\"id\":\"abc12\"}".getBytes(StandardCharsets.UTF_8)), out);
+		}
+		byte[] encoded = bytes.toByteArray();
+		for (int length = 0; length < encoded.length; length++) {
+			try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Arrays.copyOf(encoded, length)))) {
+				HarvestRecordCodec.read(in);
+				fail("Record cut to " + length + " of " + encoded.length + " bytes should not be read");
+			} catch (EOFException e) {
+				//expected
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testCorruptStringRejected() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			HarvestRecordCodec.write(record("osf:abc12", false, null), out);
+		}
+		byte[] encoded = bytes.toByteArray();
+		//a continuation byte where the first character of the ID should start
+		encoded[3] = (byte) 0x80;
+		HarvestRecordCodec.read(new DataInputStream(new ByteArrayInputStream(encoded)));
+	}
+
+	private static HarvestRecord record(String id, boolean withHarvestInfo, byte[] body) {
+		RecordInfo recordInfo = new RecordInfo();
+		recordInfo.setId(URI.create(id));
+		recordInfo.setSrc(URI.create("https://api.osf.io/v2/nodes/" + id.substring(4) + "/"));
+		recordInfo.setDate(new Date(1000));
+		recordInfo.setContentType("application/vnd.api+json");
+		if (withHarvestInfo) {
+			HarvestInfo harvestInfo = new HarvestInfo();
+			harvestInfo.setId(URI.create("osf:harvest1"));
+			harvestInfo.setSrc(URI.create("https://api.osf.io/v2/nodes/"));
+			harvestInfo.setDate(new Date(500));
+			recordInfo.setHarvestInfo(harvestInfo);
+		}
+		HarvestRecord record = new HarvestRecord();
+		record.setRecordInfo(recordInfo);
+		record.setBody(body);
+		return record;
+	}
+
+}
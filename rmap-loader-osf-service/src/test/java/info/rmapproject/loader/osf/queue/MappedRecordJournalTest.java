@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URI;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.model.RecordInfo;
+
+public class MappedRecordJournalTest {
+
+	private static final int JOURNAL_SIZE = 4096;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MappedRecordJournal journal;
+
+	@Before
+	public void setUp() throws Exception {
+		journal = new MappedRecordJournal(new File(folder.getRoot(), "test.journal"), JOURNAL_SIZE);
+	}
+
+	@After
+	public void tearDown() {
+		journal.close();
+	}
+
+	@Test
+	public void testRecordsReadInOrder() {
+		for (int i = 0; i < 10; i++) {
+			assertTrue(journal.append(item(i, 100)));
+		}
+		assertEquals(10, journal.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(id(i), journal.poll().record.getRecordInfo().getId());
+		}
+		assertTrue(journal.isEmpty());
+		assertNull(journal.poll());
+	}
+
+	@Test
+	public void testSpaceReusedWhileNeverEmpty() {
+		//keep a backlog of records in the journal while writing many times its size through it
+		int written = 0;
+		int read = 0;
+		for (; written < 5; written++) {
+			assertTrue(journal.append(item(written, 300)));
+		}
+		while (written < 500) {
+			assertTrue("record " + written + " should fit in space freed by reads", journal.append(item(written, 300)));
+			written++;
+			assertEquals(id(read), journal.poll().record.getRecordInfo().getId());
+			read++;
+			assertEquals(5, journal.size());
+		}
+		while (read < written) {
+			assertEquals(id(read), journal.poll().record.getRecordInfo().getId());
+			read++;
+		}
+		assertTrue(journal.isEmpty());
+	}
+
+	@Test
+	public void testFullJournalRejectsRecord() {
+		int added = 0;
+		while (journal.append(item(added, 300))) {
+			added++;
+		}
+		assertTrue(added > 0);
+		assertEquals(added, journal.size());
+		//freeing the first record at the start of the file makes room for one more once the writer wraps
+		assertEquals(id(0), journal.poll().record.getRecordInfo().getId());
+		assertTrue(journal.append(item(added, 300)));
+		assertFalse(journal.append(item(added + 1, 300)));
+		for (int i = 1; i <= added; i++) {
+			assertEquals(id(i), journal.poll().record.getRecordInfo().getId());
+		}
+		assertTrue(journal.isEmpty());
+	}
+
+	@Test
+	public void testRecordLargerThanJournalRejected() {
+		assertFalse(journal.append(item(0, JOURNAL_SIZE)));
+		assertTrue(journal.isEmpty());
+	}
+
+	private static URI id(int i) {
+		//fixed width so that every record takes the same space in the journal
+		return URI.create(String.format("osf:record%04d", i));
+	}
+
+	private static QueuedRecord item(int i, int bodySize) {
+		RecordInfo recordInfo = new RecordInfo();
+		recordInfo.setId(id(i));
+		HarvestRecord record = new HarvestRecord();
+		record.setRecordInfo(recordInfo);
+		record.setBody(new byte[bodySize]);
+		return new QueuedRecord(record, 0, null);
+	}
+
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PayloadCodecTest {
+
+	/** Length of the magic, codec ID and original length at the start of an encoded payload */
+	private static final int HEADER_LENGTH = 9;
+
+	@Test
+	public void testPayloadRoundTrip() {
+		byte[] payload = payload(20000);
+		for (PayloadCodec codec : PayloadCodec.values()) {
+			byte[] encoded = PayloadCodec.encode(payload, codec);
+			assertTrue(PayloadCodec.isEncoded(encoded));
+			assertTrue(encoded.length < payload.length / 2);
+			assertArrayEquals(payload, PayloadCodec.decode(encoded));
+		}
+	}
+
+	@Test
+	public void testPayloadLeftUnchanged() {
+		byte[] payload = payload(20000);
+		assertSame(payload, PayloadCodec.encode(payload, null));
+
+		byte[] small = payload(100);
+		assertSame(small, PayloadCodec.encode(small, PayloadCodec.DEFLATE));
+		assertFalse(PayloadCodec.shouldCompress(small));
+
+		byte[] random = new byte[20000];
+		new Random(42).nextBytes(random);
+		assertSame(random, PayloadCodec.encode(random, PayloadCodec.GZIP));
+
+		//already encoded payloads are not compressed again, and unencoded ones decode to themselves
+		byte[] encoded = PayloadCodec.encode(payload, PayloadCodec.DEFLATE);
+		assertFalse(PayloadCodec.shouldCompress(encoded));
+		assertSame(encoded, PayloadCodec.encode(encoded, PayloadCodec.GZIP));
+		assertSame(payload, PayloadCodec.decode(payload));
+		assertSame(small, PayloadCodec.decode(small));
+	}
+
+	@Test
+	public void testCompressWithoutHeader() throws Exception {
+		byte[] data = payload(5000);
+		for (PayloadCodec codec : PayloadCodec.values()) {
+			byte[] compressed = codec.compress(data);
+			assertFalse(PayloadCodec.isEncoded(compressed));
+			byte[] padded = new byte[compressed.length + 10];
+			System.arraycopy(compressed, 0, padded, 5, compressed.length);
+			assertArrayEquals(data, codec.decompress(padded, 5, compressed.length, data.length));
+		}
+		assertArrayEquals(new byte[0], PayloadCodec.DEFLATE.decompress(PayloadCodec.DEFLATE.compress(new byte[0]), 0, 
+				PayloadCodec.DEFLATE.compress(new byte[0]).length, 0));
+	}
+
+	@Test
+	public void testTruncatedPayloadRejected() {
+		for (PayloadCodec codec : PayloadCodec.values()) {
+			byte[] encoded = PayloadCodec.encode(payload(5000), codec);
+			for (int length = HEADER_LENGTH; length < encoded.length; length++) {
+				try {
+					PayloadCodec.decode(Arrays.copyOf(encoded, length));
+					fail(codec + " payload cut to " + length + " of " + encoded.length + " bytes should not decode");
+				} catch (RuntimeException e) {
+					//expected
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCorruptPayloadRejected() {
+		for (PayloadCodec codec : PayloadCodec.values()) {
+			byte[] encoded = PayloadCodec.encode(payload(5000), codec);
+			Arrays.fill(encoded, HEADER_LENGTH, encoded.length, (byte) 0);
+			try {
+				PayloadCodec.decode(encoded);
+				fail("Corrupt " + codec + " payload should not decode");
+			} catch (RuntimeException e) {
+				//expected
+			}
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testUnknownCodecRejected() {
+		byte[] encoded = PayloadCodec.encode(payload(5000), PayloadCodec.DEFLATE);
+		encoded[4] = 99;
+		PayloadCodec.decode(encoded);
+	}
+
+	@Test(expected = IOException.class)
+	public void testDataShorterThanLengthRejected() throws Exception {
+		byte[] data = payload(5000);
+		byte[] compressed = PayloadCodec.DEFLATE.compress(data);
+		PayloadCodec.DEFLATE.decompress(compressed, 0, compressed.length, data.length + 1);
+	}
+
+	@Test(expected = IOException.class)
+	public void testDataLongerThanLengthRejected() throws Exception {
+		byte[] data = payload(5000);
+		byte[] compressed = PayloadCodec.GZIP.compress(data);
+		PayloadCodec.GZIP.decompress(compressed, 0, compressed.length, data.length - 1);
+	}
+
+	private static byte[] payload(int length) {
+		StringBuilder payload = new StringBuilder();
+		while (payload.length() < length) {
+			payload.append("<rmap:DiSCO rdf:about=\"rmap:disco").append(payload.length()).append("\"/>\n");
+		}
+		return payload.substring(0, length).getBytes(StandardCharsets.UTF_8);
+	}
+
+}
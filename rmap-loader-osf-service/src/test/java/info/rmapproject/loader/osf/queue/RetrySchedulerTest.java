@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.model.RecordInfo;
+
+public class RetrySchedulerTest {
+
+	@Rule
+	public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+	private RecordingQueue queue;
+
+	@Before
+	public void setUp() {
+		System.setProperty("osf.metrics.jmx", "false");
+		System.setProperty("osf.retry.initialDelaySeconds", "10");
+		System.setProperty("osf.retry.multiplier", "4");
+		System.setProperty("osf.retry.maxDelaySeconds", "100");
+		System.setProperty("osf.retry.maxAttempts", "3");
+		queue = new RecordingQueue();
+	}
+
+	@Test
+	public void testDelayGrowsByMultiplierUpToMaximum() {
+		System.setProperty("osf.retry.jitter", "0");
+		RetryScheduler scheduler = new RetryScheduler(queue);
+		assertEquals(10000, scheduler.getDelay(1));
+		assertEquals(40000, scheduler.getDelay(2));
+		assertEquals(100000, scheduler.getDelay(3));
+		assertEquals(100000, scheduler.getDelay(10));
+	}
+
+	@Test
+	public void testJitterStaysWithinRange() {
+		System.setProperty("osf.retry.jitter", "0.2");
+		RetryScheduler scheduler = new RetryScheduler(queue);
+		Set<Long> delays = new HashSet<Long>();
+		for (int i = 0; i < 200; i++) {
+			long delay = scheduler.getDelay(2);
+			assertTrue("delay out of range: " + delay, delay >= 32000 && delay <= 48000);
+			delays.add(delay);
+		}
+		assertTrue(delays.size() > 1);
+	}
+
+	@Test
+	public void testRetriedUntilMaxAttemptsThenFailed() {
+		System.setProperty("osf.retry.jitter", "0");
+		RetryScheduler scheduler = new RetryScheduler(queue);
+		HarvestRecord record = record("osf:abc12");
+
+		for (int attempt = 0; attempt < 3; attempt++) {
+			queue.deliveryAttempt = attempt;
+			assertTrue(scheduler.retryOrFail(record, "transform.nodes", "transform.nodes.fail"));
+		}
+		assertEquals(3, queue.added.size());
+		assertEquals("transform.nodes@10000#1", queue.added.get(0));
+		assertEquals("transform.nodes@40000#2", queue.added.get(1));
+		assertEquals("transform.nodes@100000#3", queue.added.get(2));
+
+		queue.deliveryAttempt = 3;
+		assertFalse(scheduler.retryOrFail(record, "transform.nodes", "transform.nodes.fail"));
+		assertEquals("transform.nodes.fail", queue.added.get(3));
+	}
+
+	@Test
+	public void testShortDefaultsWhenRetriesHeldInProcess() {
+		System.clearProperty("osf.retry.initialDelaySeconds");
+		System.clearProperty("osf.retry.maxDelaySeconds");
+		System.setProperty("osf.retry.jitter", "0");
+		assertEquals(300000, new RetryScheduler(queue).getDelay(1));
+		queue.holdsRetriesInProcess = true;
+		assertEquals(5000, new RetryScheduler(queue).getDelay(1));
+	}
+
+	@Test
+	public void testInProcessRetryLaterThanMaximumFailed() {
+		System.setProperty("osf.retry.jitter", "0");
+		System.setProperty("osf.retry.inProcessMaxDelaySeconds", "30");
+		queue.holdsRetriesInProcess = true;
+		RetryScheduler scheduler = new RetryScheduler(queue);
+		HarvestRecord record = record("osf:abc12");
+
+		queue.deliveryAttempt = 0;
+		assertTrue(scheduler.retryOrFail(record, "transform.nodes", "transform.nodes.fail"));
+		queue.deliveryAttempt = 1;
+		assertFalse(scheduler.retryOrFail(record, "transform.nodes", "transform.nodes.fail"));
+		assertEquals(2, queue.added.size());
+		assertEquals("transform.nodes@10000#1", queue.added.get(0));
+		assertEquals("transform.nodes.fail", queue.added.get(1));
+	}
+
+	static HarvestRecord record(String id) {
+		RecordInfo recordInfo = new RecordInfo();
+		recordInfo.setId(URI.create(id));
+		HarvestRecord record = new HarvestRecord();
+		record.setRecordInfo(recordInfo);
+		record.setBody(id.getBytes());
+		return record;
+	}
+
+	/**
+	 * Queue that lists where each record was added, as queue, queue@delay#attempt for delayed records
+	 */
+	static class RecordingQueue implements StageQueue {
+
+		final List<String> added = new ArrayList<String>();
+
+		int deliveryAttempt = 0;
+
+		boolean holdsRetriesInProcess = false;
+
+		@Override
+		public void add(HarvestRecord record, String queue) {
+			added.add(queue);
+		}
+
+		@Override
+		public void addDelayed(HarvestRecord record, String queue, long delayMillis, int attempt) {
+			added.add(queue + "@" + delayMillis + "#" + attempt);
+		}
+
+		@Override
+		public int getDeliveryAttempt() {
+			return deliveryAttempt;
+		}
+
+		@Override
+		public boolean holdsRetriesInProcess() {
+			return holdsRetriesInProcess;
+		}
+
+		@Override
+		public void processMessages(String queue, Consumer<HarvestRecord> consumer, BooleanSupplier upstreamComplete) {
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+}
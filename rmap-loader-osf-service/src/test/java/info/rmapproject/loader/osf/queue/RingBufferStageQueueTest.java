@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+import org.junit.rules.TemporaryFolder;
+
+import info.rmapproject.loader.HarvestRecord;
+import info.rmapproject.loader.model.RecordInfo;
+
+public class RingBufferStageQueueTest {
+
+	private static final String QUEUE = "rmap.osf.transform.nodes";
+
+	@Rule
+	public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setUp() {
+		System.setProperty("osf.metrics.jmx", "false");
+		System.setProperty("osf.queue.memory.capacity", "2");
+	}
+
+	@After
+	public void tearDown() {
+		RingBufferStageQueue.shutdown();
+		RingBufferStageQueue.setSequential(false);
+	}
+
+	@Test
+	public void testRecordsPassedBetweenInstancesInOrder() {
+		RingBufferStageQueue producer = new RingBufferStageQueue();
+		producer.add(record("osf:a"), QUEUE);
+		producer.add(record("osf:b"), QUEUE);
+		assertEquals(2, producer.size(QUEUE));
+
+		assertEquals(ids("osf:a", "osf:b"), consume(new RingBufferStageQueue()));
+		assertEquals(0, producer.size(QUEUE));
+	}
+
+	@Test
+	public void testFullQueueFailsProducerAfterTimeout() {
+		System.setProperty("osf.queue.memory.putTimeoutSeconds", "0");
+		RingBufferStageQueue queue = new RingBufferStageQueue();
+		queue.add(record("osf:a"), QUEUE);
+		queue.add(record("osf:b"), QUEUE);
+		try {
+			queue.add(record("osf:c"), QUEUE);
+			fail("Expected full queue to fail");
+		} catch (IllegalStateException e) {
+			//expected
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testBlockedProducerResumesWhenRecordsConsumed() throws Exception {
+		RingBufferStageQueue queue = new RingBufferStageQueue();
+		AtomicBoolean produced = new AtomicBoolean(false);
+		CountDownLatch started = new CountDownLatch(1);
+		Thread producer = new Thread(() -> {
+			started.countDown();
+			for (int i = 0; i < 5; i++) {
+				queue.add(record("osf:" + i), QUEUE);
+			}
+			produced.set(true);
+		});
+		producer.start();
+		started.await();
+
+		List<String> received = new ArrayList<String>();
+		new RingBufferStageQueue().processMessages(QUEUE, record -> received.add(record.getRecordInfo().getId().toString()), 
+				produced::get);
+		producer.join();
+		assertEquals(ids("osf:0", "osf:1", "osf:2", "osf:3", "osf:4"), received);
+	}
+
+	@Test
+	public void testRecordsSpillToJournalWhenFull() {
+		File spillDir = new File(folder.getRoot(), "spill");
+		System.setProperty("osf.queue.memory.spillDir", spillDir.getAbsolutePath());
+		System.setProperty("osf.queue.memory.spillSizeMb", "1");
+		System.setProperty("osf.queue.memory.putTimeoutSeconds", "0");
+		RingBufferStageQueue queue = new RingBufferStageQueue();
+		for (int i = 0; i < 5; i++) {
+			queue.add(record("osf:" + i), QUEUE);
+		}
+		assertEquals(5, queue.size(QUEUE));
+		assertTrue(new File(spillDir, QUEUE + ".journal").exists());
+
+		assertEquals(ids("osf:0", "osf:1", "osf:2", "osf:3", "osf:4"), consume(queue));
+	}
+
+	@Test
+	public void testSequentialRunSpillsWithoutSpillDir() {
+		System.setProperty("osf.queue.memory.spillSizeMb", "1");
+		System.setProperty("osf.queue.memory.putTimeoutSeconds", "0");
+		RingBufferStageQueue.setSequential(true);
+		RingBufferStageQueue queue = new RingBufferStageQueue();
+		for (int i = 0; i < 5; i++) {
+			queue.add(record("osf:" + i), QUEUE);
+		}
+		assertEquals(ids("osf:0", "osf:1", "osf:2", "osf:3", "osf:4"), consume(queue));
+	}
+
+	@Test(timeout = 10000)
+	public void testStageWaitsForDelayedRetry() {
+		RingBufferStageQueue queue = new RingBufferStageQueue();
+		assertTrue(queue.holdsRetriesInProcess());
+		queue.add(record("osf:a"), QUEUE);
+		queue.addDelayed(record("osf:b"), QUEUE, 300, 2);
+
+		List<String> received = new ArrayList<String>();
+		long start = System.nanoTime();
+		queue.processMessages(QUEUE, record -> received.add(record.getRecordInfo().getId() + "#" + queue.getDeliveryAttempt()));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+		assertEquals(ids("osf:a#0", "osf:b#2"), received);
+		assertEquals(0, queue.getDeliveryAttempt());
+	}
+
+	private static List<String> consume(RingBufferStageQueue queue) {
+		List<String> received = new ArrayList<String>();
+		queue.processMessages(QUEUE, record -> received.add(record.getRecordInfo().getId().toString()));
+		return received;
+	}
+
+	private static List<String> ids(String... ids) {
+		List<String> list = new ArrayList<String>();
+		for (String id : ids) {
+			list.add(id);
+		}
+		return list;
+	}
+
+	private static HarvestRecord record(String id) {
+		RecordInfo recordInfo = new RecordInfo();
+		recordInfo.setId(URI.create(id));
+		HarvestRecord record = new HarvestRecord();
+		record.setRecordInfo(recordInfo);
+		record.setBody(id.getBytes());
+		return record;
+	}
+
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.queue;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+
+public class StageQueueFactoryTest {
+
+	@Rule
+	public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+	@After
+	public void tearDown() {
+		RingBufferStageQueue.setSequential(false);
+	}
+
+	@Test
+	public void testMemoryBackendRejectedForSingleStage() {
+		System.setProperty("osf.queue.backend", StageQueueFactory.BACKEND_MEMORY);
+		for (String process : new String[] {"identify", "transform", "ingest", "requeuefails"}) {
+			try {
+				StageQueueFactory.configure(process, false);
+				fail("Expected memory backend to be rejected for " + process);
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage().contains(process));
+			}
+		}
+	}
+
+	@Test
+	public void testMemoryBackendAllowedForAllStages() {
+		System.setProperty("osf.queue.backend", StageQueueFactory.BACKEND_MEMORY);
+		StageQueueFactory.configure("all", false);
+		StageQueueFactory.configure("all", true);
+		assertTrue(StageQueueFactory.createQueue() instanceof RingBufferStageQueue);
+	}
+
+	@Test
+	public void testJmsBackendAllowedForSingleStage() {
+		System.clearProperty("osf.queue.backend");
+		StageQueueFactory.configure("identify", false);
+	}
+
+}
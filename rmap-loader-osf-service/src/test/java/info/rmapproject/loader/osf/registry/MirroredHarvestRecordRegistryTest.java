@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.rmapproject.loader.HarvestRecordStatus;
+import info.rmapproject.loader.HarvestRegistry;
+import info.rmapproject.loader.model.HarvestInfo;
+import info.rmapproject.loader.model.RecordInfo;
+
+public class MirroredHarvestRecordRegistryTest {
+
+	private static final String DATABASE = "jdbc:mysql://localhost/rmap_loader";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File journalFile;
+
+	@Before
+	public void setUp() {
+		journalFile = new File(folder.getRoot(), "registry-mirror.journal");
+	}
+
+	@Test
+	public void testUnflushedRegistrationsWrittenAtNextStart() throws Exception {
+		FakeRegistry down = new FakeRegistry(false);
+		MirroredHarvestRecordRegistry registry = new MirroredHarvestRecordRegistry(down, journalFile, DATABASE);
+		registry.register(recordInfo("osf:abc12", 1000), URI.create("rmap:disco1"));
+		registry.register(recordInfo("osf:def34", 2000), URI.create("rmap:disco2"));
+		assertTrue(registry.getStatus(recordInfo("osf:abc12", 1000)).isUpToDate());
+
+		//next start, with the database back
+		FakeRegistry database = new FakeRegistry(true);
+		registry = new MirroredHarvestRecordRegistry(database, journalFile, DATABASE);
+		database.awaitRegistered(2);
+		registry.flush();
+		RecordInfo replayed = database.registered.get(0);
+		assertEquals(URI.create("osf:abc12"), replayed.getId());
+		assertEquals(new Date(1000), replayed.getDate());
+		assertEquals(URI.create("https://api.osf.io/v2/nodes/abc12/"), replayed.getSrc());
+		assertEquals("application/vnd.api+json", replayed.getContentType());
+		assertEquals(URI.create("osf:harvest1"), replayed.getHarvestInfo().getId());
+		assertEquals(new Date(500), replayed.getHarvestInfo().getDate());
+		assertEquals(URI.create("rmap:disco1"), database.latest.get(0));
+		assertEquals(URI.create("rmap:disco2"), database.latest.get(1));
+
+		//the flush is recorded, so they are not written again
+		FakeRegistry restarted = new FakeRegistry(true);
+		registry = new MirroredHarvestRecordRegistry(restarted, journalFile, DATABASE);
+		registry.flush();
+		assertTrue(restarted.registered.isEmpty());
+		HarvestRecordStatus status = registry.getStatus(recordInfo("osf:def34", 2000));
+		assertTrue(status.isUpToDate());
+		assertEquals(URI.create("rmap:disco2"), status.latest());
+		assertFalse(registry.getStatus(recordInfo("osf:def34", 3000)).isUpToDate());
+		assertEquals(0, restarted.lookups);
+	}
+
+	@Test
+	public void testPartialEntryAtEndDropped() throws Exception {
+		FakeRegistry down = new FakeRegistry(false);
+		MirroredHarvestRecordRegistry registry = new MirroredHarvestRecordRegistry(down, journalFile, DATABASE);
+		registry.register(recordInfo("osf:abc12", 1000), URI.create("rmap:disco1"));
+		registry.register(recordInfo("osf:def34", 2000), URI.create("rmap:disco2"));
+		//stopped part way through writing the second registration
+		try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+			file.setLength(file.length() - 5);
+		}
+
+		FakeRegistry database = new FakeRegistry(true);
+		registry = new MirroredHarvestRecordRegistry(database, journalFile, DATABASE);
+		database.awaitRegistered(1);
+		registry.flush();
+		assertEquals(1, database.registered.size());
+		assertEquals(URI.create("osf:abc12"), database.registered.get(0).getId());
+		assertFalse(registry.getStatus(recordInfo("osf:def34", 2000)).recordExists());
+
+		//the partial entry was cut off, so registrations after it are read at the next start
+		registry.register(recordInfo("osf:ghi56", 3000), URI.create("rmap:disco3"));
+		FakeRegistry restarted = new FakeRegistry(false);
+		registry = new MirroredHarvestRecordRegistry(restarted, journalFile, DATABASE);
+		assertEquals(URI.create("rmap:disco3"), registry.getStatus(recordInfo("osf:ghi56", 3000)).latest());
+		assertEquals(URI.create("rmap:disco1"), registry.getStatus(recordInfo("osf:abc12", 1000)).latest());
+	}
+
+	@Test
+	public void testCompactionAtStart() throws Exception {
+		//nothing reaches the database, so the journal is only compacted when the loader starts again
+		FakeRegistry down = new FakeRegistry(false);
+		MirroredHarvestRecordRegistry registry = new MirroredHarvestRecordRegistry(down, journalFile, DATABASE);
+		for (int i = 0; i <= 12000; i++) {
+			registry.register(recordInfo("osf:abc12", i), URI.create("rmap:disco" + i));
+		}
+		registry.register(recordInfo("osf:def34", 1000), URI.create("rmap:disco-def34"));
+		long uncompacted = journalFile.length();
+
+		registry = new MirroredHarvestRecordRegistry(new FakeRegistry(false), journalFile, DATABASE);
+		assertTrue(journalFile.length() < uncompacted / 100);
+		HarvestRecordStatus status = registry.getStatus(recordInfo("osf:abc12", 12000));
+		assertTrue(status.isUpToDate());
+		assertEquals(URI.create("rmap:disco12000"), status.latest());
+
+		//the registrations that were not written to the database are kept, latest first written first
+		FakeRegistry restarted = new FakeRegistry(true);
+		registry = new MirroredHarvestRecordRegistry(restarted, journalFile, DATABASE);
+		restarted.awaitRegistered(2);
+		registry.flush();
+		assertEquals(2, restarted.registered.size());
+		assertEquals(URI.create("osf:abc12"), restarted.registered.get(0).getId());
+		assertEquals(URI.create("rmap:disco12000"), restarted.latest.get(0));
+		assertEquals(URI.create("osf:def34"), restarted.registered.get(1).getId());
+		assertEquals(URI.create("rmap:disco-def34"), restarted.latest.get(1));
+	}
+
+	@Test
+	public void testCompactionAfterFlush() throws Exception {
+		FakeRegistry database = new FakeRegistry(true);
+		MirroredHarvestRecordRegistry registry = new MirroredHarvestRecordRegistry(database, journalFile, DATABASE);
+		registry.register(recordInfo("osf:abc12", 0), URI.create("rmap:disco0"));
+		registry.flush();
+		long singleEntry = journalFile.length();
+		for (int i = 1; i <= 12000; i++) {
+			registry.register(recordInfo("osf:abc12", i), URI.create("rmap:disco" + i));
+		}
+		registry.flush();
+		//compacted while running, without waiting for the next start
+		assertTrue(journalFile.length() < singleEntry * 100);
+
+		database.available = false;
+		registry.register(recordInfo("osf:def34", 1000), URI.create("rmap:disco-def34"));
+
+		FakeRegistry restarted = new FakeRegistry(true);
+		registry = new MirroredHarvestRecordRegistry(restarted, journalFile, DATABASE);
+		restarted.awaitRegistered(1);
+		registry.flush();
+		assertEquals(1, restarted.registered.size());
+		assertEquals(URI.create("osf:def34"), restarted.registered.get(0).getId());
+		assertEquals(URI.create("rmap:disco-def34"), restarted.latest.get(0));
+		assertEquals(URI.create("rmap:disco12000"), registry.getStatus(recordInfo("osf:abc12", 12000)).latest());
+		assertEquals(0, restarted.lookups);
+	}
+
+	@Test
+	public void testJournalForOtherDatabase() throws Exception {
+		FakeRegistry down = new FakeRegistry(false);
+		MirroredHarvestRecordRegistry registry = new MirroredHarvestRecordRegistry(down, journalFile, DATABASE);
+		registry.register(recordInfo("osf:abc12", 1000), URI.create("rmap:disco1"));
+
+		//waiting registrations must not be written to another database
+		try {
+			new MirroredHarvestRecordRegistry(new FakeRegistry(true), journalFile, "jdbc:mysql://otherhost/rmap_loader");
+			fail("Journal with waiting registrations should not be used for another database");
+		} catch (RuntimeException e) {
+			//expected
+		}
+
+		FakeRegistry database = new FakeRegistry(true);
+		registry = new MirroredHarvestRecordRegistry(database, journalFile, DATABASE + "?user=loader");
+		database.awaitRegistered(1);
+		registry.flush();
+
+		//with nothing waiting, the journal is started again for the other database
+		FakeRegistry other = new FakeRegistry(true);
+		registry = new MirroredHarvestRecordRegistry(other, journalFile, "jdbc:mysql://otherhost/rmap_loader");
+		assertFalse(registry.getStatus(recordInfo("osf:abc12", 1000)).recordExists());
+		assertEquals(1, other.lookups);
+	}
+
+	private static RecordInfo recordInfo(String id, long date) {
+		HarvestInfo harvestInfo = new HarvestInfo();
+		harvestInfo.setId(URI.create("osf:harvest1"));
+		harvestInfo.setSrc(URI.create("https://api.osf.io/v2/nodes/"));
+		harvestInfo.setDate(new Date(500));
+
+		RecordInfo info = new RecordInfo();
+		info.setId(URI.create(id));
+		info.setSrc(URI.create("https://api.osf.io/v2/nodes/" + id.substring(4) + "/"));
+		info.setDate(new Date(date));
+		info.setContentType("application/vnd.api+json");
+		info.setHarvestInfo(harvestInfo);
+		return info;
+	}
+
+	/**
+	 * Database registry that records what is written to it, and fails while it is not available
+	 */
+	private static final class FakeRegistry implements HarvestRegistry {
+
+		private final List<RecordInfo> registered = new ArrayList<RecordInfo>();
+
+		private final List<URI> latest = new ArrayList<URI>();
+
+		private volatile boolean available;
+
+		private volatile int lookups = 0;
+
+		private FakeRegistry(boolean available) {
+			this.available = available;
+		}
+
+		@Override
+		public HarvestRecordStatus getStatus(RecordInfo info) {
+			lookups++;
+			return new HarvestRecordStatus() {
+				@Override
+				public boolean recordExists() {
+					return false;
+				}
+
+				@Override
+				public boolean isUpToDate() {
+					return false;
+				}
+
+				@Override
+				public URI latest() {
+					return null;
+				}
+			};
+		}
+
+		@Override
+		public synchronized void register(RecordInfo info, URI uri) {
+			if (!available) {
+				throw new RuntimeException("Database not available");
+			}
+			registered.add(info);
+			latest.add(uri);
+		}
+
+		private void awaitRegistered(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 10000;
+			while (registeredCount() < count && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(count, registeredCount());
+		}
+
+		private synchronized int registeredCount() {
+			return registered.size();
+		}
+
+	}
+
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+import org.junit.rules.TemporaryFolder;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+public class DataSourceProviderTest {
+
+	@Rule
+	public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void tearDown() {
+		DataSourceProvider.shutdown();
+	}
+
+	@Test
+	public void testInMemorySqliteUrls() {
+		assertTrue(DataSourceProvider.isInMemorySqlite("jdbc:sqlite:"));
+		assertTrue(DataSourceProvider.isInMemorySqlite("jdbc:sqlite::memory:"));
+		assertTrue(DataSourceProvider.isInMemorySqlite("jdbc:sqlite:file:registry?mode=memory&cache=shared"));
+		assertFalse(DataSourceProvider.isInMemorySqlite("jdbc:sqlite:/var/lib/loader/registry.db"));
+		assertFalse(DataSourceProvider.isInMemorySqlite("jdbc:mysql://localhost/rmap"));
+	}
+
+	@Test
+	public void testInMemorySqliteConnectionIsNeverReplaced() throws Exception {
+		System.setProperty("jdbc.driver", "org.sqlite.JDBC");
+		System.setProperty("jdbc.url", "jdbc:sqlite:");
+		System.setProperty("jdbc.pool.maxSize", "4");
+		System.setProperty("jdbc.pool.minIdle", "0");
+		System.setProperty("jdbc.pool.maxLifetimeMinutes", "1");
+		HikariDataSource ds = (HikariDataSource) DataSourceProvider.getDataSource();
+		assertEquals(0, ds.getMaxLifetime());
+		assertEquals(1, ds.getMaximumPoolSize());
+		assertEquals(1, ds.getMinimumIdle());
+
+		try (Connection conn = ds.getConnection(); Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE kept (id INTEGER)");
+		}
+		try (Connection conn = ds.getConnection(); Statement stmt = conn.createStatement(); 
+				ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM kept")) {
+			assertTrue(rs.next());
+		}
+	}
+
+	@Test
+	public void testFileSqliteUsesConfiguredLifetime() throws Exception {
+		System.setProperty("jdbc.driver", "org.sqlite.JDBC");
+		System.setProperty("jdbc.url", "jdbc:sqlite:" + folder.newFile("registry.db").getAbsolutePath());
+		System.setProperty("jdbc.pool.maxLifetimeMinutes", "5");
+		HikariDataSource ds = (HikariDataSource) DataSourceProvider.getDataSource();
+		assertEquals(5 * 60000, ds.getMaxLifetime());
+	}
+
+}
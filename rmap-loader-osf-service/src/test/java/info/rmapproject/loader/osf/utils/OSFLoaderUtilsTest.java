@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This software was produced as part of the RMap Project (http://rmap-project.info),
+ * The RMap Project was funded by the Alfred P. Sloan Foundation and is a 
+ * collaboration between Data Conservancy, Portico, and IEEE.
+ *******************************************************************************/
+package info.rmapproject.loader.osf.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+
+public class OSFLoaderUtilsTest {
+
+	@Rule
+	public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+	@Test
+	public void testChangeFeedWindowIsFormattedInUtcToTheSecond() {
+		DateTime lastRun = new DateTime(2024, 3, 5, 23, 59, 58, 750, DateTimeZone.forOffsetHours(-5));
+		assertEquals("2024-03-06T04:59:58", OSFLoaderUtils.convertToOsfDateTimeParam(lastRun));
+	}
+
+	@Test
+	public void testChangeFeedWindowOverlapsPreviousRun() {
+		DateTime lastRun = new DateTime(2024, 1, 1, 0, 1, 0, DateTimeZone.UTC);
+		assertEquals(120, OSFLoaderUtils.getChangeFeedOverlapSeconds());
+		String start = OSFLoaderUtils.convertToOsfDateTimeParam(lastRun.minusSeconds(OSFLoaderUtils.getChangeFeedOverlapSeconds()));
+		assertEquals("2023-12-31T23:59:00", start);
+
+		System.setProperty("osf.identify.changefeed.overlapSeconds", "30");
+		start = OSFLoaderUtils.convertToOsfDateTimeParam(lastRun.minusSeconds(OSFLoaderUtils.getChangeFeedOverlapSeconds()));
+		assertEquals("2024-01-01T00:00:30", start);
+	}
+
+	@Test
+	public void testChangeFeedIsOffByDefault() {
+		assertFalse(OSFLoaderUtils.isChangeFeedEnabled());
+		System.setProperty("osf.identify.changefeed", "true");
+		assertTrue(OSFLoaderUtils.isChangeFeedEnabled());
+	}
+
+	@Test
+	public void testRunWorkersSumsCounts() throws Exception {
+		AtomicInteger started = new AtomicInteger();
+		assertEquals(6, OSFLoaderUtils.runWorkers(3, () -> started.incrementAndGet()).intValue());
+		assertEquals(3, started.get());
+	}
+
+	@Test(timeout = 30000)
+	public void testFailedWorkerStopsOthersBeforeThrowing() throws Exception {
+		int workers = 3;
+		AtomicInteger started = new AtomicInteger();
+		AtomicInteger stopped = new AtomicInteger();
+		CountDownLatch allStarted = new CountDownLatch(workers);
+		IllegalStateException failure = new IllegalStateException("worker failed");
+		try {
+			OSFLoaderUtils.runWorkers(workers, () -> {
+				int worker = started.getAndIncrement();
+				allStarted.countDown();
+				allStarted.await();
+				if (worker == workers - 1) {
+					throw failure;
+				}
+				try {
+					//keeps consuming until interrupted
+					Thread.sleep(Long.MAX_VALUE);
+					return 0;
+				} finally {
+					stopped.incrementAndGet();
+				}
+			});
+			fail("Expected worker failure to be thrown");
+		} catch (ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+		assertEquals(workers - 1, stopped.get());
+	}
+
+}